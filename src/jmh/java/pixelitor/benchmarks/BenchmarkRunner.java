@@ -0,0 +1,61 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the filter benchmark parametrized with all
+ * the registered filters, and writes the results in JSON format, so
+ * that they can be compared between releases.
+ * The arguments are the usual JMH command line options,
+ * which override the defaults set here.
+ */
+public class BenchmarkRunner {
+    private static final String RESULTS_FILE = "target/jmh-results.json";
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        var cmdOptions = new CommandLineOptions(args);
+
+        // the defaults are set only if they are not given on the command
+        // line, because the options of the builder take precedence
+        var builder = new OptionsBuilder();
+        if (cmdOptions.getIncludes().isEmpty()) {
+            builder.include(BenchmarkRunner.class.getPackageName() + ".*");
+        }
+        if (!cmdOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdOptions.getResult().hasValue()) {
+            builder.result(RESULTS_FILE);
+        }
+        if (!cmdOptions.getParameter("filterName").hasValue()) {
+            builder.param("filterName", BenchmarkSupport.getFilterNames());
+        }
+
+        new Runner(builder.parent(cmdOptions).build()).run();
+    }
+}
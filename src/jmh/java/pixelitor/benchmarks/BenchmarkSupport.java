@@ -0,0 +1,134 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import pixelitor.Composition;
+import pixelitor.GUIMode;
+import pixelitor.colors.FgBgColorSelector;
+import pixelitor.colors.FgBgColors;
+import pixelitor.filters.RandomFilter;
+import pixelitor.filters.util.FilterAction;
+import pixelitor.filters.util.Filters;
+import pixelitor.layers.ImageLayer;
+import pixelitor.layers.Layer;
+import pixelitor.layers.TestLayerUI;
+import pixelitor.menus.MenuBar;
+import pixelitor.tools.Tools;
+import pixelitor.utils.Language;
+import pixelitor.utils.Messages;
+import pixelitor.utils.TestMessageHandler;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The shared setup of the benchmarks: the app is initialized
+ * without its main window, like in the unit tests, but without
+ * requiring enabled assertions, which would distort the results.
+ */
+public class BenchmarkSupport {
+    private static boolean initialized = false;
+
+    private BenchmarkSupport() {
+    }
+
+    public static synchronized void init() {
+        if (initialized) {
+            return;
+        }
+        GUIMode.setUnitTestingMode();
+        Language.setCurrent(Language.ENGLISH);
+
+        // the errors are thrown, so that they fail the benchmark
+        Messages.setHandler(new TestMessageHandler());
+        Tools.setCurrentTool(Tools.BRUSH);
+        Layer.uiFactory = TestLayerUI::new;
+
+        var fgBgColorSelector = mock(FgBgColorSelector.class);
+        when(fgBgColorSelector.getFgColor()).thenReturn(Color.BLACK);
+        when(fgBgColorSelector.getBgColor()).thenReturn(Color.WHITE);
+        FgBgColors.setUI(fgBgColorSelector);
+
+        // the filters are registered while their menus are created
+        new MenuBar(null);
+
+        initialized = true;
+    }
+
+    /**
+     * Returns the names of the filters that make sense to benchmark.
+     */
+    public static String[] getFilterNames() {
+        init();
+        return Arrays.stream(Filters.getAllFilters())
+            .map(FilterAction::getName)
+            .filter(name -> !name.equals(RandomFilter.NAME))
+            .toArray(String[]::new);
+    }
+
+    /**
+     * Creates a reproducible image with smooth gradients, edges,
+     * noise and partial transparency, so that neither the filters
+     * nor the compression can take unrealistic shortcuts.
+     */
+    public static BufferedImage createTestImage(int width, int height, long seed) {
+        var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        g.fillRect(0, 0, width, height);
+
+        var random = new Random(seed);
+        for (int i = 0; i < 50; i++) {
+            g.setColor(new Color(random.nextInt(), true));
+            g.fillOval(random.nextInt(width), random.nextInt(height),
+                1 + random.nextInt(width / 4 + 1), 1 + random.nextInt(height / 4 + 1));
+        }
+        g.dispose();
+
+        int[] pixels = new int[width];
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, pixels, 0, width);
+            for (int x = 0; x < width; x++) {
+                pixels[x] ^= random.nextInt(8) * 0x01_01_01;
+            }
+            img.setRGB(0, y, width, 1, pixels, 0, width);
+        }
+        return img;
+    }
+
+    /**
+     * Creates a composition with the given number of image layers.
+     */
+    public static Composition createComp(int width, int height, int numLayers) {
+        Composition comp = Composition.fromImage(
+            createTestImage(width, height, 0), null, "benchmark");
+        for (int i = 1; i < numLayers; i++) {
+            var layer = new ImageLayer(comp, createTestImage(width, height, i), "layer " + (i + 1));
+            comp.addLayerNoUI(layer);
+        }
+        return comp;
+    }
+}
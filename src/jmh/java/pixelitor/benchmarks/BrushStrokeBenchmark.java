@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Composition;
+import pixelitor.layers.ImageLayer;
+import pixelitor.tools.BrushType;
+import pixelitor.tools.brushes.Brush;
+import pixelitor.tools.util.PPoint;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import static java.awt.RenderingHints.KEY_ANTIALIASING;
+import static java.awt.RenderingHints.VALUE_ANTIALIAS_ON;
+
+/**
+ * Measures the replay of a recorded, squiggly brush stroke
+ * across the image with each brush type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrushStrokeBenchmark {
+    private static final int NUM_STROKE_POINTS = 500;
+
+    // all the brush types if not given
+    @Param
+    public BrushType brushType;
+
+    @Param({"2048"})
+    public int size;
+
+    @Param({"20"})
+    public int radius;
+
+    private ImageLayer layer;
+    private Brush brush;
+    private PPoint[] stroke;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.init();
+
+        Composition comp = BenchmarkSupport.createComp(size, size, 1);
+        layer = (ImageLayer) comp.getLayer(0);
+        brush = brushType.createBrush(null, radius);
+
+        stroke = new PPoint[NUM_STROKE_POINTS];
+        for (int i = 0; i < NUM_STROKE_POINTS; i++) {
+            double t = i / (double) (NUM_STROKE_POINTS - 1);
+            double x = size * (0.1 + 0.8 * t);
+            double y = size * (0.5 + 0.3 * Math.sin(t * 6 * Math.PI));
+            stroke[i] = PPoint.lazyFromIm(x, y, null);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage replayStroke() {
+        BufferedImage image = layer.getImage();
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(KEY_ANTIALIASING, VALUE_ANTIALIAS_ON);
+        g.setColor(Color.BLACK);
+
+        brush.setTarget(layer, g);
+        brush.startAt(stroke[0]);
+        for (int i = 1; i < stroke.length; i++) {
+            brush.continueTo(stroke[i]);
+        }
+        brush.finishBrushStroke();
+
+        g.dispose();
+        return image;
+    }
+}
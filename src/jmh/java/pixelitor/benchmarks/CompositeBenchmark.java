@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Canvas;
+import pixelitor.Composition;
+import pixelitor.layers.BlendingMode;
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the calculation of the composite image of two
+ * layers, where the top one has the given blending mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompositeBenchmark {
+    // all the blending modes if not given
+    @Param
+    public BlendingMode blendingMode;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    private List<Layer> layers;
+    private Canvas canvas;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.init();
+
+        Composition comp = BenchmarkSupport.createComp(size, size, 2);
+        Layer top = comp.getLayer(1);
+        top.setOpacity(0.8f, false, false);
+        top.setBlendingMode(blendingMode, false, false);
+
+        layers = List.of(comp.getLayer(0), top);
+        canvas = comp.getCanvas();
+    }
+
+    @Benchmark
+    public BufferedImage calculateComposite() {
+        return ImageUtils.calculateCompositeImage(layers, canvas);
+    }
+}
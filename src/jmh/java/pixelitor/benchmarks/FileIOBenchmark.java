@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.Composition;
+import pixelitor.io.OpenRaster;
+import pixelitor.io.PXCFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the writing and reading of multi-layer
+ * compositions in the layered file formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileIOBenchmark {
+    public enum Format {
+        PXC, ORA
+    }
+
+    // all the formats if not given
+    @Param
+    public Format format;
+
+    @Param({"2048"})
+    public int size;
+
+    @Param({"4"})
+    public int numLayers;
+
+    private Composition comp;
+    private File writtenFile;
+    private File readFile;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.init();
+
+        comp = BenchmarkSupport.createComp(size, size, numLayers);
+        String suffix = "." + format.name().toLowerCase();
+        writtenFile = Files.createTempFile("pixelitor_bench_write", suffix).toFile();
+        readFile = Files.createTempFile("pixelitor_bench_read", suffix).toFile();
+
+        // the file to be read is written only once
+        write(readFile);
+    }
+
+    @TearDown
+    public void tearDown() {
+        writtenFile.delete();
+        readFile.delete();
+    }
+
+    @Benchmark
+    public File writeFile() throws IOException {
+        write(writtenFile);
+        return writtenFile;
+    }
+
+    @Benchmark
+    public Composition readFile() throws Exception {
+        return switch (format) {
+            case PXC -> PXCFormat.read(readFile);
+            case ORA -> OpenRaster.read(readFile);
+        };
+    }
+
+    private void write(File file) throws IOException {
+        switch (format) {
+            case PXC -> PXCFormat.write(comp, file);
+            case ORA -> OpenRaster.write(comp, file);
+        }
+    }
+}
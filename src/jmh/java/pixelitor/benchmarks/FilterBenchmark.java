@@ -0,0 +1,65 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.filters.Filter;
+import pixelitor.filters.util.FilterAction;
+import pixelitor.filters.util.Filters;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the filters with their default settings.
+ * {@link BenchmarkRunner} runs it for every registered filter,
+ * the default filter name is used only when it's run directly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+    @Param({"Gaussian Blur"})
+    public String filterName;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    private Filter filter;
+    private BufferedImage src;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.init();
+
+        FilterAction action = Filters.getFilterActionByName(filterName);
+        if (action == null) {
+            throw new IllegalArgumentException("No filter named '" + filterName + "'");
+        }
+        filter = action.getFilter();
+        src = BenchmarkSupport.createTestImage(size, size, 0);
+    }
+
+    @Benchmark
+    public BufferedImage transform() {
+        return filter.transformImage(src);
+    }
+}
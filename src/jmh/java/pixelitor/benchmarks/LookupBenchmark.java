@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import pixelitor.filters.lookup.FastLookupOp;
+import pixelitor.utils.ImageUtils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.LookupOp;
+import java.awt.image.ShortLookupTable;
+import java.util.concurrent.TimeUnit;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * Compares {@link FastLookupOp} (used by Levels, Curves, Color Balance,
+ * Posterize and their adjustment layers) with a single-threaded loop that
+ * unpremultiplies with float divisions, and with the JDK's {@link LookupOp}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+    @Param({"true", "false"})
+    public boolean premultiplied;
+
+    @Param({"512", "2048"})
+    public int size;
+
+    private BufferedImage src;
+    private BufferedImage dest;
+    private ShortLookupTable lut;
+
+    @Setup
+    public void setup() {
+        BenchmarkSupport.init();
+
+        BufferedImage img = BenchmarkSupport.createTestImage(size, size, 0);
+        src = ImageUtils.copyTo(premultiplied ? TYPE_INT_ARGB_PRE : TYPE_INT_ARGB, img);
+        dest = ImageUtils.createImageWithSameCM(src);
+
+        // an S-curve, as it could come from the Curves filter
+        short[] curve = new short[256];
+        for (int i = 0; i < 256; i++) {
+            double x = i / 255.0;
+            curve[i] = (short) Math.round(255 * x * x * (3 - 2 * x));
+        }
+        lut = new ShortLookupTable(0, new short[][]{curve, curve, curve});
+    }
+
+    @Benchmark
+    public BufferedImage fastLookupOp() {
+        return new FastLookupOp(lut).filter(src, dest);
+    }
+
+    @Benchmark
+    public BufferedImage floatLoop() {
+        int[] srcData = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+        int[] destData = ((DataBufferInt) dest.getRaster().getDataBuffer()).getData();
+        short[][] table = lut.getTable();
+        for (int i = 0; i < srcData.length; i++) {
+            int rgb = srcData[i];
+            int a = (rgb >>> 24) & 0xFF;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            if (a == 255 || !premultiplied) {
+                r = table[0][r];
+                g = table[1][g];
+                b = table[2][b];
+            } else if (a == 0) {
+                r = 0;
+                g = 0;
+                b = 0;
+            } else {
+                float f = 255.0f / a;
+                float f2 = a * (1.0f / 255.0f);
+                r = Math.min((int) (table[0][Math.min((int) (r * f), 255)] * f2), 255);
+                g = Math.min((int) (table[1][Math.min((int) (g * f), 255)] * f2), 255);
+                b = Math.min((int) (table[2][Math.min((int) (b * f), 255)] * f2), 255);
+            }
+            destData[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+        return dest;
+    }
+
+    @Benchmark
+    public BufferedImage jdkLookupOp() {
+        return new LookupOp(lut, null).filter(src, dest);
+    }
+}
@@ -30,9 +30,6 @@ public final class ColorComposite extends RGBComposite {
     }
 
     static class Context extends RGBCompositeContext {
-        private final float[] sHSB = new float[3];
-        private final float[] dHSB = new float[3];
-
         public Context(float alpha, ColorModel srcColorModel, ColorModel dstColorModel) {
             super(alpha, srcColorModel, dstColorModel);
         }
@@ -40,6 +37,9 @@ public final class ColorComposite extends RGBComposite {
         @Override
         public void composeRGB(int[] src, int[] dst, float alpha) {
             int w = src.length;
+            // local, because the rows can be composed in parallel
+            float[] sHSB = new float[3];
+            float[] dHSB = new float[3];
 
             for (int i = 0; i < w; i += 4) {
                 int sr = src[i];
@@ -16,10 +16,16 @@ limitations under the License.
 
 package com.jhlabs.composite;
 
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
 import java.awt.*;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
 
 public abstract class RGBComposite implements Composite {
     protected float extraAlpha;
@@ -88,10 +94,20 @@ public abstract class RGBComposite implements Composite {
             return a < 0 ? 0 : a > 255 ? 255 : a;
         }
 
+        /**
+         * Composes the pixels of a row, given as consecutive
+         * R, G, B and A samples. It can be called concurrently
+         * for different rows, therefore it must not modify the state.
+         */
         public abstract void composeRGB(int[] src, int[] dst, float alpha);
 
         @Override
         public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+            if (isPackedARGB(src) && isPackedARGB(dstIn) && isPackedARGB(dstOut)) {
+                composePacked(src, dstIn, dstOut);
+                return;
+            }
+
             float alpha = this.alpha;
 
             int[] srcPix = null;
@@ -115,5 +131,72 @@ public abstract class RGBComposite implements Composite {
                 dstOut.setPixels(x, y, w, 1, dstPix);
             }
         }
+
+        /**
+         * The fast path for the usual case of images with packed
+         * (A)RGB ints: the pixels are read and written directly in
+         * the int arrays, and the larger regions are split into
+         * bands of rows, which are composed in parallel.
+         */
+        private void composePacked(Raster src, Raster dstIn, WritableRaster dstOut) {
+            int x = dstOut.getMinX();
+            int w = dstOut.getWidth();
+            int y0 = dstOut.getMinY();
+            int h = dstOut.getHeight();
+
+            ThreadPool.processBands(w, h, (startY, endY) -> {
+                int[] srcPix = new int[w * 4];
+                int[] dstPix = new int[w * 4];
+                for (int y = y0 + startY; y < y0 + endY; y++) {
+                    unpackRow(src, x, y, w, srcPix);
+                    unpackRow(dstIn, x, y, w, dstPix);
+                    composeRGB(srcPix, dstPix, alpha);
+                    packRow(dstPix, dstOut, x, y, w);
+                }
+            }, ProgressTracker.NULL_TRACKER);
+        }
+
+        // the masks of the bands in the order returned by Raster.getPixels
+        private static final int[] ARGB_MASKS = {0xFF_00_00, 0xFF_00, 0xFF, 0xFF_00_00_00};
+
+        private static boolean isPackedARGB(Raster raster) {
+            return raster.getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && Arrays.equals(sm.getBitMasks(), ARGB_MASKS);
+        }
+
+        // returns the index of the given pixel in the int array of the raster
+        private static int pixelIndex(Raster raster, int x, int y) {
+            var sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            return raster.getDataBuffer().getOffset() + sm.getOffset(
+                x - raster.getSampleModelTranslateX(),
+                y - raster.getSampleModelTranslateY());
+        }
+
+        private static void unpackRow(Raster raster, int x, int y, int w, int[] pix) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int index = pixelIndex(raster, x, y);
+            for (int i = 0, j = 0; i < w; i++, j += 4) {
+                int argb = data[index + i];
+                pix[j] = (argb >>> 16) & 0xFF;
+                pix[j + 1] = (argb >>> 8) & 0xFF;
+                pix[j + 2] = argb & 0xFF;
+                pix[j + 3] = argb >>> 24;
+            }
+        }
+
+        private static void packRow(int[] pix, WritableRaster raster, int x, int y, int w) {
+            int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+            int index = pixelIndex(raster, x, y);
+            for (int i = 0, j = 0; i < w; i++, j += 4) {
+                // the composites can produce out-of-range values,
+                // which are truncated to 8 bits like in setPixels
+                data[index + i] = (pix[j + 3] & 0xFF) << 24
+                    | (pix[j] & 0xFF) << 16
+                    | (pix[j + 1] & 0xFF) << 8
+                    | (pix[j + 2] & 0xFF);
+            }
+        }
     }
 }
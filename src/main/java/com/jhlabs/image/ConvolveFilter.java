@@ -16,8 +16,12 @@ limitations under the License.
 
 package com.jhlabs.image;
 
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
+import java.util.Arrays;
 
 /**
  * A filter which applies a convolution kernel to an image.
@@ -188,13 +192,20 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
      */
     public void convolve(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
+        pt = createProgressTracker(height);
         if (kernel.getHeight() == 1) {
-            convolveH(kernel, inPixels, outPixels, width, height, edgeAction);
+            convolveH(kernel, inPixels, outPixels, width, height, edgeAction, pt);
         } else if (kernel.getWidth() == 1) {
-            convolveV(kernel, inPixels, outPixels, width, height, edgeAction);
+            convolveV(kernel, inPixels, outPixels, width, height, edgeAction, pt);
         } else {
-            convolveHV(kernel, inPixels, outPixels, width, height, edgeAction);
+            float[][] factors = separate(kernel);
+            if (factors != null) {
+                convolveSeparable(factors[0], factors[1], inPixels, outPixels, width, height, edgeAction, pt);
+            } else {
+                convolveHV(kernel, inPixels, outPixels, width, height, edgeAction, pt);
+            }
         }
+        finishProgressTracker();
     }
 
     /**
@@ -208,64 +219,218 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
      */
     public void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
+        pt = createProgressTracker(height);
+        convolveHV(kernel, inPixels, outPixels, width, height, edgeAction, pt);
+        finishProgressTracker();
+    }
+
+    private static void convolveHV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction, ProgressTracker pt) {
         float[] matrix = kernel.getKernelData(null);
         int rows = kernel.getHeight();
         int cols = kernel.getWidth();
         int rows2 = rows / 2;
         int cols2 = cols / 2;
 
-        pt = createProgressTracker(height);
-
-        for (int y = 0; y < height; y++) {
-            int offset = y * width;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0;
-                int origPacked = inPixels[offset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int index = y * width;
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    int origAlpha = (inPixels[index] >> 24) & 0xff;
+
+                    for (int row = -rows2; row <= rows2; row++) {
+                        int iy = edgeRow(y, row, height, edgeAction);
+                        if (iy < 0) {
+                            continue;
+                        }
+                        int ioffset = iy * width;
+                        int moffset = cols * (row + rows2) + cols2;
+                        for (int col = -cols2; col <= cols2; col++) {
+                            float f = matrix[moffset + col];
+
+                            if (f != 0) {
+                                int ix = edgeColumn(x, col, width, edgeAction);
+                                if (ix < 0) {
+                                    continue;
+                                }
+                                int rgb = inPixels[ioffset + ix];
+                                r += f * ((rgb >> 16) & 0xff);
+                                g += f * ((rgb >> 8) & 0xff);
+                                b += f * (rgb & 0xff);
+                            }
+                        }
+                    }
+                    outPixels[index++] = toPixel(origAlpha, r, g, b);
+                }
+            }
+        }, pt);
+    }
 
+    /**
+     * Convolve with a separable 2D kernel in two 1D passes, which gives the
+     * same result as {@link #convolveHV}, including the edges. The kernel
+     * element at (row, col) is verticalFactors[row] * horizontalFactors[col].
+     * The horizontal pass is stored with float precision, because
+     * its values can be negative or larger than 255.
+     */
+    private static void convolveSeparable(float[] verticalFactors, float[] horizontalFactors,
+                                          int[] inPixels, int[] outPixels, int width, int height,
+                                          int edgeAction, ProgressTracker pt) {
+        int rows2 = verticalFactors.length / 2;
+
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            // A rolling window of horizontally convolved rows with interleaved
+            // r, g, b values. The row at virtual index v (which can be outside
+            // the image for WRAP_EDGES) is kept in slot floorMod(v, windowSize).
+            // The virtual rows needed for an output row are consecutive,
+            // so they never share a slot, and the first halo rows of each
+            // band are recomputed instead of being shared between bands.
+            int windowSize = 2 * rows2 + 1;
+            float[][] window = new float[windowSize][3 * width];
+            int[] windowRows = new int[windowSize];
+            Arrays.fill(windowRows, Integer.MIN_VALUE);
+            float[][] hRows = new float[windowSize][];
+
+            for (int y = startY; y < endY; y++) {
                 for (int row = -rows2; row <= rows2; row++) {
-                    int iy = y + row;
-                    int ioffset;
-                    if (0 <= iy && iy < height) {
-                        ioffset = iy * width;
-                    } else if (edgeAction == CLAMP_EDGES) {
-                        ioffset = y * width;
-                    } else if (edgeAction == WRAP_EDGES) {
-                        ioffset = ((iy + height) % height) * width;
-                    } else {
+                    int iy = edgeRow(y, row, height, edgeAction);
+                    if (verticalFactors[row + rows2] == 0 || iy < 0) {
+                        hRows[row + rows2] = null;
                         continue;
                     }
-                    int moffset = cols * (row + rows2) + cols2;
-                    for (int col = -cols2; col <= cols2; col++) {
-                        float f = matrix[moffset + col];
+                    // off the edges, CLAMP_EDGES reads the current
+                    // row, which is always inside the window
+                    int v = edgeAction == CLAMP_EDGES && iy == y ? y : y + row;
+                    int slot = Math.floorMod(v, windowSize);
+                    if (windowRows[slot] != v) {
+                        convolveRow(horizontalFactors, inPixels, iy, width, edgeAction, window[slot]);
+                        windowRows[slot] = v;
+                    }
+                    hRows[row + rows2] = window[slot];
+                }
 
-                        if (f != 0) {
-                            int ix = x + col;
-                            if (!(0 <= ix && ix < width)) {
-                                if (edgeAction == CLAMP_EDGES) {
-                                    ix = x;
-                                } else if (edgeAction == WRAP_EDGES) {
-                                    ix = (x + width) % width;
-                                } else {
-                                    continue;
-                                }
-                            }
-                            int rgb = inPixels[ioffset + ix];
-                            r += f * ((rgb >> 16) & 0xff);
-                            g += f * ((rgb >> 8) & 0xff);
-                            b += f * (rgb & 0xff);
+                int index = y * width;
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    int i = 3 * x;
+                    for (int row = 0; row < windowSize; row++) {
+                        float[] hRow = hRows[row];
+                        if (hRow == null) {
+                            continue;
                         }
+                        float f = verticalFactors[row];
+                        r += f * hRow[i];
+                        g += f * hRow[i + 1];
+                        b += f * hRow[i + 2];
                     }
+                    int origAlpha = (inPixels[index] >> 24) & 0xff;
+                    outPixels[index++] = toPixel(origAlpha, r, g, b);
                 }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
             }
-            pt.unitDone();
+        }, pt);
+    }
+
+    private static void convolveRow(float[] factors, int[] inPixels, int y, int width, int edgeAction, float[] out) {
+        int cols2 = factors.length / 2;
+        int ioffset = y * width;
+        for (int x = 0; x < width; x++) {
+            float r = 0, g = 0, b = 0;
+            for (int col = -cols2; col <= cols2; col++) {
+                float f = factors[col + cols2];
+                if (f != 0) {
+                    int ix = edgeColumn(x, col, width, edgeAction);
+                    if (ix < 0) {
+                        continue;
+                    }
+                    int rgb = inPixels[ioffset + ix];
+                    r += f * ((rgb >> 16) & 0xff);
+                    g += f * ((rgb >> 8) & 0xff);
+                    b += f * (rgb & 0xff);
+                }
+            }
+            out[3 * x] = r;
+            out[3 * x + 1] = g;
+            out[3 * x + 2] = b;
         }
-        finishProgressTracker();
+    }
+
+    // The source row for the 2D convolution, or -1 if it should be skipped.
+    // Off the edges, CLAMP_EDGES uses the current row.
+    private static int edgeRow(int y, int row, int height, int edgeAction) {
+        int iy = y + row;
+        if (0 <= iy && iy < height) {
+            return iy;
+        }
+        return switch (edgeAction) {
+            case CLAMP_EDGES -> y;
+            case WRAP_EDGES -> (iy + height) % height;
+            default -> -1;
+        };
+    }
+
+    // The source column for the 2D convolution, or -1 if it should be skipped.
+    // Off the edges, both CLAMP_EDGES and WRAP_EDGES use the current column.
+    private static int edgeColumn(int x, int col, int width, int edgeAction) {
+        int ix = x + col;
+        if (0 <= ix && ix < width) {
+            return ix;
+        }
+        return switch (edgeAction) {
+            case CLAMP_EDGES, WRAP_EDGES -> x;
+            default -> -1;
+        };
+    }
+
+    /**
+     * Returns the vertical and horizontal factors of the given kernel
+     * if it's separable (has a rank of 1), or null otherwise.
+     * The factors are taken from the row and column of the largest
+     * element, and then the whole kernel is checked against them.
+     */
+    static float[][] separate(Kernel kernel) {
+        int rows = kernel.getHeight();
+        int cols = kernel.getWidth();
+        float[] matrix = kernel.getKernelData(null);
+
+        int pivot = 0;
+        for (int i = 1; i < matrix.length; i++) {
+            if (Math.abs(matrix[i]) > Math.abs(matrix[pivot])) {
+                pivot = i;
+            }
+        }
+        double maxAbs = Math.abs(matrix[pivot]);
+        if (maxAbs == 0) {
+            return null;
+        }
+        int pivotRow = pivot / cols;
+        int pivotCol = pivot % cols;
+
+        float[] vertical = new float[rows];
+        for (int row = 0; row < rows; row++) {
+            vertical[row] = matrix[row * cols + pivotCol];
+        }
+        float[] horizontal = new float[cols];
+        for (int col = 0; col < cols; col++) {
+            horizontal[col] = (float) (matrix[pivotRow * cols + col] / (double) matrix[pivot]);
+        }
+
+        double tolerance = maxAbs * 1.0e-5;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                double product = (double) vertical[row] * horizontal[col];
+                if (Math.abs(matrix[row * cols + col] - product) > tolerance) {
+                    return null;
+                }
+            }
+        }
+        return new float[][]{vertical, horizontal};
+    }
+
+    private static int toPixel(int alpha, float r, float g, float b) {
+        int ir = PixelUtils.clamp((int) (r + 0.5));
+        int ig = PixelUtils.clamp((int) (g + 0.5));
+        int ib = PixelUtils.clamp((int) (b + 0.5));
+        return (alpha << 24) | (ir << 16) | (ig << 8) | ib;
     }
 
     /**
@@ -279,48 +444,51 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
      */
     public static void convolveH(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
+        convolveH(kernel, inPixels, outPixels, width, height, edgeAction, ProgressTracker.NULL_TRACKER);
+    }
+
+    private static void convolveH(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction, ProgressTracker pt) {
         float[] matrix = kernel.getKernelData(null);
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        for (int y = 0; y < height; y++) {
-            int ioffset = y * width;
-            for (int x = 0; x < width; x++) {
-                int origPacked = inPixels[ioffset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
-                float r = 0, g = 0, b = 0;
-                int moffset = cols2;
-                for (int col = -cols2; col <= cols2; col++) {
-                    float f = matrix[moffset + col];
-
-                    if (f != 0) {
-                        int ix = x + col;
-                        if (ix < 0) {
-                            if (edgeAction == CLAMP_EDGES) {
-                                ix = 0;
-                            } else if (edgeAction == WRAP_EDGES) {
-                                ix = (x + width) % width;
-                            }
-                        } else if (ix >= width) {
-                            if (edgeAction == CLAMP_EDGES) {
-                                ix = width - 1;
-                            } else if (edgeAction == WRAP_EDGES) {
-                                ix = (x + width) % width;
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int ioffset = y * width;
+                int index = ioffset;
+                for (int x = 0; x < width; x++) {
+                    int origPacked = inPixels[ioffset + x];
+                    int origAlpha = (origPacked >> 24) & 0xff;
+                    float r = 0, g = 0, b = 0;
+                    int moffset = cols2;
+                    for (int col = -cols2; col <= cols2; col++) {
+                        float f = matrix[moffset + col];
+
+                        if (f != 0) {
+                            int ix = x + col;
+                            if (ix < 0) {
+                                if (edgeAction == CLAMP_EDGES) {
+                                    ix = 0;
+                                } else if (edgeAction == WRAP_EDGES) {
+                                    ix = (x + width) % width;
+                                }
+                            } else if (ix >= width) {
+                                if (edgeAction == CLAMP_EDGES) {
+                                    ix = width - 1;
+                                } else if (edgeAction == WRAP_EDGES) {
+                                    ix = (x + width) % width;
+                                }
                             }
+                            int rgb = inPixels[ioffset + ix];
+                            r += f * ((rgb >> 16) & 0xff);
+                            g += f * ((rgb >> 8) & 0xff);
+                            b += f * (rgb & 0xff);
                         }
-                        int rgb = inPixels[ioffset + ix];
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
                     }
+                    outPixels[index++] = toPixel(origAlpha, r, g, b);
                 }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
             }
-        }
+        }, pt);
     }
 
     /**
@@ -334,56 +502,59 @@ public class ConvolveFilter extends AbstractBufferedImageOp {
      * @param edgeAction what to do at the edges
      */
     public static void convolveV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction) {
-        int index = 0;
+        convolveV(kernel, inPixels, outPixels, width, height, edgeAction, ProgressTracker.NULL_TRACKER);
+    }
+
+    private static void convolveV(Kernel kernel, int[] inPixels, int[] outPixels, int width, int height, int edgeAction, ProgressTracker pt) {
         float[] matrix = kernel.getKernelData(null);
         int rows = kernel.getHeight();
         int rows2 = rows / 2;
 
-        for (int y = 0; y < height; y++) {
-            int offset = y * width;
-            for (int x = 0; x < width; x++) {
-                float r = 0, g = 0, b = 0;
-                int origPacked = inPixels[offset + x];
-                int origAlpha = (origPacked >> 24) & 0xff;
-
-                for (int row = -rows2; row <= rows2; row++) {
-                    int iy = y + row;
-                    int ioffset;
-                    if (iy < 0) {
-                        if (edgeAction == CLAMP_EDGES) {
-                            ioffset = 0;
-                        } else if (edgeAction == WRAP_EDGES) {
-                            ioffset = ((y + height) % height) * width;
-                        } else {
-                            ioffset = iy * width;
-                        }
-                    } else if (iy >= height) {
-                        if (edgeAction == CLAMP_EDGES) {
-                            ioffset = (height - 1) * width;
-                        } else if (edgeAction == WRAP_EDGES) {
-                            ioffset = ((y + height) % height) * width;
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int offset = y * width;
+                int index = offset;
+                for (int x = 0; x < width; x++) {
+                    float r = 0, g = 0, b = 0;
+                    int origPacked = inPixels[offset + x];
+                    int origAlpha = (origPacked >> 24) & 0xff;
+
+                    for (int row = -rows2; row <= rows2; row++) {
+                        int iy = y + row;
+                        int ioffset;
+                        if (iy < 0) {
+                            if (edgeAction == CLAMP_EDGES) {
+                                ioffset = 0;
+                            } else if (edgeAction == WRAP_EDGES) {
+                                ioffset = ((y + height) % height) * width;
+                            } else {
+                                ioffset = iy * width;
+                            }
+                        } else if (iy >= height) {
+                            if (edgeAction == CLAMP_EDGES) {
+                                ioffset = (height - 1) * width;
+                            } else if (edgeAction == WRAP_EDGES) {
+                                ioffset = ((y + height) % height) * width;
+                            } else {
+                                ioffset = iy * width;
+                            }
                         } else {
                             ioffset = iy * width;
                         }
-                    } else {
-                        ioffset = iy * width;
-                    }
 
-                    float f = matrix[row + rows2];
+                        float f = matrix[row + rows2];
 
-                    if (f != 0) {
-                        int rgb = inPixels[ioffset + x];
-                        r += f * ((rgb >> 16) & 0xff);
-                        g += f * ((rgb >> 8) & 0xff);
-                        b += f * (rgb & 0xff);
+                        if (f != 0) {
+                            int rgb = inPixels[ioffset + x];
+                            r += f * ((rgb >> 16) & 0xff);
+                            g += f * ((rgb >> 8) & 0xff);
+                            b += f * (rgb & 0xff);
+                        }
                     }
+                    outPixels[index++] = toPixel(origAlpha, r, g, b);
                 }
-                int ir = PixelUtils.clamp((int) (r + 0.5));
-                int ig = PixelUtils.clamp((int) (g + 0.5));
-                int ib = PixelUtils.clamp((int) (b + 0.5));
-                outPixels[index++] = (origAlpha << 24) | (ir << 16) | (ig << 8) | ib;
             }
-        }
+        }, pt);
     }
 
     @Override
@@ -17,11 +17,11 @@ limitations under the License.
 package com.jhlabs.image;
 
 import pixelitor.ThreadPool;
+import pixelitor.filters.impl.RecursiveGaussian;
 import pixelitor.utils.ProgressTracker;
 
 import java.awt.image.BufferedImage;
 import java.awt.image.Kernel;
-import java.util.concurrent.Future;
 
 /**
  * A filter which applies Gaussian blur to an image. This is a subclass of ConvolveFilter
@@ -30,6 +30,12 @@ import java.util.concurrent.Future;
  * @author Jerry Huxtable
  */
 public class GaussianFilter extends ConvolveFilter {
+    /**
+     * From this radius the blur is calculated with a recursive
+     * filter, whose running time doesn't depend on the radius.
+     */
+    public static final float RECURSIVE_MIN_RADIUS = 10;
+
     /**
      * The blur radius.
      */
@@ -53,7 +59,8 @@ public class GaussianFilter extends ConvolveFilter {
     }
 
     /**
-     * Set the radius of the kernel, and hence the amount of blur. The bigger the radius, the longer this filter will take.
+     * Set the radius of the kernel, and hence the amount of blur. The bigger the radius,
+     * the longer this filter will take, up to {@link #RECURSIVE_MIN_RADIUS}.
      *
      * @param radius the radius of the blur in pixels.
      * @min-value 0
@@ -94,8 +101,8 @@ public class GaussianFilter extends ConvolveFilter {
 
         if (radius > 0) {
             int[] outPixels = new int[width * height];
-            convolveAndTranspose(kernel, inPixels, outPixels, width, height, premultiplyAlpha, false, CLAMP_EDGES, pt);
-            convolveAndTranspose(kernel, outPixels, inPixels, height, width, false, premultiplyAlpha, CLAMP_EDGES, pt);
+            blurAndTranspose(inPixels, outPixels, width, height, premultiplyAlpha, false, pt);
+            blurAndTranspose(outPixels, inPixels, height, width, false, premultiplyAlpha, pt);
         }
 
 //        dst.setRGB(0, 0, width, height, inPixels, 0, width);
@@ -106,6 +113,22 @@ public class GaussianFilter extends ConvolveFilter {
         return dst;
     }
 
+    /**
+     * Blur and transpose a block of ARGB pixels with the current radius,
+     * using either the kernel or the recursive approximation.
+     */
+    protected void blurAndTranspose(int[] inPixels, int[] outPixels, int width, int height,
+                                    boolean premultiply, boolean unpremultiply, ProgressTracker pt) {
+        if (radius >= RECURSIVE_MIN_RADIUS) {
+            // the kernel is cut at 3 sigma
+            RecursiveGaussian.blurAndTranspose(inPixels, outPixels, width, height,
+                radius / 3, premultiply, unpremultiply, pt);
+        } else {
+            convolveAndTranspose(kernel, inPixels, outPixels, width, height,
+                premultiply, unpremultiply, CLAMP_EDGES, pt);
+        }
+    }
+
     /**
      * Blur and transpose a block of ARGB pixels.
      *
@@ -124,14 +147,11 @@ public class GaussianFilter extends ConvolveFilter {
         int cols = kernel.getWidth();
         int cols2 = cols / 2;
 
-        Future<?>[] resultLines = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> convolveAndTransposeLine(inPixels, outPixels, width, height, premultiply, unpremultiply, edgeAction, matrix, cols2, finalY);
-            resultLines[y] = ThreadPool.submit(lineTask);
-        }
-
-        ThreadPool.waitFor(resultLines, pt);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                convolveAndTransposeLine(inPixels, outPixels, width, height, premultiply, unpremultiply, edgeAction, matrix, cols2, y);
+            }
+        }, pt);
     }
 
     private static void convolveAndTransposeLine(int[] inPixels, int[] outPixels, int width, int height, boolean premultiply, boolean unpremultiply, int edgeAction, float[] matrix, int cols2, int y) {
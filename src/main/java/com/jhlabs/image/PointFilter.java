@@ -20,7 +20,6 @@ import pixelitor.ThreadPool;
 import pixelitor.utils.ImageUtils;
 
 import java.awt.image.BufferedImage;
-import java.util.concurrent.Future;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
 
@@ -50,19 +49,15 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int[] outPixels = ImageUtils.getPixelArray(dst);
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int index = y * width;
                 for (int x = 0; x < width; x++) {
-                    int index = finalY * width + x;
-                    outPixels[index] = filterRGB(x, finalY, inPixels[index]);
+                    outPixels[index] = filterRGB(x, y, inPixels[index]);
+                    index++;
                 }
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-
-        ThreadPool.waitFor(futures, pt);
+            }
+        }, pt);
         finishProgressTracker();
 
         return dst;
@@ -73,20 +68,19 @@ public abstract class PointFilter extends AbstractBufferedImageOp {
         int height = src.getHeight();
 
         pt = createProgressTracker(height);
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable calculateLineTask = () -> {
-                int[] inPixels = new int[width];
-                src.getRGB(0, finalY, width, 1, inPixels, 0, width);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            int bandHeight = endY - startY;
+            int[] pixels = new int[width * bandHeight];
+            src.getRGB(0, startY, width, bandHeight, pixels, 0, width);
+            int index = 0;
+            for (int y = startY; y < endY; y++) {
                 for (int x = 0; x < width; x++) {
-                    inPixels[x] = filterRGB(x, finalY, inPixels[x]);
+                    pixels[index] = filterRGB(x, y, pixels[index]);
+                    index++;
                 }
-                dst.setRGB(0, finalY, width, 1, inPixels, 0, width);
-            };
-            futures[y] = ThreadPool.submit(calculateLineTask);
-        }
-        ThreadPool.waitFor(futures, pt);
+            }
+            dst.setRGB(0, startY, width, bandHeight, pixels, 0, width);
+        }, pt);
         finishProgressTracker();
 
         return dst;
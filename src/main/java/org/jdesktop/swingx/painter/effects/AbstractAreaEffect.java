@@ -23,14 +23,20 @@
 package org.jdesktop.swingx.painter.effects;
 
 import com.jhlabs.image.ImageMath;
+import pixelitor.ThreadPool;
 import pixelitor.colors.Colors;
 import pixelitor.filters.gui.UserPreset;
+import pixelitor.utils.DistanceField;
+import pixelitor.utils.ProgressTracker;
 
 import java.awt.*;
-import java.awt.geom.Area;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serial;
@@ -45,7 +51,8 @@ import java.util.Objects;
  * @author joshy
  */
 public class AbstractAreaEffect implements AreaEffect {
-    private static final boolean debug = false;
+    // the resolution of the color table used for the distances
+    protected static final int SAMPLES_PER_PIXEL = 8;
 
     // for compatibility with pixelitor versions before 4.2.0
     @Serial
@@ -66,12 +73,6 @@ public class AbstractAreaEffect implements AreaEffect {
 
     @Override
     public void apply(Graphics2D g, Shape clipShape, int width, int height) {
-        // opacity support added by lbalazscs
-        Composite savedComposite = g.getComposite();
-        if (opacity < 1.0f) {
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
-        }
-
         // create a rect to hold the bounds
         Rectangle2D clipShapeBounds = clipShape.getBounds2D();
 
@@ -80,78 +81,198 @@ public class AbstractAreaEffect implements AreaEffect {
             return;
         }
 
-        width = (int) (clipShapeBounds.getWidth() + clipShapeBounds.getX());
-        height = (int) (clipShapeBounds.getHeight() + clipShapeBounds.getY());
-        Rectangle effectBounds = new Rectangle(0, 0,
-            (int) (width + getEffectWidth() * 2 + 1),
-            (int) (height + getEffectWidth() * 2 + 1));
-
-        if (effectBounds.isEmpty()) {
-            // check added by lbalazscs
-            // this can be empty even if the clip shape bounds is not
-            // when the clip shape starts at large negative coordinates
+        // The effect is calculated from the distances to the outline,
+        // instead of painting a stroke for each step (lbalazscs).
+        // The distances are also needed a bit beyond the painted area,
+        // because the nearest part of the outline can be there.
+        double offsetX = getOffset().getX();
+        double offsetY = getOffset().getY();
+        int reach = (int) Math.ceil(getMaxStrokeWidth() / 2) + 1;
+        Rectangle paintBounds = calcPaintBounds(g, clipShapeBounds, offsetX, offsetY, reach);
+        if (paintBounds.isEmpty()) {
             return;
         }
-
-        // Apply the border glow effect
+        Rectangle fieldBounds = new Rectangle(paintBounds);
+        fieldBounds.grow(reach, reach);
+
+        // the effect is painted around the offset shape...
+        int[] effectCoverage = rasterize(normalize(clipShape, offsetX, offsetY),
+            fieldBounds, fieldBounds.x, fieldBounds.y);
+        // ...and masked by the original (not normalized) shape
+        int[] maskCoverage = null;
         if (isShapeMasked()) {
-            BufferedImage clipImage = getClipImage(effectBounds);
-            Graphics2D g2 = clipImage.createGraphics();
-
-            // lbalazscs: moved here from getClipImage
-            // in order to avoid two createGraphics calls
-            g2.clearRect(0, 0, clipImage.getWidth(), clipImage.getHeight());
-
-            try {
-                // clear the buffer
-                g2.setPaint(Color.BLACK);
-                g2.setComposite(AlphaComposite.Clear);
-                g2.fillRect(0, 0, effectBounds.width, effectBounds.height);
-
-                if (debug) {
-                    g2.setPaint(Color.WHITE);
-                    g2.setComposite(AlphaComposite.SrcOver);
-                    g2.drawRect(0, 0, effectBounds.width - 1,
-                        effectBounds.height - 1);
-                }
+            maskCoverage = rasterize(clipShape, fieldBounds, fieldBounds.x, fieldBounds.y);
+        }
+        var distanceField = new DistanceField(effectCoverage, fieldBounds.width, fieldBounds.height);
+
+        BufferedImage effectImage = getClipImage(new Rectangle(paintBounds.width, paintBounds.height));
+        int[] pixels = ((DataBufferInt) effectImage.getRaster().getDataBuffer()).getData();
+        paintEffect(pixels, paintBounds.width, paintBounds.height, reach,
+            distanceField, effectCoverage, maskCoverage, fieldBounds.width);
+
+        // opacity support added by lbalazscs
+        Composite savedComposite = g.getComposite();
+        if (opacity < 1.0f) {
+            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+        }
+        g.drawImage(effectImage, paintBounds.x, paintBounds.y, null);
+        g.setComposite(savedComposite);
+    }
+
+    /**
+     * Returns the area that can be changed by the effect.
+     */
+    private Rectangle calcPaintBounds(Graphics2D g, Rectangle2D shapeBounds,
+                                      double offsetX, double offsetY, int reach) {
+        Rectangle2D effectBounds = new Rectangle2D.Double(
+            shapeBounds.getX() + offsetX - reach, shapeBounds.getY() + offsetY - reach,
+            shapeBounds.getWidth() + 2 * reach, shapeBounds.getHeight() + 2 * reach);
+        if (isShapeMasked() && isRenderInsideShape()) {
+            Rectangle2D.intersect(effectBounds, shapeBounds, effectBounds);
+        }
+        Rectangle paintBounds = effectBounds.getBounds();
+        Rectangle clipBounds = g.getClipBounds();
+        if (clipBounds != null) {
+            paintBounds = paintBounds.intersection(clipBounds);
+        }
+        return paintBounds;
+    }
 
-                // turn on smoothing
-                g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                    RenderingHints.VALUE_ANTIALIAS_ON);
-                g2.translate(getEffectWidth() - getOffset().getX(),
-                    getEffectWidth() - getOffset().getY());
-                paintBorderGlow(g2, clipShape, width, height);
-
-                // clip out the parts we don't want
-                g2.setComposite(AlphaComposite.Clear);
-                g2.setColor(Color.WHITE);
-                if (isRenderInsideShape()) {
-                    // clip the outside
-                    Area area = new Area(effectBounds);
-                    area.subtract(new Area(clipShape));
-                    g2.fill(area);
-                } else {
-                    // clip the inside
-                    g2.fill(clipShape);
+    /**
+     * Returns the shape translated by (dx, dy), with the end points of
+     * its segments moved to the nearest pixel centers, and the control
+     * points moved with them. This is how Java2D normalizes the path of
+     * antialiased strokes, so the effect stays where the strokes of
+     * the original implementation were.
+     */
+    private static Shape normalize(Shape shape, double dx, double dy) {
+        Path2D path = new Path2D.Double();
+        double[] coords = new double[6];
+        double curAdjustX = 0, curAdjustY = 0;
+        double moveAdjustX = 0, moveAdjustY = 0;
+        var it = shape.getPathIterator(AffineTransform.getTranslateInstance(dx, dy));
+        path.setWindingRule(it.getWindingRule());
+        for (; !it.isDone(); it.next()) {
+            int type = it.currentSegment(coords);
+            if (type == PathIterator.SEG_CLOSE) {
+                path.closePath();
+                curAdjustX = moveAdjustX;
+                curAdjustY = moveAdjustY;
+                continue;
+            }
+            int last = switch (type) {
+                case PathIterator.SEG_QUADTO -> 2;
+                case PathIterator.SEG_CUBICTO -> 4;
+                default -> 0;
+            };
+            double adjustX = Math.floor(coords[last]) + 0.5 - coords[last];
+            double adjustY = Math.floor(coords[last + 1]) + 0.5 - coords[last + 1];
+            coords[last] += adjustX;
+            coords[last + 1] += adjustY;
+            switch (type) {
+                case PathIterator.SEG_MOVETO -> {
+                    path.moveTo(coords[0], coords[1]);
+                    moveAdjustX = adjustX;
+                    moveAdjustY = adjustY;
                 }
-            } finally {
-                // draw the final image
-                g2.dispose();
+                case PathIterator.SEG_LINETO -> path.lineTo(coords[0], coords[1]);
+                case PathIterator.SEG_QUADTO -> path.quadTo(
+                    coords[0] + (curAdjustX + adjustX) / 2,
+                    coords[1] + (curAdjustY + adjustY) / 2,
+                    coords[2], coords[3]);
+                case PathIterator.SEG_CUBICTO -> path.curveTo(
+                    coords[0] + curAdjustX, coords[1] + curAdjustY,
+                    coords[2] + adjustX, coords[3] + adjustY,
+                    coords[4], coords[5]);
+                default -> throw new IllegalStateException("type = " + type);
             }
+            curAdjustX = adjustX;
+            curAdjustY = adjustY;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the antialiased coverage values (0-255) of the given shape
+     * within the given bounds, after translating it by (-dx, -dy).
+     */
+    private static int[] rasterize(Shape shape, Rectangle bounds, double dx, double dy) {
+        var img = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = img.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.translate(-dx, -dy);
+        g2.setColor(Color.WHITE);
+        g2.fill(shape);
+        g2.dispose();
 
-            int drawX = (int) (-getEffectWidth() + getOffset().getX());
-            int drawY = (int) (-getEffectWidth() + getOffset().getY());
-            g.drawImage(clipImage, drawX, drawY, null);
-        } else {
-            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            paintBorderGlow(g, clipShape, width, height);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] >>>= 24;
         }
+        return pixels;
+    }
 
-        //g.setColor(Color.MAGENTA);
-        //g.draw(clipShape.getBounds2D());
-        //g.drawRect(0,0,width,height);
+    private void paintEffect(int[] pixels, int width, int height, int reach,
+                             DistanceField distanceField, int[] effectCoverage,
+                             int[] maskCoverage, int fieldWidth) {
+        float[] colorTable = createColorTable(reach);
+        int tableSize = colorTable.length / 4;
 
-        g.setComposite(savedComposite);
+        boolean fill = isShouldFillShape() && !isRenderInsideShape();
+        float[] fillColor = brushColor.getRGBComponents(null);
+        boolean inside = isRenderInsideShape();
+
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                int fieldIndex = (y + reach) * fieldWidth + reach;
+                int index = y * width;
+                for (int x = 0; x < width; x++, fieldIndex++, index++) {
+                    float distance = Math.abs(distanceField.getDistance(x + reach, y + reach));
+                    float pos = distance * SAMPLES_PER_PIXEL;
+                    float a = 0, r = 0, g = 0, b = 0;
+                    if (pos < tableSize - 1) {
+                        // linear interpolation between the table entries
+                        int ti = 4 * (int) pos;
+                        float frac = pos - (int) pos;
+                        a = colorTable[ti] + frac * (colorTable[ti + 4] - colorTable[ti]);
+                        r = colorTable[ti + 1] + frac * (colorTable[ti + 5] - colorTable[ti + 1]);
+                        g = colorTable[ti + 2] + frac * (colorTable[ti + 6] - colorTable[ti + 2]);
+                        b = colorTable[ti + 3] + frac * (colorTable[ti + 7] - colorTable[ti + 3]);
+                    }
+                    if (fill) {
+                        // the fill is painted first, and the strokes behind it
+                        float fa = fillColor[3] * effectCoverage[fieldIndex] / 255.0f;
+                        a = fa + a * (1 - fa);
+                        r = fillColor[0] * fa + r * (1 - fa);
+                        g = fillColor[1] * fa + g * (1 - fa);
+                        b = fillColor[2] * fa + b * (1 - fa);
+                    }
+                    if (maskCoverage != null) {
+                        float mask = maskCoverage[fieldIndex] / 255.0f;
+                        if (!inside) {
+                            mask = 1 - mask;
+                        }
+                        a *= mask;
+                        r *= mask;
+                        g *= mask;
+                        b *= mask;
+                    }
+                    pixels[index] = toARGB(a, r, g, b);
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    // converts premultiplied components to a non-premultiplied pixel
+    private static int toARGB(float a, float r, float g, float b) {
+        if (a <= 0) {
+            return 0;
+        }
+        int ia = (int) (a * 255 + 0.5f);
+        int ir = Math.min(255, (int) (r / a * 255 + 0.5f));
+        int ig = Math.min(255, (int) (g / a * 255 + 0.5f));
+        int ib = Math.min(255, (int) (b / a * 255 + 0.5f));
+        return ia << 24 | ir << 16 | ig << 8 | ib;
     }
 
     private transient BufferedImage _clipImage = null;
@@ -168,90 +289,56 @@ public class AbstractAreaEffect implements AreaEffect {
         return _clipImage;
     }
 
-
-    /*
-    private BufferedImage createClipImage(Shape s, Graphics2D g, int width, int height) {
-        // Create a translucent intermediate image in which we can perform
-        // the soft clipping
-
-        GraphicsConfiguration gc = g.getDeviceConfiguration();
-        BufferedImage img = gc.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
-        Graphics2D g2 = img.createGraphics();
-
-        // Clear the image so all pixels have zero alpha
-        g2.setComposite(AlphaComposite.Clear);
-        g2.fillRect(0, 0, width, height);
-
-        // Render our clip shape into the image.  Note that we enable
-        // antialiasing to achieve the soft clipping effect.  Try
-        // commenting out the line that enables antialiasing, and
-        // you will see that you end up with the usual hard clipping.
-        g2.setComposite(AlphaComposite.Src);
-        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2.setColor(Color.WHITE);
-        g2.fill(s);
-        g2.dispose();
-
-        return img;
-    }*/
-
-
-    /* draws the actual shaded border to the specified graphics
+    /**
+     * Returns the width of the widest stroke of the effect.
      */
+    protected double getMaxStrokeWidth() {
+        return effectWidthDouble;
+    }
 
     /**
-     * Paints the border glow
+     * Returns the premultiplied (a, r, g, b) color components of the
+     * effect at the distances 0, 1/{@link #SAMPLES_PER_PIXEL}, ...
+     * from the outline, up to the given distance.
      *
-     * @param g2
-     * @param clipShape
-     * @param width
-     * @param height
+     * The colors are the composites of the strokes that were painted
+     * by the original implementation (brushSteps strokes with increasing
+     * widths, all with the brush color, painted behind each other),
+     * because a round stroke covers the pixels closer to the outline
+     * than half of its width.
      */
-    protected void paintBorderGlow(Graphics2D g2,
-                                   Shape clipShape, int width, int height) {
-
+    protected float[] createColorTable(int maxDistance) {
         int steps = getBrushSteps();
-        boolean inside = isRenderInsideShape();
-
-        g2.setPaint(getBrushColor());
-        g2.translate(offset.getX(), offset.getY());
-
-        if (isShouldFillShape()) {
-            // set the inside/outside mode
-            if (inside) {
-                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_ATOP, 1f));
-                Area a1 = new Area(new Rectangle(
-                    (int) -offset.getX() - 20,
-                    (int) -offset.getY() - 20,
-                    width + 40, height + 40));
-                Area a2 = new Area(clipShape);
-                a1.subtract(a2);
-                g2.fill(a1);
-            } else {
-                g2.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OVER, 1f));
-                g2.fill(clipShape);
+        float[] color = brushColor.getRGBComponents(null);
+        // Java2D rounds the alpha of the composite to 8 bits
+        float brushAlpha = color[3] * Math.round(255.0f / steps) / 255.0f;
+
+        int size = maxDistance * SAMPLES_PER_PIXEL + 1;
+        float[] table = new float[4 * size];
+        for (int ti = 0; ti < size; ti++) {
+            double distance = ti / (double) SAMPLES_PER_PIXEL;
+            double transparency = 1;
+            for (int i = 0; i < steps; i++) {
+                double brushWidth = i * effectWidthDouble / steps;
+                transparency *= 1 - brushAlpha * strokeCoverage(brushWidth, distance);
             }
+            float a = (float) (1 - transparency);
+            table[4 * ti] = a;
+            table[4 * ti + 1] = color[0] * a;
+            table[4 * ti + 2] = color[1] * a;
+            table[4 * ti + 3] = color[2] * a;
         }
+        return table;
+    }
 
-        // set the inside/outside mode
-        /*
-        if(inside) {
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_ATOP, brushAlpha));
-        } else {
-            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OVER, brushAlpha));
-        }*/
-        float brushAlpha = 1.0f / steps;
-        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OVER, brushAlpha));
-
-        // draw the effect
-        for (float i = 0; i < steps; i = i + 1f) {
-            float brushWidth = (float) (i * effectWidthDouble / steps);
-            g2.setStroke(new BasicStroke(brushWidth,
-                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            g2.draw(clipShape);
-        }
-        g2.translate(-offset.getX(), -offset.getY());
-
+    /**
+     * Returns the antialiased coverage of a round stroke with the given
+     * width at the given distance from the stroked path. The thinnest
+     * strokes are still painted one pixel wide, as in Java2D.
+     */
+    protected static double strokeCoverage(double strokeWidth, double distance) {
+        double halfWidth = Math.max(strokeWidth / 2, 0.5);
+        return Math.clamp(halfWidth - distance + 0.5, 0.0, 1.0);
     }
 
     /**
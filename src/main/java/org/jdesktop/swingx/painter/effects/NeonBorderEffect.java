@@ -71,57 +71,61 @@ public class NeonBorderEffect extends AbstractAreaEffect {
     }
 
     @Override
-    protected void paintBorderGlow(Graphics2D gfx, Shape clipShape, int width, int height) {
-
-        /*
-        // draw the effect
-        for(float i=steps-1; i>=0; i=i-1f) {
-            float brushWidth = i * getEffectWidth()/steps;
-            gfx.setPaint(interpolateColor(i/steps,edgeColor,centerColor));
-            gfx.setStroke(new BasicStroke(brushWidth,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            gfx.draw(clipShape);
-        }*/
-
-        /* // an interesting outline effect. stroke the shape with a wide brush
-        * // then stroke again with slightly less wide one, then don't fill the middle
-       for(int i=0; i<2; i++) {
-           float brushWidth = (2-i)*5;
-           p("width = " + brushWidth);
-           gfx.setPaint(interpolateColor((float)(1-i), Color.BLACK, Color.WHITE));
-           gfx.setStroke(new BasicStroke(brushWidth));
-           gfx.draw(clipShape);
-       }
-        */
-        gfx.translate(getOffset().getX(), getOffset().getY());
-        gfx.setComposite(AlphaComposite.SrcOver);
+    protected double getMaxStrokeWidth() {
+        return getNumSteps() + 1;
+    }
+
+    private int getNumSteps() {
         int steps = getEffectWidthInt();
         if (borderPosition == BorderPosition.Centered) {
             steps = steps / 2;
         }
-        for (int i = 0; i < steps; i++) {
-            // make the brush width smaller each time until there is nothing left
-            float brushWidth = steps + 1 - i;
-            float half = steps / 2.0f;
+        return steps;
+    }
 
+    /**
+     * The color table of the strokes that get narrower
+     * and change their color towards the center.
+     */
+    @Override
+    protected float[] createColorTable(int maxDistance) {
+        int steps = getNumSteps();
+        float half = steps / 2.0f;
+        float[][] colors = new float[steps][];
+        for (int i = 0; i < steps; i++) {
+            Color color;
             if (borderPosition == BorderPosition.Centered) {
-                gfx.setPaint(interpolateColor((float) (steps - i) / steps, getEdgeColor(), getCenterColor()));
+                color = interpolateColor((float) (steps - i) / steps, getEdgeColor(), getCenterColor());
+            } else if (i < half) {
+                color = interpolateColor((half - i) / half, getEdgeColor(), getCenterColor());
             } else {
-                if (i < half) {
-                    gfx.setPaint(interpolateColor((half - i) / half, getEdgeColor(), getCenterColor()));
-                } else {
-                    gfx.setPaint(interpolateColor((i - half) / half, getEdgeColor(), getCenterColor()));
-                }
+                color = interpolateColor((i - half) / half, getEdgeColor(), getCenterColor());
             }
-
-            // to make the effect softer use a different stroke
-            gfx.setStroke(new BasicStroke(brushWidth,
-                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-            //gfx.setStroke(new BasicStroke(brushWidth));
-            gfx.draw(clipShape);
+            colors[i] = color.getRGBComponents(null);
         }
-        gfx.translate(-getOffset().getX(), -getOffset().getY());
 
+        int size = maxDistance * SAMPLES_PER_PIXEL + 1;
+        float[] table = new float[4 * size];
+        for (int ti = 0; ti < size; ti++) {
+            double distance = ti / (double) SAMPLES_PER_PIXEL;
+            float a = 0, r = 0, g = 0, b = 0;
+            // the strokes are painted over each other, the widest first
+            for (int i = 0; i < steps; i++) {
+                float brushWidth = steps + 1 - i;
+                float coverage = (float) strokeCoverage(brushWidth, distance);
+                float[] c = colors[i];
+                float ca = c[3] * coverage;
+                a = ca + a * (1 - ca);
+                r = c[0] * ca + r * (1 - ca);
+                g = c[1] * ca + g * (1 - ca);
+                b = c[2] * ca + b * (1 - ca);
+            }
+            table[4 * ti] = a;
+            table[4 * ti + 1] = r;
+            table[4 * ti + 2] = g;
+            table[4 * ti + 3] = b;
+        }
+        return table;
     }
 
     private static Color interpolateColor(float t, Color start, Color end) {
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.utils.ProgressTracker;
+import pixelitor.utils.debug.DebugNode;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * The downscaled versions (mipmap levels) of the composite image of a
+ * {@link Composition}, used for painting zoomed-out views, so that Java2D
+ * doesn't have to resample the full-sized image at every repaint.
+ *
+ * Each level has half the width and height of the previous one. The levels
+ * are built lazily, when a view first needs them, and like in the
+ * {@link TiledCompositeCache}, only their invalidated tiles are recalculated.
+ */
+public class CompositePyramid {
+    private static final int TILE_SIZE = 128;
+
+    // the levels are not built below this size
+    private static final int MIN_LEVEL_SIZE = 8;
+
+    // the image from which the first level was calculated
+    private BufferedImage base;
+
+    private final List<Level> levels = new ArrayList<>();
+
+    /**
+     * Returns the image that should be painted at the given scale:
+     * either the given full-sized composite image, or the smallest
+     * level that is still at least as large as the painted size.
+     * The returned image must be drawn stretched to the canvas size.
+     */
+    public BufferedImage getImage(BufferedImage composite, double scale) {
+        int numHalvings = calcNumHalvings(composite.getWidth(), composite.getHeight(), scale);
+        if (numHalvings == 0) {
+            return composite;
+        }
+
+        if (composite != base) {
+            // the composite was recalculated into a new image
+            if (base == null || base.getWidth() != composite.getWidth()
+                || base.getHeight() != composite.getHeight()) {
+                levels.clear();
+            } else {
+                invalidateAll();
+            }
+            base = composite;
+        }
+
+        BufferedImage src = composite;
+        for (int i = 0; i < numHalvings; i++) {
+            if (i == levels.size()) {
+                levels.add(new Level(src.getWidth(), src.getHeight()));
+            }
+            Level level = levels.get(i);
+            level.update(src);
+            src = level.image;
+        }
+        return src;
+    }
+
+    /**
+     * Returns how many times the image can be halved so that
+     * it's still at least as large as at the given scale.
+     */
+    static int calcNumHalvings(int width, int height, double scale) {
+        int numHalvings = 0;
+        double levelScale = 0.5;
+        // the tolerance makes sure that scales such as 0.25 use an exact level
+        while (levelScale >= scale - 1.0e-9
+            && width / 2 >= MIN_LEVEL_SIZE && height / 2 >= MIN_LEVEL_SIZE) {
+            numHalvings++;
+            levelScale /= 2;
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        return numHalvings;
+    }
+
+    /**
+     * Marks the areas of all levels corresponding to
+     * the given canvas-relative area as invalid.
+     */
+    public void invalidate(Rectangle area) {
+        if (area.isEmpty()) {
+            return;
+        }
+        int minX = area.x;
+        int minY = area.y;
+        int maxX = area.x + area.width;
+        int maxY = area.y + area.height;
+        for (Level level : levels) {
+            // a level pixel depends on the 2x2 source pixels starting at (2x, 2y)
+            minX = Math.floorDiv(minX, 2);
+            minY = Math.floorDiv(minY, 2);
+            maxX = -Math.floorDiv(-maxX, 2);
+            maxY = -Math.floorDiv(-maxY, 2);
+            level.invalidate(minX, minY, maxX, maxY);
+        }
+    }
+
+    /**
+     * Marks all levels as invalid. Their images are
+     * kept, so that they can be reused if the size doesn't change.
+     */
+    public void invalidateAll() {
+        for (Level level : levels) {
+            level.invalidateAll();
+        }
+    }
+
+    public DebugNode createDebugNode(String key) {
+        var node = new DebugNode(key, this);
+        node.addInt("levels", levels.size());
+        for (int i = 0; i < levels.size(); i++) {
+            node.addInt("level " + (i + 1) + " dirty tiles", levels.get(i).numDirtyTiles);
+        }
+        return node;
+    }
+
+    /**
+     * A downscaled image with half the width and height of its source.
+     */
+    private static class Level {
+        private final BufferedImage image;
+        private final int srcWidth;
+        private final int srcHeight;
+        private final int numTilesX;
+        private final int numTilesY;
+        private final boolean[] dirtyTiles;
+        private int numDirtyTiles;
+
+        private Level(int srcWidth, int srcHeight) {
+            this.srcWidth = srcWidth;
+            this.srcHeight = srcHeight;
+            int width = (srcWidth + 1) / 2;
+            int height = (srcHeight + 1) / 2;
+            image = new BufferedImage(width, height, TYPE_INT_ARGB_PRE);
+            numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+            numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+            dirtyTiles = new boolean[numTilesX * numTilesY];
+            invalidateAll();
+        }
+
+        private void invalidateAll() {
+            Arrays.fill(dirtyTiles, true);
+            numDirtyTiles = dirtyTiles.length;
+        }
+
+        private void invalidate(int minX, int minY, int maxX, int maxY) {
+            minX = Math.max(minX, 0);
+            minY = Math.max(minY, 0);
+            maxX = Math.min(maxX, image.getWidth());
+            maxY = Math.min(maxY, image.getHeight());
+            if (minX >= maxX || minY >= maxY) {
+                return;
+            }
+            for (int ty = minY / TILE_SIZE; ty <= (maxY - 1) / TILE_SIZE; ty++) {
+                for (int tx = minX / TILE_SIZE; tx <= (maxX - 1) / TILE_SIZE; tx++) {
+                    int index = ty * numTilesX + tx;
+                    if (!dirtyTiles[index]) {
+                        dirtyTiles[index] = true;
+                        numDirtyTiles++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Recalculates the dirty tiles from the given source image.
+         */
+        private void update(BufferedImage src) {
+            if (numDirtyTiles == 0) {
+                return;
+            }
+            assert src.getWidth() == srcWidth && src.getHeight() == srcHeight;
+
+            int[] dest = getPackedPixels(image);
+            int destWidth = image.getWidth();
+            int[] srcPixels = getPackedPixels(src);
+            boolean srcPremultiplied = src.getType() == TYPE_INT_ARGB_PRE;
+
+            // the tile rows are processed in parallel
+            ThreadPool.processBands(destWidth * TILE_SIZE, numTilesY, (startTY, endTY) -> {
+                for (int ty = startTY; ty < endTY; ty++) {
+                    for (int tx = 0; tx < numTilesX; tx++) {
+                        if (dirtyTiles[ty * numTilesX + tx]) {
+                            updateTile(src, srcPixels, srcPremultiplied, dest, destWidth, tx, ty);
+                        }
+                    }
+                }
+            }, ProgressTracker.NULL_TRACKER);
+
+            Arrays.fill(dirtyTiles, false);
+            numDirtyTiles = 0;
+        }
+
+        private void updateTile(BufferedImage src, int[] srcPixels, boolean srcPremultiplied,
+                                int[] dest, int destWidth, int tx, int ty) {
+            int x = tx * TILE_SIZE;
+            int y = ty * TILE_SIZE;
+            var area = new Rectangle(x, y,
+                Math.min(TILE_SIZE, destWidth - x),
+                Math.min(TILE_SIZE, image.getHeight() - y));
+
+            if (srcPixels != null) {
+                downscale(srcPixels, 0, 0, srcWidth, srcPremultiplied, dest, destWidth, area);
+            } else {
+                // other image types are read through the slower getRGB,
+                // which returns the pixels in the non-premultiplied ARGB format
+                int blockX = 2 * area.x;
+                int blockY = 2 * area.y;
+                int blockWidth = Math.min(2 * area.width, srcWidth - blockX);
+                int blockHeight = Math.min(2 * area.height, srcHeight - blockY);
+                int[] block = src.getRGB(blockX, blockY, blockWidth, blockHeight, null, 0, blockWidth);
+                downscale(block, blockX, blockY, blockWidth, false, dest, destWidth, area);
+            }
+        }
+
+        /**
+         * Averages the 2x2 source pixels of each pixel in the given area
+         * of the destination. At the right and bottom edges of odd-sized
+         * sources the last column/row of source pixels is repeated.
+         * The source array starts at (srcX, srcY) in source coordinates.
+         */
+        private void downscale(int[] src, int srcX, int srcY, int srcStride,
+                               boolean srcPremultiplied, int[] dest, int destWidth, Rectangle area) {
+            int lastX = srcWidth - 1;
+            int lastY = srcHeight - 1;
+            for (int y = area.y; y < area.y + area.height; y++) {
+                int sy1 = 2 * y;
+                int sy2 = Math.min(sy1 + 1, lastY);
+                int row1 = (sy1 - srcY) * srcStride - srcX;
+                int row2 = (sy2 - srcY) * srcStride - srcX;
+                int destIndex = y * destWidth + area.x;
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    int sx1 = 2 * x;
+                    int sx2 = Math.min(sx1 + 1, lastX);
+                    dest[destIndex++] = average(
+                        src[row1 + sx1], src[row1 + sx2],
+                        src[row2 + sx1], src[row2 + sx2], srcPremultiplied);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the average of the given pixels in the premultiplied
+     * format, which doesn't darken the edges of transparent areas.
+     */
+    static int average(int p1, int p2, int p3, int p4, boolean premultiplied) {
+        if (!premultiplied) {
+            p1 = premultiply(p1);
+            p2 = premultiply(p2);
+            p3 = premultiply(p3);
+            p4 = premultiply(p4);
+        }
+        int a = ((p1 >>> 24) + (p2 >>> 24) + (p3 >>> 24) + (p4 >>> 24) + 2) >> 2;
+        int r = (((p1 >>> 16) & 0xFF) + ((p2 >>> 16) & 0xFF)
+            + ((p3 >>> 16) & 0xFF) + ((p4 >>> 16) & 0xFF) + 2) >> 2;
+        int g = (((p1 >>> 8) & 0xFF) + ((p2 >>> 8) & 0xFF)
+            + ((p3 >>> 8) & 0xFF) + ((p4 >>> 8) & 0xFF) + 2) >> 2;
+        int b = ((p1 & 0xFF) + (p2 & 0xFF) + (p3 & 0xFF) + (p4 & 0xFF) + 2) >> 2;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 255) {
+            return argb;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        int r = (((argb >>> 16) & 0xFF) * a + 127) / 255;
+        int g = (((argb >>> 8) & 0xFF) * a + 127) / 255;
+        int b = ((argb & 0xFF) * a + 127) / 255;
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    /**
+     * Returns the pixel array of the given image if it can be
+     * read directly as (premultiplied) ARGB ints, or null otherwise.
+     */
+    private static int[] getPackedPixels(BufferedImage img) {
+        int type = img.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE) {
+            return null;
+        }
+        WritableRaster raster = img.getRaster();
+        // sub-images share the array of their parent with an offset
+        if (raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+            || raster.getParent() != null
+            || ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() != img.getWidth()) {
+            return null;
+        }
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        return buffer.getOffset() == 0 ? buffer.getData() : null;
+    }
+}
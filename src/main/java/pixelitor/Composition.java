@@ -116,7 +116,14 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
 
     private transient boolean dirty = false;
 
-    private transient BufferedImage compositeImage;
+    private transient TiledCompositeCache compositeCache;
+
+    // the downscaled composite images for the zoomed-out views
+    private transient CompositePyramid compositePyramid;
+
+    // the area of the composite image that changed since the last
+    // histogram update, or null if the histograms must be fully recounted
+    private transient Rectangle histogramChangedArea;
 
     private transient View view;
 
@@ -135,6 +142,8 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
         assert canvas != null;
         this.canvas = canvas;
         this.mode = mode;
+        compositeCache = new TiledCompositeCache();
+        compositePyramid = new CompositePyramid();
     }
 
     /**
@@ -187,7 +196,8 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     @Serial
     private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
         // Initialize transient variables
-        compositeImage = null; // will be set when needed
+        compositeCache = new TiledCompositeCache();
+        compositePyramid = new CompositePyramid();
         file = null; // will be set later
         fileTime = 0;
         debugName = null; // will be set later
@@ -1158,15 +1168,29 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
     }
 
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
-        invalidateImageCache();
+        invalidateImageCache(calcImRegion(start, end, thickness));
         if (view != null) { // it might not be opened during image reloading
             view.repaintRegion(start, end, thickness);
             view.repaintNavigator(false);
         }
     }
 
+    // the image-space equivalent of View.repaintRegion
+    private static Rectangle calcImRegion(PPoint start, PPoint end, double thickness) {
+        double minX = Math.min(start.getImX(), end.getImX()) - thickness;
+        double minY = Math.min(start.getImY(), end.getImY()) - thickness;
+        double maxX = Math.max(start.getImX(), end.getImX()) + thickness;
+        double maxY = Math.max(start.getImY(), end.getImY()) + thickness;
+
+        int x = (int) Math.floor(minX);
+        int y = (int) Math.floor(minY);
+        return new Rectangle(x, y,
+            (int) Math.ceil(maxX) - x + 1,
+            (int) Math.ceil(maxY) - y + 1);
+    }
+
     public void repaintRegion(PRectangle area) {
-        invalidateImageCache();
+        invalidateImageCache(area.getIm().getBounds());
         if (view != null) { // it might not be opened during image reloading
             view.repaintRegion(area);
             view.repaintNavigator(false);
@@ -1432,11 +1456,30 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
      * Returns the (canvas-sized) composite image.
      */
     public BufferedImage getCompositeImage() {
-        if (compositeImage == null) {
-            compositeImage = ImageUtils.calculateCompositeImage(layerList, canvas);
-            assert compositeImage != null;
+        return compositeCache.getImage(layerList, canvas);
+    }
+
+    /**
+     * Returns a composite image that isn't changed by the later edits,
+     * therefore it can be passed to other threads (for example for saving).
+     * Must be called on the EDT.
+     */
+    public BufferedImage getCompositeSnapshot() {
+        return compositeCache.getSnapshot(layerList, canvas);
+    }
+
+    /**
+     * Paints the composite image on a graphics that is already scaled
+     * with the given scale (in image space). When zoomed out, the image
+     * is painted from a pre-scaled version of the composite.
+     */
+    public void paintCompositeImage(Graphics2D g, double scale) {
+        BufferedImage image = compositePyramid.getImage(getCompositeImage(), scale);
+        if (image.getWidth() == canvas.getWidth()) {
+            g.drawImage(image, 0, 0, null);
+        } else {
+            g.drawImage(image, 0, 0, canvas.getWidth(), canvas.getHeight(), null);
         }
-        return compositeImage;
     }
 
     @Override
@@ -1455,10 +1498,27 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
      */
     @Override
     public void invalidateImageCache() {
-        if (compositeImage != null) {
-            compositeImage.flush();
+        compositeCache.invalidateAll();
+        compositePyramid.invalidateAll();
+        histogramChangedArea = null;
+    }
+
+    /**
+     * Forces the recalculation of the given canvas-relative area
+     * of the composite image the next time when getCompositeImage()
+     * is called. The rest of the composite image is reused.
+     */
+    public void invalidateImageCache(Rectangle area) {
+        compositeCache.invalidate(area);
+        compositePyramid.invalidate(area);
+
+        if (histogramChangedArea != null) {
+            if (histogramChangedArea.isEmpty()) {
+                histogramChangedArea = new Rectangle(area);
+            } else {
+                histogramChangedArea.add(area);
+            }
         }
-        compositeImage = null;
     }
 
     @Override
@@ -1484,9 +1544,31 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
 
         if (updateHistogram) {
             HistogramsPanel.updateFrom(this);
+            histogramChangedArea = new Rectangle();
         }
     }
 
+    /**
+     * Signals that only the given canvas-relative area
+     * of a top-level layer has been changed.
+     */
+    public void updateRegion(Rectangle area) {
+        invalidateImageCache(area);
+
+        if (isOpen()) {
+            view.repaint();
+            view.repaintNavigator(false);
+        }
+
+        if (histogramChangedArea == null) {
+            HistogramsPanel.updateFrom(this);
+        } else {
+            // also contains the areas that were only repainted since the last update
+            HistogramsPanel.updateFrom(this, histogramChangedArea);
+        }
+        histogramChangedArea = new Rectangle();
+    }
+
     public boolean isActive() {
         return Views.activeCompIs(this);
     }
@@ -1618,23 +1700,20 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
         return true;
     }
 
-    public int calcNumImages() {
-        int count = 0;
-        for (Layer layer : layerList) {
-            if (layer instanceof ImageLayer) {
-                count++;
-            }
-            if (layer.hasMask()) {
-                count++;
-            }
-        }
-        return count;
-    }
-
     public CompletableFuture<Void> saveAsync(SaveSettings saveSettings,
                                              boolean addToRecentMenus) {
         assert calledOnEDT() : threadInfo();
 
+        List<String> failedLayers = getLayersWithFailedLoading();
+        if (!failedLayers.isEmpty()) {
+            Messages.showError("Can't Save", format(
+                "<html>The image of <b>%s</b> could not be loaded from the file."
+                    + "<br>Saving would make the loss of its pixels permanent,"
+                    + "<br>delete the layer to save the rest of the image.",
+                String.join(", ", failedLayers)));
+            return CompletableFuture.completedFuture(null);
+        }
+
         FileFormat format = saveSettings.getFormat();
         Runnable saveTask = format.createSaveTask(this, saveSettings);
         FileFormat.setLastSaved(format);
@@ -1667,6 +1746,48 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
             }, onEDT);
     }
 
+    /**
+     * Loads the layer images that were not needed so far. Called before
+     * writing a layered file, because it might overwrite the file where
+     * the images are stored. Can be called outside the EDT.
+     *
+     * @throws UncheckedIOException if an image could not be loaded
+     */
+    public void loadDeferredImages() {
+        forEachLayerImage(ImageLayer::getImage);
+
+        List<String> failedLayers = getLayersWithFailedLoading();
+        if (!failedLayers.isEmpty()) {
+            throw new UncheckedIOException(new IOException(
+                "The image of " + String.join(", ", failedLayers)
+                    + " could not be loaded, the file was not saved."));
+        }
+    }
+
+    /**
+     * Returns the names of the layers whose image could not be loaded from the file.
+     */
+    private List<String> getLayersWithFailedLoading() {
+        List<String> names = new ArrayList<>();
+        forEachLayerImage(layer -> {
+            if (layer.imageLoadingFailed()) {
+                names.add(layer.getName());
+            }
+        });
+        return names;
+    }
+
+    // also includes the masks and the layers of the smart object contents
+    private void forEachLayerImage(Consumer<ImageLayer> action) {
+        Consumer<Layer> imageAction = layer -> {
+            if (layer instanceof ImageLayer imageLayer) {
+                action.accept(imageLayer);
+            }
+        };
+        forEachNestedLayerAndMask(imageAction);
+        forAllNestedSmartObjects(so -> so.getContent().forEachNestedLayerAndMask(imageAction));
+    }
+
     public void afterSuccessfulSaveActions(File file, boolean addToRecentMenus) {
         assert calledOnEDT() : threadInfo();
 
@@ -1872,6 +1993,8 @@ public class Composition implements Serializable, ImageSource, LayerHolder {
         forEachTopLevelLayer(layer -> node.add(layer.createDebugNode()));
 
         node.add(createBufferedImageNode("composite image", getCompositeImage()));
+        node.add(compositeCache.createDebugNode("composite cache"));
+        node.add(compositePyramid.createDebugNode("composite pyramid"));
 
         if (paths == null) {
             node.addBoolean("has paths", false);
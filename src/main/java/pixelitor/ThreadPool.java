@@ -17,11 +17,11 @@
 
 package pixelitor;
 
-import com.jhlabs.image.AbstractBufferedImageOp;
 import pixelitor.utils.ProgressTracker;
 
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A thread pool for parallel execution on multiple CPU cores
@@ -32,6 +32,19 @@ public class ThreadPool {
     private static final ExecutorService pool =
         Executors.newFixedThreadPool(NUM_CORES);
 
+    // used for the band-parallel image processing
+    private static final ForkJoinPool forkJoinPool = new ForkJoinPool(NUM_CORES);
+
+    // bands smaller than this are not split further,
+    // because the scheduling overhead would dominate
+    private static final int MIN_PIXELS_PER_BAND = 16_384;
+
+    // more bands than cores, so that the work-stealing can
+    // balance the rows that take different amounts of time
+    private static final int BANDS_PER_CORE = 4;
+
+    private static final long PROGRESS_UPDATE_MILLIS = 50;
+
     private ThreadPool() {
     }
 
@@ -43,65 +56,189 @@ public class ThreadPool {
     }
 
     /**
-     * Submits a task that returns something, such as
-     * the calculated pixels in a line
+     * Submits a task that returns something to the work-stealing pool.
+     * Unlike {@link #submit}, this can be used by the tasks already
+     * running in the main pool (such as the IO tasks) without
+     * the risk of a deadlock.
      */
-    public static <T> Future<T> submit2(Callable<T> task) {
-        return pool.submit(task);
+    public static <T> Future<T> fork(Callable<T> task) {
+        return forkJoinPool.submit(task);
     }
 
     /**
      * Blocks the current thread until all the given futures finish
      * their tasks. During this time, it updates the progress using
      * the given {@link ProgressTracker}.
+     *
+     * If a task fails, then its exception is rethrown in the calling
+     * thread, and if the operation is canceled through the tracker, then
+     * a {@link CancellationException} is thrown. In both cases the
+     * remaining tasks are canceled.
      */
     public static void waitFor(Iterable<Future<?>> futures, ProgressTracker pt) {
         assert pt != null;
 
-        for (var future : futures) {
-            try {
+        boolean completed = false;
+        try {
+            for (var future : futures) {
                 future.get();
 
-                // not completely accurate to count here, but good enough in practice
+                // not completely accurate to count here, but good enough in practice.
+                // Throws a CancellationException if the operation was canceled.
                 pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+            }
+            completed = true;
+        } catch (ExecutionException e) {
+            throw asUnchecked(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } finally {
+            if (!completed) {
+                for (var future : futures) {
+                    future.cancel(true);
+                }
             }
         }
     }
 
     // same as the above, but with an array argument
     public static void waitFor(Future<?>[] futures, ProgressTracker pt) {
+        waitFor(Arrays.asList(futures), pt);
+    }
+
+    /**
+     * Processes the rows of an image in parallel, in horizontal bands.
+     * The band height is adapted to the image width and to the number
+     * of cores, and the idle cores steal the not yet started bands.
+     * Blocks until all rows are done, while updating the progress
+     * in the calling thread (the given tracker is not thread-safe)
+     * with one unit per row.
+     *
+     * The bands are not started after the operation is canceled through
+     * the tracker, and then a {@link CancellationException} is thrown.
+     * The exceptions thrown by the task are rethrown in the calling thread.
+     */
+    public static void processBands(int width, int height, BandTask task, ProgressTracker pt) {
         assert pt != null;
+        if (height <= 0) {
+            return;
+        }
 
-        for (var future : futures) {
-            try {
-                future.get();
-                pt.unitDone();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+        int bandHeight = calcBandHeight(width, height);
+        AtomicInteger rowsDone = new AtomicInteger();
+        var action = new BandAction(task, 0, height, bandHeight, rowsDone, pt);
+
+        if (height <= bandHeight || ForkJoinTask.inForkJoinPool()) {
+            // too small to split, or already running in a
+            // fork/join worker (nested parallelism): compute here
+            action.invoke();
+            pt.checkCanceled();
+            pt.unitsDone(height);
+            return;
+        }
+
+        ForkJoinTask<Void> future = forkJoinPool.submit(action);
+        int reportedRows = 0;
+        try {
+            while (true) {
+                try {
+                    future.get(PROGRESS_UPDATE_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    int done = rowsDone.get();
+                    // if canceled, keep waiting until the started bands
+                    // are finished, and only then throw the exception
+                    if (done > reportedRows && !pt.isCanceled()) {
+                        pt.unitsDone(done - reportedRows);
+                        reportedRows = done;
+                    }
+                }
             }
+        } catch (ExecutionException e) {
+            throw asUnchecked(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new CancellationException();
+        }
+
+        pt.checkCanceled();
+        if (height > reportedRows) {
+            pt.unitsDone(height - reportedRows);
         }
     }
 
     /**
-     * Similar to waitFor, but works with futures
-     * that return an int array representing a line, and
-     * updates the given destination image with the new pixels.
+     * Converts the failure of a worker task into
+     * an exception that can be thrown in the calling thread.
      */
-    public static void waitFor2(Future<int[]>[] futures, BufferedImage dst, int width, ProgressTracker pt) {
-        assert pt != null;
+    private static RuntimeException asUnchecked(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException re) {
+            return re;
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(cause);
+    }
 
-        try {
-            for (int i = 0; i < futures.length; i++) {
-                var lineFuture = futures[i];
-                int[] linePixels = lineFuture.get();
-                AbstractBufferedImageOp.setRGB(dst, 0, i, width, 1, linePixels);
+    private static int calcBandHeight(int width, int height) {
+        long numPixels = (long) width * height;
+        long bandPixels = Math.max(MIN_PIXELS_PER_BAND,
+            numPixels / ((long) NUM_CORES * BANDS_PER_CORE));
+        long bandHeight = (bandPixels + width - 1) / Math.max(width, 1);
+        return (int) Math.clamp(bandHeight, 1, height);
+    }
 
-                pt.unitDone();
+    /**
+     * The work done on a band of rows by {@link #processBands}.
+     */
+    @FunctionalInterface
+    public interface BandTask {
+        /**
+         * Processes the rows from startY (inclusive) to endY (exclusive).
+         * It's called concurrently for different bands.
+         */
+        void processBand(int startY, int endY);
+    }
+
+    /**
+     * Recursively halves the row range until the bands are small enough.
+     */
+    private static class BandAction extends RecursiveAction {
+        private final BandTask task;
+        private final int startY;
+        private final int endY;
+        private final int bandHeight;
+        private final AtomicInteger rowsDone;
+        private final ProgressTracker pt;
+
+        private BandAction(BandTask task, int startY, int endY, int bandHeight,
+                           AtomicInteger rowsDone, ProgressTracker pt) {
+            this.task = task;
+            this.startY = startY;
+            this.endY = endY;
+            this.bandHeight = bandHeight;
+            this.rowsDone = rowsDone;
+            this.pt = pt;
+        }
+
+        @Override
+        protected void compute() {
+            if (pt.isCanceled()) {
+                return; // the calling thread will throw the exception
+            }
+            int numRows = endY - startY;
+            if (numRows <= bandHeight) {
+                task.processBand(startY, endY);
+                rowsDone.addAndGet(numRows);
+                return;
             }
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+            int midY = startY + numRows / 2;
+            invokeAll(new BandAction(task, startY, midY, bandHeight, rowsDone, pt),
+                new BandAction(task, midY, endY, bandHeight, rowsDone, pt));
         }
     }
 
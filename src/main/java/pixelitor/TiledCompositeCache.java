@@ -0,0 +1,255 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import pixelitor.layers.Layer;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.debug.DebugNode;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+
+/**
+ * The cached composite image of a {@link Composition}, divided into
+ * square tiles with individual dirty flags, so that after a local change
+ * (for example a brush dab) only the affected tiles are re-blended.
+ *
+ * The image returned by {@link #getImage(List, Canvas)} can be updated
+ * in place after a region invalidation, therefore the clients that use
+ * the composite outside the EDT must get it with {@link #getSnapshot}.
+ */
+public class TiledCompositeCache {
+    public static final int TILE_SIZE = 256;
+
+    private BufferedImage image;
+
+    // false if the image is shared with a layer (single-layer shortcut)
+    // or if it can't be safely updated in place for other reasons
+    private boolean ownsImage;
+
+    private int numTilesX;
+    private int numTilesY;
+    private boolean[] dirtyTiles;
+    private int numDirtyTiles;
+
+    // true if the current image was given out as a snapshot,
+    // and therefore it must be copied before updating it in place
+    private boolean snapshotTaken;
+
+    /**
+     * Returns the up-to-date composite image, re-blending only
+     * the dirty tiles if this is possible.
+     */
+    public BufferedImage getImage(List<Layer> layers, Canvas canvas) {
+        if (image != null && numDirtyTiles == 0) {
+            return image;
+        }
+        if (canUpdateInPlace(layers, canvas)) {
+            recompositeDirtyTiles(layers, canvas);
+        } else {
+            recompositeAll(layers, canvas);
+        }
+        return image;
+    }
+
+    /**
+     * Returns an up-to-date composite image that won't be changed
+     * by the later updates, so that it can be used outside the EDT.
+     * Must be called on the EDT. The image is copied only if it's
+     * shared with a layer, otherwise only when it's updated next time.
+     */
+    public BufferedImage getSnapshot(List<Layer> layers, Canvas canvas) {
+        BufferedImage img = getImage(layers, canvas);
+        if (!ownsImage) {
+            // it can be the image of a layer, which can change in place
+            return ImageUtils.copyImage(img);
+        }
+        snapshotTaken = true;
+        return img;
+    }
+
+    private boolean canUpdateInPlace(List<Layer> layers, Canvas canvas) {
+        if (image == null || !ownsImage || dirtyTiles == null) {
+            return false;
+        }
+        if (image.getWidth() != canvas.getWidth() || image.getHeight() != canvas.getHeight()) {
+            return false;
+        }
+        for (Layer layer : layers) {
+            if (layer.isVisible() && !layer.isTileCompositable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void recompositeAll(List<Layer> layers, Canvas canvas) {
+        // a new image is created so that the clients
+        // holding the previous image are not affected
+        image = ImageUtils.calculateCompositeImage(layers, canvas);
+        assert image != null;
+
+        // with a single layer the composite can be the image of the layer
+        ownsImage = layers.size() > 1 && image.getType() == TYPE_INT_ARGB_PRE;
+        snapshotTaken = false;
+        initTiles(image.getWidth(), image.getHeight());
+    }
+
+    private void recompositeDirtyTiles(List<Layer> layers, Canvas canvas) {
+        if (snapshotTaken) {
+            // copy-on-write: the snapshot must remain unchanged
+            image = ImageUtils.copyImage(image);
+            snapshotTaken = false;
+        }
+        Area dirtyArea = calcDirtyArea();
+
+        Graphics2D g = image.createGraphics();
+        g.setClip(dirtyArea);
+
+        // clear the dirty tiles
+        g.setComposite(AlphaComposite.Clear);
+        g.fill(dirtyArea);
+
+        boolean firstVisibleLayer = true;
+        for (Layer layer : layers) {
+            if (layer.isVisible()) {
+                BufferedImage result = layer.applyLayer(g, image, firstVisibleLayer);
+                if (result != null && result != image) {
+                    // should not happen for tile-compositable layers,
+                    // but if it does, fall back to the full recalculation
+                    g.dispose();
+                    image = null;
+                    recompositeAll(layers, canvas);
+                    return;
+                }
+                firstVisibleLayer = false;
+            }
+        }
+        g.dispose();
+
+        clearDirtyFlags();
+    }
+
+    /**
+     * Returns the union of the dirty tiles, merging
+     * the horizontally adjacent tiles into strips.
+     */
+    private Area calcDirtyArea() {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Area area = new Area();
+        for (int ty = 0; ty < numTilesY; ty++) {
+            int runStart = -1;
+            for (int tx = 0; tx <= numTilesX; tx++) {
+                boolean dirty = tx < numTilesX && dirtyTiles[ty * numTilesX + tx];
+                if (dirty && runStart == -1) {
+                    runStart = tx;
+                } else if (!dirty && runStart != -1) {
+                    int x = runStart * TILE_SIZE;
+                    int y = ty * TILE_SIZE;
+                    int w = Math.min(tx * TILE_SIZE, width) - x;
+                    int h = Math.min(y + TILE_SIZE, height) - y;
+                    area.add(new Area(new Rectangle(x, y, w, h)));
+                    runStart = -1;
+                }
+            }
+        }
+        return area;
+    }
+
+    private void initTiles(int width, int height) {
+        numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        dirtyTiles = new boolean[numTilesX * numTilesY];
+        numDirtyTiles = 0;
+    }
+
+    private void clearDirtyFlags() {
+        Arrays.fill(dirtyTiles, false);
+        numDirtyTiles = 0;
+    }
+
+    /**
+     * Forces the recalculation of the whole composite image.
+     */
+    public void invalidateAll() {
+        if (image != null && ownsImage && !snapshotTaken) {
+            image.flush();
+        }
+        image = null;
+        snapshotTaken = false;
+        dirtyTiles = null;
+        numDirtyTiles = 0;
+    }
+
+    /**
+     * Marks the tiles intersecting the given
+     * canvas-relative area as dirty.
+     */
+    public void invalidate(Rectangle area) {
+        if (image == null || dirtyTiles == null) {
+            return; // everything will be recalculated anyway
+        }
+        if (!ownsImage) {
+            invalidateAll();
+            return;
+        }
+
+        Rectangle r = area.intersection(new Rectangle(
+            0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) {
+            return;
+        }
+
+        int minTileX = r.x / TILE_SIZE;
+        int maxTileX = (r.x + r.width - 1) / TILE_SIZE;
+        int minTileY = r.y / TILE_SIZE;
+        int maxTileY = (r.y + r.height - 1) / TILE_SIZE;
+        for (int ty = minTileY; ty <= maxTileY; ty++) {
+            for (int tx = minTileX; tx <= maxTileX; tx++) {
+                int index = ty * numTilesX + tx;
+                if (!dirtyTiles[index]) {
+                    dirtyTiles[index] = true;
+                    numDirtyTiles++;
+                }
+            }
+        }
+    }
+
+    public int getNumDirtyTiles() {
+        return numDirtyTiles;
+    }
+
+    public DebugNode createDebugNode(String key) {
+        var node = new DebugNode(key, this);
+        node.addInt("tile size", TILE_SIZE);
+        node.addInt("tiles x", numTilesX);
+        node.addInt("tiles y", numTilesY);
+        node.addInt("dirty tiles", numDirtyTiles);
+        node.addBoolean("owns image", ownsImage);
+        node.addBoolean("snapshot taken", snapshotTaken);
+        return node;
+    }
+}
@@ -27,9 +27,11 @@ import pixelitor.io.*;
 import pixelitor.utils.Messages;
 
 import javax.swing.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
 import static java.lang.String.format;
 import static javax.swing.JOptionPane.WARNING_MESSAGE;
@@ -58,6 +60,19 @@ public class Automate {
      * with the given {@link CompAction}.
      */
     public static void processFiles(CompAction action, String dialogTitle) {
+        processFiles(action, null, dialogTitle);
+    }
+
+    /**
+     * Processes each file in the input directory. If the image action
+     * isn't null, and it's possible to process the files without
+     * opening them as compositions, then the files are processed
+     * in parallel with the image action, otherwise they are opened
+     * one by one and processed with the {@link CompAction}.
+     */
+    public static void processFiles(CompAction action,
+                                    UnaryOperator<BufferedImage> imageAction,
+                                    String dialogTitle) {
         assert calledOnEDT() : threadInfo();
 
         File openDir = Dirs.getLastOpen();
@@ -70,6 +85,12 @@ public class Automate {
             return;
         }
 
+        var format = FileFormat.getLastSaved();
+        if (imageAction != null && BatchProcessor.canProcess(inputFiles, format)) {
+            processFilesInParallel(inputFiles, imageAction, saveDir, format, dialogTitle);
+            return;
+        }
+
         stopProcessing = false;
         var pm = GUIUtils.createPercentageProgressMonitor(dialogTitle);
         var worker = new SwingWorker<Void, Void>() {
@@ -81,6 +102,45 @@ public class Automate {
         worker.execute();
     }
 
+    private static void processFilesInParallel(List<File> inputFiles,
+                                               UnaryOperator<BufferedImage> imageAction,
+                                               File saveDir,
+                                               FileFormat format,
+                                               String dialogTitle) {
+        // ask only once, because the files aren't processed in order
+        boolean skipExisting = false;
+        File existing = inputFiles.stream()
+            .map(file -> BatchProcessor.calcOutputFile(file, saveDir, format))
+            .filter(File::exists)
+            .findFirst()
+            .orElse(null);
+        if (existing != null) {
+            String answer = showOverwriteWarningDialog(existing);
+            switch (answer) {
+                case OVERWRITE_YES, OVERWRITE_YES_ALL:
+                    break;
+                case OVERWRITE_NO:
+                    skipExisting = true;
+                    break;
+                case OVERWRITE_CANCEL:
+                    return;
+                default:
+                    throw new IllegalStateException("Unexpected value: " + answer);
+            }
+        }
+
+        var processor = new BatchProcessor(inputFiles, saveDir, format, imageAction, skipExisting);
+        var pm = GUIUtils.createPercentageProgressMonitor(dialogTitle);
+        var worker = new SwingWorker<Void, Void>() {
+            @Override
+            public Void doInBackground() {
+                processor.process(pm);
+                return null;
+            }
+        };
+        worker.execute();
+    }
+
     private static Void processFilesInBackground(List<File> inputFiles,
                                                  CompAction action,
                                                  File saveDir,
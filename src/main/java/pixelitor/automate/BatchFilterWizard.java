@@ -21,7 +21,9 @@ import pixelitor.compactions.CompAction;
 import pixelitor.filters.Filter;
 import pixelitor.layers.Drawable;
 
+import java.awt.image.BufferedImage;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.UnaryOperator;
 
 import static pixelitor.FilterContext.BATCH_AUTOMATE;
 import static pixelitor.automate.BatchFilterWizardPage.SELECT_FILTER_AND_DIRS;
@@ -53,7 +55,22 @@ public class BatchFilterWizard extends Wizard {
             comp.getActiveDrawable().startFilter(filter, BATCH_AUTOMATE);
             return CompletableFuture.completedFuture(comp);
         };
-        Automate.processFiles(batchFilterAction, dialogTitle);
+        Automate.processFiles(batchFilterAction, createImageAction(), dialogTitle);
+    }
+
+    /**
+     * Returns the action used to filter the images without
+     * opening them, or null if the filter doesn't support it.
+     */
+    private UnaryOperator<BufferedImage> createImageAction() {
+        // the filters that can be smart don't depend on the
+        // composition, and the filters with user presets can be
+        // copied with their settings for each worker thread
+        if (!filter.canBeSmart() || !filter.canHaveUserPresets()) {
+            return null;
+        }
+        ThreadLocal<Filter> copies = ThreadLocal.withInitial(filter::copy);
+        return img -> copies.get().transformImage(img);
     }
 
     @Override
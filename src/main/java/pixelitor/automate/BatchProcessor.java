@@ -0,0 +1,294 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import pixelitor.io.DecodingException;
+import pixelitor.io.FileFormat;
+import pixelitor.io.FileUtils;
+import pixelitor.io.SaveSettings;
+import pixelitor.io.TrackedIO;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+import pixelitor.utils.Utils;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.*;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static java.lang.String.format;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+import static pixelitor.utils.Threads.calledOutsideEDT;
+
+/**
+ * Processes the files of a batch operation in parallel, without
+ * creating compositions and views. Each file is decoded, transformed
+ * and encoded on a worker thread, and the number of images held in
+ * memory at the same time is limited by a memory budget.
+ */
+class BatchProcessor {
+    private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long NUM_BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    // the source, the result and a temporary copy (for example
+    // the destination of the filter or the converted image)
+    private static final int IMAGES_PER_FILE = 3;
+
+    private static final long PROGRESS_UPDATE_MILLIS = 100;
+
+    // the maximum number of failed files listed in the error message
+    private static final int MAX_LISTED_FAILURES = 10;
+
+    // not the ThreadPool's pool, because the filters running
+    // on these threads submit their own tasks to that pool
+    private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS, r -> {
+        Thread thread = new Thread(r, "Batch Processor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<File> inputFiles;
+    private final File saveDir;
+    private final FileFormat format;
+    private final UnaryOperator<BufferedImage> imageAction;
+    private final boolean skipExisting;
+
+    // the memory budget in megabytes, each running task holds
+    // as many permits as the estimated memory use of its file
+    private final int budgetMb;
+    private final Semaphore memoryBudget;
+
+    private final AtomicInteger numProcessed = new AtomicInteger();
+    private volatile boolean canceled = false;
+
+    BatchProcessor(List<File> inputFiles, File saveDir, FileFormat format,
+                   UnaryOperator<BufferedImage> imageAction, boolean skipExisting) {
+        this(inputFiles, saveDir, format, imageAction, skipExisting,
+            Math.max(1, Utils.getMaxHeapMb() / 2));
+    }
+
+    BatchProcessor(List<File> inputFiles, File saveDir, FileFormat format,
+                   UnaryOperator<BufferedImage> imageAction, boolean skipExisting,
+                   int budgetMb) {
+        this.inputFiles = inputFiles;
+        this.saveDir = saveDir;
+        this.format = format;
+        this.imageAction = imageAction;
+        this.skipExisting = skipExisting;
+
+        this.budgetMb = budgetMb;
+        memoryBudget = new Semaphore(budgetMb);
+    }
+
+    /**
+     * Returns whether the batch can be processed without
+     * opening the files as compositions.
+     */
+    static boolean canProcess(List<File> inputFiles, FileFormat outputFormat) {
+        if (outputFormat.isMultiLayered()) {
+            return false;
+        }
+        for (File file : inputFiles) {
+            boolean singleLayered = FileFormat.fromFile(file)
+                .map(inputFormat -> !inputFormat.isMultiLayered())
+                .orElse(false);
+            if (!singleLayered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static File calcOutputFile(File inputFile, File saveDir, FileFormat format) {
+        String outFileName = FileUtils.replaceExt(inputFile.getName(), format.toString());
+        return new File(saveDir, outFileName);
+    }
+
+    /**
+     * Processes all the files, and blocks until they are finished
+     * or until the operation is canceled through the given monitor.
+     */
+    void process(ProgressMonitor monitor) {
+        assert calledOutsideEDT() : "on EDT";
+
+        long startTime = System.nanoTime();
+        int numFiles = inputFiles.size();
+        List<Future<?>> futures = new ArrayList<>(numFiles);
+        for (File file : inputFiles) {
+            futures.add(executor.submit(() -> processFile(file)));
+        }
+
+        // the failures are reported together at the end,
+        // instead of showing a dialog for each file
+        Map<File, Throwable> failures = new LinkedHashMap<>();
+        int reported = -1;
+        for (int i = 0; i < numFiles; i++) {
+            Future<?> future = futures.get(i);
+            while (true) {
+                try {
+                    future.get(PROGRESS_UPDATE_MILLIS, TimeUnit.MILLISECONDS);
+                    break;
+                } catch (TimeoutException e) {
+                    if (monitor.isCanceled()) {
+                        cancel(futures);
+                    }
+                    reported = updateProgress(monitor, reported, numFiles, startTime);
+                } catch (CancellationException e) {
+                    break;
+                } catch (ExecutionException e) {
+                    failures.put(inputFiles.get(i), e.getCause());
+                    break;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancel(futures);
+                    break;
+                }
+            }
+            reported = updateProgress(monitor, reported, numFiles, startTime);
+        }
+        monitor.close();
+
+        double seconds = (System.nanoTime() - startTime) / 1.0e9;
+        int done = numProcessed.get();
+        String msg = format("Batch processing of %d images finished in %.1f s (%.1f images/s)",
+            done, seconds, done / seconds);
+        SwingUtilities.invokeLater(() -> Messages.showInStatusBar(msg));
+
+        if (!failures.isEmpty()) {
+            reportFailures(failures, numFiles);
+        }
+    }
+
+    private static void reportFailures(Map<File, Throwable> failures, int numFiles) {
+        if (failures.size() == 1) {
+            Messages.showExceptionOnEDT(failures.values().iterator().next());
+            return;
+        }
+
+        var msg = new StringBuilder(format("<html>%d of %d files could not be processed:",
+            failures.size(), numFiles));
+        failures.entrySet().stream()
+            .limit(MAX_LISTED_FAILURES)
+            .forEach(failure -> msg.append(format("<br><b>%s</b>: %s",
+                failure.getKey().getName(), describe(failure.getValue()))));
+        if (failures.size() > MAX_LISTED_FAILURES) {
+            msg.append(format("<br>... and %d more", failures.size() - MAX_LISTED_FAILURES));
+        }
+        SwingUtilities.invokeLater(() ->
+            Messages.showError("Batch Processing Errors", msg.toString()));
+    }
+
+    private static String describe(Throwable failure) {
+        if (failure instanceof DecodingException) {
+            // its message is written to be shown alone
+            return "could not be read as an image file";
+        }
+        String msg = failure.getMessage();
+        return msg != null ? msg : failure.getClass().getSimpleName();
+    }
+
+    private void cancel(List<Future<?>> futures) {
+        canceled = true;
+        for (Future<?> future : futures) {
+            // the running tasks are allowed to finish, so that
+            // no half-written output files are left behind
+            future.cancel(false);
+        }
+    }
+
+    private int updateProgress(ProgressMonitor monitor, int reported, int numFiles, long startTime) {
+        int done = numProcessed.get();
+        if (done != reported && !canceled) {
+            double seconds = (System.nanoTime() - startTime) / 1.0e9;
+            monitor.setProgress((int) ((float) done * 100 / numFiles));
+            monitor.setNote(format("Processing %d of %d (%.1f images/s)",
+                Math.min(done + 1, numFiles), numFiles, done / seconds));
+        }
+        return done;
+    }
+
+    private void processFile(File file) {
+        if (canceled) {
+            return;
+        }
+        File outFile = calcOutputFile(file, saveDir, format);
+        if (skipExisting && outFile.exists()) {
+            numProcessed.incrementAndGet();
+            return;
+        }
+
+        int permits = estimateMemoryMb(file);
+        memoryBudget.acquireUninterruptibly(permits);
+        try {
+            if (canceled) {
+                return;
+            }
+            BufferedImage image = readImage(file);
+            BufferedImage result = imageAction.apply(image);
+            format.saveImage(result, new SaveSettings(format, outFile), NULL_TRACKER);
+        } finally {
+            memoryBudget.release(permits);
+        }
+        numProcessed.incrementAndGet();
+    }
+
+    /**
+     * Returns the estimated memory use of processing the given
+     * file in megabytes, clamped to the memory budget.
+     */
+    int estimateMemoryMb(File file) {
+        long numBytes;
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            Dimension size = TrackedIO.readImageSize(is);
+            numBytes = (long) size.width * size.height * 4 * IMAGES_PER_FILE;
+        } catch (IOException e) {
+            // the error will be reported when the file is read,
+            // until then assume that it's as big as it can be
+            return budgetMb;
+        }
+        long mb = (numBytes + NUM_BYTES_IN_MEGABYTE - 1) / NUM_BYTES_IN_MEGABYTE;
+        // a file bigger than the budget can still run, but only alone
+        return (int) Math.clamp(mb, 1, budgetMb);
+    }
+
+    private static BufferedImage readImage(File file) {
+        BufferedImage image;
+        try (ImageInputStream iis = ImageIO.createImageInputStream(file)) {
+            image = TrackedIO.readFromIIS(iis, NULL_TRACKER);
+        } catch (IOException e) {
+            throw DecodingException.normal(file, e);
+        }
+        if (image == null) {
+            throw DecodingException.normal(file, null);
+        }
+        return ImageUtils.toSysCompatibleImage(image);
+    }
+}
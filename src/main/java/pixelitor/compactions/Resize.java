@@ -25,11 +25,13 @@ import pixelitor.guides.Guides;
 import pixelitor.history.CompositionReplacedEdit;
 import pixelitor.history.History;
 import pixelitor.selection.SelectionActions;
+import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressHandler;
 import pixelitor.utils.Utils;
 
 import java.awt.Dimension;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -69,7 +71,7 @@ public class Resize implements CompAction {
             return CompletableFuture.completedFuture(oldComp);
         }
 
-        var targetSize = calcTargetSize(oldCanvas);
+        var targetSize = calcTargetSize(oldCanvas.getWidth(), oldCanvas.getHeight());
 
         // The resizing runs outside the EDT to allow the progress bar animation
         // to update, and to enable the parallel resizing of multiple layers.
@@ -86,9 +88,19 @@ public class Resize implements CompAction {
             });
     }
 
-    private Dimension calcTargetSize(Canvas oldCanvas) {
-        int canvasCurrHeight = oldCanvas.getWidth();
-        int canvasCurrWidth = oldCanvas.getHeight();
+    /**
+     * Resizes a single image in the same way as the compositions are resized.
+     * Used by the batch processing, which doesn't create compositions.
+     */
+    public BufferedImage resizeImage(BufferedImage img) {
+        Dimension targetSize = calcTargetSize(img.getWidth(), img.getHeight());
+        if (targetSize.width == img.getWidth() && targetSize.height == img.getHeight()) {
+            return img;
+        }
+        return ImageUtils.resize(img, targetSize.width, targetSize.height);
+    }
+
+    private Dimension calcTargetSize(int canvasCurrWidth, int canvasCurrHeight) {
 
         // it's important to use local copies of the final global
         // variables, otherwise batch resize in box gets different
@@ -29,7 +29,6 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.Serial;
 import java.util.Random;
-import java.util.concurrent.Future;
 
 import static java.awt.Color.BLACK;
 import static java.awt.Color.WHITE;
@@ -94,13 +93,11 @@ public class Clouds extends ParametrizedFilter {
         int[] c1Arr = {c1.getAlpha(), c1.getRed(), c1.getGreen(), c1.getBlue()};
         int[] c2Arr = {c2.getAlpha(), c2.getRed(), c2.getGreen(), c2.getBlue()};
 
-        Future<?>[] futures = new Future[height];
-        for (int y = 0; y < height; y++) {
-            int finalY = y;
-            Runnable lineTask = () -> calculateLine(scale, roughness, width, finalY, destData, c1Arr, c2Arr);
-            futures[y] = ThreadPool.submit(lineTask);
-        }
-        ThreadPool.waitFor(futures, pt);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                calculateLine(scale, roughness, width, y, destData, c1Arr, c2Arr);
+            }
+        }, pt);
     }
 
     private void calculateLine(float startingScale, float roughness,
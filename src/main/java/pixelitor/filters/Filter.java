@@ -146,15 +146,28 @@ public abstract class Filter implements Serializable, PresetOwner, Debuggable {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Whether the settings of this filter can be saved into a
+     * {@link UserPreset}, even if there is no user preset support in the GUI.
+     */
+    protected boolean hasPresetState() {
+        return canHaveUserPresets();
+    }
+
+    /**
+     * Returns an independent filter with the same settings, which
+     * is not affected by the later changes of this filter's settings.
+     */
     public Filter copy() {
-        if (canHaveUserPresets()) {
+        if (hasPresetState()) {
             // the serialization proxy can also create duplicates
             return (Filter) new SerializationProxy(this).readResolve();
         }
 
         // can be shared if there are no settings
         // TODO a few filters do have settings, but no preset support.
-        //  Currently, this isn't a problem, because this is used for smart filters only
+        //  Currently, this isn't a problem, because they replace their settings
+        //  objects instead of changing them, and there are no smart versions.
         return this;
     }
 
@@ -184,7 +197,7 @@ public abstract class Filter implements Serializable, PresetOwner, Debuggable {
             filterClass = filter.getClass();
             filterName = filter.getName();
 
-            if (filter.canHaveUserPresets()) {
+            if (filter.hasPresetState()) {
                 filterState = filter.createUserPreset("").saveToString();
             }
         }
@@ -199,7 +212,7 @@ public abstract class Filter implements Serializable, PresetOwner, Debuggable {
                 Messages.showException(e);
             }
             filter.setName(filterName);
-            if (filter.canHaveUserPresets() && filterState != null) {
+            if (filter.hasPresetState() && filterState != null) {
                 UserPreset preset = new UserPreset("", null);
                 preset.loadFromString(filterState);
                 filter.loadUserPreset(preset);
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters;
+
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.filters.impl.RankFilter;
+import pixelitor.gui.GUIText;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * A median filter with an adjustable radius, which can
+ * also select other percentiles than the median.
+ */
+public class Median extends ParametrizedFilter {
+    public static final String NAME = "Median";
+
+    private final RangeParam radius = new RangeParam(GUIText.RADIUS, 1, 1, 50);
+    private final RangeParam percentile = new RangeParam("Percentile", 0, 50, 100);
+
+    public Median() {
+        super(true);
+
+        percentile.setToolTip("0 selects the minimum, 50 the median and 100 the maximum");
+        setParams(radius, percentile);
+    }
+
+    @Override
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        var filter = new RankFilter(NAME);
+
+        filter.setRadius(radius.getValue());
+        filter.setRank(percentile.getPercentage());
+
+        return filter.filter(src, dest);
+    }
+}
@@ -46,6 +46,10 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
     // the area affected by a filter
     private transient Shape[] affectedAreaShapes;
 
+    // the size of the source image relative to the real image
+    // while a low-resolution proxy preview is calculated
+    private transient double proxyScale = 1.0;
+
     protected ParametrizedFilter(boolean addShowOriginal) {
         this.addShowOriginal = addShowOriginal;
         paramSet = new ParamSet();
@@ -99,6 +103,29 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
         this.affectedAreaShapes = affectedAreaShapes;
     }
 
+    /**
+     * Returns true if, while a parameter is being adjusted, a fast preview
+     * can be calculated on a downscaled copy of the image. Filters
+     * that have parameters in pixel units must scale them
+     * with {@link #getProxyScale()} in order to support this.
+     */
+    public boolean supportsProxyPreview() {
+        return false;
+    }
+
+    /**
+     * Returns the size of the currently filtered image relative to the real
+     * image, which is less than 1.0 only while a proxy preview is calculated.
+     */
+    protected double getProxyScale() {
+        return proxyScale;
+    }
+
+    public void setProxyScale(double proxyScale) {
+        assert proxyScale > 0 && proxyScale <= 1.0 : "proxyScale = " + proxyScale;
+        this.proxyScale = proxyScale;
+    }
+
     /**
      * Some filters can't be animated well, they can return true
      * here in order to be excluded from the list of animation filters
@@ -134,6 +161,12 @@ public abstract class ParametrizedFilter extends FilterWithGUI {
         return paramSet.canHaveUserPresets();
     }
 
+    @Override
+    protected boolean hasPresetState() {
+        // the params can be saved even if the filter is too simple for user presets
+        return true;
+    }
+
     @Override
     public void saveStateTo(UserPreset preset) {
         paramSet.saveStateTo(preset);
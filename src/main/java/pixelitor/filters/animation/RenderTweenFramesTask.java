@@ -143,19 +143,23 @@ class RenderTweenFramesTask extends SwingWorker<Void, Void> {
 
         // all sorts of problems can happen
         // if filters run outside of EDT
+        var comp = dr.getComp();
+        BufferedImage[] frame = new BufferedImage[1];
         Runnable filterRunTask = () -> {
             FilterState intermediateState = animation.tween(time);
             filter.getParamSet().setState(intermediateState, true);
             dr.startFilter(filter, TWEEN_PREVIEW);
+
+            // the composite image can't be recalculated outside the EDT
+            frame[0] = comp.getCompositeSnapshot();
         };
         GUIUtils.invokeAndWait(filterRunTask);
 
         assert Filter.runCount == runCountBefore + 1;
 
-        var comp = dr.getComp();
         comp.repaint();
 
-        return comp.getCompositeImage();
+        return frame[0];
     }
 
     private void finishOnEDT(AnimationWriter animationWriter, boolean canceled) {
@@ -20,6 +20,7 @@ package pixelitor.filters.gmic;
 import pixelitor.filters.ParametrizedFilter;
 import pixelitor.filters.gui.IntChoiceParam;
 import pixelitor.io.IO;
+import pixelitor.io.PipeFormat;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
@@ -43,12 +44,12 @@ public abstract class GMICFilter extends ParametrizedFilter {
         List<String> command = new ArrayList<>(10);
         command.add(GMIC_PATH.getAbsolutePath());
         command.add("-input");
-        command.add("-.png");
+        command.add("-.cimg");
         command.addAll(args);
         command.add("-output");
-        command.add("-.png");
+        command.add("-.cimg");
 
-        return IO.commandLineFilter(src, getName(), command);
+        return IO.commandLineFilter(src, getName(), command, PipeFormat.CIMG);
     }
 
     public abstract List<String> getArgs();
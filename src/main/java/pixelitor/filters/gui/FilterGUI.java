@@ -43,4 +43,12 @@ public abstract class FilterGUI extends JPanel {
 
         layer.startPreview(filter, first, busyCursorParent);
     }
+
+    /**
+     * Starts a fast, low-resolution preview, which will
+     * be replaced by the normal preview later.
+     */
+    public void startProxyPreview() {
+        layer.startProxyPreview(filter, this);
+    }
 }
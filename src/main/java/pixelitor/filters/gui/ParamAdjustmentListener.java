@@ -25,4 +25,13 @@ public interface ParamAdjustmentListener {
      * triggered, typically the calculation of a new filter preview.
      */
     void paramAdjusted();
+
+    /**
+     * The user is still modifying the GUI (for example dragging
+     * a slider), and {@link #paramAdjusted()} will be called
+     * when the adjustment is finished.
+     */
+    default void paramAdjusting() {
+        // by default nothing is calculated for the intermediate values
+    }
 }
@@ -121,6 +121,16 @@ public class ParametrizedFilterGUI extends FilterGUI implements ParamAdjustmentL
         startPreview(false);
     }
 
+    @Override
+    public void paramAdjusting() {
+        if (((ParametrizedFilter) filter).supportsProxyPreview()) {
+            if (hasShowOriginal()) {
+                showOriginalCB.deselectWithoutTriggering();
+            }
+            startProxyPreview();
+        }
+    }
+
     private boolean hasShowOriginal() {
         return showOriginalCB != null;
     }
@@ -294,8 +294,12 @@ public class RangeParam extends AbstractFilterParam implements BoundedRangeModel
                 paramGUI.updateGUI();
             }
 
-            if (!adjusting && trigger && adjustmentListener != null) {
-                adjustmentListener.paramAdjusted(); // run the filter
+            if (trigger && adjustmentListener != null) {
+                if (adjusting) {
+                    adjustmentListener.paramAdjusting();
+                } else {
+                    adjustmentListener.paramAdjusted(); // run the filter
+                }
             }
         }
     }
@@ -93,7 +93,7 @@ public class SelectImageParam extends ListParam<NamedImage> {
             // it's important to store this image before the filter starts,
             // because the current composite image is affected by the filter
             if (comp != null) {
-                this.image = comp.getCompositeImage();
+                this.image = comp.getCompositeSnapshot();
                 this.comp = comp;
             } else {
                 // Can happen when deserializing a filter in the first
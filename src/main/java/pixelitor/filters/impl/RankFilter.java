@@ -0,0 +1,229 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.WholeImageFilter;
+import pixelitor.ThreadPool;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * A rank filter (minimum, median, maximum or any percentile) with a square
+ * window of arbitrary radius, calculated separately for each channel.
+ * Near the edges only the pixels inside the image are considered.
+ *
+ * The running time doesn't depend on the radius, because it uses sliding
+ * column histograms with a coarse and a fine level, as described in
+ * "Median Filtering in Constant Time" by Perreault and Hébert (2007).
+ */
+public class RankFilter extends WholeImageFilter {
+    public static final double MINIMUM = 0.0;
+    public static final double MEDIAN = 0.5;
+    public static final double MAXIMUM = 1.0;
+
+    private int radius = 1;
+    private double rank = MEDIAN;
+
+    public RankFilter(String filterName) {
+        super(filterName);
+    }
+
+    public void setRadius(int radius) {
+        assert radius >= 0;
+        this.radius = radius;
+    }
+
+    /**
+     * Sets the rank as a fraction of the sorted window: 0 selects
+     * the minimum, 0.5 the median and 1 the maximum.
+     */
+    public void setRank(double rank) {
+        assert rank >= 0 && rank <= 1;
+        this.rank = rank;
+    }
+
+    @Override
+    protected int[] filterPixels(int width, int height, int[] inPixels, Rectangle transformedSpace) {
+        int[] outPixels = new int[width * height];
+
+        pt = createProgressTracker(height);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            var band = new BandFilter(inPixels, outPixels, width, height, radius, rank);
+            for (int shift = 0; shift < 32; shift += 8) {
+                band.filterChannel(shift, startY, endY);
+            }
+        }, pt);
+        finishProgressTracker();
+
+        return outPixels;
+    }
+
+    /**
+     * Filters the rows of a band, one channel at a time.
+     */
+    private static class BandFilter {
+        private static final int NUM_FINE_BINS = 256;
+        private static final int NUM_COARSE_BINS = 16;
+        private static final int SEGMENT_SHIFT = 4;
+        private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT; // fine bins for each coarse bin
+        private static final int NOT_UPDATED = Integer.MIN_VALUE;
+
+        private final int[] inPixels;
+        private final int[] outPixels;
+        private final int width;
+        private final int height;
+        private final int radius;
+        private final double rank;
+
+        // The histograms of the columns within the vertical window of the current
+        // row. Column x is stored at index x + radius + 1, and the empty columns
+        // padded on both sides spare the bounds checks while sliding.
+        private final short[] colCoarse;
+        private final short[] colFine;
+
+        // the histograms of the current window
+        private final int[] kernelCoarse = new int[NUM_COARSE_BINS];
+        private final int[] kernelFine = new int[NUM_FINE_BINS];
+
+        // The fine histogram is updated lazily, only in the segments
+        // that are needed. This stores the x for which a segment is up to date.
+        private final int[] segmentX = new int[NUM_COARSE_BINS];
+
+        BandFilter(int[] inPixels, int[] outPixels, int width, int height, int radius, double rank) {
+            this.inPixels = inPixels;
+            this.outPixels = outPixels;
+            this.width = width;
+            this.height = height;
+            this.radius = radius;
+            this.rank = rank;
+
+            int numColumns = width + 2 * radius + 2;
+            colCoarse = new short[numColumns * NUM_COARSE_BINS];
+            colFine = new short[numColumns * NUM_FINE_BINS];
+        }
+
+        void filterChannel(int shift, int startY, int endY) {
+            Arrays.fill(colCoarse, (short) 0);
+            Arrays.fill(colFine, (short) 0);
+
+            int firstRow = Math.max(0, startY - radius);
+            int lastRow = Math.min(height - 1, startY + radius);
+            for (int y = firstRow; y <= lastRow; y++) {
+                updateColumns(y, shift, 1);
+            }
+
+            for (int y = startY; y < endY; y++) {
+                if (y > startY) {
+                    // slide the vertical window down
+                    int removedRow = y - radius - 1;
+                    if (removedRow >= 0) {
+                        updateColumns(removedRow, shift, -1);
+                    }
+                    int addedRow = y + radius;
+                    if (addedRow < height) {
+                        updateColumns(addedRow, shift, 1);
+                    }
+                }
+                int numRows = Math.min(height - 1, y + radius) - Math.max(0, y - radius) + 1;
+                filterRow(y, shift, numRows);
+            }
+        }
+
+        private void updateColumns(int y, int shift, int delta) {
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                int value = (inPixels[rowStart + x] >>> shift) & 0xFF;
+                int column = x + radius + 1;
+                colCoarse[column * NUM_COARSE_BINS + (value >> SEGMENT_SHIFT)] += delta;
+                colFine[column * NUM_FINE_BINS + value] += delta;
+            }
+        }
+
+        private void filterRow(int y, int shift, int numRows) {
+            // the window of the first pixel covers the columns -radius..radius
+            Arrays.fill(kernelCoarse, 0);
+            for (int column = 1; column <= 2 * radius + 1; column++) {
+                int start = column * NUM_COARSE_BINS;
+                for (int k = 0; k < NUM_COARSE_BINS; k++) {
+                    kernelCoarse[k] += colCoarse[start + k];
+                }
+            }
+            Arrays.fill(segmentX, NOT_UPDATED);
+
+            int rowStart = y * width;
+            for (int x = 0; x < width; x++) {
+                if (x > 0) {
+                    // slide the window right: add the column x + radius
+                    // and remove the column x - radius - 1
+                    int added = (x + 2 * radius + 1) * NUM_COARSE_BINS;
+                    int removed = x * NUM_COARSE_BINS;
+                    for (int k = 0; k < NUM_COARSE_BINS; k++) {
+                        kernelCoarse[k] += colCoarse[added + k] - colCoarse[removed + k];
+                    }
+                }
+
+                int numColumns = Math.min(width - 1, x + radius) - Math.max(0, x - radius) + 1;
+                int target = (int) (rank * (numRows * numColumns - 1) + 0.5);
+
+                // find the coarse bin, and then the value within its segment
+                int k = 0;
+                int sum = 0;
+                while (sum + kernelCoarse[k] <= target) {
+                    sum += kernelCoarse[k];
+                    k++;
+                }
+                updateSegment(k, x);
+                int value = k << SEGMENT_SHIFT;
+                while (sum + kernelFine[value] <= target) {
+                    sum += kernelFine[value];
+                    value++;
+                }
+
+                outPixels[rowStart + x] |= value << shift;
+            }
+        }
+
+        // brings the given segment of the fine histogram up to date for the given x
+        private void updateSegment(int k, int x) {
+            int lastX = segmentX[k];
+            int windowWidth = 2 * radius + 1;
+            if (lastX == NOT_UPDATED || x - lastX > windowWidth) {
+                // recalculating is faster than sliding
+                Arrays.fill(kernelFine, k << SEGMENT_SHIFT, (k + 1) << SEGMENT_SHIFT, 0);
+                for (int column = x + 1; column <= x + windowWidth; column++) {
+                    addSegment(column, k, 1);
+                }
+            } else {
+                for (int j = lastX + 1; j <= x; j++) {
+                    addSegment(j + windowWidth, k, 1);
+                    addSegment(j, k, -1);
+                }
+            }
+            segmentX[k] = x;
+        }
+
+        private void addSegment(int column, int k, int sign) {
+            int first = k << SEGMENT_SHIFT;
+            int colStart = column * NUM_FINE_BINS + first;
+            for (int i = 0; i < SEGMENT_SIZE; i++) {
+                kernelFine[first + i] += sign * colFine[colStart + i];
+            }
+        }
+    }
+}
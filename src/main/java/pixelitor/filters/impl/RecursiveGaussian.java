@@ -0,0 +1,220 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.PixelUtils;
+import pixelitor.ThreadPool;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.Arrays;
+
+/**
+ * A Gaussian blur whose running time doesn't depend on the radius.
+ *
+ * It uses the third-order recursive filter described in "Recursive
+ * implementation of the Gaussian filter" by Young and van Vliet (1995):
+ * a causal and an anti-causal pass over each row, both with three
+ * feedback coefficients. The result approximates the kernel convolution
+ * within a few levels, and the approximation gets better with the sigma.
+ */
+public class RecursiveGaussian {
+    // the approximation is not accurate for small sigmas
+    public static final float MIN_SIGMA = 2.5f;
+
+    private RecursiveGaussian() {
+        // should not be instantiated
+    }
+
+    /**
+     * Blurs the rows of the given ARGB pixels, and writes
+     * them transposed, like GaussianFilter.convolveAndTranspose.
+     * The edges are clamped. The sigma must be at least {@link #MIN_SIGMA}.
+     */
+    public static void blurAndTranspose(int[] inPixels, int[] outPixels,
+                                        int width, int height, float sigma,
+                                        boolean premultiply, boolean unpremultiply,
+                                        ProgressTracker pt) {
+        assert sigma >= MIN_SIGMA : "sigma = " + sigma;
+
+        var coefficients = new Coefficients(sigma);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            float[] line = new float[4 * width];
+            for (int y = startY; y < endY; y++) {
+                readLine(inPixels, y * width, width, premultiply, line);
+                coefficients.filter(line, width);
+                writeLineTransposed(line, outPixels, y, width, height, unpremultiply);
+            }
+        }, pt);
+    }
+
+    // the channels are interleaved in the order a, r, g, b
+    private static void readLine(int[] pixels, int offset, int width,
+                                 boolean premultiply, float[] line) {
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            int rgb = pixels[offset + x];
+            int a = (rgb >>> 24) & 0xFF;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
+            if (premultiply) {
+                // truncated in the same way as in the convolution
+                float a255 = a * (1.0f / 255.0f);
+                r = (int) (r * a255);
+                g = (int) (g * a255);
+                b = (int) (b * a255);
+            }
+            line[i] = a;
+            line[i + 1] = r;
+            line[i + 2] = g;
+            line[i + 3] = b;
+        }
+    }
+
+    private static void writeLineTransposed(float[] line, int[] outPixels, int y,
+                                            int width, int height, boolean unpremultiply) {
+        int index = y;
+        for (int x = 0, i = 0; x < width; x++, i += 4) {
+            float a = line[i];
+            float r = line[i + 1];
+            float g = line[i + 2];
+            float b = line[i + 3];
+            if (unpremultiply && a != 0 && a != 255) {
+                float f = 255.0f / a;
+                r *= f;
+                g *= f;
+                b *= f;
+            }
+            int ia = PixelUtils.clamp((int) (a + 0.5f));
+            int ir = PixelUtils.clamp((int) (r + 0.5f));
+            int ig = PixelUtils.clamp((int) (g + 0.5f));
+            int ib = PixelUtils.clamp((int) (b + 0.5f));
+            outPixels[index] = (ia << 24) | (ir << 16) | (ig << 8) | ib;
+            index += height;
+        }
+    }
+
+    /**
+     * The normalized filter coefficients for a given sigma.
+     */
+    private static class Coefficients {
+        private final float b;
+        private final float b1;
+        private final float b2;
+        private final float b3;
+
+        // maps the last three deviations of the causal pass from the
+        // edge value to the initial state of the anti-causal pass
+        private final float[][] edgeMatrix = new float[3][3];
+
+        Coefficients(float sigma) {
+            double q;
+            if (sigma >= 2.5) {
+                q = 0.98711 * sigma - 0.96330;
+            } else {
+                q = 3.97156 - 4.14554 * Math.sqrt(1 - 0.26891 * sigma);
+            }
+            double q2 = q * q;
+            double q3 = q2 * q;
+            double b0 = 1.57825 + 2.44413 * q + 1.4281 * q2 + 0.422205 * q3;
+            double c1 = (2.44413 * q + 2.85619 * q2 + 1.26661 * q3) / b0;
+            double c2 = -(1.4281 * q2 + 1.26661 * q3) / b0;
+            double c3 = 0.422205 * q3 / b0;
+
+            b1 = (float) c1;
+            b2 = (float) c2;
+            b3 = (float) c3;
+            b = (float) (1 - (c1 + c2 + c3));
+
+            calcEdgeMatrix(sigma, c1, c2, c3);
+        }
+
+        /**
+         * Calculates the initial state of the anti-causal pass that is
+         * equivalent to clamping the right edge (see "Boundary conditions
+         * for Young-van Vliet recursive filtering" by Triggs and Sdika).
+         * Instead of the closed formula, both passes are run beyond
+         * the edge for each unit deviation, which is cheap, because
+         * it's done only once for each sigma.
+         */
+        private void calcEdgeMatrix(float sigma, double c1, double c2, double c3) {
+            double c = 1 - (c1 + c2 + c3);
+            // long enough for the impulse response to decay
+            int length = (int) (12 * sigma) + 64;
+            double[] d = new double[length + 3];
+            for (int j = 0; j < 3; j++) {
+                // d[0..2] are the deviations at the positions N-3..N-1
+                Arrays.fill(d, 0);
+                d[2 - j] = 1;
+                for (int n = 3; n < d.length; n++) {
+                    d[n] = c1 * d[n - 1] + c2 * d[n - 2] + c3 * d[n - 3];
+                }
+                double e1 = 0, e2 = 0, e3 = 0;
+                for (int n = d.length - 1; n >= 3; n--) {
+                    double e = c * d[n] + c1 * e1 + c2 * e2 + c3 * e3;
+                    e3 = e2;
+                    e2 = e1;
+                    e1 = e;
+                }
+                // e1, e2 and e3 are now the deviations at N, N+1 and N+2
+                edgeMatrix[0][j] = (float) e1;
+                edgeMatrix[1][j] = (float) e2;
+                edgeMatrix[2][j] = (float) e3;
+            }
+        }
+
+        /**
+         * Filters the interleaved channels of a line in place.
+         * The edges are clamped: the causal pass starts in the
+         * steady state of the first value, and the anti-causal pass
+         * continues the causal one beyond the last value.
+         */
+        void filter(float[] line, int width) {
+            int last = 4 * (width - 1);
+            for (int c = 0; c < 4; c++) {
+                float edgeValue = line[last + c];
+
+                // forward (causal) pass
+                float w1 = line[c];
+                float w2 = w1;
+                float w3 = w1;
+                for (int i = c; i <= last + c; i += 4) {
+                    float w = b * line[i] + b1 * w1 + b2 * w2 + b3 * w3;
+                    line[i] = w;
+                    w3 = w2;
+                    w2 = w1;
+                    w1 = w;
+                }
+
+                // backward (anti-causal) pass
+                float d1 = w1 - edgeValue;
+                float d2 = w2 - edgeValue;
+                float d3 = w3 - edgeValue;
+                float y1 = edgeValue + edgeMatrix[0][0] * d1 + edgeMatrix[0][1] * d2 + edgeMatrix[0][2] * d3;
+                float y2 = edgeValue + edgeMatrix[1][0] * d1 + edgeMatrix[1][1] * d2 + edgeMatrix[1][2] * d3;
+                float y3 = edgeValue + edgeMatrix[2][0] * d1 + edgeMatrix[2][1] * d2 + edgeMatrix[2][2] * d3;
+                for (int i = last + c; i >= 0; i -= 4) {
+                    float y = b * line[i] + b1 * y1 + b2 * y2 + b3 * y3;
+                    line[i] = y;
+                    y3 = y2;
+                    y2 = y1;
+                    y1 = y;
+                }
+            }
+        }
+    }
+}
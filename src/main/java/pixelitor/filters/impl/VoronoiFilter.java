@@ -21,7 +21,10 @@ import com.jhlabs.image.PointFilter;
 import pixelitor.GUIMode;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Metric;
+import pixelitor.utils.Metric.DistanceFunction;
+import pixelitor.utils.NearestPointMap;
 import pixelitor.utils.PoissonDiskSampling;
+import pixelitor.utils.ProgressTracker;
 
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -46,6 +49,7 @@ public class VoronoiFilter extends PointFilter {
     private int aaRes2 = aaRes * aaRes;
 
     private PoissonDiskSampling sampling;
+    private NearestPointMap nearestPoints;
     private int[] colors;
 
     private SplittableRandom rand;
@@ -96,6 +100,9 @@ public class VoronoiFilter extends PointFilter {
             colors[i] = color;
         }
 
+        nearestPoints = new NearestPointMap(points, width, height,
+            metric, ProgressTracker.NULL_TRACKER);
+
         return super.filter(src, dst);
     }
 
@@ -118,10 +125,9 @@ public class VoronoiFilter extends PointFilter {
 
     @Override
     public int filterRGB(int x, int y, int rgb) {
-        int closestIndex = sampling.findClosestPointTo(x, y,
-            metric.asIntPrecisionDistance());
+        int closestIndex = nearestPoints.getIndex(x, y);
         if (closestIndex == -1) {
-            // there wasn't a point in the cell or in its neighbours
+            // there weren't any points
             if (GUIMode.isDevelopment()) {
                 throw new IllegalStateException(String.format(
                     "x = %d, y = %d", x, y));
@@ -165,12 +171,13 @@ public class VoronoiFilter extends PointFilter {
         int g = 0;
         int b = 0;
 
+        DistanceFunction distance = metric.asDoublePrecisionDistance();
         for (int i = 0; i < aaRes; i++) {
             double yy = y + 1.0 / aaRes * i - 0.5;
             for (int j = 0; j < aaRes; j++) {
                 double xx = x + 1.0 / aaRes * j - 0.5;
                 // xx and yy are the supersampling coordinates
-                int closestIndex = sampling.findClosestPointTo(xx, yy, metric.asDoublePrecisionDistance());
+                int closestIndex = nearestPoints.findClosestNear(xx, yy, distance);
                 int color = colors[closestIndex];
                 r += (color >>> 16) & 0xFF;
                 g += (color >>> 8) & 0xFF;
@@ -61,7 +61,7 @@ public class JHLensBlur extends ParametrizedFilter {
             filter = new LensBlurFilter(NAME);
         }
 
-        filter.setRadius(amount.getValueAsFloat());
+        filter.setRadius((float) (amount.getValueAsFloat() * getProxyScale()));
         filter.setSides(numSides.getValue());
         filter.setBloom(bloomFactor.getValueAsFloat());
         filter.setBloomThreshold(bloomThreshold.getValueAsFloat());
@@ -75,6 +75,11 @@ public class JHLensBlur extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public boolean supportsProxyPreview() {
+        return true;
+    }
+
     @Override
     public boolean supportsGray() {
         return !hpSharpening.isChecked();
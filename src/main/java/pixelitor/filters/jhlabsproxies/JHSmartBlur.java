@@ -65,7 +65,7 @@ public class JHSmartBlur extends ParametrizedFilter {
 
         // The SmartBlurFilter API allows setting the horizontal and vertical
         // radii separately, but the implementation seems to be buggy
-        filter.setRadius(radius);
+        filter.setRadius((int) Math.round(radius * getProxyScale()));
 
         filter.setThreshold(threshold.getValue());
 
@@ -78,6 +78,11 @@ public class JHSmartBlur extends ParametrizedFilter {
         return dest;
     }
 
+    @Override
+    public boolean supportsProxyPreview() {
+        return true;
+    }
+
     @Override
     public boolean supportsGray() {
         return !hpSharpening.isChecked();
@@ -18,8 +18,10 @@
 package pixelitor.filters.lookup;
 
 import com.jhlabs.image.PixelUtils;
+import pixelitor.ThreadPool;
 import pixelitor.filters.util.FilterPalette;
 import pixelitor.utils.ImageUtils;
+import pixelitor.utils.ProgressTracker;
 
 import java.awt.RenderingHints;
 import java.awt.geom.Point2D;
@@ -28,9 +30,28 @@ import java.awt.image.*;
 
 /**
  * Performs 4-5 times faster than {@link LookupOp} if
- * the image has packed ints
+ * the image has packed ints, even on a single core.
+ * The rows are processed in parallel, and the premultiplied
+ * pixels are converted with precomputed tables.
  */
 public class FastLookupOp implements BufferedImageOp {
+    // The results of unpremultiplying and premultiplying a
+    // color component c with the alpha a, indexed by a * 256 + c.
+    private static final byte[] UNPREMULTIPLY = new byte[256 * 256];
+    private static final byte[] PREMULTIPLY = new byte[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            float f = 255.0f / a;
+            float f2 = a * (1.0f / 255.0f);
+            for (int c = 0; c < 256; c++) {
+                int index = (a << 8) + c;
+                UNPREMULTIPLY[index] = (byte) Math.min((int) (c * f), 255);
+                PREMULTIPLY[index] = (byte) PixelUtils.clamp((int) (c * f2));
+            }
+        }
+    }
+
     private final ShortLookupTable lut;
 
     public FastLookupOp(ShortLookupTable lut) {
@@ -44,7 +65,7 @@ public class FastLookupOp implements BufferedImageOp {
             if (dst == null) {
                 dst = ImageUtils.createImageWithSameCM(src);
             }
-            boolean notPremultiplied = !src.isAlphaPremultiplied();
+            boolean premultiplied = src.isAlphaPremultiplied();
 
             int[] srcData = ((DataBufferInt) src.getRaster()
                 .getDataBuffer()).getData();
@@ -52,60 +73,17 @@ public class FastLookupOp implements BufferedImageOp {
             int[] destData = ((DataBufferInt) dst.getRaster()
                 .getDataBuffer()).getData();
 
+            int width = src.getWidth();
             int numPixels = srcData.length;
             assert numPixels == destData.length;
+            assert numPixels == width * src.getHeight();
 
             short[][] table = lut.getTable();
 
-            for (int i = 0; i < numPixels; i++) {
-                int rgb = srcData[i];
-                int a = (rgb >>> 24) & 0xFF;
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                if (a == 255 || notPremultiplied) {
-                    r = table[0][r];
-                    g = table[1][g];
-                    b = table[2][b];
-                } else if (a == 0) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                } else {
-                    // unpremultiply
-                    float f = 255.0f / a;
-                    int ur = (int) (r * f);
-                    int ug = (int) (g * f);
-                    int ub = (int) (b * f);
-
-                    if (ur > 255) {
-                        ur = 255;
-                    }
-                    if (ug > 255) {
-                        ug = 255;
-                    }
-                    if (ub > 255) {
-                        ub = 255;
-                    }
-
-                    // lookup
-                    ur = table[0][ur];
-                    ug = table[1][ug];
-                    ub = table[2][ub];
-
-                    // premultiply
-                    float f2 = a * (1.0f / 255.0f);
-                    r = (int) (ur * f2);
-                    g = (int) (ug * f2);
-                    b = (int) (ub * f2);
-
-                    r = PixelUtils.clamp(r);
-                    g = PixelUtils.clamp(g);
-                    b = PixelUtils.clamp(b);
-                }
-                destData[i] = a << 24 | r << 16 | g << 8 | b;
-            }
+            // the bands of rows are processed in parallel
+            ThreadPool.processBands(width, src.getHeight(), (startY, endY) ->
+                    filterPixels(srcData, destData, startY * width, endY * width, table, premultiplied),
+                ProgressTracker.NULL_TRACKER);
         } else if (src.getColorModel() instanceof IndexColorModel) {
             short[][] table = lut.getTable();
             return new FilterPalette(src) {
@@ -133,6 +111,35 @@ public class FastLookupOp implements BufferedImageOp {
         return dst;
     }
 
+    private static void filterPixels(int[] srcData, int[] destData, int from, int to,
+                                     short[][] table, boolean premultiplied) {
+        short[] redTable = table[0];
+        short[] greenTable = table[1];
+        short[] blueTable = table[2];
+
+        for (int i = from; i < to; i++) {
+            int rgb = srcData[i];
+            int a = (rgb >>> 24) & 0xFF;
+            int r = (rgb >>> 16) & 0xFF;
+            int g = (rgb >>> 8) & 0xFF;
+            int b = rgb & 0xFF;
+
+            if (a == 255 || !premultiplied) {
+                r = redTable[r];
+                g = greenTable[g];
+                b = blueTable[b];
+            } else {
+                // unpremultiply, look up, and premultiply again.
+                // For a == 0 the tables give 0.
+                int rowStart = a << 8;
+                r = PREMULTIPLY[rowStart + redTable[UNPREMULTIPLY[rowStart + r] & 0xFF]] & 0xFF;
+                g = PREMULTIPLY[rowStart + greenTable[UNPREMULTIPLY[rowStart + g] & 0xFF]] & 0xFF;
+                b = PREMULTIPLY[rowStart + blueTable[UNPREMULTIPLY[rowStart + b] & 0xFF]] & 0xFF;
+            }
+            destData[i] = a << 24 | r << 16 | g << 8 | b;
+        }
+    }
+
     @Override
     public Rectangle2D getBounds2D(BufferedImage src) {
         return null;
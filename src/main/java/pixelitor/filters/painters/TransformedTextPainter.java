@@ -140,6 +140,7 @@ public class TransformedTextPainter extends TextPainter {
     public BufferedImage renderRectangle(Rectangle bounds) {
         BufferedImage img = new BufferedImage(bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2 = img.createGraphics();
+        configureGraphics(g2);
         g2.translate(-bounds.x, -bounds.y);
         paintText(g2, null, bounds.width, bounds.height, false);
         g2.dispose();
@@ -176,19 +177,47 @@ public class TransformedTextPainter extends TextPainter {
         boundingBox = calculateLayout(textWidth, textHeight, width, height);
     }
 
+    /**
+     * Calculates the layout for the given canvas size (and the shape
+     * used by the effects) without painting, so that the text can be
+     * rendered later with {@link #renderRectangle(Rectangle)}.
+     */
+    public void updateLayout(int canvasWidth, int canvasHeight) {
+        // This image is created just to get a Graphics2D somehow...
+        BufferedImage tmp = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2 = tmp.createGraphics();
+        configureGraphics(g2);
+
+        updateLayout(canvasWidth, canvasHeight, getText(), g2.getFontMetrics(font));
+        if (getAreaEffects().length != 0) {
+            transformedShape = calcTextShape(g2, canvasWidth, canvasHeight);
+        }
+
+        g2.dispose();
+        tmp.flush();
+    }
+
     public Shape getTextShape(Canvas canvas) {
         // This image is created just to get a Graphics2D somehow...
         BufferedImage tmp = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2 = tmp.createGraphics();
+
+        Shape shape = calcTextShape(g2, canvas.getWidth(), canvas.getHeight());
+
+        g2.dispose();
+        tmp.flush();
+
+        return shape;
+    }
+
+    // assumes that the text's location is already calculated
+    private Shape calcTextShape(Graphics2D g2, int width, int height) {
         var imgOrigTransform = g2.getTransform();
 
         setupGraphics(g2);
         var at = g2.getTransform();
         g2.setTransform(imgOrigTransform); // provideShape must be called with untransformed Graphics
-        Shape shape = provideShape(g2, null, canvas.getWidth(), canvas.getHeight());
-
-        g2.dispose();
-        tmp.flush();
+        Shape shape = provideShape(g2, null, width, height);
 
         return at.createTransformedShape(shape);
     }
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.util;
+
+import pixelitor.FilterContext;
+import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.gui.View;
+import pixelitor.gui.utils.DialogBuilder;
+import pixelitor.gui.utils.GUIUtils;
+import pixelitor.layers.Drawable;
+import pixelitor.utils.CancellationToken;
+import pixelitor.utils.Cursors;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+
+import javax.swing.*;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR;
+import static pixelitor.utils.Threads.calledOnEDT;
+import static pixelitor.utils.Threads.threadInfo;
+
+/**
+ * Runs the filter previews of {@link Drawable}s outside the EDT.
+ * At most one preview runs at a time, and while it runs, only the
+ * latest request is kept: the intermediate parameter states
+ * (for example while dragging a slider) are skipped. Only the result
+ * of the latest request reaches {@link Drawable#changePreviewImage},
+ * the results of the outdated runs are dropped.
+ *
+ * While a parameter is being adjusted, filters supporting it can
+ * be previewed on a downscaled proxy image (sized to the zoom of the
+ * view), which is replaced by a full resolution preview at the end.
+ *
+ * A running preview is canceled (through its {@link CancellationToken})
+ * if its result is not needed anymore, so that the cores are freed
+ * for the next run.
+ *
+ * The background thread never sees the filter edited in the dialog:
+ * each run gets a copy of it, made on the EDT when the run starts.
+ *
+ * Apart from the trivial cases when there is nothing to
+ * do, the public methods must be called on the EDT.
+ */
+public class PreviewScheduler {
+    // The previews can't run in the ThreadPool, because
+    // the filters themselves submit their tasks there.
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Filter Preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // incremented for each new request and cancellation,
+    // a result is used only if its generation is still the current one
+    private static long generation = 0;
+
+    private static PreviewRun running;
+    private static PreviewRun pending;
+
+    // not null if the currently shown preview is a proxy preview
+    private static PreviewRun lastDeliveredProxy;
+
+    // the run waited for after the filter dialog was accepted
+    private static PreviewRun finalRun;
+    private static boolean finalRunSucceeded;
+    private static JDialog finalRunDialog;
+
+    // images smaller than this are filtered fast enough at full resolution
+    private static final int MIN_PROXY_SOURCE_PIXELS = 1_000_000;
+    private static final int MAX_PROXY_PIXELS = 1_000_000;
+    // above this scale a proxy preview would not be much faster
+    private static final double MAX_PROXY_SCALE = 0.75;
+
+    private static final int BUSY_CURSOR_DELAY_MILLIS = 300;
+    private static Component busyCursorParent;
+    private static final Timer busyCursorTimer = new Timer(BUSY_CURSOR_DELAY_MILLIS, e -> {
+        if (busyCursorParent != null) {
+            busyCursorParent.setCursor(Cursors.BUSY);
+        }
+    });
+
+    static {
+        busyCursorTimer.setRepeats(false);
+    }
+
+    private PreviewScheduler() {
+        // should not be instantiated
+    }
+
+    /**
+     * Requests a new preview run with the current settings of the filter.
+     */
+    public static void schedule(Drawable dr, Filter filter, Component cursorParent) {
+        assert calledOnEDT() : threadInfo();
+
+        generation++;
+        enqueue(new PreviewRun(dr, filter, generation, 1.0), cursorParent);
+    }
+
+    /**
+     * Requests a fast preview on a downscaled copy of the source image.
+     * It does nothing if the image is small or if it's viewed at a high zoom.
+     */
+    public static void scheduleProxy(Drawable dr, ParametrizedFilter filter, Component cursorParent) {
+        assert calledOnEDT() : threadInfo();
+
+        double scale = calcProxyScale(dr);
+        if (scale > MAX_PROXY_SCALE) {
+            return;
+        }
+
+        generation++;
+        enqueue(new PreviewRun(dr, filter, generation, scale), cursorParent);
+    }
+
+    private static double calcProxyScale(Drawable dr) {
+        BufferedImage src = dr.getFilterSourceImage();
+        double numPixels = (double) src.getWidth() * src.getHeight();
+        if (numPixels < MIN_PROXY_SOURCE_PIXELS) {
+            return 1.0;
+        }
+
+        double scale = Math.sqrt(MAX_PROXY_PIXELS / numPixels);
+        View view = dr.getComp().getView();
+        if (view != null) {
+            // no need to calculate more pixels than what can be seen
+            scale = Math.min(scale, view.getScaling());
+        }
+        return Math.min(scale, 1.0);
+    }
+
+    private static void enqueue(PreviewRun run, Component cursorParent) {
+        setBusyCursorParent(cursorParent);
+
+        if (running == null) {
+            start(run);
+        } else {
+            // replaces the previously pending request, if any
+            pending = run;
+            if (run.isProxy() && !running.isProxy()) {
+                // the user started adjusting a parameter again, and
+                // a slow full-resolution preview would only delay the proxies
+                running.token.cancel();
+            }
+        }
+    }
+
+    private static void start(PreviewRun run) {
+        running = run;
+        // the source image and the settings are read on the EDT,
+        // because the dialog can change the filter while the run is in progress
+        BufferedImage src = run.dr.getFilterSourceImage();
+        Filter filterCopy = run.filter.copy();
+        assert !run.isProxy() || filterCopy != run.filter;
+        run.future = executor.submit(() -> {
+            try {
+                long startTime = System.nanoTime();
+                // the progress trackers created by the filter can be canceled through the token
+                BufferedImage dest = run.token.callBound(() -> run.isProxy()
+                    ? transformProxy((ParametrizedFilter) filterCopy, src, run.proxyScale)
+                    : filterCopy.transformImage(src));
+                run.millis = (System.nanoTime() - startTime) / 1_000_000;
+                return dest;
+            } finally {
+                EventQueue.invokeLater(() -> runFinished(run));
+            }
+        });
+    }
+
+    /**
+     * Runs the given filter copy on a downscaled source image. The proxy
+     * scale is set only on the copy, which belongs to a single run.
+     */
+    private static BufferedImage transformProxy(ParametrizedFilter filterCopy,
+                                                BufferedImage src, double scale) {
+        int proxyWidth = Math.max(1, (int) (src.getWidth() * scale));
+        int proxyHeight = Math.max(1, (int) (src.getHeight() * scale));
+        BufferedImage proxySrc = ImageUtils.getFasterScaledInstance(src,
+            proxyWidth, proxyHeight, VALUE_INTERPOLATION_BILINEAR, true);
+
+        filterCopy.setProxyScale(proxyWidth / (double) src.getWidth());
+        BufferedImage proxyDest = filterCopy.transformImage(proxySrc);
+
+        // enlarged back, because the preview replaces the full-sized image
+        return ImageUtils.getFasterScaledInstance(proxyDest,
+            src.getWidth(), src.getHeight(), VALUE_INTERPOLATION_BILINEAR, false);
+    }
+
+    private static void runFinished(PreviewRun run) {
+        if (run != running) {
+            return;
+        }
+        running = null;
+        boolean delivered = deliver(run);
+        if (run == finalRun) {
+            finalRunSucceeded = delivered;
+            GUIUtils.closeDialog(finalRunDialog, true);
+        }
+
+        if (pending != null) {
+            PreviewRun next = pending;
+            pending = null;
+            start(next);
+        } else {
+            setBusyCursorParent(null);
+        }
+    }
+
+    /**
+     * Passes the result of the given finished run to its drawable,
+     * if it was not made obsolete in the meantime.
+     *
+     * @return true if the result was passed to the drawable
+     */
+    private static boolean deliver(PreviewRun run) {
+        BufferedImage dest;
+        try {
+            dest = run.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            if (run.generation != generation) {
+                return false; // the failure of an outdated run doesn't matter
+            }
+            if (e.getCause() instanceof CancellationException) {
+                // canceled by the user in the status bar
+                run.dr.filterCanceled(run.filter);
+            } else {
+                run.dr.filterFailed(run.filter, e.getCause());
+            }
+            return false;
+        }
+
+        if (run.generation != generation) {
+            return false; // a newer request or a cancellation arrived
+        }
+        assert dest != null;
+
+        run.dr.changePreviewImage(dest, run.filter.getName(), FilterContext.PREVIEWING);
+        if (run.isProxy()) {
+            lastDeliveredProxy = run;
+        } else {
+            lastDeliveredProxy = null;
+            Messages.showPerformanceMessage(run.filter.getName(), run.millis);
+            Filters.setLastFilter(run.filter);
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure that the latest requested settings are previewed at full
+     * resolution. Called when the filter dialog is accepted, because then
+     * the final preview becomes the new image.
+     *
+     * If the filter still has to run, then it runs outside the EDT, and
+     * a modal dialog offers canceling it. This method returns only when
+     * the run is finished, but the EDT keeps dispatching the events.
+     *
+     * @return false if the final run was canceled or it failed
+     */
+    public static boolean finishPending() {
+        if (isIdle()) {
+            return true;
+        }
+        assert calledOnEDT() : threadInfo();
+
+        PreviewRun last = pending != null ? pending
+            : running != null ? running : lastDeliveredProxy;
+        lastDeliveredProxy = null;
+        if (last.isProxy()) {
+            // the proxy preview must not become the final image
+            generation++;
+            last = new PreviewRun(last.dr, last.filter, generation, 1.0);
+        }
+
+        if (running == null) {
+            start(last);
+        } else if (running != last) {
+            // its result would be replaced anyway
+            running.token.cancel();
+            pending = last;
+        }
+
+        finalRun = last;
+        finalRunSucceeded = false;
+        finalRunDialog = createFinalRunDialog(last);
+        GUIUtils.showDialog(finalRunDialog); // returns when the run is finished or canceled
+        finalRunDialog = null;
+        finalRun = null;
+
+        return finalRunSucceeded;
+    }
+
+    private static JDialog createFinalRunDialog(PreviewRun run) {
+        JProgressBar progressBar = new JProgressBar();
+        progressBar.setIndeterminate(true);
+
+        JPanel content = new JPanel(new BorderLayout(0, 10));
+        content.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        content.add(new JLabel("Applying " + run.filter.getName() + "..."), BorderLayout.NORTH);
+        content.add(progressBar, BorderLayout.CENTER);
+
+        return new DialogBuilder()
+            .title(run.filter.getName())
+            .name("finalRunDialog")
+            .content(content)
+            .noOKButton()
+            .cancelAction(() -> cancelFinalRun(run))
+            .build();
+    }
+
+    private static void cancelFinalRun(PreviewRun run) {
+        if (finalRun != run) {
+            return; // already finished
+        }
+        // the result will be ignored, because its generation is outdated
+        generation++;
+        pending = null;
+        if (running != null) {
+            running.token.cancel();
+        }
+        run.dr.filterCanceled(run.filter);
+    }
+
+    /**
+     * Discards all the running and pending previews.
+     * Called when the filter dialog is canceled.
+     */
+    public static void cancelAll() {
+        if (isIdle()) {
+            return;
+        }
+        assert calledOnEDT() : threadInfo();
+
+        generation++;
+        pending = null;
+        lastDeliveredProxy = null;
+        if (running != null) {
+            // the result would be ignored anyway,
+            // because its generation is outdated
+            running.token.cancel();
+        }
+        setBusyCursorParent(null);
+    }
+
+    public static boolean isIdle() {
+        return running == null && pending == null && lastDeliveredProxy == null;
+    }
+
+    // the busy cursor is shown only if the previews take a long time
+    private static void setBusyCursorParent(Component newParent) {
+        if (busyCursorParent == newParent) {
+            return;
+        }
+        if (busyCursorParent != null) {
+            busyCursorTimer.stop();
+            busyCursorParent.setCursor(Cursors.DEFAULT);
+        }
+        busyCursorParent = newParent;
+        if (newParent != null) {
+            busyCursorTimer.restart();
+        }
+    }
+
+    private static class PreviewRun {
+        private final Drawable dr;
+        // the filter edited in the dialog, it must be accessed only on the EDT
+        private final Filter filter;
+        private final long generation;
+        private final double proxyScale;
+        private final CancellationToken token = new CancellationToken();
+        private Future<BufferedImage> future;
+        private long millis;
+
+        private PreviewRun(Drawable dr, Filter filter, long generation, double proxyScale) {
+            this.dr = dr;
+            this.filter = filter;
+            this.generation = generation;
+            this.proxyScale = proxyScale;
+        }
+
+        private boolean isProxy() {
+            return proxyScale < 1.0;
+        }
+    }
+}
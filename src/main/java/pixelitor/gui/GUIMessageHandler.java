@@ -46,7 +46,14 @@ public class GUIMessageHandler implements MessageHandler {
     public ProgressHandler startProgress(String msg, int max) {
         assert calledOnEDT() : threadInfo();
 
-        return StatusBar.get().startProgress(msg, max);
+        return StatusBar.get().startProgress(msg, max, null);
+    }
+
+    @Override
+    public ProgressHandler startProgress(String msg, int max, Runnable cancelAction) {
+        assert calledOnEDT() : threadInfo();
+
+        return StatusBar.get().startProgress(msg, max, cancelAction);
     }
 
     @Override
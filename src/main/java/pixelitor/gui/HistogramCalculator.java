@@ -0,0 +1,368 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.gui;
+
+import pixelitor.Composition;
+import pixelitor.ThreadPool;
+import pixelitor.utils.ImageUtils;
+import pixelitor.utils.Messages;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static pixelitor.gui.HistogramsPanel.NUM_BINS;
+
+/**
+ * Counts the RGB histograms of composite images on a background thread.
+ *
+ * At most one count runs at a time, and the requests arriving in the
+ * meantime are merged into a single pending request. A full count reads
+ * a snapshot of the composite image (see {@link Composition#getCompositeSnapshot()}),
+ * so the pixels are not copied on the EDT if the composite isn't shared.
+ *
+ * The bins are also kept for each tile of the image, and if only a region
+ * of the composite changed since the last count, then only the tiles
+ * intersecting it are copied and recounted.
+ *
+ * The methods must be called on the EDT, and the results
+ * are also passed to the result handler on the EDT.
+ */
+class HistogramCalculator {
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Histogram");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // the size of the tiles with separate bins
+    private static final int TILE_SIZE = 128;
+
+    // if the changed regions add up to more than this part of
+    // the image, then it's simpler to count the whole image again
+    private static final int MAX_REGIONS_PART = 4;
+
+    private final Consumer<int[][]> resultHandler;
+
+    // the fields below are accessed only on the EDT
+
+    // the composition whose pixels were last requested, or null
+    // if the next request must count the whole image
+    private Composition lastComp;
+    private int lastWidth;
+    private int lastHeight;
+
+    private Request pending;
+    private boolean running;
+
+    // incremented at each reset, the results of
+    // the older requests are not passed to the handler
+    private long generation = 0;
+
+    // the fields below are accessed only on the worker thread
+
+    // the bins of each tile, indexed by the tile index and the channel
+    private int[][][] tileBins;
+    private int numTilesX;
+    private final int[][] bins = new int[3][NUM_BINS];
+
+    HistogramCalculator(Consumer<int[][]> resultHandler) {
+        this.resultHandler = resultHandler;
+    }
+
+    /**
+     * Requests the counting of all pixels of the composite image.
+     */
+    void countAll(Composition comp) {
+        BufferedImage snapshot = comp.getCompositeSnapshot();
+        lastComp = comp;
+        lastWidth = snapshot.getWidth();
+        lastHeight = snapshot.getHeight();
+
+        // replaces the pending request, because it's made obsolete by this one
+        pending = new Request(generation, snapshot, lastWidth, lastHeight);
+
+        startIfIdle();
+    }
+
+    /**
+     * Requests an update of the bins after the given canvas-relative
+     * area of the composite image changed. The area must contain all
+     * the pixels that changed since the previous request for the same composition.
+     */
+    void countRegion(Composition comp, Rectangle area) {
+        BufferedImage image = comp.getCompositeImage();
+        if (comp != lastComp || image.getWidth() != lastWidth || image.getHeight() != lastHeight) {
+            countAll(comp);
+            return;
+        }
+        Rectangle region = toTileBounds(area.intersection(new Rectangle(0, 0, lastWidth, lastHeight)));
+        if (region.isEmpty()) {
+            return;
+        }
+
+        if (pending == null) {
+            pending = new Request(generation, null, lastWidth, lastHeight);
+        }
+        if (pending.numRegionPixels + (long) region.width * region.height
+            > (long) lastWidth * lastHeight / MAX_REGIONS_PART) {
+            countAll(comp);
+            return;
+        }
+
+        // only the changed tiles are copied, because the
+        // composite image can be updated in place later
+        int[] regionPixels = new int[region.width * region.height];
+        copyRows(ImageUtils.getPixelArray(image), lastWidth, region, regionPixels);
+        pending.addRegion(new Region(region, regionPixels));
+
+        startIfIdle();
+    }
+
+    // expands the given image-clipped area to the tile boundaries
+    private Rectangle toTileBounds(Rectangle r) {
+        if (r.isEmpty()) {
+            return r;
+        }
+        int x1 = r.x / TILE_SIZE * TILE_SIZE;
+        int y1 = r.y / TILE_SIZE * TILE_SIZE;
+        int x2 = Math.min(ceilToTile(r.x + r.width), lastWidth);
+        int y2 = Math.min(ceilToTile(r.y + r.height), lastHeight);
+        return new Rectangle(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    private static int ceilToTile(int coord) {
+        return (coord + TILE_SIZE - 1) / TILE_SIZE * TILE_SIZE;
+    }
+
+    /**
+     * Drops the pending request and the counted bins. The
+     * results of the already running count are ignored.
+     */
+    void reset() {
+        generation++;
+        pending = null;
+        if (lastComp != null) {
+            lastComp = null;
+            executor.execute(() -> tileBins = null);
+        }
+    }
+
+    private void startIfIdle() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Request request = pending;
+        pending = null;
+        executor.execute(() -> {
+            int[][] result = null;
+            try {
+                result = process(request);
+            } catch (RuntimeException e) {
+                Messages.showException(e, Thread.currentThread());
+            } finally {
+                int[][] finalResult = result;
+                EventQueue.invokeLater(() -> requestFinished(request, finalResult));
+            }
+        });
+    }
+
+    private void requestFinished(Request request, int[][] result) {
+        running = false;
+        if (result == null) {
+            // the counted pixels can't be trusted, start again from scratch
+            lastComp = null;
+            pending = null;
+        } else if (request.generation == generation) {
+            resultHandler.accept(result);
+        }
+        if (pending != null) {
+            startIfIdle();
+        }
+    }
+
+    // runs on the worker thread
+    private int[][] process(Request request) {
+        if (request.image != null) {
+            countImage(request);
+        }
+
+        assert request.regions.isEmpty()
+            || (tileBins != null && numTilesX == numTiles(request.width));
+        for (Region region : request.regions) {
+            updateRegion(region);
+        }
+
+        int[][] result = new int[3][];
+        for (int i = 0; i < 3; i++) {
+            result[i] = bins[i].clone();
+        }
+        return result;
+    }
+
+    private void countImage(Request request) {
+        int[] pixels = ImageUtils.getPixelArray(request.image);
+        int width = request.width;
+        int height = request.height;
+        numTilesX = numTiles(width);
+        int numTilesY = numTiles(height);
+        tileBins = new int[numTilesX * numTilesY][3][NUM_BINS];
+        for (int[] channelBins : bins) {
+            Arrays.fill(channelBins, 0);
+        }
+
+        // the bands are rows of tiles
+        ThreadPool.processBands(width * TILE_SIZE, numTilesY, (startTileY, endTileY) -> {
+            int[][] bandBins = new int[3][NUM_BINS];
+            for (int tileY = startTileY; tileY < endTileY; tileY++) {
+                for (int tileX = 0; tileX < numTilesX; tileX++) {
+                    Rectangle tile = new Rectangle(tileX * TILE_SIZE, tileY * TILE_SIZE,
+                        Math.min(TILE_SIZE, width - tileX * TILE_SIZE),
+                        Math.min(TILE_SIZE, height - tileY * TILE_SIZE));
+                    int[][] counts = tileBins[tileY * numTilesX + tileX];
+                    countTile(pixels, width, tile.x, tile.y, tile, counts);
+                    addBins(bandBins, counts, 1);
+                }
+            }
+            mergeIntoBins(bandBins);
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    private void updateRegion(Region region) {
+        Rectangle r = region.bounds();
+        int minTileX = r.x / TILE_SIZE;
+        int minTileY = r.y / TILE_SIZE;
+        int regionTilesX = numTiles(r.width);
+        int regionTilesY = numTiles(r.height);
+
+        ThreadPool.processBands(r.width * TILE_SIZE, regionTilesY, (startRow, endRow) -> {
+            int[][] bandBins = new int[3][NUM_BINS];
+            for (int row = startRow; row < endRow; row++) {
+                for (int col = 0; col < regionTilesX; col++) {
+                    int x = col * TILE_SIZE;
+                    int y = row * TILE_SIZE;
+                    Rectangle tile = new Rectangle(r.x + x, r.y + y,
+                        Math.min(TILE_SIZE, r.width - x),
+                        Math.min(TILE_SIZE, r.height - y));
+                    int[][] counts = tileBins[(minTileY + row) * numTilesX + minTileX + col];
+
+                    // the bands update disjoint tiles
+                    addBins(bandBins, counts, -1);
+                    for (int[] channelCounts : counts) {
+                        Arrays.fill(channelCounts, 0);
+                    }
+                    countTile(region.pixels(), r.width, x, y, tile, counts);
+                    addBins(bandBins, counts, 1);
+                }
+            }
+            mergeIntoBins(bandBins);
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    // counts the pixels of a tile, starting at the given position of the pixel array
+    private static void countTile(int[] pixels, int pixelsWidth, int startX, int startY,
+                                  Rectangle tile, int[][] counts) {
+        for (int y = 0; y < tile.height; y++) {
+            int from = (startY + y) * pixelsWidth + startX;
+            countPixels(pixels, from, from + tile.width, counts, 1);
+        }
+    }
+
+    private static void addBins(int[][] target, int[][] source, int sign) {
+        for (int i = 0; i < 3; i++) {
+            for (int bin = 0; bin < NUM_BINS; bin++) {
+                target[i][bin] += sign * source[i][bin];
+            }
+        }
+    }
+
+    private static int numTiles(int size) {
+        return (size + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private void mergeIntoBins(int[][] bandBins) {
+        synchronized (bins) {
+            for (int i = 0; i < 3; i++) {
+                for (int bin = 0; bin < NUM_BINS; bin++) {
+                    bins[i][bin] += bandBins[i][bin];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given delta to the bins of the given pixels.
+     * Transparent pixels are not counted.
+     */
+    private static void countPixels(int[] pixels, int from, int to, int[][] bins, int delta) {
+        int[] reds = bins[0];
+        int[] greens = bins[1];
+        int[] blues = bins[2];
+        for (int i = from; i < to; i++) {
+            int rgb = pixels[i];
+            if ((rgb >>> 24) != 0) {
+                reds[(rgb >>> 16) & 0xFF] += delta;
+                greens[(rgb >>> 8) & 0xFF] += delta;
+                blues[rgb & 0xFF] += delta;
+            }
+        }
+    }
+
+    private static void copyRows(int[] src, int srcWidth, Rectangle region, int[] dest) {
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(src, (region.y + y) * srcWidth + region.x,
+                dest, y * region.width, region.width);
+        }
+    }
+
+    private record Region(Rectangle bounds, int[] pixels) {
+    }
+
+    /**
+     * The work to be done by one run on the worker thread: an optional
+     * recount of the whole image, followed by the changed regions.
+     */
+    private static class Request {
+        private final long generation;
+        private final BufferedImage image; // a snapshot of the whole image or null
+        private final int width;
+        private final int height;
+        private final List<Region> regions = new ArrayList<>();
+        private long numRegionPixels;
+
+        private Request(long generation, BufferedImage image, int width, int height) {
+            this.generation = generation;
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+
+        private void addRegion(Region region) {
+            regions.add(region);
+            numRegionPixels += (long) region.bounds().width * region.bounds().height;
+        }
+    }
+}
@@ -19,7 +19,6 @@ package pixelitor.gui;
 
 import pixelitor.Composition;
 import pixelitor.Views;
-import pixelitor.utils.ImageUtils;
 import pixelitor.utils.ViewActivationListener;
 
 import javax.swing.*;
@@ -27,7 +26,7 @@ import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.GridLayout;
-import java.awt.image.BufferedImage;
+import java.awt.Rectangle;
 import java.util.Objects;
 
 import static java.awt.BorderLayout.CENTER;
@@ -40,7 +39,8 @@ import static javax.swing.BorderFactory.createTitledBorder;
 import static pixelitor.utils.Texts.i18n;
 
 /**
- * The panel that shows the histograms
+ * The panel that shows the histograms.
+ * The bins are counted by a {@link HistogramCalculator}.
  */
 public class HistogramsPanel extends JPanel implements ViewActivationListener {
     private static final HistogramsPanel INSTANCE = new HistogramsPanel();
@@ -57,6 +57,12 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
 
     private boolean logarithmic;
 
+    // the counting runs outside the EDT
+    private final HistogramCalculator calculator = new HistogramCalculator(this::binsCounted);
+
+    // the last counts, kept so that the type can be changed without a recount
+    private int[][] lastBins;
+
     private HistogramsPanel() {
         super(new BorderLayout());
 
@@ -104,12 +110,15 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         boolean isLogarithmicNow = newType.equals(TYPE_LOGARITHMIC);
         if (isLogarithmicNow != logarithmic) {
             logarithmic = isLogarithmicNow;
-            Views.onActiveComp(this::update);
+            // the counts don't depend on the type
+            showBins();
         }
     }
 
     @Override
     public void allViewsClosed() {
+        calculator.reset();
+        lastBins = null;
         redPainter.allViewsClosed();
         greenPainter.allViewsClosed();
         bluePainter.allViewsClosed();
@@ -129,30 +138,47 @@ public class HistogramsPanel extends JPanel implements ViewActivationListener {
         INSTANCE.update(comp);
     }
 
+    /**
+     * Updates the histograms after only the given canvas-relative area
+     * of the composite image changed. The area must contain all
+     * the changes since the last update from the same composition.
+     */
+    public static void updateFrom(Composition comp, Rectangle changedArea) {
+        INSTANCE.updateRegion(comp, changedArea);
+    }
+
     private void update(Composition comp) {
         Objects.requireNonNull(comp);
         if (!isShown()) {
+            // the changes are not tracked while hidden
+            calculator.reset();
             return;
         }
-        BufferedImage image = comp.getCompositeImage();
-
-        int[] reds = new int[NUM_BINS];
-        int[] blues = new int[NUM_BINS];
-        int[] greens = new int[NUM_BINS];
-
-        int[] data = ImageUtils.getPixelArray(image);
-        for (int rgb : data) {
-            int a = (rgb >>> 24) & 0xFF;
-            if (a > 0) {
-                int r = (rgb >>> 16) & 0xFF;
-                int g = (rgb >>> 8) & 0xFF;
-                int b = rgb & 0xFF;
-
-                reds[r]++;
-                greens[g]++;
-                blues[b]++;
-            }
+        calculator.countAll(comp);
+    }
+
+    private void updateRegion(Composition comp, Rectangle changedArea) {
+        Objects.requireNonNull(comp);
+        if (!isShown()) {
+            calculator.reset();
+            return;
+        }
+        calculator.countRegion(comp, changedArea);
+    }
+
+    // called on the EDT with the counts of the red, green and blue bins
+    private void binsCounted(int[][] bins) {
+        lastBins = bins;
+        showBins();
+    }
+
+    private void showBins() {
+        if (lastBins == null) {
+            return;
         }
+        int[] reds = lastBins[0].clone();
+        int[] greens = lastBins[1].clone();
+        int[] blues = lastBins[2].clone();
 
         if (logarithmic) {
             for (int i = 0; i < NUM_BINS; i++) {
@@ -305,7 +305,7 @@ public class Navigator extends JComponent
         var origTransform = g2.getTransform();
 
         g2.scale(imgScalingRatio, imgScalingRatio);
-        g2.drawImage(view.getComp().getCompositeImage(), 0, 0, null);
+        view.getComp().paintCompositeImage(g2, imgScalingRatio);
         g2.setTransform(origTransform);
 
         g2.setStroke(VIEW_BOX_STROKE);
@@ -30,6 +30,7 @@ import pixelitor.gui.utils.SliderSpinner.TextPosition;
 import pixelitor.guides.GuideStrokeType;
 import pixelitor.guides.GuideStyle;
 import pixelitor.history.History;
+import pixelitor.history.UndoStore;
 import pixelitor.io.FileChoosers;
 import pixelitor.layers.LayerGUILayout;
 import pixelitor.utils.AppPreferences;
@@ -58,10 +59,12 @@ public class PreferencesPanel extends JTabbedPane {
     private static final Border EMPTY_BORDER =
         BorderFactory.createEmptyBorder(5, 10, 5, 0);
     private static final String UNDO_LEVELS_LABEL = "Minimum Undo/Redo Levels";
+    private static final String UNDO_MEMORY_LABEL = "Undo Memory Limit (MB)";
     private static final String IMAGEMAGICK_FOLDER_LABEL = "ImageMagick 7 Folder";
     private static final String GMIC_FOLDER_LABEL = "G'MIC Folder";
 
     private JTextField undoLevelsTF;
+    private JTextField undoMemoryTF;
     private JComboBox<Item> thumbSizeCB;
     private JComboBox<MouseZoomMethod> zoomMethodCB;
     private JComboBox<PanMethod> panMethodCB;
@@ -320,6 +323,7 @@ public class PreferencesPanel extends JTabbedPane {
 
         addNativeChoosersCB(gbh);
         addUndoLevelsChooser(gbh);
+        addUndoMemoryChooser(gbh);
         addMagickDirField(gbh);
         addGmicDirField(gbh);
         addExperimentalCB(gbh);
@@ -343,6 +347,15 @@ public class PreferencesPanel extends JTabbedPane {
                 undoLevelsTF, true));
     }
 
+    private void addUndoMemoryChooser(GridBagHelper gbh) {
+        undoMemoryTF = new JTextField(5);
+        undoMemoryTF.setName("undoMemoryTF");
+        undoMemoryTF.setText(String.valueOf(UndoStore.getMemoryLimitMB()));
+        gbh.addLabelAndControl(UNDO_MEMORY_LABEL + ": ",
+            TextFieldValidator.createPositiveIntLayer(UNDO_MEMORY_LABEL,
+                undoMemoryTF, true));
+    }
+
     private void addMagickDirField(GridBagHelper gbh) {
         magickDirTF = new JTextField(AppPreferences.magickDirName);
         magickDirTF.setColumns(10);
@@ -383,6 +396,20 @@ public class PreferencesPanel extends JTabbedPane {
             return false;
         }
 
+        // the backups beyond this limit are moved to a temporary file
+        int undoMemory;
+        try {
+            undoMemory = parseInt(undoMemoryTF.getText().trim());
+        } catch (NumberFormatException ex) {
+            undoMemory = -1;
+        }
+        if (undoMemory < 0) {
+            Dialogs.showErrorDialog(d, "Error",
+                "<html><b>" + UNDO_MEMORY_LABEL + "</b> must be a positive integer.");
+            return false;
+        }
+        UndoStore.setMemoryLimitMB(undoMemory);
+
         String magickDirName = validateDirectoryPath(magickDirTF, IMAGEMAGICK_FOLDER_LABEL, d);
         if (magickDirName == null) {
             return false;
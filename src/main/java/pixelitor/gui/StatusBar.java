@@ -24,6 +24,7 @@ import pixelitor.utils.ProgressHandler;
 import javax.swing.*;
 import java.awt.BorderLayout;
 import java.awt.FlowLayout;
+import java.awt.Insets;
 
 import static java.awt.BorderLayout.CENTER;
 import static java.awt.BorderLayout.EAST;
@@ -64,14 +65,18 @@ public class StatusBar extends JPanel {
         }
     }
 
-    public ProgressHandler startProgress(String msg, int max) {
+    /**
+     * Shows a progress bar. If the cancel action is not null,
+     * then a button that runs it is also shown.
+     */
+    public ProgressHandler startProgress(String msg, int max, Runnable cancelAction) {
         assert calledOnEDT() : threadInfo();
         assert msg != null;
 
         statusBarLabel.setText("");
 
         numProgressBars++;
-        return new StatusBarProgressHandler(leftPanel, msg, max);
+        return new StatusBarProgressHandler(leftPanel, msg, max, cancelAction);
     }
 
     public static StatusBar get() {
@@ -86,9 +91,10 @@ public class StatusBar extends JPanel {
         private final JLabel msgLabel;
         private final JPanel container;
         private final JProgressBar progressBar;
+        private final JButton cancelButton;
         private final boolean determinate;
 
-        public StatusBarProgressHandler(JPanel container, String msg, int max) {
+        public StatusBarProgressHandler(JPanel container, String msg, int max, Runnable cancelAction) {
             assert calledOnEDT() : threadInfo();
             this.container = container;
 
@@ -105,6 +111,18 @@ public class StatusBar extends JPanel {
             container.add(msgLabel);
             container.add(progressBar);
 
+            if (cancelAction != null) {
+                cancelButton = new JButton("Cancel");
+                cancelButton.setMargin(new Insets(0, 4, 0, 4));
+                cancelButton.addActionListener(e -> {
+                    cancelButton.setEnabled(false);
+                    cancelAction.run();
+                });
+                container.add(cancelButton);
+            } else {
+                cancelButton = null;
+            }
+
             // call these instead of revalidate()/repaint()
             // because the EDT will be blocked
             container.validate(); // otherwise the panel width/height are 0
@@ -133,6 +151,9 @@ public class StatusBar extends JPanel {
 
             container.remove(progressBar);
             container.remove(msgLabel);
+            if (cancelButton != null) {
+                container.remove(cancelButton);
+            }
 
             container.revalidate();
             container.repaint();
@@ -354,6 +354,8 @@ public class DialogBuilder {
             } else { // only ok button
                 southPanel.add(okButton);
             }
+        } else if (addCancelButton) { // only cancel button
+            southPanel.add(cancelButton);
         }
     }
 
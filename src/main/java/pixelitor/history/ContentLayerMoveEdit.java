@@ -82,6 +82,13 @@ public class ContentLayerMoveEdit extends PixelitorEdit {
         }
     }
 
+    @Override
+    public void addedToHistory() {
+        if (imageEdit != null) {
+            imageEdit.addedToHistory();
+        }
+    }
+
     @Override
     public void die() {
         super.die();
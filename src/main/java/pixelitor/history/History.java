@@ -48,6 +48,7 @@ public class History {
 
     static {
         setUndoLevels(AppPreferences.loadUndoLevels());
+        UndoStore.setMemoryLimitMB(AppPreferences.loadUndoMemoryLimit());
     }
 
     private History() {
@@ -82,6 +83,7 @@ public class History {
 
         if (edit.canUndo()) {
             undoManager.addEdit(edit);
+            edit.addedToHistory();
         } else {
             undoManager.discardAllEdits();
         }
@@ -144,7 +146,7 @@ public class History {
             Messages.showWarning("No " + type + " available",
                 "<html>No " + type + " is available, possible reasons are:<ul>" +
                     "<li>The edited image was closed" +
-                    "<li>The " + type + " image was discarded by Pixelitor in order to save memory");
+                    "<li>The stored " + type + " image could not be restored");
             clear();
         }
     }
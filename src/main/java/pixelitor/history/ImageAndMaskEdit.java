@@ -62,6 +62,12 @@ public class ImageAndMaskEdit extends ImageEdit {
         updateGUI();
     }
 
+    @Override
+    public void addedToHistory() {
+        super.addedToHistory();
+        maskImageEdit.addedToHistory();
+    }
+
     @Override
     public void die() {
         super.die();
@@ -23,8 +23,8 @@ import pixelitor.utils.debug.DebugNode;
 
 import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
+import java.awt.EventQueue;
 import java.awt.image.BufferedImage;
-import java.lang.ref.SoftReference;
 
 /**
  * A PixelitorEdit that represents the changes made to an image.
@@ -33,7 +33,7 @@ public class ImageEdit extends FadeableEdit {
     // selections are ignored for example when the image is enlarged by the move tool
     private final boolean ignoreSelection;
 
-    private SoftReference<BufferedImage> imgRef;
+    private StoredImage backup;
     protected Drawable dr;
 
     public ImageEdit(String name, Composition comp, Drawable dr,
@@ -47,8 +47,8 @@ public class ImageEdit extends FadeableEdit {
 
 //        Utils.debugImage(backupImage, "Backup for " + name);
 
-        // the backup image is stored in an SoftReference
-        imgRef = new SoftReference<>(backupImage);
+        // the backup image is compressed after this edit is added to the history
+        backup = new StoredImage(backupImage);
         this.dr = dr;
 
         checkBackupDifferentFromActive();
@@ -58,7 +58,7 @@ public class ImageEdit extends FadeableEdit {
     // otherwise the backup might be also edited
     private void checkBackupDifferentFromActive() {
         BufferedImage layerImage = dr.getImage();
-        if (layerImage == imgRef.get()) {
+        if (backup.holds(layerImage)) {
             throw new IllegalStateException("backup image is identical to the active one");
         }
     }
@@ -93,25 +93,47 @@ public class ImageEdit extends FadeableEdit {
         }
     }
 
+    @Override
+    public void addedToHistory() {
+        scheduleCompression();
+    }
+
+    // The backup is compressed after the current event, because then
+    // the edited image is already in the state reached by this edit,
+    // and the tiles that weren't changed don't have to be stored.
+    private void scheduleCompression() {
+        StoredImage toCompress = backup;
+        EventQueue.invokeLater(() -> {
+            if (backup == toCompress) {
+                toCompress.compress(getCurrentImage());
+            }
+        });
+    }
+
+    // the image that is swapped with the backup
+    private BufferedImage getCurrentImage() {
+        if (ignoreSelection) {
+            return dr.getImage();
+        }
+        return dr.getSelectedSubImage(false);
+    }
+
     /**
      * Returns true if successful
      */
     private boolean swapImages() {
-        BufferedImage backupImage = imgRef.get();
+        BufferedImage tmp = getCurrentImage();
+        BufferedImage backupImage = backup.restore(tmp);
         if (backupImage == null) {
             return false;
         }
 
-        BufferedImage tmp;
-        if (ignoreSelection) {
-            tmp = dr.getImage();
-        } else {
-            tmp = dr.getSelectedSubImage(false);
-        }
         dr.changeImageForUndoRedo(backupImage, ignoreSelection);
 
         // create new backup image from tmp
-        imgRef = new SoftReference<>(tmp);
+        backup.dispose();
+        backup = new StoredImage(tmp);
+        scheduleCompression();
 
         if (!embedded) {
             comp.update();
@@ -126,30 +148,22 @@ public class ImageEdit extends FadeableEdit {
     public void die() {
         super.die();
 
-        BufferedImage backupImage = imgRef.get();
-        if (backupImage != null) {
-            backupImage.flush();
-        }
+        backup.dispose();
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if (imgRef != null) {
-            // this still could be null
-            return imgRef.get();
-        }
-        return null;
+        // this could be null, if it can't be restored
+        return backup.restore(getCurrentImage());
     }
 
     @Override
     public DebugNode createDebugNode(String key) {
         var node = super.createDebugNode(key);
 
-        BufferedImage img = imgRef.get();
-        if (img != null) {
-            node.addInt("backup image width", img.getWidth());
-            node.addInt("backup image height", img.getHeight());
-        }
+        node.addInt("backup image width", backup.getWidth());
+        node.addInt("backup image height", backup.getHeight());
+        node.addBoolean("backup compressed", backup.isCompressed());
 
         node.addBoolean("ignoreSelection", ignoreSelection);
 
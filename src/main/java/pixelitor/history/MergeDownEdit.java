@@ -81,6 +81,11 @@ public class MergeDownEdit extends PixelitorEdit {
         bellowLayer.updateIconImage();
     }
 
+    @Override
+    public void addedToHistory() {
+        imageEdit.addedToHistory();
+    }
+
     @Override
     public void die() {
         super.die();
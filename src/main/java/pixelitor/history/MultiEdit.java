@@ -90,6 +90,13 @@ public class MultiEdit extends PixelitorEdit {
         }
     }
 
+    @Override
+    public void addedToHistory() {
+        for (PixelitorEdit edit : edits) {
+            edit.addedToHistory();
+        }
+    }
+
     @Override
     public void die() {
         super.die();
@@ -20,7 +20,6 @@ package pixelitor.history;
 import pixelitor.Composition;
 import pixelitor.layers.Drawable;
 import pixelitor.utils.ImageUtils;
-import pixelitor.utils.debug.Debug;
 import pixelitor.utils.debug.DebugNode;
 import pixelitor.utils.debug.DebugNodes;
 
@@ -29,31 +28,30 @@ import javax.swing.undo.CannotRedoException;
 import javax.swing.undo.CannotUndoException;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
-import java.lang.ref.SoftReference;
-
-import static java.lang.String.format;
+import java.awt.image.RasterFormatException;
+import java.util.function.Predicate;
 
 /**
  * Represents the changes made to a part of an image (for example brush strokes).
- * Only the affected pixels are saved in order to reduce the memory usage
+ * Only the affected pixels are saved in order to reduce the memory usage:
+ * the pixels of the affected rectangle, or if a tile filter is given,
+ * only the pixels of the tiles that were actually touched.
  */
 public class PartialImageEdit extends FadeableEdit {
     private final Rectangle saveRect;
-    private SoftReference<Raster> backupRasterRef;
+    private StoredImage backup;
 
     private final Drawable dr;
 
     private PartialImageEdit(String name, Composition comp, Drawable dr,
-                             BufferedImage image, Rectangle saveRect) {
+                             BufferedImage image, Rectangle saveRect,
+                             Predicate<Rectangle> tileFilter) {
         super(name, comp, dr);
 
         this.dr = dr;
         this.saveRect = saveRect;
 
-        Raster backupRaster = image.getData(this.saveRect);
-        backupRasterRef = new SoftReference<>(backupRaster);
+        backup = StoredImage.copyRegion(image, saveRect, tileFilter);
     }
 
     /**
@@ -65,16 +63,41 @@ public class PartialImageEdit extends FadeableEdit {
                                           Drawable dr,
                                           boolean relativeToImage,
                                           String editName) {
+        return create(affectedArea, null, origImage, dr, relativeToImage, editName);
+    }
+
+    /**
+     * Returns a new {@link PartialImageEdit} or null if the given
+     * rectangle is outside the image. If the tile filter isn't null,
+     * then only the parts of the affected rectangle accepted by it
+     * are saved. The filter gets rectangles in the same coordinate
+     * system as the affected area.
+     */
+    public static PartialImageEdit create(Rectangle affectedArea,
+                                          Predicate<Rectangle> tileFilter,
+                                          BufferedImage origImage,
+                                          Drawable dr,
+                                          boolean relativeToImage,
+                                          String editName) {
         assert affectedArea.width > 0 : "width = " + affectedArea.width;
         assert affectedArea.height > 0 : "height = " + affectedArea.height;
         assert origImage != null;
 
+        Predicate<Rectangle> imageTileFilter = tileFilter;
         if (!relativeToImage) {
             // if the coordinates are relative to the canvas,
             // translate them to be relative to the image
             int dx = -dr.getTx();
             int dy = -dr.getTy();
             affectedArea.translate(dx, dy);
+
+            if (tileFilter != null) {
+                imageTileFilter = tile -> {
+                    Rectangle canvasTile = new Rectangle(tile);
+                    canvasTile.translate(-dx, -dy);
+                    return tileFilter.test(canvasTile);
+                };
+            }
         }
 
         affectedArea = SwingUtilities.computeIntersection(0, 0,
@@ -90,7 +113,7 @@ public class PartialImageEdit extends FadeableEdit {
         // but typically the extra savings would be minimal
 
         return new PartialImageEdit(editName, dr.getComp(),
-            dr, origImage, affectedArea);
+            dr, origImage, affectedArea, imageTileFilter);
     }
 
     @Override
@@ -115,77 +138,58 @@ public class PartialImageEdit extends FadeableEdit {
      * Returns true if successful
      */
     private boolean swapRasters() {
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) {
-            return false;
-        }
-
         BufferedImage image = dr.getImage();
 
-        Raster tmpRaster = null;
+        // the current pixels of the same tiles become the new backup
+        StoredImage tmpBackup = backup.copySameRegion(image);
+        boolean restored;
         try {
-            tmpRaster = image.getData(saveRect);
-            image.setData(backupRaster);
-        } catch (ArrayIndexOutOfBoundsException e) {
+            restored = backup.restoreInto(image);
+        } catch (ArrayIndexOutOfBoundsException | RasterFormatException e) {
             System.out.printf("PartialImageEdit.swapRasters saveRect = %s, width = %d, height = %d%n",
                 saveRect, image.getWidth(), image.getHeight());
-
-            debugRaster("tmpRaster", tmpRaster);
-            debugRaster("backupRaster", backupRaster);
+            tmpBackup.dispose();
 
             throw e;
         }
+        if (!restored) {
+            tmpBackup.dispose();
+            return false;
+        }
 
-        backupRasterRef = new SoftReference<>(tmpRaster);
+        backup.dispose();
+        backup = tmpBackup;
 
-        dr.update();
+        // the saved rectangle is relative to the image
+        Rectangle canvasArea = new Rectangle(saveRect);
+        canvasArea.translate(dr.getTx(), dr.getTy());
+        dr.updateRegion(canvasArea);
         dr.updateIconImage();
 
         return true;
     }
 
-    private static void debugRaster(String name, Raster raster) {
-        if (raster == null) {
-            System.err.printf("PartialImageEdit::debugRaster: NULL RASTER, name = '%s'%n", name);
-            return;
-        }
-        Rectangle rasterBounds = raster.getBounds();
-        String className = raster.getClass().getSimpleName();
-        DataBuffer dataBuffer = raster.getDataBuffer();
-        int dataType = dataBuffer.getDataType();
-        String typeAsString = Debug.dataBufferTypeToString(dataType);
-        int numBanks = dataBuffer.getNumBanks();
-        int numBands = raster.getNumBands();
-        int numDataElements = raster.getNumDataElements();
-
-        String msg = format("className = %s, rasterBounds = %s, dataType = %d, " +
-                "typeAsString=%s, numBanks = %d, numBands = %d, numDataElements = %d",
-            className, rasterBounds, dataType,
-            typeAsString, numBanks, numBands, numDataElements);
-
-        System.out.println("PartialImageEdit::debugRaster debugging raster: " + name + ": " + msg);
+    @Override
+    public void die() {
+        super.die();
+
+        backup.dispose();
     }
 
     @Override
     public BufferedImage getBackupImage() {
-        if (backupRasterRef == null) { // died
-            return null;
-        }
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster == null) { // soft reference lost
-            return null;
-        }
-
         // recreate the full image as if it was backed up entirely
         // because Fade expects to fade images of equal size
         // TODO this is not the optimal solution  - Fade should fade only the changed area
         BufferedImage fullImage = dr.getImage();
         BufferedImage previousImage = ImageUtils.copyImage(fullImage);
-        previousImage.setData(backupRaster);
+        if (!backup.restoreInto(previousImage)) {
+            return null;
+        }
 
         var selection = dr.getComp().getSelection();
         if (selection != null) {
-            // backupRaster is relative to the full image, but we need to return a selection-sized image
+            // the backup is relative to the full image, but we need to return a selection-sized image
             previousImage = ImageUtils.getSelectionSizedPartFrom(
                 previousImage, selection, dr.getTx(), dr.getTy());
         }
@@ -197,16 +201,10 @@ public class PartialImageEdit extends FadeableEdit {
     public DebugNode createDebugNode(String key) {
         var node = super.createDebugNode(key);
 
-        int width = -1;
-        int height = -1;
-        Raster backupRaster = backupRasterRef.get();
-        if (backupRaster != null) {
-            width = backupRaster.getWidth();
-            height = backupRaster.getHeight();
-        }
-
-        node.addInt("backup image width", width);
-        node.addInt("backup image height", height);
+        node.addInt("backup image width", backup.getWidth());
+        node.addInt("backup image height", backup.getHeight());
+        node.addInt("backup stored tiles", backup.getNumStoredTiles());
+        node.addBoolean("backup compressed", backup.isCompressed());
         node.add(DebugNodes.createRectangleNode(saveRect, "saveRect"));
 
         return node;
@@ -124,6 +124,14 @@ public abstract class PixelitorEdit extends AbstractUndoableEdit implements Debu
         }
     }
 
+    /**
+     * Called after this edit was added to the history. The
+     * edits backing up pixels can start storing them compactly.
+     */
+    public void addedToHistory() {
+        // by default nothing to do
+    }
+
     /**
      * Whether this edit should mark the composition as dirty.
      * This method should be called only after full initialization
@@ -0,0 +1,648 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.Messages;
+import pixelitor.utils.ProgressTracker;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.awt.image.BufferedImage.*;
+
+/**
+ * A backup image of an edit, managed by the {@link UndoStore}.
+ *
+ * A backup of a whole image initially keeps the image itself. After
+ * {@link #compress} is called, the image is divided into tiles, and the
+ * tiles that are different from the given reference image are compressed
+ * in the background. The tiles that are the same are not stored, they
+ * are taken from the reference image when the backup is restored, which
+ * works because the edits are undone and redone in order, so the image
+ * will be in the same state.
+ *
+ * A backup of a region (see {@link #copyRegion}) stores only the tiles
+ * selected when it's created, and it's restored by writing these tiles
+ * back into the edited image.
+ *
+ * Later, the compressed tiles might be moved into a temporary file.
+ */
+class StoredImage {
+    private static final int TILE_SIZE = 256;
+
+    // smaller, so that fewer untouched pixels are stored along thin brush strokes
+    private static final int REGION_TILE_SIZE = 64;
+
+    // the tiles are compressed in parallel, but the speed still matters more
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+
+    // the stored area, relative to the source image
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+
+    private final int type;
+    private final int transferType;
+    private final int numDataElements;
+
+    private final int tileSize;
+    private final int numTilesX;
+    private final int numTilesY;
+
+    // for region backups, the tiles that are stored,
+    // for whole image backups, it's decided at the compression
+    private final boolean[] storedTiles;
+
+    // the uncompressed data, either as a whole image (not null until
+    // the compressed tiles are ready) or as tile copies (for regions)
+    private BufferedImage image;
+    private Object[] rawTiles;
+    private boolean compressionStarted = false;
+
+    // the compressed tiles while they are in memory,
+    // with null for the tiles that were not stored
+    private byte[][] tiles;
+
+    // the location of the tiles in the file, after they were moved
+    // there, with -1 lengths for the tiles that were not stored
+    private long[] fileOffsets;
+    private int[] fileLengths;
+
+    private boolean hasSkippedTiles = false;
+    private boolean disposed = false;
+
+    private final UndoStore.Storage storage = new UndoStore.Storage();
+    private final Cleaner.Cleanable cleanable;
+
+    StoredImage(BufferedImage image) {
+        this(image, new Rectangle(0, 0, image.getWidth(), image.getHeight()), TILE_SIZE, null);
+
+        this.image = image;
+    }
+
+    private StoredImage(BufferedImage src, Rectangle area, int tileSize, boolean[] storedTiles) {
+        assert src != null;
+
+        x = area.x;
+        y = area.y;
+        width = area.width;
+        height = area.height;
+
+        type = src.getType();
+        SampleModel sampleModel = src.getSampleModel();
+        transferType = sampleModel.getTransferType();
+        numDataElements = sampleModel.getNumDataElements();
+
+        this.tileSize = tileSize;
+        numTilesX = (width + tileSize - 1) / tileSize;
+        numTilesY = (height + tileSize - 1) / tileSize;
+        this.storedTiles = storedTiles;
+
+        cleanable = UndoStore.registerForCleanup(this, storage);
+    }
+
+    /**
+     * Creates a backup of the given region of the source image, and starts
+     * compressing it in the background. Only the tiles accepted by the given
+     * filter (which gets the tile bounds in the coordinates of the source image)
+     * are stored, or all of them if the filter is null.
+     * The source image can be changed after this returns.
+     */
+    static StoredImage copyRegion(BufferedImage src, Rectangle region,
+                                  Predicate<Rectangle> tileFilter) {
+        int numTilesX = (region.width + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        int numTilesY = (region.height + REGION_TILE_SIZE - 1) / REGION_TILE_SIZE;
+        boolean[] stored = new boolean[numTilesX * numTilesY];
+        var backup = new StoredImage(src, region, REGION_TILE_SIZE, stored);
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = tileFilter == null || tileFilter.test(backup.getTileBounds(i));
+        }
+        backup.copyTilesFrom(src);
+        return backup;
+    }
+
+    /**
+     * Creates a backup of the same tiles as this one, from the given image.
+     */
+    StoredImage copySameRegion(BufferedImage src) {
+        assert storedTiles != null : "not a region backup";
+
+        var copy = new StoredImage(src, new Rectangle(x, y, width, height), tileSize, storedTiles);
+        copy.copyTilesFrom(src);
+        return copy;
+    }
+
+    private void copyTilesFrom(BufferedImage src) {
+        Raster raster = src.getRaster();
+        Object[] copies = new Object[storedTiles.length];
+        boolean skipped = false;
+        for (int i = 0; i < copies.length; i++) {
+            if (storedTiles[i]) {
+                copies[i] = getTileData(raster, i);
+            } else {
+                skipped = true;
+            }
+        }
+
+        synchronized (this) {
+            rawTiles = copies;
+            hasSkippedTiles = skipped;
+            compressionStarted = true;
+        }
+        if (canCompress()) {
+            UndoStore.execute(() -> compressTiles(storedTiles, i -> copies[i]));
+        }
+    }
+
+    /**
+     * Starts compressing the backup of a whole image in the background.
+     * Must be called on the EDT, while the given reference
+     * (the current image of the edited layer) can't change.
+     */
+    void compress(BufferedImage reference) {
+        BufferedImage img;
+        synchronized (this) {
+            if (disposed || compressionStarted) {
+                return;
+            }
+            compressionStarted = true;
+            img = image;
+        }
+        if (!hasPackedPixels(img)) {
+            return; // kept as it is
+        }
+
+        boolean[] changedTiles = findChangedTiles(img, reference);
+        Raster raster = img.getRaster();
+        UndoStore.execute(() -> compressTiles(changedTiles, i -> getTileData(raster, i)));
+    }
+
+    private boolean[] findChangedTiles(BufferedImage img, BufferedImage reference) {
+        boolean[] changed = new boolean[numTilesX * numTilesY];
+        if (!isCompatible(reference)) {
+            Arrays.fill(changed, true);
+            return changed;
+        }
+
+        Object imgData = getData(img);
+        Object refData = getData(reference);
+        ThreadPool.processBands(width * tileSize, numTilesY, (startTileY, endTileY) -> {
+            for (int ty = startTileY; ty < endTileY; ty++) {
+                for (int tx = 0; tx < numTilesX; tx++) {
+                    changed[ty * numTilesX + tx] = !tilesAreEqual(imgData, refData, tx, ty);
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+        return changed;
+    }
+
+    private boolean tilesAreEqual(Object data1, Object data2, int tx, int ty) {
+        int startX = tx * tileSize;
+        int endX = Math.min(startX + tileSize, width);
+        int startY = ty * tileSize;
+        int endY = Math.min(startY + tileSize, height);
+        for (int row = startY; row < endY; row++) {
+            int from = row * width + startX;
+            int to = row * width + endX;
+            boolean rowsEqual = data1 instanceof int[] ints1
+                ? Arrays.equals(ints1, from, to, (int[]) data2, from, to)
+                : Arrays.equals((byte[]) data1, from, to, (byte[]) data2, from, to);
+            if (!rowsEqual) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // runs on the executor thread of the store
+    private void compressTiles(boolean[] tilesToStore, IntFunction<Object> tileData) {
+        List<Future<byte[]>> futures = new ArrayList<>(tilesToStore.length);
+        for (int i = 0; i < tilesToStore.length; i++) {
+            if (tilesToStore[i]) {
+                int tileIndex = i;
+                futures.add(ThreadPool.fork(() -> deflate(tileData.apply(tileIndex))));
+            } else {
+                futures.add(null);
+            }
+        }
+
+        byte[][] compressed = new byte[tilesToStore.length][];
+        long size = 0;
+        boolean skipped = false;
+        for (int i = 0; i < compressed.length; i++) {
+            Future<byte[]> future = futures.get(i);
+            if (future == null) {
+                skipped = true;
+                continue;
+            }
+            compressed[i] = getResult(future);
+            size += compressed[i].length;
+        }
+
+        synchronized (this) {
+            if (disposed) {
+                // the image might have been changed while it was compressed
+                return;
+            }
+            tiles = compressed;
+            hasSkippedTiles = skipped;
+            image = null;
+            rawTiles = null;
+        }
+        UndoStore.compressed(this, storage, size);
+    }
+
+    private static byte[] deflate(Object data) {
+        ByteBuffer raw = toBytes(data);
+
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(raw.remaining() / 4 + 64);
+            byte[] buffer = new byte[16 * 1024];
+            while (!deflater.finished()) {
+                int numBytes = deflater.deflate(buffer);
+                out.write(buffer, 0, numBytes);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private Object inflateTile(byte[] compressed, int tileIndex) {
+        Rectangle bounds = getTileBounds(tileIndex);
+        int numElements = bounds.width * bounds.height * numDataElements;
+        int bytesPerElement = DataBuffer.getDataTypeSize(transferType) / 8;
+        ByteBuffer raw = ByteBuffer.allocate(numElements * bytesPerElement);
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            while (raw.hasRemaining()) {
+                int numBytes = inflater.inflate(raw);
+                if (numBytes == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated undo data");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt undo data", e);
+        } finally {
+            inflater.end();
+        }
+        raw.flip();
+
+        return fromBytes(raw, numElements);
+    }
+
+    private static ByteBuffer toBytes(Object data) {
+        if (data instanceof byte[] bytes) {
+            return ByteBuffer.wrap(bytes);
+        }
+        if (data instanceof int[] ints) {
+            ByteBuffer buffer = ByteBuffer.allocate(ints.length * 4);
+            buffer.asIntBuffer().put(ints);
+            return buffer;
+        }
+        short[] shorts = (short[]) data;
+        ByteBuffer buffer = ByteBuffer.allocate(shorts.length * 2);
+        buffer.asShortBuffer().put(shorts);
+        return buffer;
+    }
+
+    private Object fromBytes(ByteBuffer raw, int numElements) {
+        return switch (transferType) {
+            case DataBuffer.TYPE_BYTE -> raw.array();
+            case DataBuffer.TYPE_INT -> {
+                int[] ints = new int[numElements];
+                raw.asIntBuffer().get(ints);
+                yield ints;
+            }
+            default -> {
+                short[] shorts = new short[numElements];
+                raw.asShortBuffer().get(shorts);
+                yield shorts;
+            }
+        };
+    }
+
+    private boolean canCompress() {
+        return transferType == DataBuffer.TYPE_BYTE
+            || transferType == DataBuffer.TYPE_USHORT
+            || transferType == DataBuffer.TYPE_SHORT
+            || transferType == DataBuffer.TYPE_INT;
+    }
+
+    // the tile bounds in the coordinates of the source image
+    private Rectangle getTileBounds(int tileIndex) {
+        int tx = tileIndex % numTilesX;
+        int ty = tileIndex / numTilesX;
+        int startX = tx * tileSize;
+        int startY = ty * tileSize;
+        return new Rectangle(x + startX, y + startY,
+            Math.min(tileSize, width - startX),
+            Math.min(tileSize, height - startY));
+    }
+
+    private Object getTileData(Raster raster, int tileIndex) {
+        Rectangle bounds = getTileBounds(tileIndex);
+        return raster.getDataElements(bounds.x, bounds.y, bounds.width, bounds.height, null);
+    }
+
+    /**
+     * Moves the compressed tiles from the memory to the temporary file.
+     * Runs on the executor thread of the store.
+     */
+    void moveToFile() throws IOException {
+        byte[][] memTiles;
+        synchronized (this) {
+            if (disposed || tiles == null) {
+                return;
+            }
+            memTiles = tiles;
+        }
+
+        long[] offsets = new long[memTiles.length];
+        int[] lengths = new int[memTiles.length];
+        long fileSize = 0;
+        for (int i = 0; i < memTiles.length; i++) {
+            if (memTiles[i] == null) {
+                lengths[i] = -1;
+            } else {
+                offsets[i] = UndoStore.writeToFile(ByteBuffer.wrap(memTiles[i]));
+                lengths[i] = memTiles[i].length;
+                fileSize += lengths[i];
+            }
+        }
+
+        synchronized (this) {
+            if (disposed) {
+                // the storage was already released
+                UndoStore.freeFileBlocks(offsets, lengths);
+                return;
+            }
+            fileOffsets = offsets;
+            fileLengths = lengths;
+            tiles = null;
+
+            // recorded while holding the lock, so that a concurrent
+            // disposal can't miss the blocks written to the file
+            UndoStore.movedToFile(storage, offsets, lengths, fileSize);
+        }
+    }
+
+    /**
+     * Returns the backed up whole image, or null if it can't be restored.
+     * The given reference must be in the same state as at the time
+     * of the compression. The returned image can be used directly,
+     * if the backup is disposed afterwards.
+     */
+    BufferedImage restore(BufferedImage reference) {
+        assert storedTiles == null : "region backup";
+
+        TileState state;
+        synchronized (this) {
+            if (disposed) {
+                return null;
+            }
+            if (image != null) {
+                return image;
+            }
+            state = captureState();
+        }
+
+        BufferedImage restored = new BufferedImage(width, height, type);
+        if (state.skippedTiles()) {
+            if (!isCompatible(reference)) {
+                return null;
+            }
+            System.arraycopy(getData(reference), 0, getData(restored), 0, width * height);
+        }
+
+        if (!writeTiles(restored.getRaster(), state)) {
+            return null;
+        }
+        return restored;
+    }
+
+    /**
+     * Writes the stored tiles of a region backup back into the
+     * given image. Returns false if the backup can't be restored.
+     */
+    boolean restoreInto(BufferedImage target) {
+        assert storedTiles != null : "not a region backup";
+
+        TileState state;
+        synchronized (this) {
+            if (disposed) {
+                return false;
+            }
+            state = captureState();
+        }
+
+        SampleModel sampleModel = target.getSampleModel();
+        if (sampleModel.getTransferType() != transferType
+            || sampleModel.getNumDataElements() != numDataElements
+            || target.getWidth() < x + width
+            || target.getHeight() < y + height) {
+            return false;
+        }
+
+        return writeTiles(target.getRaster(), state);
+    }
+
+    // must be called while holding the lock
+    private TileState captureState() {
+        return new TileState(rawTiles, tiles, fileOffsets, fileLengths, hasSkippedTiles);
+    }
+
+    // the tiles are decompressed in parallel, but written on the calling thread
+    private boolean writeTiles(WritableRaster target, TileState state) {
+        int numTiles = numTilesX * numTilesY;
+        List<Future<Object>> futures = new ArrayList<>(numTiles);
+        for (int i = 0; i < numTiles; i++) {
+            int tileIndex = i;
+            if (state.rawTiles() != null) {
+                futures.add(null);
+            } else if (state.memTiles() != null) {
+                byte[] compressed = state.memTiles()[i];
+                futures.add(compressed == null ? null
+                    : ThreadPool.fork(() -> inflateTile(compressed, tileIndex)));
+            } else if (state.fileLengths()[i] >= 0) {
+                long offset = state.fileOffsets()[i];
+                int length = state.fileLengths()[i];
+                futures.add(ThreadPool.fork(() ->
+                    inflateTile(UndoStore.readFromFile(offset, length), tileIndex)));
+            } else {
+                futures.add(null);
+            }
+        }
+
+        try {
+            for (int i = 0; i < numTiles; i++) {
+                Object data;
+                if (state.rawTiles() != null) {
+                    data = state.rawTiles()[i];
+                } else {
+                    Future<Object> future = futures.get(i);
+                    data = future == null ? null : getResult(future);
+                }
+                if (data != null) {
+                    Rectangle bounds = getTileBounds(i);
+                    target.setDataElements(bounds.x, bounds.y, bounds.width, bounds.height, data);
+                }
+            }
+        } catch (RuntimeException e) {
+            Messages.showException(e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given image is held without compression.
+     */
+    synchronized boolean holds(BufferedImage img) {
+        return image == img;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getNumStoredTiles() {
+        if (storedTiles == null) {
+            return numTilesX * numTilesY;
+        }
+        int count = 0;
+        for (boolean stored : storedTiles) {
+            if (stored) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    synchronized boolean isCompressed() {
+        return image == null && rawTiles == null;
+    }
+
+    /**
+     * Releases the stored data. After this call,
+     * the restored image is no longer needed by the backup.
+     */
+    void dispose() {
+        synchronized (this) {
+            if (disposed) {
+                return;
+            }
+            disposed = true;
+            image = null;
+            rawTiles = null;
+            tiles = null;
+        }
+        cleanable.clean();
+    }
+
+    private boolean isCompatible(BufferedImage reference) {
+        return reference != null
+            && reference.getWidth() == width
+            && reference.getHeight() == height
+            && reference.getType() == type
+            && hasPackedPixels(reference);
+    }
+
+    /**
+     * Returns whether the pixels of the given image are stored
+     * in a single array, one element or one int per pixel, without gaps.
+     */
+    private static boolean hasPackedPixels(BufferedImage img) {
+        int type = img.getType();
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE
+            && type != TYPE_INT_RGB && type != TYPE_BYTE_GRAY) {
+            return false;
+        }
+        var raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        return raster.getParent() == null
+            && buffer.getNumBanks() == 1
+            && buffer.getOffset() == 0
+            && buffer.getSize() == img.getWidth() * img.getHeight();
+    }
+
+    private static Object getData(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        if (buffer instanceof DataBufferInt intBuffer) {
+            return intBuffer.getData();
+        }
+        return ((DataBufferByte) buffer).getData();
+    }
+
+    private static <T> T getResult(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * The location of the stored tiles at a given moment.
+     */
+    private record TileState(Object[] rawTiles, byte[][] memTiles,
+                             long[] fileOffsets, int[] fileLengths,
+                             boolean skippedTiles) {
+    }
+}
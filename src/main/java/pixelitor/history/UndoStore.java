@@ -0,0 +1,308 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import pixelitor.utils.Messages;
+import pixelitor.utils.Utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The storage of the pixels backed up by the image edits.
+ *
+ * The backups are compressed in the background (see {@link StoredImage}),
+ * and if the compressed data held in memory exceeds the memory limit,
+ * then the oldest backups are moved to a temporary file. Unlike the
+ * soft references used earlier, this never loses undo data because
+ * of memory pressure.
+ */
+public class UndoStore {
+    private static final long NUM_BYTES_IN_MEGABYTE = 1024 * 1024;
+
+    // the compressions and the file operations run on this
+    // thread, the tiles themselves are compressed in parallel
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "Undo Store");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // releases the storage of the backups whose edits were not
+    // disposed properly (they can't hold a reference to the backup)
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private static long memoryLimit = Utils.getMaxHeapMb() / 4 * NUM_BYTES_IN_MEGABYTE;
+
+    // the sum of the compressed sizes held in memory
+    private static long memoryUsed = 0;
+
+    // the backups with compressed data in memory, the oldest first
+    private static final Deque<WeakReference<StoredImage>> inMemory = new ArrayDeque<>();
+
+    private static FileChannel file;
+    private static long fileEnd = 0;
+    private static long fileBytesUsed = 0;
+
+    // the released blocks of the file (offset -> length), which are
+    // reused by the later writes, so that the file doesn't keep growing
+    // during the session. Adjacent blocks are merged, and a block at
+    // the end of the file is removed by truncating the file.
+    private static final TreeMap<Long, Long> freeBlocks = new TreeMap<>();
+    private static boolean fileFailed = false;
+
+    private UndoStore() {
+        // should not be instantiated
+    }
+
+    public static synchronized void setMemoryLimitMB(int limitMB) {
+        memoryLimit = limitMB * NUM_BYTES_IN_MEGABYTE;
+        executor.execute(UndoStore::moveOldestToFile);
+    }
+
+    public static synchronized int getMemoryLimitMB() {
+        return (int) (memoryLimit / NUM_BYTES_IN_MEGABYTE);
+    }
+
+    public static synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public static synchronized long getFileBytesUsed() {
+        return fileBytesUsed;
+    }
+
+    public static synchronized long getFileSize() {
+        return fileEnd;
+    }
+
+    static void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    static Cleaner.Cleanable registerForCleanup(StoredImage image, Storage storage) {
+        return cleaner.register(image, storage);
+    }
+
+    /**
+     * Called when the tiles of the given backup were compressed.
+     */
+    static void compressed(StoredImage image, Storage storage, long size) {
+        synchronized (UndoStore.class) {
+            storage.memorySize = size;
+            memoryUsed += size;
+            inMemory.addLast(new WeakReference<>(image));
+        }
+        moveOldestToFile();
+    }
+
+    // runs on the executor thread, so the file is written by a single thread
+    private static void moveOldestToFile() {
+        while (true) {
+            StoredImage oldest;
+            synchronized (UndoStore.class) {
+                if (memoryUsed <= memoryLimit || fileFailed) {
+                    return;
+                }
+                WeakReference<StoredImage> ref = inMemory.pollFirst();
+                if (ref == null) {
+                    return;
+                }
+                oldest = ref.get();
+            }
+            if (oldest != null) {
+                try {
+                    oldest.moveToFile();
+                } catch (IOException e) {
+                    synchronized (UndoStore.class) {
+                        // keep everything in memory from now on
+                        fileFailed = true;
+                    }
+                    Messages.showException(e, Thread.currentThread());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the given data into a free block of the temporary file
+     * (or appends it), and returns its offset.
+     * Must be called on the executor thread.
+     */
+    static long writeToFile(ByteBuffer data) throws IOException {
+        if (file == null) {
+            Path path = Files.createTempFile("pixelitor_undo", ".tmp");
+            path.toFile().deleteOnExit();
+            file = FileChannel.open(path, READ, WRITE, DELETE_ON_CLOSE);
+        }
+        long offset = allocate(data.remaining());
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += file.write(data, position);
+        }
+        return offset;
+    }
+
+    // returns the offset of the first free block that is large enough
+    private static synchronized long allocate(int length) {
+        for (Map.Entry<Long, Long> block : freeBlocks.entrySet()) {
+            long blockLength = block.getValue();
+            if (blockLength >= length) {
+                long offset = block.getKey();
+                freeBlocks.remove(offset);
+                if (blockLength > length) {
+                    freeBlocks.put(offset + length, blockLength - length);
+                }
+                return offset;
+            }
+        }
+        long offset = fileEnd;
+        fileEnd += length;
+        return offset;
+    }
+
+    /**
+     * Makes the given blocks of the file available for the later writes.
+     * The negative lengths mark the blocks that were not written.
+     */
+    static synchronized void freeFileBlocks(long[] offsets, int[] lengths) {
+        for (int i = 0; i < offsets.length; i++) {
+            if (lengths[i] > 0) {
+                addFreeBlock(offsets[i], lengths[i]);
+            }
+        }
+
+        // the free block at the end is given back to the file system
+        Map.Entry<Long, Long> last = freeBlocks.lastEntry();
+        if (last != null && last.getKey() + last.getValue() == fileEnd) {
+            freeBlocks.remove(last.getKey());
+            fileEnd = last.getKey();
+            executor.execute(UndoStore::truncateFile);
+        }
+    }
+
+    // must be called while holding the class lock
+    private static void addFreeBlock(long offset, long length) {
+        Map.Entry<Long, Long> prev = freeBlocks.floorEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            offset = prev.getKey();
+            length += prev.getValue();
+        }
+        Long nextLength = freeBlocks.remove(offset + length);
+        if (nextLength != null) {
+            length += nextLength;
+        }
+        freeBlocks.put(offset, length);
+    }
+
+    /**
+     * Reads a previously written block of the temporary
+     * file. It can be called concurrently from any thread.
+     */
+    static byte[] readFromFile(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int numRead = file.read(buffer, position);
+                if (numRead < 0) {
+                    throw new EOFException("Unexpected end of the undo file");
+                }
+                position += numRead;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Called when the compressed tiles of a backup were moved to the file.
+     */
+    static synchronized void movedToFile(Storage storage, long[] offsets, int[] lengths, long fileSize) {
+        memoryUsed -= storage.memorySize;
+        storage.memorySize = 0;
+        storage.fileOffsets = offsets;
+        storage.fileLengths = lengths;
+        storage.fileSize = fileSize;
+        fileBytesUsed += fileSize;
+    }
+
+    private static synchronized void release(Storage storage) {
+        memoryUsed -= storage.memorySize;
+        storage.memorySize = 0;
+        if (storage.fileOffsets != null) {
+            fileBytesUsed -= storage.fileSize;
+            storage.fileSize = 0;
+            freeFileBlocks(storage.fileOffsets, storage.fileLengths);
+            storage.fileOffsets = null;
+            storage.fileLengths = null;
+        }
+    }
+
+    // runs on the executor thread, after the writes
+    // that were started before the blocks were freed
+    private static void truncateFile() {
+        long newSize;
+        synchronized (UndoStore.class) {
+            if (file == null) {
+                return;
+            }
+            newSize = fileEnd;
+        }
+        try {
+            if (file.size() > newSize) {
+                file.truncate(newSize);
+            }
+        } catch (IOException e) {
+            // not a problem, the file is deleted on exit
+        }
+    }
+
+    /**
+     * The storage used by a backup, tracked separately from the
+     * backup, so that it can be released after it was garbage collected.
+     */
+    static class Storage implements Runnable {
+        // guarded by the UndoStore class lock
+        private long memorySize;
+        private long fileSize;
+        private long[] fileOffsets;
+        private int[] fileLengths;
+
+        @Override
+        public void run() {
+            release(this);
+        }
+    }
+}
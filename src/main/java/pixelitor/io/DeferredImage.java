@@ -0,0 +1,48 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An image whose pixels are still in a file, and are
+ * decoded only when they are needed for the first time.
+ */
+public interface DeferredImage {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Decodes the pixels. Can be called on any thread.
+     */
+    BufferedImage load() throws IOException;
+
+    /**
+     * Checks that the file wasn't modified since the image was
+     * found in it, because then the recorded location is not valid.
+     */
+    static void checkUnchanged(File file, long lastModified, long length) throws IOException {
+        if (file.lastModified() != lastModified || file.length() != length) {
+            throw new IOException(file.getName()
+                + " was modified since it was opened, a layer could not be loaded.");
+        }
+    }
+}
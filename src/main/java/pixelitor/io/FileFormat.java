@@ -20,6 +20,7 @@ import pixelitor.Composition;
 import pixelitor.utils.AppPreferences;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
+import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.Utils;
 
 import javax.swing.filechooser.FileFilter;
@@ -43,7 +44,8 @@ public enum FileFormat {
     }, ORA(true, null, FileChoosers.oraFilter) {
         @Override
         public Runnable createSaveTask(Composition comp, SaveSettings settings) {
-            return () -> OpenRaster.uncheckedWrite(comp, settings.getFile());
+            BufferedImage composite = comp.getCompositeSnapshot();
+            return () -> OpenRaster.uncheckedWrite(comp, composite, settings.getFile());
         }
 
         @Override
@@ -102,7 +104,9 @@ public enum FileFormat {
     public Runnable createSaveTask(Composition comp, SaveSettings settings) {
         assert !multiLayered; // overwritten for multi-layered formats
 
-        return () -> saveSingleLayered(comp, settings);
+        // the snapshot is taken here, on the EDT
+        BufferedImage image = comp.getCompositeSnapshot();
+        return () -> IO.saveImageToFile(convertForSaving(image), settings);
     }
 
     public Composition readSync(File file) {
@@ -125,15 +129,27 @@ public enum FileFormat {
             .thenApplyAsync(img -> Composition.fromImage(img, file, null), onEDT);
     }
 
-    private void saveSingleLayered(Composition comp, SaveSettings settings) {
-        BufferedImage img = comp.getCompositeImage();
+    /**
+     * Saves an image that isn't in a composition, such as
+     * the images of the batch processing.
+     */
+    public void saveImage(BufferedImage img, SaveSettings settings, ProgressTracker tracker) {
+        assert !multiLayered;
+
+        IO.saveImageToFile(convertForSaving(img), settings, tracker);
+    }
+
+    private BufferedImage convertForSaving(BufferedImage img) {
         if (converter != null) {
             // do the final conversion, which might be
             // necessary before writing the image
-            img = converter.apply(img);
+            return converter.apply(img);
         }
+        return img;
+    }
 
-        IO.saveImageToFile(img, settings);
+    public boolean isMultiLayered() {
+        return multiLayered;
     }
 
     public FileFilter getFileFilter() {
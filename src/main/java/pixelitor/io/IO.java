@@ -28,10 +28,11 @@ import pixelitor.io.magick.ImageMagick;
 import pixelitor.layers.Layer;
 import pixelitor.utils.ImageUtils;
 import pixelitor.utils.Messages;
+import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.Result;
 import pixelitor.utils.Shapes;
+import pixelitor.utils.StatusBarProgressTracker;
 
-import javax.imageio.ImageIO;
 import javax.imageio.ImageWriteParam;
 import javax.swing.*;
 import java.awt.EventQueue;
@@ -46,6 +47,8 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static java.lang.String.format;
@@ -60,6 +63,13 @@ import static pixelitor.utils.Threads.*;
 public class IO {
     private static final boolean USE_SECOND_LOOP = false;
 
+    // pumps the standard input and error streams of the external processes
+    private static final ExecutorService pipeExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "Process Pipe");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private IO() {
     }
 
@@ -166,6 +176,14 @@ public class IO {
 
     public static void saveImageToFile(BufferedImage image,
                                        SaveSettings saveSettings) {
+        var tracker = new StatusBarProgressTracker(
+            "Writing " + saveSettings.getFile().getName(), 100);
+        saveImageToFile(image, saveSettings, tracker);
+    }
+
+    public static void saveImageToFile(BufferedImage image,
+                                       SaveSettings saveSettings,
+                                       ProgressTracker tracker) {
         FileFormat format = saveSettings.getFormat();
         File selectedFile = saveSettings.getFile();
 
@@ -178,9 +196,9 @@ public class IO {
             if (format == FileFormat.JPG) {
                 JpegSettings settings = JpegSettings.from(saveSettings);
                 Consumer<ImageWriteParam> customizer = settings.getJpegInfo().toCustomizer();
-                TrackedIO.write(image, "jpg", selectedFile, customizer);
+                TrackedIO.write(image, "jpg", selectedFile, customizer, tracker);
             } else {
-                TrackedIO.write(image, format.toString(), selectedFile, null);
+                TrackedIO.write(image, format.toString(), selectedFile, null, tracker);
             }
         } catch (IOException e) {
             if (e.getMessage().contains("another process")) {
@@ -367,30 +385,12 @@ public class IO {
             .formatted(canvas.getWidth(), canvas.getHeight());
     }
 
-    public static void writeToOutStream(BufferedImage img, OutputStream magickInput) throws IOException {
-        // Write as png to ImageMagick and let it do
-        // the conversion to the final format.
-        // Explicitly setting a low compression level doesn't seem
-        // to make it faster (why?), so use the simple approach.
-        ImageIO.write(img, "png", magickInput);
-
-//        try (ImageOutputStream ios = ImageIO.createImageOutputStream(magickInput)) {
-//            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("png");
-//            ImageWriter writer = writers.next();
-//            ImageWriteParam writeParam = writer.getDefaultWriteParam();
-//            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
-//            writeParam.setCompressionQuality(1.0f); // 1 is no compression
-//            try {
-//                writer.setOutput(ios);
-//                writer.write(img);
-//            } finally {
-//                writer.dispose();
-//                ios.flush();
-//            }
-//        }
+    public static BufferedImage commandLineFilter(BufferedImage src, String filterName, List<String> command) {
+        return commandLineFilter(src, filterName, command, PipeFormat.PNG);
     }
 
-    public static BufferedImage commandLineFilter(BufferedImage src, String filterName, List<String> command) {
+    public static BufferedImage commandLineFilter(BufferedImage src, String filterName,
+                                                  List<String> command, PipeFormat format) {
         Result<BufferedImage, String> result;
         if (USE_SECOND_LOOP) {
             var progressHandler = Messages.startProgress(filterName, -1);
@@ -398,7 +398,7 @@ public class IO {
             SecondaryLoop secondaryLoop = Toolkit.getDefaultToolkit().getSystemEventQueue().createSecondaryLoop();
             CompletableFuture<Result<BufferedImage, String>> cf = CompletableFuture
                 .supplyAsync(() ->
-                    runCommandLineFilter(src, command))
+                    runCommandLineFilter(src, command, format))
                 .thenApplyAsync(r -> {
                     EventQueue.invokeLater(progressHandler::stopProgress);
                     secondaryLoop.exit();
@@ -407,7 +407,7 @@ public class IO {
             secondaryLoop.enter();
             result = cf.join();
         } else {
-            result = runCommandLineFilter(src, command);
+            result = runCommandLineFilter(src, command, format);
         }
         if (result.wasSuccess()) {
             return ImageUtils.toSysCompatibleImage(result.get());
@@ -418,6 +418,19 @@ public class IO {
     }
 
     public static Result<BufferedImage, String> runCommandLineFilter(BufferedImage src, List<String> command) {
+        return runCommandLineFilter(src, command, PipeFormat.PNG);
+    }
+
+    /**
+     * Runs an external process that reads the source image from its
+     * standard input and writes the result to its standard output,
+     * both in the given format. The input is written and the error
+     * output is collected on other threads, so that the process
+     * can't block because of a full pipe.
+     */
+    public static Result<BufferedImage, String> runCommandLineFilter(BufferedImage src,
+                                                                     List<String> command,
+                                                                     PipeFormat format) {
         ProcessBuilder pb = new ProcessBuilder(command.toArray(String[]::new));
         pb.redirectInput(ProcessBuilder.Redirect.PIPE);
         pb.redirectOutput(ProcessBuilder.Redirect.PIPE);
@@ -428,30 +441,40 @@ public class IO {
             Process p = pb.start();
 
             // Write the source image to the standard input
-            // of the external process
-            try (OutputStream processInput = p.getOutputStream()) {
-                assert processInput instanceof BufferedOutputStream;
+            // of the external process. If the process exits
+            // early, then the error is reported from its output.
+            CompletableFuture.runAsync(() -> {
+                try (OutputStream processInput = p.getOutputStream()) {
+                    format.write(src, processInput);
+                } catch (IOException e) {
+                    // broken pipe, the process didn't read everything
+                }
+            }, pipeExecutor);
 
-                writeToOutStream(src, processInput);
-                processInput.flush();
-            }
+            CompletableFuture<String> errorOutput = CompletableFuture.supplyAsync(() -> {
+                try (InputStream processError = p.getErrorStream()) {
+                    return new String(processError.readAllBytes(), UTF_8);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, pipeExecutor);
 
             // Read the filtered image the from the standard output
             // of the external process
+            String decodingError = null;
             try (InputStream processOutput = p.getInputStream()) {
-                assert processOutput instanceof BufferedInputStream;
-
-                out = ImageIO.read(processOutput);
+                out = format.read(processOutput);
+            } catch (IOException e) {
+                out = null;
+                decodingError = e.getMessage();
             }
-            String errorMsg = null;
+            p.waitFor();
             if (out == null) {
                 // There was an error. Try to get an error message.
-                try (InputStream processError = p.getErrorStream()) {
-                    errorMsg = new String(processError.readAllBytes(), UTF_8);
+                String errorMsg = errorOutput.join();
+                if (errorMsg.isBlank() && decodingError != null) {
+                    errorMsg = decodingError;
                 }
-            }
-            p.waitFor();
-            if (errorMsg != null) {
                 return Result.error(errorMsg);
             }
         } catch (IOException e) {
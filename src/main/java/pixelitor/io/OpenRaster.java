@@ -28,9 +28,12 @@ import pixelitor.ImageMode;
 import pixelitor.layers.*;
 import pixelitor.utils.*;
 
+import javax.imageio.ImageIO;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.*;
@@ -54,17 +57,29 @@ public class OpenRaster {
     private OpenRaster() {
     }
 
-    public static void uncheckedWrite(Composition comp, File outFile) {
+    public static void uncheckedWrite(Composition comp, BufferedImage composite, File outFile) {
         try {
-            write(comp, outFile);
+            write(comp, composite, outFile);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
     public static void write(Composition comp, File outFile) throws IOException {
+        write(comp, comp.getCompositeSnapshot(), outFile);
+    }
+
+    /**
+     * Writes the given composition with the given snapshot of its
+     * composite image, which can't be recalculated outside the EDT.
+     */
+    public static void write(Composition comp, BufferedImage composite, File outFile) throws IOException {
         var mainTracker = new StatusBarProgressTracker("Writing " + outFile.getName(), 100);
 
+        // the not yet loaded layer images might be
+        // in the same file, which is overwritten here
+        comp.loadDeferredImages();
+
         var fos = new FileOutputStream(outFile);
         var zos = new ZipOutputStream(fos);
 
@@ -82,14 +97,13 @@ public class OpenRaster {
         // add the merged image
         zos.putNextEntry(new ZipEntry(MERGED_IMAGE_NAME));
         var mergedTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-        var img = comp.getCompositeImage();
-        TrackedIO.writeToStream(img, zos, "PNG", mergedTracker);
+        TrackedIO.writeToStream(composite, zos, "PNG", mergedTracker);
         zos.closeEntry();
 
         // add the thumbnail image
         zos.putNextEntry(new ZipEntry(THUMBNAIL_IMAGE_NAME));
         var thumbTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-        var thumb = createORAThumbnail(comp.getCompositeImage());
+        var thumb = createORAThumbnail(composite);
         TrackedIO.writeToStream(thumb, zos, "PNG", thumbTracker);
         zos.closeEntry();
 
@@ -155,70 +169,101 @@ public class OpenRaster {
     }
 
     public static Composition read(File file) throws IOException, ParserConfigurationException, SAXException {
-        String stackXML = null;
+        // recorded before opening, so that a later modification can be detected
+        long lastModified = file.lastModified();
+        long fileLength = file.length();
+
         var mainTracker = new StatusBarProgressTracker("Reading " + file.getName(), 100);
-        Map<String, BufferedImage> images = new HashMap<>();
         try (ZipFile zipFile = new ZipFile(file)) {
-            // first iterate to count the image files...
-            int numImageFiles = countNumImageFiles(zipFile);
-            double workRatio = 1.0 / numImageFiles;
-
-            // ...then iterate again to actually read the files
-            var fileEntries = zipFile.entries();
-            while (fileEntries.hasMoreElements()) {
-                ZipEntry entry = fileEntries.nextElement();
-                String name = entry.getName();
-
-                if (name.equalsIgnoreCase("stack.xml")) {
-                    stackXML = extractString(zipFile.getInputStream(entry));
-                } else if (name.equalsIgnoreCase(MERGED_IMAGE_NAME)) {
-                    // no need to read it
-                } else if (name.equalsIgnoreCase(THUMBNAIL_IMAGE_NAME)) {
-                    // no need to read it
-                } else if (FileUtils.hasPNGExtension(name)) {
-                    var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
-                    var stream = zipFile.getInputStream(entry);
-                    var image = TrackedIO.readFromStream(stream, subTracker);
-                    images.put(name, image);
-                }
+            String stackXML = readStackXML(zipFile);
+            if (stackXML == null) {
+                throw new IllegalStateException("No stack.xml found.");
             }
-        }
 
-        if (stackXML == null) {
-            throw new IllegalStateException("No stack.xml found.");
-        }
+            Element doc = loadXMLFromString(stackXML).getDocumentElement();
+            doc.normalize();
+            String docNodeName = doc.getNodeName();
+            if (!docNodeName.equals("image")) {
+                throw new IllegalStateException(format(
+                    "stack.xml root element is '%s', expected: 'image'",
+                    docNodeName));
+            }
 
-        Element doc = loadXMLFromString(stackXML).getDocumentElement();
-        doc.normalize();
-        String docNodeName = doc.getNodeName();
-        if (!docNodeName.equals("image")) {
-            throw new IllegalStateException(format(
-                "stack.xml root element is '%s', expected: 'image'",
-                docNodeName));
-        }
+            int compWidth = parseInt(doc.getAttribute("w").trim());
+            int compHeight = parseInt(doc.getAttribute("h").trim());
+
+            var comp = Composition.createEmpty(compWidth, compHeight, ImageMode.RGB);
+            comp.setFile(file);
+            comp.createDebugName();
+
+            Node mainStackElement = doc.getFirstChild();
+            // make sure that text nodes caused by whitespace are ignored
+            while (!(mainStackElement instanceof Element)) {
+                mainStackElement = mainStackElement.getNextSibling();
+            }
+
+            // only the images of the visible layers are decoded now,
+            // the others are loaded when they are needed for the first time
+            Set<String> visibleSources = new HashSet<>();
+            collectVisibleSources(mainStackElement, visibleSources);
+            Map<String, BufferedImage> images = readImages(zipFile, visibleSources, mainTracker);
 
-        int compWidth = parseInt(doc.getAttribute("w").trim());
-        int compHeight = parseInt(doc.getAttribute("h").trim());
+            var loader = new HiddenLayerLoader(file, lastModified, fileLength, zipFile);
+            readHolder(mainStackElement, comp, images, loader);
 
-        var comp = Composition.createEmpty(compWidth, compHeight, ImageMode.RGB);
-        comp.setFile(file);
-        comp.createDebugName();
+            mainTracker.finished();
 
-        Node mainStackElement = doc.getFirstChild();
-        // make sure that text nodes caused by whitespace are ignored
-        while (!(mainStackElement instanceof Element)) {
-            mainStackElement = mainStackElement.getNextSibling();
+            return comp;
         }
+    }
 
-        readHolder(mainStackElement, comp, images);
+    private static String readStackXML(ZipFile zipFile) throws IOException {
+        var fileEntries = zipFile.entries();
+        while (fileEntries.hasMoreElements()) {
+            ZipEntry entry = fileEntries.nextElement();
+            if (entry.getName().equalsIgnoreCase("stack.xml")) {
+                return extractString(zipFile.getInputStream(entry));
+            }
+        }
+        return null;
+    }
 
-        mainTracker.finished();
+    // collects the image sources of the layers that are visible in the composite
+    private static void collectVisibleSources(Node stackNode, Set<String> sources) {
+        NodeList childNodes = stackNode.getChildNodes();
+        for (int i = 0; i < childNodes.getLength(); i++) {
+            if (childNodes.item(i) instanceof Element childElem && isVisible(childElem)) {
+                String childNodeName = childElem.getNodeName();
+                if (childNodeName.equals("stack")) {
+                    collectVisibleSources(childElem, sources);
+                } else if (childNodeName.equals("layer")) {
+                    sources.add(childElem.getAttribute("src"));
+                }
+            }
+        }
+    }
 
-        return comp;
+    private static Map<String, BufferedImage> readImages(ZipFile zipFile, Set<String> sources,
+                                                         ProgressTracker mainTracker) throws IOException {
+        Map<String, BufferedImage> images = new HashMap<>();
+        double workRatio = 1.0 / Math.max(1, sources.size());
+        for (String source : sources) {
+            ZipEntry entry = zipFile.getEntry(source);
+            if (entry == null || !FileUtils.hasPNGExtension(source)) {
+                continue; // reported when the layer is created
+            }
+            var subTracker = new SubtaskProgressTracker(workRatio, mainTracker);
+            var stream = zipFile.getInputStream(entry);
+            var image = TrackedIO.readFromStream(stream, subTracker);
+            images.put(source, image);
+        }
+        return images;
     }
 
     // reads a stack element
-    private static void readHolder(Node stackNode, LayerHolder parent, Map<String, BufferedImage> images) {
+    private static void readHolder(Node stackNode, LayerHolder parent,
+                                   Map<String, BufferedImage> images,
+                                   HiddenLayerLoader loader) throws IOException {
         assert stackNode.getNodeName().equals("stack");
 
         NodeList childNodes = stackNode.getChildNodes();
@@ -240,50 +285,58 @@ public class OpenRaster {
                     }
                 }
 
-                readHolder(child, group, images);
+                readHolder(child, group, images, loader);
             } else if (childNodeName.equals("layer")) {
-                readLayer(images, parent, (Element) child);
+                readLayer(images, loader, parent, (Element) child);
             }
         }
     }
 
-    private static void readLayer(Map<String, BufferedImage> images, LayerHolder holder, Element element) {
+    private static void readLayer(Map<String, BufferedImage> images, HiddenLayerLoader loader,
+                                  LayerHolder holder, Element element) throws IOException {
         String layerName = element.getAttribute("name");
         String layerImageSource = element.getAttribute("src");
 
-        BufferedImage image = images.get(layerImageSource);
-        image = ImageUtils.toSysCompatibleImage(image);
-
         String layerX = element.getAttribute("x");
         String layerY = element.getAttribute("y");
         int tx = Utils.parseInt(layerX, 0);
         int ty = Utils.parseInt(layerY, 0);
 
-        ImageLayer layer = new ImageLayer(holder.getComp(), image, layerName, 0, 0);
-        // Pixelitor doesn't support > 0 translations for image layers
-        // (i.e. image layers where the image doesn't fully cover the canvas)
-        // therefore the image must be enlarged
-        // Also, Krita can export 1x1 pngs for untouched paint layers (without translation)
-        layer.forceTranslation(tx, ty);
-        layer.enlargeCanvas(0, 0, 0, 0);
+        BufferedImage image = images.get(layerImageSource);
+        ImageLayer layer;
+        if (image != null) {
+            image = ImageUtils.toSysCompatibleImage(image);
+
+            layer = new ImageLayer(holder.getComp(), image, layerName, 0, 0);
+            // Pixelitor doesn't support > 0 translations for image layers
+            // (i.e. image layers where the image doesn't fully cover the canvas)
+            // therefore the image must be enlarged
+            // Also, Krita can export 1x1 pngs for untouched paint layers (without translation)
+            layer.forceTranslation(tx, ty);
+            layer.enlargeCanvas(0, 0, 0, 0);
+        } else {
+            layer = loader.createLayer(holder.getComp(), layerName, layerImageSource, tx, ty);
+        }
 
         readBasicAttributes(element, layer);
 
         holder.addLayerNoUI(layer);
     }
 
-    private static void readBasicAttributes(Element element, Layer layer) {
+    private static boolean isVisible(Element element) {
         String layerVisibility = element.getAttribute("visibility");
-        String layerVisible = element.getAttribute("visible");
-        String layerBlendingMode = element.getAttribute("composite-op");
-        String layerOpacity = element.getAttribute("opacity");
         if (layerVisibility == null || layerVisibility.isEmpty()) {
             //workaround: paint.net exported files use "visible" attribute instead of "visibility"
-            layerVisibility = layerVisible;
+            layerVisibility = element.getAttribute("visible");
         }
-        boolean visibility = layerVisibility == null || layerVisibility.equals("visible");
+        return layerVisibility == null || layerVisibility.equals("visible");
+    }
+
+    private static void readBasicAttributes(Element element, Layer layer) {
+        String layerBlendingMode = element.getAttribute("composite-op");
+        String layerOpacity = element.getAttribute("opacity");
 
-        layer.setVisible(visibility);
+        layer.setVisible(isVisible(element));
         BlendingMode blendingMode = BlendingMode.fromSVGName(layerBlendingMode);
 
         layer.setBlendingMode(blendingMode);
@@ -291,21 +344,6 @@ public class OpenRaster {
         layer.setOpacity(opacity);
     }
 
-    private static int countNumImageFiles(ZipFile zipFile) {
-        Enumeration<? extends ZipEntry> fileEntries = zipFile.entries();
-        int numImageFiles = 0;
-        while (fileEntries.hasMoreElements()) {
-            ZipEntry entry = fileEntries.nextElement();
-            String name = entry.getName();
-            String nameLC = name.toLowerCase(Locale.ROOT);
-
-            if (nameLC.endsWith("png") && !name.equals(MERGED_IMAGE_NAME) && !name.equals(THUMBNAIL_IMAGE_NAME)) {
-                numImageFiles++;
-            }
-        }
-        return numImageFiles;
-    }
-
     private static Document loadXMLFromString(String xml)
         throws ParserConfigurationException, IOException, SAXException {
 
@@ -336,4 +374,76 @@ public class OpenRaster {
         Dimension thumbSize = ImageUtils.calcThumbDimensions(src.getWidth(), src.getHeight(), 256, false);
         return ImageUtils.resize(src, thumbSize.width, thumbSize.height);
     }
+
+    /**
+     * Creates the layers whose images are decoded
+     * only when they are needed for the first time.
+     */
+    private record HiddenLayerLoader(File file, long lastModified,
+                                     long fileLength, ZipFile zipFile) {
+        ImageLayer createLayer(Composition comp, String layerName,
+                               String source, int tx, int ty) throws IOException {
+            ZipEntry entry = zipFile.getEntry(source);
+            if (entry == null) {
+                throw new FileNotFoundException(source + " was not found in " + file.getName());
+            }
+            Dimension size = TrackedIO.readImageSize(zipFile.getInputStream(entry));
+
+            // the same enlargement as for the eagerly read layers,
+            // but calculated without decoding the image
+            var imageBounds = new Rectangle(tx, ty, size.width, size.height);
+            Rectangle canvasBounds = comp.getCanvasBounds();
+            Rectangle layerBounds = imageBounds.contains(canvasBounds)
+                ? imageBounds
+                : imageBounds.union(canvasBounds);
+
+            var deferred = new ZipEntryImage(file, lastModified, fileLength,
+                source, imageBounds, layerBounds);
+            return new ImageLayer(comp, deferred, layerName, layerBounds.x, layerBounds.y);
+        }
+    }
+
+    /**
+     * A layer image in an ORA file, placed on
+     * a layer-sized image after it's decoded.
+     */
+    private record ZipEntryImage(File file, long lastModified, long fileLength, String source,
+                                 Rectangle imageBounds, Rectangle layerBounds) implements DeferredImage {
+        @Override
+        public int getWidth() {
+            return layerBounds.width;
+        }
+
+        @Override
+        public int getHeight() {
+            return layerBounds.height;
+        }
+
+        @Override
+        public BufferedImage load() throws IOException {
+            DeferredImage.checkUnchanged(file, lastModified, fileLength);
+            BufferedImage image;
+            try (ZipFile zipFile = new ZipFile(file)) {
+                ZipEntry entry = zipFile.getEntry(source);
+                if (entry == null) {
+                    throw new FileNotFoundException(source + " was not found in " + file.getName());
+                }
+                image = ImageIO.read(zipFile.getInputStream(entry));
+            }
+            if (image == null) {
+                throw new IOException("Could not decode " + source + " in " + file.getName());
+            }
+            image = ImageUtils.toSysCompatibleImage(image);
+            if (imageBounds.equals(layerBounds)) {
+                return image;
+            }
+
+            BufferedImage enlarged = ImageUtils.createSysCompatibleImage(
+                layerBounds.width, layerBounds.height);
+            Graphics2D g = enlarged.createGraphics();
+            g.drawImage(image, imageBounds.x - layerBounds.x, imageBounds.y - layerBounds.y, null);
+            g.dispose();
+            return enlarged;
+        }
+    }
 }
@@ -18,6 +18,7 @@
 package pixelitor.io;
 
 import pixelitor.Composition;
+import pixelitor.ThreadPool;
 import pixelitor.utils.Messages;
 import pixelitor.utils.ProgressTracker;
 import pixelitor.utils.StatusBarProgressTracker;
@@ -26,34 +27,93 @@ import pixelitor.utils.SubtaskProgressTracker;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
 
 import static java.awt.image.BufferedImage.TYPE_BYTE_GRAY;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static java.nio.file.StandardOpenOption.*;
+import static pixelitor.utils.ImageUtils.getGrayPixelByteArray;
 import static pixelitor.utils.ImageUtils.getPixelArray;
 
 /**
  * PXC file format support.
+ *
+ * Since version 4, the layer tree is still stored with Java serialization,
+ * but the pixels of the images are stored separately, in horizontal tiles
+ * that are compressed and decompressed in parallel. The layout is:
+ * <pre>
+ * 0xAB 0xC4 0x04           identification bytes and version
+ * int                      number of images
+ * for each image:          the image index
+ *     int[2]               width, height
+ *     long[2]              file offset and length of the image block
+ * for each image:          the image blocks
+ *     int[4]               width, height, type, rows per tile
+ *     for each tile:
+ *         int              compressed length
+ *         byte[]           deflated pixels
+ * gzipped object stream    the composition, with image indexes
+ *                          in the place of the pixel data
+ * </pre>
+ * Thanks to the index, the image blocks are decoded only when the
+ * layers need their pixels for the first time (see {@link DeferredImage}),
+ * so the hidden layers stay on disk until they are used.
+ *
+ * The version 3 files stored the pixels inside the object stream.
  */
 public class PXCFormat {
-    private static final int CURRENT_PXC_VERSION_NUMBER = 0x03;
+    private static final int CURRENT_PXC_VERSION_NUMBER = 0x04;
+
+    // the last version that stored the pixels inline, in the object stream
+    private static final int INLINE_PIXELS_VERSION_NUMBER = 0x03;
+
+    // the approximate number of pixels in a tile
+    private static final int TILE_PIXELS = 1 << 20;
 
-    // tracks the writing of the whole file
-    private static ProgressTracker mainPT;
+    // the tiles are compressed in parallel, but the speed still matters more
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
 
-    private static double workRatioForOneImage;
+    // identification bytes, version and the number of images
+    private static final int HEADER_SIZE = 7;
+
+    private static final int INDEX_ENTRY_SIZE = 24;
+
+    // limits the memory used by the compressed tiles waiting to be written
+    private static final int MAX_TILES_IN_FLIGHT = 2 * Runtime.getRuntime().availableProcessors();
 
     private PXCFormat() {
     }
 
     public static Composition read(File file) throws BadPxcFormatException {
-        long fileSize = file.length();
-        ProgressTracker pt = new StatusBarProgressTracker(
-            "Reading " + file.getName(), (int) fileSize);
-        Composition comp = null;
-        try (InputStream is = new ProgressTrackingInputStream(
-            new FileInputStream(file), pt)) {
+        try {
+            int version = readVersion(file);
+            if (version == INLINE_PIXELS_VERSION_NUMBER) {
+                return readInlinePixels(file);
+            }
+            return readIndexedPixels(file);
+        } catch (IOException | ClassNotFoundException e) {
+            Messages.showException(e);
+        }
+        return null;
+    }
 
+    private static int readVersion(File file) throws IOException, BadPxcFormatException {
+        try (InputStream is = new FileInputStream(file)) {
             int firstByte = is.read();
             int secondByte = is.read();
             if (firstByte == 0xAB && secondByte == 0xC4) {
@@ -82,51 +142,334 @@ public class PXCFormat {
                 throw new BadPxcFormatException(file.getName()
                     + " has unknown version byte " + versionByte);
             }
+            return versionByte;
+        }
+    }
+
+    private static Composition readInlinePixels(File file) throws IOException, ClassNotFoundException {
+        long fileSize = file.length();
+        ProgressTracker pt = new StatusBarProgressTracker(
+            "Reading " + file.getName(), (int) fileSize);
+        try (InputStream is = new ProgressTrackingInputStream(
+            new FileInputStream(file), pt)) {
+            is.skipNBytes(3); // the already checked header
 
             try (GZIPInputStream gs = new GZIPInputStream(is)) {
                 try (ObjectInput ois = new ObjectInputStream(gs)) {
-                    comp = (Composition) ois.readObject();
+                    Composition comp = (Composition) ois.readObject();
                     pt.finished();
 
                     // file is transient in Composition because the pxc file can be renamed
                     comp.setFile(file);
+                    return comp;
                 }
             }
-        } catch (IOException | ClassNotFoundException e) {
-            Messages.showException(e);
         }
+    }
+
+    private static Composition readIndexedPixels(File file) throws IOException, ClassNotFoundException {
+        // recorded before opening, so that a later modification can be detected
+        long lastModified = file.lastModified();
+        long fileLength = file.length();
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            channel.position(3); // the already checked header
+
+            int numImages = readFully(channel, 4).getInt();
+            if (numImages < 0 || numImages > (fileLength - HEADER_SIZE) / INDEX_ENTRY_SIZE) {
+                throw new IOException("Invalid number of images: " + numImages);
+            }
+
+            ByteBuffer index = readFully(channel, numImages * INDEX_ENTRY_SIZE);
+            long treeOffset = HEADER_SIZE + (long) numImages * INDEX_ENTRY_SIZE;
+            List<DeferredImage> images = new ArrayList<>(numImages);
+            for (int i = 0; i < numImages; i++) {
+                int width = index.getInt();
+                int height = index.getInt();
+                long offset = index.getLong();
+                long length = index.getLong();
+                if (width <= 0 || height <= 0 || offset < treeOffset
+                    || length <= 0 || offset + length > fileLength) {
+                    throw new IOException("Invalid image index entry: %dx%d at %d, length = %d"
+                        .formatted(width, height, offset, length));
+                }
+                images.add(new ImageBlock(file, lastModified, fileLength, width, height, offset));
+                treeOffset = Math.max(treeOffset, offset + length);
+            }
+
+            // only the layer tree is read now, the pixels are read on demand
+            channel.position(treeOffset);
+            return readLayerTree(channel, file, images);
+        }
+    }
+
+    private static Composition readLayerTree(FileChannel channel, File file,
+                                             List<DeferredImage> images) throws IOException, ClassNotFoundException {
+        InputStream is = new BufferedInputStream(Channels.newInputStream(channel));
+        try (ObjectInput ois = new PxcObjectInputStream(new GZIPInputStream(is), images)) {
+            Composition comp = (Composition) ois.readObject();
+
+            // file is transient in Composition because the pxc file can be renamed
+            comp.setFile(file);
+            return comp;
+        }
+    }
+
+    /**
+     * Reads an image block at the current position of the channel.
+     */
+    private static BufferedImage readImage(FileChannel channel) throws IOException {
+        ByteBuffer header = readFully(channel, 16);
+        int width = header.getInt();
+        int height = header.getInt();
+        int type = header.getInt();
+        int rowsPerTile = header.getInt();
+        if (rowsPerTile <= 0) {
+            throw new IOException("Invalid image header: %d rows per tile".formatted(rowsPerTile));
+        }
+
+        BufferedImage img = createImage(width, height, type);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int startY = 0; startY < height; startY += rowsPerTile) {
+            int tileStartY = startY;
+            int tileEndY = Math.min(startY + rowsPerTile, height);
+
+            int length = readFully(channel, 4).getInt();
+            if (length < 0 || length > channel.size() - channel.position()) {
+                throw new IOException("Invalid tile length: " + length);
+            }
+            byte[] compressed = readFully(channel, length).array();
+            futures.add(ThreadPool.fork(() -> {
+                inflateTile(compressed, img, tileStartY, tileEndY);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            getResult(future);
+        }
+        return img;
+    }
 
-        return comp;
+    /**
+     * Creates an image for the pixels read from a file, accepting
+     * only the image types that can be written into a pxc file.
+     */
+    private static BufferedImage createImage(int width, int height, int type) throws IOException {
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("Invalid image size: %dx%d".formatted(width, height));
+        }
+        if (type != TYPE_INT_ARGB && type != TYPE_INT_ARGB_PRE
+            && type != TYPE_INT_RGB && type != TYPE_BYTE_GRAY) {
+            throw new IOException("Unsupported image type: " + type);
+        }
+        return new BufferedImage(width, height, type);
     }
 
     public static void write(Composition comp, File file) {
-        mainPT = new StatusBarProgressTracker(
+        // fails if a layer image couldn't be loaded from the source file
+        comp.loadDeferredImages();
+
+        // tracks the writing of the whole file
+        ProgressTracker mainPT = new StatusBarProgressTracker(
             "Writing " + file.getName(), 100);
-        int numImages = comp.calcNumImages();
-        if (numImages > 0) {
-            workRatioForOneImage = 1.0 / numImages;
-        } else {
-            workRatioForOneImage = -1;
-        }
-        try (FileOutputStream fos = new FileOutputStream(file)) {
-            fos.write(new byte[]{(byte) 0xAB, (byte) 0xC4, CURRENT_PXC_VERSION_NUMBER});
+        try {
+            // the layer tree is serialized first, because
+            // it determines the images that have to be written
+            List<BufferedImage> images = new ArrayList<>();
+            byte[] layerTree = serializeLayerTree(comp, images);
+            double workRatioForOneImage = images.isEmpty() ? 0 : 1.0 / images.size();
+
+            try (FileChannel channel = FileChannel.open(file.toPath(), WRITE, CREATE, TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                    .put((byte) 0xAB)
+                    .put((byte) 0xC4)
+                    .put((byte) CURRENT_PXC_VERSION_NUMBER)
+                    .putInt(images.size());
+                writeFully(channel, header.flip());
+
+                // the index is written at the end, when the offsets are known
+                ByteBuffer index = ByteBuffer.allocate(images.size() * INDEX_ENTRY_SIZE);
+                channel.position(HEADER_SIZE + index.capacity());
+
+                for (BufferedImage image : images) {
+                    long offset = channel.position();
+                    writeImage(channel, image,
+                        new SubtaskProgressTracker(workRatioForOneImage, mainPT));
+                    index.putInt(image.getWidth())
+                        .putInt(image.getHeight())
+                        .putLong(offset)
+                        .putLong(channel.position() - offset);
+                }
+                writeFully(channel, ByteBuffer.wrap(layerTree));
 
-            try (GZIPOutputStream gz = new GZIPOutputStream(fos)) {
-                try (ObjectOutput oos = new ObjectOutputStream(gz)) {
-                    oos.writeObject(comp);
-                    oos.flush();
+                index.flip();
+                long position = HEADER_SIZE;
+                while (index.hasRemaining()) {
+                    position += channel.write(index, position);
                 }
             }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
         mainPT.finished();
-        mainPT = null;
+    }
+
+    /**
+     * Serializes the layer tree, and collects the images
+     * referenced from it into the given list.
+     */
+    private static byte[] serializeLayerTree(Composition comp, List<BufferedImage> images) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (ObjectOutput oos = new PxcObjectOutputStream(new GZIPOutputStream(bytes), images)) {
+            oos.writeObject(comp);
+            oos.flush();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeImage(FileChannel channel, BufferedImage img, ProgressTracker pt) throws IOException {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int rowsPerTile = Math.max(1, TILE_PIXELS / width);
+        int numTiles = (height + rowsPerTile - 1) / rowsPerTile;
+
+        ByteBuffer header = ByteBuffer.allocate(16)
+            .putInt(width)
+            .putInt(height)
+            .putInt(img.getType())
+            .putInt(rowsPerTile);
+        writeFully(channel, header.flip());
+
+        int reportedPercent = 0;
+
+        // the tiles are compressed in parallel, but written in order
+        Deque<Future<byte[]>> inFlight = new ArrayDeque<>();
+        int nextTile = 0;
+        for (int tile = 0; tile < numTiles; tile++) {
+            while (nextTile < numTiles && inFlight.size() < MAX_TILES_IN_FLIGHT) {
+                int startY = nextTile * rowsPerTile;
+                int endY = Math.min(startY + rowsPerTile, height);
+                inFlight.add(ThreadPool.fork(() -> deflateTile(img, startY, endY)));
+                nextTile++;
+            }
+
+            byte[] compressed = getResult(inFlight.removeFirst());
+            writeFully(channel, ByteBuffer.allocate(4).putInt(compressed.length).flip());
+            writeFully(channel, ByteBuffer.wrap(compressed));
+
+            int percent = (tile + 1) * 100 / numTiles;
+            if (percent > reportedPercent) {
+                pt.unitsDone(percent - reportedPercent);
+                reportedPercent = percent;
+            }
+        }
+    }
+
+    private static byte[] deflateTile(BufferedImage img, int startY, int endY) {
+        int width = img.getWidth();
+        int offset = startY * width;
+        int numPixels = (endY - startY) * width;
+
+        ByteBuffer raw;
+        if (img.getType() == TYPE_BYTE_GRAY) {
+            raw = ByteBuffer.wrap(getGrayPixelByteArray(img), offset, numPixels);
+        } else {
+            raw = ByteBuffer.allocate(numPixels * 4);
+            raw.asIntBuffer().put(getPixelArray(img), offset, numPixels);
+        }
+
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(raw.remaining() / 4 + 64);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int numBytes = deflater.deflate(buffer);
+                out.write(buffer, 0, numBytes);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void inflateTile(byte[] compressed, BufferedImage img, int startY, int endY) {
+        int width = img.getWidth();
+        int offset = startY * width;
+        int numPixels = (endY - startY) * width;
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            if (img.getType() == TYPE_BYTE_GRAY) {
+                inflateFully(inflater, ByteBuffer.wrap(getGrayPixelByteArray(img), offset, numPixels));
+            } else {
+                ByteBuffer raw = ByteBuffer.allocate(numPixels * 4);
+                inflateFully(inflater, raw);
+                raw.flip().asIntBuffer().get(getPixelArray(img), offset, numPixels);
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void inflateFully(Inflater inflater, ByteBuffer out) {
+        try {
+            while (out.hasRemaining()) {
+                int numBytes = inflater.inflate(out);
+                if (numBytes == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new UncheckedIOException(new EOFException("Truncated pixel data"));
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new UncheckedIOException(new IOException("Corrupt pixel data", e));
+        }
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException uioe) {
+                throw uioe.getCause();
+            }
+            if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, int numBytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(numBytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of the pxc file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
     }
 
     public static void serializeImage(ObjectOutputStream out,
                                       BufferedImage img) throws IOException {
         assert img != null;
+        if (out instanceof PxcObjectOutputStream pxcOut) {
+            // only a reference, the pixels are written later, in tiles
+            out.writeInt(pxcOut.images.size());
+            pxcOut.images.add(img);
+            return;
+        }
+
         int imgType = img.getType();
         int imgWidth = img.getWidth();
         int imgHeight = img.getHeight();
@@ -135,28 +478,38 @@ public class PXCFormat {
         out.writeInt(imgHeight);
         out.writeInt(imgType);
 
-        ProgressTracker pt = getImageTracker();
-
         if (imgType == TYPE_BYTE_GRAY) {
             ImageIO.write(img, "PNG", out);
         } else {
-            int[] pixels = getPixelArray(img);
-            int length = pixels.length;
-            int progress = 0;
-            int fiveUnits = length / 20;
-            for (int pixel : pixels) {
+            for (int pixel : getPixelArray(img)) {
                 out.writeInt(pixel);
-                progress++;
-                if (progress > fiveUnits) {
-                    pt.unitsDone(5);
-                    progress = 0;
-                }
             }
         }
     }
 
+    /**
+     * Returns the not yet loaded image referenced from the object stream,
+     * or null if the pixels of the file being read can't be loaded later.
+     * In the latter case, the image must be read with {@link #deserializeImage}.
+     */
+    public static DeferredImage deserializeDeferredImage(ObjectInputStream in) throws IOException {
+        if (in instanceof PxcObjectInputStream pxcIn) {
+            List<DeferredImage> images = pxcIn.images;
+            return images.get(readImageIndex(in, images.size()));
+        }
+        return null;
+    }
+
+    private static int readImageIndex(ObjectInputStream in, int numImages) throws IOException {
+        int index = in.readInt();
+        if (index < 0 || index >= numImages) {
+            throw new InvalidObjectException("Invalid image index: " + index);
+        }
+        return index;
+    }
+
     // when deserializing, the progress tracking
-    // is done at the InputStream level, not here
+    // is done at the file level, not here
     public static BufferedImage deserializeImage(ObjectInputStream in) throws IOException {
         int width = in.readInt();
         int height = in.readInt();
@@ -165,7 +518,7 @@ public class PXCFormat {
         if (type == TYPE_BYTE_GRAY) {
             return ImageIO.read(in);
         } else {
-            BufferedImage img = new BufferedImage(width, height, type);
+            BufferedImage img = createImage(width, height, type);
             int[] pixels = getPixelArray(img);
 
             int length = pixels.length;
@@ -176,12 +529,62 @@ public class PXCFormat {
         }
     }
 
-    private static ProgressTracker getImageTracker() {
-        if (workRatioForOneImage == -1) {
-            // a pxc without images
-            return ProgressTracker.NULL_TRACKER;
-        } else {
-            return new SubtaskProgressTracker(workRatioForOneImage, mainPT);
+    /**
+     * The object stream of the layer tree while a pxc file is written.
+     * The images reach it through the serialization methods of the layers,
+     * and they are collected here, so that their pixels can be written
+     * separately. Each write has its own stream, so the concurrent or
+     * nested serializations don't affect each other.
+     */
+    private static class PxcObjectOutputStream extends ObjectOutputStream {
+        private final List<BufferedImage> images;
+
+        PxcObjectOutputStream(OutputStream out, List<BufferedImage> images) throws IOException {
+            super(out);
+            this.images = images;
+        }
+    }
+
+    /**
+     * The object stream of the layer tree while a pxc file is read,
+     * which gives the layers the images referenced by their index.
+     */
+    private static class PxcObjectInputStream extends ObjectInputStream {
+        // the not yet loaded images of the file
+        private final List<DeferredImage> images;
+
+        PxcObjectInputStream(InputStream in, List<DeferredImage> images) throws IOException {
+            super(in);
+            this.images = images;
+        }
+    }
+
+    /**
+     * An image block of a pxc file, loaded on demand.
+     */
+    private record ImageBlock(File file, long lastModified, long fileLength,
+                              int width, int height, long offset) implements DeferredImage {
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public BufferedImage load() throws IOException {
+            DeferredImage.checkUnchanged(file, lastModified, fileLength);
+            try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+                channel.position(offset);
+                BufferedImage img = readImage(channel);
+                if (img.getWidth() != width || img.getHeight() != height) {
+                    throw new IOException("Image index mismatch in " + file.getName());
+                }
+                return img;
+            }
         }
     }
 }
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * The image formats used to send images to external
+ * processes and to read back the results through pipes.
+ *
+ * The uncompressed formats are streamed through NIO buffers, so unlike
+ * with PNG, the images aren't deflated and inflated for each transfer.
+ */
+public enum PipeFormat {
+    /**
+     * The default format of the command-line tools.
+     */
+    PNG {
+        @Override
+        public void write(BufferedImage img, OutputStream out) throws IOException {
+            ImageIO.write(img, "png", out);
+        }
+
+        @Override
+        public BufferedImage read(InputStream in) throws IOException {
+            return ImageIO.read(in);
+        }
+    },
+    /**
+     * The Netpbm PAM format with 8-bit RGBA samples, understood by ImageMagick
+     * as "pam:-". The reading also accepts the binary PPM and PGM formats.
+     */
+    PAM {
+        @Override
+        public void write(BufferedImage img, OutputStream out) throws IOException {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            String header = "P7\nWIDTH %d\nHEIGHT %d\nDEPTH 4\nMAXVAL 255\nTUPLTYPE RGB_ALPHA\nENDHDR\n"
+                .formatted(width, height);
+
+            var writer = new ChunkWriter(out);
+            writer.put(header.getBytes(US_ASCII));
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                getRow(img, y, row);
+                for (int rgb : row) {
+                    ByteBuffer buf = writer.reserve(4);
+                    buf.put((byte) (rgb >>> 16));
+                    buf.put((byte) (rgb >>> 8));
+                    buf.put((byte) rgb);
+                    buf.put((byte) (rgb >>> 24));
+                }
+            }
+            writer.flush();
+        }
+
+        @Override
+        public BufferedImage read(InputStream in) throws IOException {
+            var reader = new ChunkReader(in);
+            if (reader.isEmpty()) {
+                return null;
+            }
+            String magic = reader.nextToken();
+            int width;
+            int height;
+            int depth;
+            int maxVal;
+            switch (magic) {
+                case "P5", "P6" -> {
+                    width = Integer.parseInt(reader.nextToken());
+                    height = Integer.parseInt(reader.nextToken());
+                    maxVal = Integer.parseInt(reader.nextToken());
+                    depth = magic.equals("P5") ? 1 : 3;
+                }
+                case "P7" -> {
+                    width = height = depth = maxVal = -1;
+                    String tupleType = null;
+                    String token;
+                    while (!(token = reader.nextToken()).equals("ENDHDR")) {
+                        switch (token) {
+                            case "WIDTH" -> width = Integer.parseInt(reader.nextToken());
+                            case "HEIGHT" -> height = Integer.parseInt(reader.nextToken());
+                            case "DEPTH" -> depth = Integer.parseInt(reader.nextToken());
+                            case "MAXVAL" -> maxVal = Integer.parseInt(reader.nextToken());
+                            case "TUPLTYPE" -> tupleType = reader.nextToken();
+                            default -> throw new IOException("Unexpected PAM header field " + token);
+                        }
+                    }
+                    checkTupleType(tupleType, depth);
+                }
+                default -> throw new IOException("Not a PAM/PPM/PGM image: " + magic);
+            }
+            if (width <= 0 || height <= 0 || depth < 1 || depth > 4 || maxVal < 1 || maxVal > 65535) {
+                throw new IOException("Unsupported PAM image: %dx%d, depth = %d, maxval = %d"
+                    .formatted(width, height, depth, maxVal));
+            }
+
+            var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+            int[] pixels = getPixelArray(img);
+            int bytesPerSample = maxVal < 256 ? 1 : 2;
+            int[] sample = new int[depth];
+            for (int i = 0; i < pixels.length; i++) {
+                ByteBuffer buf = reader.require(depth * bytesPerSample);
+                for (int c = 0; c < depth; c++) {
+                    int value = bytesPerSample == 1
+                        ? buf.get() & 0xFF
+                        : buf.getShort() & 0xFF_FF;
+                    sample[c] = maxVal == 255 ? value : (value * 255 + maxVal / 2) / maxVal;
+                }
+                pixels[i] = toARGB(sample, depth);
+            }
+            return img;
+        }
+
+        // the samples are interpreted only based on the depth, therefore
+        // the other tuple types (for example CMYK) must be rejected
+        private static void checkTupleType(String tupleType, int depth) throws IOException {
+            if (tupleType == null) {
+                return; // optional, the depth decides
+            }
+            int expectedDepth = switch (tupleType) {
+                case "BLACKANDWHITE", "GRAYSCALE" -> 1;
+                case "BLACKANDWHITE_ALPHA", "GRAYSCALE_ALPHA" -> 2;
+                case "RGB" -> 3;
+                case "RGB_ALPHA" -> 4;
+                default -> throw new IOException("Unsupported PAM tuple type " + tupleType);
+            };
+            if (depth != expectedDepth) {
+                throw new IOException("The PAM tuple type %s doesn't match depth = %d"
+                    .formatted(tupleType, depth));
+            }
+        }
+    },
+    /**
+     * The native format of CImg (and therefore of G'MIC) as "-.cimg".
+     * The images are written with 8-bit samples, and the results
+     * are read back with 8-bit, float or double samples.
+     * The channels are stored one after the other (planar).
+     */
+    CIMG {
+        @Override
+        public void write(BufferedImage img, OutputStream out) throws IOException {
+            int width = img.getWidth();
+            int height = img.getHeight();
+            String header = "1 uchar little_endian\n%d %d 1 4\n".formatted(width, height);
+
+            var writer = new ChunkWriter(out);
+            writer.put(header.getBytes(US_ASCII));
+            int[] row = new int[width];
+            for (int shift : new int[]{16, 8, 0, 24}) {
+                for (int y = 0; y < height; y++) {
+                    getRow(img, y, row);
+                    for (int rgb : row) {
+                        writer.reserve(1).put((byte) (rgb >>> shift));
+                    }
+                }
+            }
+            writer.flush();
+        }
+
+        @Override
+        public BufferedImage read(InputStream in) throws IOException {
+            var reader = new ChunkReader(in);
+            if (reader.isEmpty()) {
+                return null;
+            }
+            String[] listHeader = reader.nextLine().trim().split("\\s+");
+            if (listHeader.length < 2 || Integer.parseInt(listHeader[0]) < 1) {
+                throw new IOException("No images in the CImg data");
+            }
+            String type = listHeader[1];
+            boolean bigEndian = listHeader.length > 2 && listHeader[2].equals("big_endian");
+            reader.setOrder(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+
+            String[] imgHeader = reader.nextLine().trim().split("\\s+");
+            if (imgHeader.length > 4) {
+                throw new IOException("Compressed CImg data is not supported");
+            }
+            int width = Integer.parseInt(imgHeader[0]);
+            int height = Integer.parseInt(imgHeader[1]);
+            int numChannels = Integer.parseInt(imgHeader[3]);
+            if (width <= 0 || height <= 0 || numChannels < 1) {
+                throw new IOException("Unsupported CImg image: %dx%d, channels = %d"
+                    .formatted(width, height, numChannels));
+            }
+
+            int sampleSize = switch (type) {
+                case "uchar", "unsigned_char" -> 1;
+                case "float" -> 4;
+                case "double" -> 8;
+                default -> throw new IOException("Unsupported CImg pixel type " + type);
+            };
+
+            var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+            int[] pixels = getPixelArray(img);
+            if (numChannels != 2 && numChannels < 4) {
+                // no alpha channel
+                Arrays.fill(pixels, 0xFF_00_00_00);
+            }
+            // more than four channels (for example depth) can be sent
+            // by the filters, but only the first four are shown
+            int numShownChannels = Math.min(numChannels, 4);
+            for (int c = 0; c < numChannels; c++) {
+                int channelMask = channelMask(c, numChannels);
+                for (int i = 0; i < pixels.length; i++) {
+                    ByteBuffer buf = reader.require(sampleSize);
+                    double value = switch (sampleSize) {
+                        case 1 -> buf.get() & 0xFF;
+                        case 4 -> buf.getFloat();
+                        default -> buf.getDouble();
+                    };
+                    if (c < numShownChannels) {
+                        int v = (int) Math.clamp(Math.round(value), 0, 255);
+                        pixels[i] |= (v * 0x01_01_01_01) & channelMask;
+                    }
+                }
+            }
+            return img;
+        }
+
+        // the bits of an ARGB pixel that are set by the given channel
+        private static int channelMask(int channel, int numChannels) {
+            if (numChannels <= 2) {
+                return channel == 0 ? 0x00_FF_FF_FF : 0xFF_00_00_00;
+            }
+            return switch (channel) {
+                case 0 -> 0x00_FF_00_00;
+                case 1 -> 0x00_00_FF_00;
+                case 2 -> 0x00_00_00_FF;
+                default -> 0xFF_00_00_00;
+            };
+        }
+    };
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Writes the given image to the given stream, without closing it.
+     */
+    public abstract void write(BufferedImage img, OutputStream out) throws IOException;
+
+    /**
+     * Reads an image from the given stream, or returns null
+     * if the stream ended before the start of an image.
+     */
+    public abstract BufferedImage read(InputStream in) throws IOException;
+
+    private static int toARGB(int[] samples, int depth) {
+        return switch (depth) {
+            case 1 -> 0xFF_00_00_00 | samples[0] * 0x01_01_01;
+            case 2 -> samples[1] << 24 | samples[0] * 0x01_01_01;
+            case 3 -> 0xFF_00_00_00 | samples[0] << 16 | samples[1] << 8 | samples[2];
+            default -> samples[3] << 24 | samples[0] << 16 | samples[1] << 8 | samples[2];
+        };
+    }
+
+    /**
+     * Copies a row of non-premultiplied ARGB pixels into the given array,
+     * directly from the data buffer if the image has that layout.
+     */
+    private static void getRow(BufferedImage img, int y, int[] row) {
+        int width = row.length;
+        WritableRaster raster = img.getRaster();
+        if (img.getType() == TYPE_INT_ARGB
+            && raster.getDataBuffer() instanceof DataBufferInt db
+            && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+            && raster.getSampleModelTranslateX() == 0
+            && raster.getSampleModelTranslateY() == 0) {
+            int offset = db.getOffset() + y * sm.getScanlineStride();
+            System.arraycopy(db.getData(), offset, row, 0, width);
+        } else {
+            img.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    // the returned images are created here with the default layout
+    private static int[] getPixelArray(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+
+    /**
+     * Collects the written bytes in a buffer, and writes
+     * them to the channel of the stream when it's full.
+     */
+    private static class ChunkWriter {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        ChunkWriter(OutputStream out) {
+            channel = Channels.newChannel(out);
+        }
+
+        void put(byte[] bytes) throws IOException {
+            reserve(bytes.length).put(bytes);
+        }
+
+        // returns the buffer with space for at least the given number of bytes
+        ByteBuffer reserve(int numBytes) throws IOException {
+            if (buffer.remaining() < numBytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Reads the channel of a stream through a buffer. The
+     * header is parsed from the same buffer as the pixel data.
+     */
+    private static class ChunkReader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+
+        ChunkReader(InputStream in) {
+            channel = Channels.newChannel(in);
+            buffer.flip(); // empty for reading
+        }
+
+        void setOrder(ByteOrder order) {
+            buffer.order(order);
+        }
+
+        boolean isEmpty() throws IOException {
+            return !fill(1);
+        }
+
+        // returns the buffer with at least the given number of bytes available
+        ByteBuffer require(int numBytes) throws IOException {
+            if (!fill(numBytes)) {
+                throw new EOFException("Unexpected end of the image data");
+            }
+            return buffer;
+        }
+
+        private boolean fill(int numBytes) throws IOException {
+            if (buffer.remaining() >= numBytes) {
+                return true;
+            }
+            buffer.compact();
+            while (buffer.position() < numBytes) {
+                if (channel.read(buffer) < 0) {
+                    buffer.flip();
+                    return false;
+                }
+            }
+            buffer.flip();
+            return true;
+        }
+
+        String nextLine() throws IOException {
+            var sb = new StringBuilder();
+            char c;
+            while ((c = (char) require(1).get()) != '\n') {
+                sb.append(c);
+            }
+            return sb.toString();
+        }
+
+        // reads a whitespace-separated header token, skipping the comments
+        String nextToken() throws IOException {
+            var sb = new StringBuilder();
+            while (true) {
+                char c = (char) require(1).get();
+                if (c == '#') {
+                    while (require(1).get() != '\n') {
+                        // skip the rest of the comment line
+                    }
+                } else if (Character.isWhitespace(c)) {
+                    if (!sb.isEmpty()) {
+                        // the whitespace after the token is consumed, like in the
+                        // Netpbm formats, where a single one separates the data
+                        return sb.toString();
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+    }
+}
@@ -27,6 +27,7 @@ import pixelitor.utils.TrackerWriteProgressListener;
 import javax.imageio.*;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.ImageOutputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.util.Iterator;
@@ -50,6 +51,14 @@ public class TrackedIO {
                              Consumer<ImageWriteParam> customizer) throws IOException {
         var tracker = new StatusBarProgressTracker(
             "Writing " + file.getName(), 100);
+        write(img, formatName, file, customizer, tracker);
+    }
+
+    public static void write(BufferedImage img,
+                             String formatName,
+                             File file,
+                             Consumer<ImageWriteParam> customizer,
+                             ProgressTracker tracker) throws IOException {
         // the creation of FileOutputStream is necessary, because if the
         // ImageOutputStream is created directly from the File, then existing files
         // are not truncated, and small files don't completely overwrite bigger files.
@@ -208,6 +217,26 @@ public class TrackedIO {
         return image;
     }
 
+    /**
+     * Reads only the dimensions of the image, without decoding the pixels.
+     */
+    public static Dimension readImageSize(InputStream is) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(is)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
     /**
      * Reads a subsampled image. It requires far less memory,
      * can be almost twice as fast as reading all pixels,
@@ -59,7 +59,8 @@ public class ImageMagick {
             return;
         }
 
-        BufferedImage image = comp.getCompositeImage();
+        // exported on the IO thread
+        BufferedImage image = comp.getCompositeSnapshot();
         File file = FileChoosers.showSaveDialog(FileChooserInfo.forMagickExport(comp));
         if (file == null) { // canceled
             return;
@@ -151,22 +152,24 @@ public class ImageMagick {
 //        command.add("-define");
 //        command.add("stream:buffer-size=0");
 
-        command.add("png:-"); // read png from stdin
+        command.add("pam:-"); // read uncompressed pixels from stdin
 
         settings.addMagickOptions(command);
         command.add(settings.getFormatSpecifier() + outFile.getAbsolutePath());
 
         System.out.println("ImageMagick::exportImage: command = " + command);
 
-        // a process that reads a png file from the standard input,
+        // a process that reads a pam image from the standard input,
         // and converts it to the given file
         ProcessBuilder pb = new ProcessBuilder(command.toArray(String[]::new));
         pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+        // nothing reads the outputs, so they must not fill up a pipe
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
         try {
             Process p = pb.start();
             try (OutputStream magickInput = p.getOutputStream()) {
-                IO.writeToOutStream(img, magickInput);
-                magickInput.flush();
+                PipeFormat.PAM.write(img, magickInput);
             }
             p.waitFor();
         } catch (IOException e) {
@@ -177,20 +180,22 @@ public class ImageMagick {
     }
 
     private static BufferedImage importImage(File file) {
-        // a process that reads the given file,
-        // and writes it as png (depth=8 bit) to the standard output
+        // a process that reads the given file, and writes it
+        // as pam (depth=8 bit) to the standard output
         ProcessBuilder pb = new ProcessBuilder(
             magickCommand.getAbsolutePath(), "convert", file.getAbsolutePath(),
+            "-colorspace", "sRGB", // convert for example CMYK images
+            "-type", "TrueColorAlpha", // always send RGB_ALPHA tuples
             "-depth", "8", // don't send 16-bit data
-            "-quality", "1", // importing is faster with minimal compression
-            "png:-");
+            "pam:-");
+        pb.redirectError(ProcessBuilder.Redirect.INHERIT);
         BufferedImage img;
         try {
             Process p = pb.start();
 
-            // read the image as png after ImageMagick did the conversion
+            // read the image as pam after ImageMagick did the conversion
             try (InputStream magickOutput = p.getInputStream()) {
-                img = ImageIO.read(magickOutput);
+                img = PipeFormat.PAM.read(magickOutput);
             }
         } catch (IOException e) {
             throw DecodingException.magick(file, e);
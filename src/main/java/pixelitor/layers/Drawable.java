@@ -18,7 +18,10 @@
 package pixelitor.layers;
 
 import pixelitor.FilterContext;
+import pixelitor.GUIMode;
 import pixelitor.filters.Filter;
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.util.PreviewScheduler;
 import pixelitor.gui.utils.Dialogs;
 import pixelitor.tools.util.PPoint;
 import pixelitor.tools.util.PRectangle;
@@ -27,7 +30,9 @@ import pixelitor.utils.test.RandomGUITest;
 
 import java.awt.Component;
 import java.awt.Composite;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
 
 /**
  * Something that (unlike text and adjustment layers)
@@ -84,7 +89,22 @@ public interface Drawable extends Filterable {
 
     @Override
     default void startPreview(Filter filter, boolean first, Component busyCursorParent) {
-        startFilter(filter, FilterContext.PREVIEWING, busyCursorParent);
+        if (GUIMode.isUnitTesting() || RandomGUITest.isRunning()) {
+            // the tests expect the preview to be ready when this returns
+            startFilter(filter, FilterContext.PREVIEWING, busyCursorParent);
+        } else {
+            PreviewScheduler.schedule(this, filter, busyCursorParent);
+        }
+    }
+
+    @Override
+    default void startProxyPreview(Filter filter, Component busyCursorParent) {
+        if (GUIMode.isUnitTesting() || RandomGUITest.isRunning()) {
+            return;
+        }
+        if (filter instanceof ParametrizedFilter pf && pf.supportsProxyPreview()) {
+            PreviewScheduler.scheduleProxy(this, pf, busyCursorParent);
+        }
     }
 
     @Override
@@ -101,29 +121,53 @@ public interface Drawable extends Filterable {
             } else {
                 filterWithoutDialogFinished(dest, context, filter.getName());
             }
-        } catch (OutOfMemoryError e) {
-            Dialogs.showOutOfMemoryDialog(e);
+        } catch (CancellationException e) {
+            filterCanceled(filter);
         } catch (Throwable e) {
-            String errorDetails = String.format(
-                "Error while running the filter '%s'%n" +
-                    "composition = '%s'%n" +
-                    "layer = '%s' (%s)%n" +
-                    "params = %s",
-                filter.getName(),
-                getComp().getDebugName(),
-                getName(), getClass().getSimpleName(),
-                filter.paramsAsString());
-
-            var ise = new IllegalStateException(errorDetails, e);
-            if (RandomGUITest.isRunning()) {
-                throw ise; // we can debug the exact filter parameters only in RandomGUITest
-            }
-            Messages.showException(ise);
+            filterFailed(filter, e);
+        }
+    }
+
+    /**
+     * Called if the given filter was canceled before producing
+     * its result. The image (or the current preview) is not changed.
+     */
+    default void filterCanceled(Filter filter) {
+        Messages.showPlainInStatusBar(filter.getName() + " was canceled.");
+    }
+
+    /**
+     * Reports an error that was thrown while running the given filter.
+     */
+    default void filterFailed(Filter filter, Throwable e) {
+        if (e instanceof OutOfMemoryError oome) {
+            Dialogs.showOutOfMemoryDialog(oome);
+            return;
+        }
+        String errorDetails = String.format(
+            "Error while running the filter '%s'%n" +
+                "composition = '%s'%n" +
+                "layer = '%s' (%s)%n" +
+                "params = %s",
+            filter.getName(),
+            getComp().getDebugName(),
+            getName(), getClass().getSimpleName(),
+            filter.paramsAsString());
+
+        var ise = new IllegalStateException(errorDetails, e);
+        if (RandomGUITest.isRunning()) {
+            throw ise; // we can debug the exact filter parameters only in RandomGUITest
         }
+        Messages.showException(ise);
     }
 
     void update();
 
+    /**
+     * Signals that only the given canvas-relative area has been changed.
+     */
+    void updateRegion(Rectangle area);
+
     void repaintRegion(PPoint start, PPoint end, double thickness);
 
     void repaintRegion(PRectangle area);
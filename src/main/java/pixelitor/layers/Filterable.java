@@ -62,6 +62,14 @@ public interface Filterable {
     // this is called only to trigger the first preview run of the filter
     void startPreview(Filter filter, boolean first, Component busyCursorParent);
 
+    /**
+     * Starts a low-resolution preview while a filter parameter is being
+     * adjusted. It's only an optional optimization, therefore by default
+     * it does nothing, and the preview is calculated after the adjustment.
+     */
+    default void startProxyPreview(Filter filter, Component busyCursorParent) {
+    }
+
     void onFilterDialogAccepted(String filterName);
 
     void onFilterDialogCanceled();
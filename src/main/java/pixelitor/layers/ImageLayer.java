@@ -21,8 +21,10 @@ import pixelitor.Canvas;
 import pixelitor.*;
 import pixelitor.colors.Colors;
 import pixelitor.compactions.Flip;
+import pixelitor.filters.util.PreviewScheduler;
 import pixelitor.gui.utils.Dialogs;
 import pixelitor.history.*;
+import pixelitor.io.DeferredImage;
 import pixelitor.io.PXCFormat;
 import pixelitor.io.TranslatedImage;
 import pixelitor.tools.Tools;
@@ -86,6 +88,19 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     protected transient BufferedImage image = null;
 
+    /**
+     * If not null, then the image wasn't loaded yet from the file,
+     * and it will be loaded when it's needed for the first time.
+     */
+    private transient volatile DeferredImage deferredImage;
+
+    /**
+     * If not null, then the deferred image could not be loaded, and the
+     * layer shows an empty image instead. The composition can't be saved
+     * in this state, because that would make the loss of the pixels permanent.
+     */
+    private transient volatile DeferredImage failedImage;
+
     /**
      * The image shown during filter previews.
      */
@@ -129,6 +144,17 @@ public class ImageLayer extends ContentLayer implements Drawable {
         checkConstructorPostConditions();
     }
 
+    /**
+     * Creates a new layer whose image is loaded only when it's needed
+     */
+    public ImageLayer(Composition comp, DeferredImage deferredImage,
+                      String name, int tx, int ty) {
+        this(comp, name);
+
+        this.deferredImage = requireNonNull(deferredImage);
+        setTranslation(tx, ty);
+    }
+
     /**
      * Creates a new empty layer
      */
@@ -222,10 +248,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert image != null;
     }
 
+    /**
+     * Returns whether the image of this layer can be
+     * loaded later, when it's needed for the first time.
+     */
+    protected boolean canDeferImageLoading() {
+        return true;
+    }
+
     @Serial
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
-        PXCFormat.serializeImage(out, image);
+        PXCFormat.serializeImage(out, getImage());
     }
 
     @Serial
@@ -236,9 +270,19 @@ public class ImageLayer extends ContentLayer implements Drawable {
         previewImage = null;
         filterSourceImage = null;
         image = null;
+        deferredImage = null;
+        failedImage = null;
 
         in.defaultReadObject();
-        setImage(PXCFormat.deserializeImage(in));
+        DeferredImage deferred = PXCFormat.deserializeDeferredImage(in);
+        if (deferred == null) {
+            // the pixels were stored in the stream
+            setImage(PXCFormat.deserializeImage(in));
+        } else if (canDeferImageLoading()) {
+            deferredImage = deferred;
+        } else {
+            setImage(deferred.load());
+        }
         imageContentChanged = false;
     }
 
@@ -273,7 +317,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     protected ImageLayer createTypeSpecificCopy(CopyType copyType, Composition newComp) {
-        BufferedImage imageCopy = copyImage(image);
+        BufferedImage imageCopy = copyImage(getImage());
         if (imageCopy == null) {
             // there was an out of memory error
             return null;
@@ -285,9 +329,58 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage getImage() {
+        if (deferredImage != null) {
+            loadDeferredImage();
+        }
         return image;
     }
 
+    // synchronized because the icon images are created
+    // outside the EDT, and they can also trigger the loading
+    private synchronized void loadDeferredImage() {
+        DeferredImage deferred = deferredImage;
+        if (deferred == null) {
+            return; // loaded in the meantime
+        }
+        BufferedImage loaded;
+        IOException loadingError = null;
+        try {
+            loaded = deferred.load();
+        } catch (IOException e) {
+            // the pixels are not replaced by the empty image in the file,
+            // because the failed state prevents saving the composition
+            loadingError = e;
+            failedImage = deferred;
+            loaded = createEmptyImageForLayer(deferred.getWidth(), deferred.getHeight());
+        }
+        // not set with setImage, because the loading
+        // doesn't change the contents of the layer
+        image = loaded;
+        deferredImage = null;
+
+        // the icon was only a placeholder until now
+        EventQueue.invokeLater(this::updateIconImage);
+
+        if (loadingError != null) {
+            Messages.showException(loadingError);
+        }
+    }
+
+    /**
+     * Returns false if the image of this layer wasn't loaded yet from the file.
+     */
+    public boolean isImageLoaded() {
+        return deferredImage == null;
+    }
+
+    /**
+     * Returns true if the image of this layer could not be loaded
+     * from the file, and the layer shows an empty image instead.
+     */
+    public boolean imageLoadingFailed() {
+        return failedImage != null;
+    }
+
     @Override
     public BufferedImage getFilterSourceImage() {
         if (filterSourceImage == null) {
@@ -301,13 +394,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
         var selection = comp.getSelection();
         if (selection == null) { // no selection => return full image
             if (copyIfNoSelection) {
-                return copyImage(image);
+                return copyImage(getImage());
             }
-            return image;
+            return getImage();
         }
 
         // there is selection
-        return ImageUtils.getSelectionSizedPartFrom(image,
+        return ImageUtils.getSelectionSizedPartFrom(getImage(),
             selection, getTx(), getTy());
     }
 
@@ -315,16 +408,16 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public BufferedImage getImageForFilterDialogs() {
         var selection = comp.getSelection();
         if (selection == null) {
-            return image;
+            return getImage();
         }
 
         Rectangle selBounds = selection.getShapeBounds();
 
-        assert image.getRaster().getBounds().contains(selBounds) :
-            "image bounds = " + image.getRaster().getBounds()
+        assert getImage().getRaster().getBounds().contains(selBounds) :
+            "image bounds = " + getImage().getRaster().getBounds()
                 + ", selection bounds = " + selBounds;
 
-        return image.getSubimage(
+        return getImage().getSubimage(
             selBounds.x, selBounds.y,
             selBounds.width, selBounds.height);
     }
@@ -332,10 +425,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public BufferedImage getCanvasSizedSubImage() {
         if (!isBigLayer()) {
-            return image;
+            return getImage();
         }
 
-        return image.getSubimage(-getTx(), -getTy(),
+        return getImage().getSubimage(-getTx(), -getTy(),
             comp.getCanvasWidth(), comp.getCanvasHeight());
     }
 
@@ -354,7 +447,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public BufferedImage getVisibleImage() {
         BufferedImage visibleImage = switch (state) {
-            case NORMAL, SHOW_ORIGINAL -> image;
+            case NORMAL, SHOW_ORIGINAL -> getImage();
             case PREVIEW -> previewImage;
         };
 
@@ -380,7 +473,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public TranslatedImage getTranslatedImage() {
-        return new TranslatedImage(image, getTx(), getTy());
+        return new TranslatedImage(getImage(), getTx(), getTy());
     }
 
     @Override
@@ -397,7 +490,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     private void setImageWithSelection(BufferedImage newImage, boolean isUndoRedo) {
-        image = replaceSelectedRegion(image, newImage, isUndoRedo);
+        image = replaceSelectedRegion(getImage(), newImage, isUndoRedo);
         imageRefChanged();
 
         comp.invalidateImageCache();
@@ -460,6 +553,9 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void setImage(BufferedImage newImage) {
+        // a not yet loaded image is simply dropped
+        deferredImage = null;
+
         BufferedImage oldRef = image;
         image = requireNonNull(newImage);
         imageRefChanged();
@@ -477,7 +573,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
      * Replaces the image with history and icon update
      */
     public void replaceImage(BufferedImage newImage, String editName) {
-        BufferedImage oldImage = image;
+        BufferedImage oldImage = getImage();
         setImage(newImage);
 
         History.add(new ImageEdit(editName, comp, this, oldImage, true));
@@ -494,11 +590,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // the image reference, because when we draw into the preview image, we would
             // also draw on the real image, and after cancel we would still have the
             // changed version.
-            previewImage = copyImage(image);
+            previewImage = copyImage(getImage());
         } else {
             // if there is no selection, then there is no problem, because
             // the previewImage reference will be overwritten
-            previewImage = image;
+            previewImage = getImage();
         }
         setState(PREVIEW);
     }
@@ -508,6 +604,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
         assert state == PREVIEW || state == SHOW_ORIGINAL;
         assert previewImage != null;
 
+        PreviewScheduler.cancelAll();
+
         setState(NORMAL);
 
         // so that layer mask transparency image is regenerated
@@ -520,6 +618,13 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public void onFilterDialogAccepted(String filterName) {
         assert state == PREVIEW || state == SHOW_ORIGINAL;
+
+        // the last preview will become the new image
+        if (!PreviewScheduler.finishPending()) {
+            // the final filter run was canceled or it failed
+            stopPreviewing();
+            return;
+        }
         assert previewImage != null;
 
         if (imageContentChanged) {
@@ -575,7 +680,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 filterName, context, getClass().getSimpleName());
         assert newPreview != null;
 
-        if (newPreview == image) {
+        if (newPreview == getImage()) {
             // this can happen if a filter with preview decides that no
             // change is necessary and returns the src
 
@@ -584,8 +689,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
             // it still can happen that the image needs to be repainted
             // because the preview image can be different from the image
             // (the user does something, but then resets the params to a do-nothing state)
-            boolean shouldRefresh = image != previewImage;
-            previewImage = image;
+            boolean shouldRefresh = getImage() != previewImage;
+            previewImage = getImage();
 
             if (shouldRefresh) {
                 imageRefChanged();
@@ -605,7 +710,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         comp.setDirty(true);
 
         // A filter without dialog should never return the original image...
-        if (filteredImage == image) {
+        if (filteredImage == getImage()) {
             // ...unless "Repeat Last" or "Batch Filter" starts a filter
             // with settings without its dialog
             if (context != REPEAT_LAST && context != BATCH_AUTOMATE) {
@@ -628,7 +733,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
         // at this point we are sure that the image changed,
         // considering that a filter without dialog was running
-        if (imageForUndo == image) {
+        if (imageForUndo == getImage()) {
             throw new IllegalStateException("imageForUndo == image");
         }
         assert imageForUndo != null;
@@ -647,7 +752,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public void changeImageForUndoRedo(BufferedImage img, boolean ignoreSelection) {
         requireNonNull(img);
-        assert img != image;
+        assert img != getImage();
         assert state == NORMAL;
 
         if (ignoreSelection) {
@@ -663,9 +768,9 @@ public class ImageLayer extends ContentLayer implements Drawable {
     @Override
     public Rectangle getContentBounds(boolean includeTransparent) {
         if (includeTransparent) {
-            return new Rectangle(getTx(), getTy(), image.getWidth(), image.getHeight());
+            return new Rectangle(getTx(), getTy(), getImage().getWidth(), getImage().getHeight());
         } else {
-            Rectangle rect = ImageUtils.getNonTransparentBounds(image);
+            Rectangle rect = ImageUtils.getNonTransparentBounds(getImage());
             rect.translate(getTx(), getTy());
             return rect;
         }
@@ -675,11 +780,11 @@ public class ImageLayer extends ContentLayer implements Drawable {
     public int getPixelAtPoint(Point p) {
         int x = p.x - getTx();
         int y = p.y - getTy();
-        if (x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight()) {
+        if (x >= 0 && y >= 0 && x < getImage().getWidth() && y < getImage().getHeight()) {
             if (hasMask() && isMaskEnabled()) {
                 int maskPixel = getMask().getPixelAtPoint(p);
                 if (maskPixel != 0) {
-                    int imagePixel = image.getRGB(x, y);
+                    int imagePixel = getImage().getRGB(x, y);
                     float maskAlpha = (maskPixel & 0xFF) / 255.0f;
                     int imageAlpha = (imagePixel >> 24) & 0xFF;
                     int effectiveAlpha = (int) (imageAlpha * maskAlpha);
@@ -687,7 +792,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 }
             }
 
-            return image.getRGB(x, y);
+            return getImage().getRGB(x, y);
         }
 
         return 0x00_00_00_00;
@@ -711,7 +816,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             Graphics2D g = bi.createGraphics();
             int drawX = current.x - target.x;
             int drawY = current.y - target.y;
-            g.drawImage(image, drawX, drawY, null);
+            g.drawImage(getImage(), drawX, drawY, null);
             g.dispose();
 
             setTranslation(target.x - canvasBounds.x, target.y - canvasBounds.y);
@@ -727,18 +832,18 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int newTx;
         int newTy;
         if (direction == HORIZONTAL) {
-            newTx = comp.getCanvasWidth() - image.getWidth() - getTx();
+            newTx = comp.getCanvasWidth() - getImage().getWidth() - getTx();
             newTy = getTy();
         } else {
             newTx = getTx();
-            newTy = comp.getCanvasHeight() - image.getHeight() - getTy();
+            newTy = comp.getCanvasHeight() - getImage().getHeight() - getTy();
         }
 
-        BufferedImage dest = ImageUtils.createImageWithSameCM(image);
+        BufferedImage dest = ImageUtils.createImageWithSameCM(getImage());
         Graphics2D g2 = dest.createGraphics();
 
-        g2.setTransform(direction.createImageTransform(image));
-        g2.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
+        g2.setTransform(direction.createImageTransform(getImage()));
+        g2.drawImage(getImage(), 0, 0, getImage().getWidth(), getImage().getHeight(), null);
         g2.dispose();
 
         setTranslation(newTx, newTy);
@@ -752,27 +857,27 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int newTy;
         switch (angle.getAngleDegree()) {
             case 90 -> {
-                newTx = comp.getCanvasHeight() - image.getHeight() - getTy();
+                newTx = comp.getCanvasHeight() - getImage().getHeight() - getTy();
                 newTy = getTx();
             }
             case 270 -> {
                 newTx = getTy();
-                newTy = comp.getCanvasWidth() - image.getWidth() - getTx();
+                newTy = comp.getCanvasWidth() - getImage().getWidth() - getTx();
             }
             case 180 -> {
-                newTx = comp.getCanvasWidth() - image.getWidth() - getTx();
-                newTy = comp.getCanvasHeight() - image.getHeight() - getTy();
+                newTx = comp.getCanvasWidth() - getImage().getWidth() - getTx();
+                newTy = comp.getCanvasHeight() - getImage().getHeight() - getTy();
             }
             default -> throw new IllegalStateException("angleDegree = " + angle.getAngleDegree());
         }
 
-        BufferedImage dest = angle.createDestImage(image);
+        BufferedImage dest = angle.createDestImage(getImage());
 
         Graphics2D g2 = dest.createGraphics();
         // nearest neighbor should be ok for 90, 180, 270 degrees
         g2.setRenderingHint(KEY_INTERPOLATION, VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-        g2.setTransform(angle.createImageTransform(image));
-        g2.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), null);
+        g2.setTransform(angle.createImageTransform(getImage()));
+        g2.drawImage(getImage(), 0, 0, getImage().getWidth(), getImage().getHeight(), null);
         g2.dispose();
 
         setTranslation(newTx, newTy);
@@ -820,8 +925,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
             assert allowGrowing;
 
             boolean imageCoversNewCanvas = cropX >= 0 && cropY >= 0
-                && cropX + cropWidth <= image.getWidth()
-                && cropY + cropHeight <= image.getHeight();
+                && cropX + cropWidth <= getImage().getWidth()
+                && cropY + cropHeight <= getImage().getHeight();
             if (imageCoversNewCanvas) {
                 // no need to change the image, just set the translation
                 super.crop(cropRect, false, allowGrowing);
@@ -829,12 +934,12 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 // the image still has to be enlarged, but the translation will not be zero
                 int westEnlargement = Math.max(0, -cropX);
                 int newWidth = westEnlargement + Math.max(
-                    image.getWidth(), cropX + cropWidth);
+                    getImage().getWidth(), cropX + cropWidth);
                 int northEnlargement = Math.max(0, -cropY);
                 int newHeight = northEnlargement + Math.max(
-                    image.getHeight(), cropY + cropHeight);
+                    getImage().getHeight(), cropY + cropHeight);
 
-                BufferedImage newImage = ImageUtils.crop(image,
+                BufferedImage newImage = ImageUtils.crop(getImage(),
                     -westEnlargement, -northEnlargement, newWidth, newHeight);
                 setImage(newImage);
                 setTranslation(Math.min(-cropX, 0), Math.min(-cropY, 0));
@@ -847,7 +952,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         // and the translation must be 0, 0
 
         // this method call can also grow the image
-        BufferedImage newImage = ImageUtils.crop(image, cropX, cropY, cropWidth, cropHeight);
+        BufferedImage newImage = ImageUtils.crop(getImage(), cropX, cropY, cropWidth, cropHeight);
         setImage(newImage);
         setTranslation(0, 0);
     }
@@ -892,10 +997,10 @@ public class ImageLayer extends ContentLayer implements Drawable {
      */
     public boolean toCanvasSize() {
         if (isBigLayer()) {
-            BufferedImage newImage = ImageUtils.crop(image,
+            BufferedImage newImage = ImageUtils.crop(getImage(),
                 -getTx(), -getTy(), comp.getCanvasWidth(), comp.getCanvasHeight());
 
-            BufferedImage tmp = image;
+            BufferedImage tmp = getImage();
             setImage(newImage);
             tmp.flush();
 
@@ -938,7 +1043,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
             return;
         }
 
-        Graphics2D g = image.createGraphics();
+        Graphics2D g = getImage().createGraphics();
         tmpDrawingLayer.paintOn(g, -getTx(), -getTy());
         g.dispose();
 
@@ -980,8 +1085,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
         if (bigLayer) {
             double horRatio = newSize.getWidth() / comp.getCanvasWidth();
             double verRatio = newSize.getHeight() / comp.getCanvasHeight();
-            imgTargetWidth = (int) (image.getWidth() * horRatio);
-            imgTargetHeight = (int) (image.getHeight() * verRatio);
+            imgTargetWidth = (int) (getImage().getWidth() * horRatio);
+            imgTargetHeight = (int) (getImage().getHeight() * verRatio);
 
             newTx = (int) (getTx() * horRatio);
             newTy = (int) (getTy() * verRatio);
@@ -999,7 +1104,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
                 ", tx = " + getTx() + ", ty = " + getTy()
                     + ", imgTargetWidth = " + imgTargetWidth + ", imgTargetHeight = " + imgTargetHeight
                     + ", newWidth = " + newSize.getWidth() + ", newHeight() = " + newSize.getHeight()
-                    + ", imgWidth = " + image.getWidth() + ", imgHeight = " + image.getHeight()
+                    + ", imgWidth = " + getImage().getWidth() + ", imgHeight = " + getImage().getHeight()
                     + ", canvasWidth = " + comp.getCanvasWidth() + ", canvasHeight = " + comp.getCanvasHeight()
                     + ", horRatio = " + horRatio + ", verRatio = " + verRatio;
         }
@@ -1007,7 +1112,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         int finalTx = newTx;
         int finalTy = newTy;
         return ImageUtils
-            .resizeAsync(image, imgTargetWidth, imgTargetHeight)
+            .resizeAsync(getImage(), imgTargetWidth, imgTargetHeight)
             .thenAcceptAsync(resizedImg -> {
                 setImage(resizedImg);
                 if (bigLayer) {
@@ -1023,8 +1128,8 @@ public class ImageLayer extends ContentLayer implements Drawable {
 //        Rectangle canvasBounds = comp.getCanvasBounds();
 //        Rectangle layerBounds = getContentBounds();
 //        return !canvasBounds.contains(layerBounds);
-        return image.getWidth() > comp.getCanvasWidth()
-            || image.getHeight() > comp.getCanvasHeight();
+        return getImage().getWidth() > comp.getCanvasWidth()
+            || getImage().getHeight() > comp.getCanvasHeight();
     }
 
     @Override
@@ -1101,7 +1206,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public void debugImages() {
-        Debug.debugImage(image, "image");
+        Debug.debugImage(getImage(), "image");
         if (previewImage != null) {
             Debug.debugImage(previewImage, "previewImage");
         } else {
@@ -1118,20 +1223,34 @@ public class ImageLayer extends ContentLayer implements Drawable {
 
     @Override
     public BufferedImage createIconThumbnail() {
+        if (deferredImage != null) {
+            // don't load the image only for the icon
+            return createPlaceholderThumbnail();
+        }
         BufferedImage bigImg = getCanvasSizedSubImage();
         return createThumbnail(bigImg, thumbSize, thumbCheckerBoardPainter);
     }
 
+    private BufferedImage createPlaceholderThumbnail() {
+        Dimension thumbDim = comp.getCanvas().getThumbSize();
+        BufferedImage img = ImageUtils.createSysCompatibleImage(
+            thumbDim.width, thumbDim.height);
+        Graphics2D g2 = img.createGraphics();
+        thumbCheckerBoardPainter.paint(g2, null, thumbDim.width, thumbDim.height);
+        g2.dispose();
+        return img;
+    }
+
     /**
      * Deletes the layer mask, but its effect is transferred
      * to the transparency of the layer
      */
     public BufferedImage applyLayerMask(boolean addToHistory) {
-        BufferedImage previousLayerImage = copyImage(image);
+        BufferedImage previousLayerImage = copyImage(getImage());
         LayerMask previousMask = mask;
         MaskViewMode previousMaskViewMode = comp.getView().getMaskViewMode();
 
-        mask.applyTo(image);
+        mask.applyTo(getImage());
         deleteMask(false);
 
         if (addToHistory) {
@@ -1153,7 +1272,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
     }
 
     public void convertMode(ImageMode mode) {
-        image = mode.convert(image);
+        image = mode.convert(getImage());
     }
 
     @Override
@@ -1176,7 +1295,7 @@ public class ImageLayer extends ContentLayer implements Drawable {
         DebugNode node = super.createDebugNode(key);
 
         node.addAsString("state", state);
-        node.add(DebugNodes.createBufferedImageNode("image", image));
+        node.add(DebugNodes.createBufferedImageNode("image", getImage()));
 
         return node;
     }
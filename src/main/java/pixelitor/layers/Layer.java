@@ -714,6 +714,15 @@ public abstract class Layer implements Serializable, Debuggable {
         return null;
     }
 
+    /**
+     * Returns true if the effect of this layer on a region of the composite
+     * image depends only on the same region of the layers bellow it,
+     * which allows the composite image to be updated tile by tile.
+     */
+    public boolean isTileCompositable() {
+        return !isAdjustment;
+    }
+
     // used by the non-adjustment stuff
     // This method assumes that the composite of the graphics is already
     // set up according to the transparency and blending mode
@@ -1064,6 +1073,19 @@ public abstract class Layer implements Serializable, Debuggable {
         update(true);
     }
 
+    /**
+     * Like update(), but signals that only the given
+     * canvas-relative area of this layer has been changed.
+     */
+    public void updateRegion(Rectangle area) {
+        if (isTopLevel()) {
+            comp.updateRegion(area);
+        } else {
+            // the cached images of the parent holders must be recalculated
+            update();
+        }
+    }
+
     public boolean checkInvariants() {
         if (ui != null) {
             if (ui.getLayer() != this) {
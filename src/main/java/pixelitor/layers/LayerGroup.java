@@ -150,6 +150,13 @@ public class LayerGroup extends CompositeLayer {
         return imageSoFar;
     }
 
+    @Override
+    public boolean isTileCompositable() {
+        // the layers of a pass-through group are applied one by one,
+        // and they can replace the graphics object
+        return !isPassThrough();
+    }
+
     @Override
     public void update(boolean updateHistogram) {
         recalculateCachedImage();
@@ -31,6 +31,7 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
@@ -137,6 +138,12 @@ public class LayerMask extends ImageLayer {
         return empty;
     }
 
+    @Override
+    protected boolean canDeferImageLoading() {
+        // the transparency image is derived from the image
+        return false;
+    }
+
     @Override
     protected void imageRefChanged() {
         updateTransparencyImage();
@@ -250,6 +257,15 @@ public class LayerMask extends ImageLayer {
         holder.update(updateHistogram);
     }
 
+    @Override
+    public void updateRegion(Rectangle area) {
+        if (owner instanceof SmartFilter || !owner.isTopLevel()) {
+            update();
+        } else {
+            comp.updateRegion(area);
+        }
+    }
+
     @Override
     public void repaintRegion(PPoint start, PPoint end, double thickness) {
         if (owner instanceof SmartFilter sf) {
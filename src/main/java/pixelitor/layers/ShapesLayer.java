@@ -37,6 +37,8 @@ import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.util.concurrent.CompletableFuture;
 
@@ -55,12 +57,27 @@ public class ShapesLayer extends ContentLayer {
     // it from the styled shape is currently not possible.
     private TransformBox transformBox;
 
-    private transient BufferedImage cachedImage;
+    // The painted shape, covering only its painted bounds
+    // (clipped to the canvas), so that the shape isn't painted
+    // again every time the composite image is recalculated.
+    private transient TranslatedImage cachedImage;
+    private transient int cachedCanvasWidth;
+    private transient int cachedCanvasHeight;
 
     public ShapesLayer(Composition comp, String name) {
         super(comp, name);
     }
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (styledShape != null) {
+            // the listener isn't serialized
+            styledShape.setChangeListener(this::invalidateImageCache);
+        }
+    }
+
     public static void createNew(Composition comp) {
         var layer = new ShapesLayer(comp, "shape layer " + (++count));
         comp.getHolderForNewLayers().adder()
@@ -97,26 +114,66 @@ public class ShapesLayer extends ContentLayer {
 
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
-        if (styledShape != null) {
-            // the custom blending modes don't work with gradients
-            boolean useCachedImage = g.getComposite().getClass() != AlphaComposite.class
-                && styledShape.hasBlendingIssue();
-            if (useCachedImage) {
-                if (cachedImage == null) {
-                    int width = comp.getCanvasWidth();
-                    int height = comp.getCanvasHeight();
-                    cachedImage = ImageUtils.createSysCompatibleImage(width, height);
-                    Graphics2D imgG = cachedImage.createGraphics();
-                    styledShape.paint(imgG);
-                    imgG.dispose();
-                }
-                g.drawImage(cachedImage, 0, 0, null);
-            } else {
-                styledShape.paint(g);
-            }
+        if (styledShape == null) {
+            return;
+        }
+        // An erasing shape also erases the layers below it, and therefore
+        // it can't be cached, unless a custom blending mode is used,
+        // because these don't work with the gradients painted directly.
+        boolean paintDirectly = styledShape.isErasing()
+            && !(g.getComposite().getClass() != AlphaComposite.class
+            && styledShape.hasBlendingIssue());
+        if (paintDirectly) {
+            styledShape.paint(g);
+            return;
+        }
+
+        TranslatedImage image = getCachedImage();
+        if (image.img() != null) {
+            g.drawImage(image.img(), image.tx(), image.ty(), null);
         }
     }
 
+    private TranslatedImage getCachedImage() {
+        int canvasWidth = comp.getCanvasWidth();
+        int canvasHeight = comp.getCanvasHeight();
+        if (cachedImage == null
+            || cachedCanvasWidth != canvasWidth
+            || cachedCanvasHeight != canvasHeight) {
+            cachedImage = renderShape(canvasWidth, canvasHeight);
+            cachedCanvasWidth = canvasWidth;
+            cachedCanvasHeight = canvasHeight;
+        }
+        return cachedImage;
+    }
+
+    /**
+     * Renders the visible part of the shape (and of its effects).
+     * The returned image is null if nothing is visible.
+     */
+    private TranslatedImage renderShape(int canvasWidth, int canvasHeight) {
+        if (!hasShape()) {
+            return new TranslatedImage(null, 0, 0);
+        }
+        Rectangle bounds = styledShape.getPaintedBounds()
+            .intersection(new Rectangle(0, 0, canvasWidth, canvasHeight));
+        if (bounds.isEmpty()) {
+            return new TranslatedImage(null, 0, 0);
+        }
+
+        BufferedImage img = ImageUtils.createSysCompatibleImage(bounds.width, bounds.height);
+        Graphics2D g = img.createGraphics();
+        g.translate(-bounds.x, -bounds.y);
+        styledShape.paint(g);
+        g.dispose();
+
+        return new TranslatedImage(img, bounds.x, bounds.y);
+    }
+
+    private void invalidateImageCache() {
+        cachedImage = null;
+    }
+
     @Override
     protected BufferedImage applyOnImage(BufferedImage src) {
         throw new UnsupportedOperationException();
@@ -124,9 +181,16 @@ public class ShapesLayer extends ContentLayer {
 
     @Override
     public TranslatedImage getTranslatedImage() {
-        // TODO the default implementation works, but it's suboptimal.
-        //   This is related to the fact that the cached image is also unnecessarily big.
-        return super.getTranslatedImage();
+        if (usesMask()) {
+            // the mask is applied to a canvas-sized image
+            return super.getTranslatedImage();
+        }
+        // the cached image is shared, but it's only read by the callers
+        TranslatedImage image = getCachedImage();
+        if (image.img() == null) {
+            return super.getTranslatedImage();
+        }
+        return image;
     }
 
     @Override
@@ -208,7 +272,8 @@ public class ShapesLayer extends ContentLayer {
     public void setStyledShape(StyledShape styledShape) {
         assert styledShape != null;
         this.styledShape = styledShape;
-        styledShape.setChangeListener(() -> cachedImage = null);
+        styledShape.setChangeListener(this::invalidateImageCache);
+        invalidateImageCache();
     }
 
     @Override
@@ -64,6 +64,13 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
     private transient TransformedTextPainter painter;
     private TextSettings settings;
 
+    // The rendered text with its effects, covering only its bounds.
+    // It's rebuilt only if the settings, the translation or the canvas
+    // size change, and not when the other layers are repainted.
+    private transient TranslatedImage cachedImage;
+    private transient int cachedCanvasWidth;
+    private transient int cachedCanvasHeight;
+
     public TextLayer(Composition comp) {
         this(comp, "", new TextSettings());
     }
@@ -214,8 +221,45 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
 
     @Override
     public void paintLayerOnGraphics(Graphics2D g, boolean firstVisibleLayer) {
+        int canvasWidth = comp.getCanvasWidth();
+        int canvasHeight = comp.getCanvasHeight();
+        if (cachedImage == null
+            || cachedCanvasWidth != canvasWidth
+            || cachedCanvasHeight != canvasHeight) {
+            cachedImage = renderText(canvasWidth, canvasHeight);
+            cachedCanvasWidth = canvasWidth;
+            cachedCanvasHeight = canvasHeight;
+        }
+        if (cachedImage.img() != null) {
+            g.drawImage(cachedImage.img(), cachedImage.tx(), cachedImage.ty(), null);
+        }
+    }
+
+    /**
+     * Renders the visible part of the text (and of its effects).
+     * The returned image is null if nothing is visible.
+     */
+    private TranslatedImage renderText(int canvasWidth, int canvasHeight) {
         painter.setFillPaint(settings.getColor());
-        painter.paint(g, null, comp.getCanvasWidth(), comp.getCanvasHeight());
+        painter.updateLayout(canvasWidth, canvasHeight);
+
+        Rectangle bounds = new Rectangle(painter.getBoundingBox());
+        int effectsWidth = (int) settings.getEffects().getMaxEffectThickness();
+        bounds.grow(effectsWidth + 1, effectsWidth + 1);
+        bounds = bounds.intersection(new Rectangle(0, 0, canvasWidth, canvasHeight));
+        if (bounds.isEmpty()) {
+            return new TranslatedImage(null, 0, 0);
+        }
+        return new TranslatedImage(painter.renderRectangle(bounds), bounds.x, bounds.y);
+    }
+
+    private void invalidateImageCache() {
+        cachedImage = null;
+    }
+
+    // the rendered text, or null if it must be rebuilt. Used by the tests.
+    TranslatedImage getCachedImage() {
+        return cachedImage;
     }
 
     @Override
@@ -239,6 +283,7 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
     public void moveWhileDragging(double relImX, double relImY) {
         super.moveWhileDragging(relImX, relImY);
         painter.setTranslation(getTx(), getTy());
+        invalidateImageCache();
     }
 
     @Override
@@ -250,6 +295,7 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
     public void setTranslation(int x, int y) {
         super.setTranslation(x, y);
         painter.setTranslation(x, y);
+        invalidateImageCache();
     }
 
     public void applySettings(TextSettings settings) {
@@ -257,6 +303,7 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
 
         isAdjustment = settings.hasWatermark();
         settings.configurePainter(painter);
+        invalidateImageCache();
     }
 
     public TextSettings getSettings() {
@@ -410,6 +457,7 @@ public class TextLayer extends ContentLayer implements DialogMenuOwner {
     @Override
     public void loadUserPreset(UserPreset preset) {
         settings.loadUserPreset(preset);
+        invalidateImageCache();
     }
 
     @Override
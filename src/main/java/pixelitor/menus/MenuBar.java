@@ -19,7 +19,6 @@ package pixelitor.menus;
 
 import com.bric.util.JVM;
 import com.jhlabs.image.LaplaceFilter;
-import com.jhlabs.image.MedianFilter;
 import com.jhlabs.image.ReduceNoiseFilter;
 import pixelitor.*;
 import pixelitor.automate.AutoPaint;
@@ -1015,9 +1014,7 @@ public class MenuBar extends JMenuBar {
         sub.addForwardingFilter(reduceNoiseFilterName,
             () -> new ReduceNoiseFilter(reduceNoiseFilterName));
 
-        String medianFilterName = "3x3 Median Filter";
-        sub.addForwardingFilter(medianFilterName,
-            () -> new MedianFilter(medianFilterName));
+        sub.addFilter(Median.NAME, Median::new);
 
         sub.addSeparator();
 
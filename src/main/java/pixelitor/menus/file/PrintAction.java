@@ -53,7 +53,7 @@ public class PrintAction extends OpenViewEnabledAction.Checked implements Printa
     protected void onClick(Composition comp) {
         // The printed image will be the image at the start,
         // although it is editable during the asynchronous printing
-        img = comp.getCompositeImage();
+        img = comp.getCompositeSnapshot();
         compName = comp.getName();
 
         showPreview();
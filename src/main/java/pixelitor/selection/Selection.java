@@ -44,6 +44,7 @@ import static java.awt.Color.WHITE;
  * Represents a selection on an image.
  */
 public class Selection implements Debuggable {
+    // in component space pixels
     private float dashPhase;
     private View view;
     private Timer marchingAntsTimer;
@@ -55,6 +56,7 @@ public class Selection implements Debuggable {
     private static final double DASH_WIDTH = 1.0;
     private static final float DASH_LENGTH = 4.0f;
     private static final float[] MARCHING_ANTS_DASH = {DASH_LENGTH, DASH_LENGTH};
+    private static final int REPAINT_MARGIN = 2;
 
     // if true, then the "marching ants" are not marching
     private boolean frozen = false;
@@ -68,6 +70,15 @@ public class Selection implements Debuggable {
     // the original shape before a shape movement
     private Shape moveStartShape;
 
+    // The shape scaled to the zoom of the view (but not translated),
+    // cached because the ants are repainted at every timer tick.
+    private Shape scaledShape;
+    private Shape scaledShapeSource;
+    private double scaledShapeScaling;
+
+    // the component space area covered by the last painted ants, or null
+    private Rectangle lastPaintedBounds;
+
     public Selection(Shape shape, View view) {
         // the shape can be null, because this Selection
         // object can be created after a mouse press
@@ -107,7 +118,7 @@ public class Selection implements Debuggable {
         marchingAntsTimer = new Timer(100, null);
         marchingAntsTimer.addActionListener(evt -> {
             if (!hidden) {
-                dashPhase += 1.0f / (float) view.getScaling();
+                dashPhase += 1.0f;
                 repaint();
             }
         });
@@ -129,39 +140,54 @@ public class Selection implements Debuggable {
         assert !dead : "dead selection";
 
         if (shape == null || hidden) {
+            lastPaintedBounds = null;
             return;
         }
 
         Stroke oldStroke = g2.getStroke();
+        var oldTransform = g2.getTransform();
 
         // As the selection coordinates are in image space, this is
         // called with a Graphics2D transformed into image space.
-        // The line width has to be scaled to compensate.
+        // The ants are drawn with a scaled shape in the pixels of
+        // the component space, so that the strokes don't depend on the zoom.
         double viewScale = view.getScaling();
-        float lineWidth = (float) (DASH_WIDTH / viewScale);
-
-        float[] dash;
-        if (viewScale == 1.0) { // the most common case
-            dash = MARCHING_ANTS_DASH;
-        } else {
-            float scaledDashLength = (float) (DASH_LENGTH / viewScale);
-            dash = new float[]{scaledDashLength, scaledDashLength};
-        }
+        Shape antsShape = getScaledShape(viewScale);
+        g2.scale(1.0 / viewScale, 1.0 / viewScale);
 
         g2.setPaint(WHITE);
-        Stroke stroke = new BasicStroke(lineWidth, CAP_BUTT,
-            JOIN_ROUND, 0.0f, dash, dashPhase);
-        g2.setStroke(stroke);
-        g2.draw(shape);
+        g2.setStroke(new BasicStroke((float) DASH_WIDTH, CAP_BUTT,
+            JOIN_ROUND, 0.0f, MARCHING_ANTS_DASH, dashPhase));
+        g2.draw(antsShape);
 
         g2.setPaint(BLACK);
-        Stroke stroke2 = new BasicStroke(lineWidth, CAP_BUTT,
-            JOIN_ROUND, 0.0f, dash,
-            (float) (dashPhase + DASH_LENGTH / viewScale));
-        g2.setStroke(stroke2);
-        g2.draw(shape);
+        g2.setStroke(new BasicStroke((float) DASH_WIDTH, CAP_BUTT,
+            JOIN_ROUND, 0.0f, MARCHING_ANTS_DASH, dashPhase + DASH_LENGTH));
+        g2.draw(antsShape);
 
+        g2.setTransform(oldTransform);
         g2.setStroke(oldStroke);
+
+        lastPaintedBounds = calcRepaintBounds(antsShape);
+    }
+
+    private Shape getScaledShape(double viewScale) {
+        if (scaledShape == null || scaledShapeSource != shape || scaledShapeScaling != viewScale) {
+            scaledShape = AffineTransform.getScaleInstance(viewScale, viewScale)
+                .createTransformedShape(shape);
+            scaledShapeSource = shape;
+            scaledShapeScaling = viewScale;
+        }
+        return scaledShape;
+    }
+
+    // returns the component space area where the given scaled shape is painted
+    private Rectangle calcRepaintBounds(Shape antsShape) {
+        Rectangle bounds = antsShape.getBounds();
+        bounds.translate(view.getCanvasStartX(), view.getCanvasStartY());
+        // the strokes can extend beyond the bounds of the shape
+        bounds.grow(REPAINT_MARGIN, REPAINT_MARGIN);
+        return bounds;
     }
 
     public void die() {
@@ -174,20 +200,27 @@ public class Selection implements Debuggable {
         dead = true;
     }
 
+    /**
+     * Repaints the area of the previously painted ants and of the
+     * current shape, which also covers a shrinking selection.
+     */
     private void repaint() {
-//        Rectangle selBounds = shape.getBounds();
-//        view.updateRegion(selBounds.x, selBounds.y, selBounds.x + selBounds.width + 1, selBounds.y + selBounds.height + 1, 1);
-
-//        The above optimization isn't good; the previous positions should be also considered for the
-//        case when the selection is shrinking while dragging.
-//        But it doesn't seem to solve the pixel grid problem anyway.
-
-        view.repaint();
+        Rectangle area = lastPaintedBounds;
+        if (shape != null && !hidden) {
+            Rectangle current = calcRepaintBounds(getScaledShape(view.getScaling()));
+            area = area == null ? current : area.union(current);
+        }
+        if (area != null) {
+            view.repaint(area);
+        }
     }
 
     public void setShape(Shape currentShape) {
         assert currentShape != null;
         shape = currentShape;
+
+        // the new shape can be the same object modified in place
+        scaledShape = null;
     }
 
     /**
@@ -42,6 +42,7 @@ import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.FlatteningPathIterator;
+import java.util.function.Predicate;
 
 import static java.awt.RenderingHints.KEY_ANTIALIASING;
 import static java.awt.RenderingHints.VALUE_ANTIALIAS_ON;
@@ -352,16 +353,20 @@ public abstract class AbstractBrushTool extends Tool {
 
     private void finishBrushStroke(Drawable dr) {
         brush.finishBrushStroke();
-        addBrushStrokeToHistory(dr);
+        Rectangle affectedRect = addBrushStrokeToHistory(dr);
 
         assert brushStroke != null;
         if (brushStroke != null) {
-            brushStroke.finish(dr);
+            brushStroke.finish(dr, affectedRect);
         }
         brushStroke = null;
     }
 
-    private void addBrushStrokeToHistory(Drawable dr) {
+    /**
+     * Adds the brush stroke to the history, and returns
+     * the canvas-relative rectangle affected by it.
+     */
+    private Rectangle addBrushStrokeToHistory(Drawable dr) {
         var originalImage = drawDestination.getOriginalImage(dr, this);
 
         double maxBrushRadius = brush.getMaxEffectiveRadius();
@@ -369,8 +374,16 @@ public abstract class AbstractBrushTool extends Tool {
         assert !affectedRect.isEmpty() : "brush radius = " + maxBrushRadius
             + ", affected area = " + affectedArea;
 
+        // only the tiles near the path of the brush are saved, except for the
+        // connect brush, which can draw lines between distant points
+        Predicate<Rectangle> tileFilter = null;
+        if (!hasBrushType() || getBrushType() != BrushType.CONNECT) {
+            tileFilter = affectedArea.createTileFilter(maxBrushRadius);
+        }
+
+        // copied, because the edit translates it to image coordinates
         var imageEdit = PartialImageEdit.create(
-            affectedRect, originalImage, dr, false, getName());
+            new Rectangle(affectedRect), tileFilter, originalImage, dr, false, getName());
         if (imageEdit != null) {
             if (hasBrushType() && getBrushType() == BrushType.CONNECT) {
                 var comp = dr.getComp();
@@ -380,6 +393,7 @@ public abstract class AbstractBrushTool extends Tool {
                 History.add(imageEdit);
             }
         }
+        return affectedRect;
     }
 
     protected void prepareProgrammaticBrushStroke(Drawable dr, PPoint start) {
@@ -545,6 +559,8 @@ public abstract class AbstractBrushTool extends Tool {
             if (isFirstPoint) {
                 affectedArea.initAt(pathPoint);
                 isFirstPoint = false;
+            } else if (segmentType == SEG_MOVETO) {
+                affectedArea.startPathAt(0, pathPoint);
             } else {
                 affectedArea.updateWith(pathPoint);
             }
@@ -25,6 +25,7 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 
 import static java.awt.AlphaComposite.DST_OUT;
 import static java.awt.RenderingHints.KEY_ANTIALIASING;
@@ -68,13 +69,17 @@ public class BrushStroke {
         graphics.setComposite(AlphaComposite.getInstance(DST_OUT));
     }
 
-    public void finish(Drawable dr) {
+    /**
+     * Finishes the brush stroke, which changed
+     * only the given canvas-relative area.
+     */
+    public void finish(Drawable dr, Rectangle affectedArea) {
         assert this.dr == dr;
 
         graphics.dispose();
 
         drawDestination.finishBrushStroke(dr);
-        dr.update();
+        dr.updateRegion(affectedArea);
         dr.updateIconImage();
     }
 }
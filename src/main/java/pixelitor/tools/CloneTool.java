@@ -144,8 +144,10 @@ public class CloneTool extends BlendingModeBrushTool {
     @Override
     protected void updateLazyBrushEnabledState() {
         if (lazyMouseEnabled.isChecked()) {
-            lazyMouseBrush = new LazyMouseBrush(cloneBrush);
-            brush = new AffectedAreaTracker(lazyMouseBrush, affectedArea);
+            // the tracker is inside, so that it tracks the
+            // smoothed positions, which are actually painted
+            lazyMouseBrush = new LazyMouseBrush(new AffectedAreaTracker(cloneBrush, affectedArea));
+            brush = lazyMouseBrush;
             lazyMouse = true;
         } else {
             brush = new AffectedAreaTracker(cloneBrush, affectedArea);
@@ -227,7 +229,9 @@ public class CloneTool extends BlendingModeBrushTool {
         int dx = 0;
         int dy = 0;
         if (sampleAllLayers) {
-            sourceImage = comp.getCompositeImage();
+            // a snapshot, because the composite image can be
+            // updated in place while cloning from it
+            sourceImage = comp.getCompositeSnapshot();
         } else {
             Drawable dr = comp.getActiveDrawableOrThrow();
             sourceImage = dr.getImage();
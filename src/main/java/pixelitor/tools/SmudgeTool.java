@@ -69,8 +69,10 @@ public class SmudgeTool extends AbstractBrushTool {
     @Override
     protected void updateLazyBrushEnabledState() {
         if (lazyMouseEnabled.isChecked()) {
-            lazyMouseBrush = new LazyMouseBrush(smudgeBrush);
-            brush = new AffectedAreaTracker(lazyMouseBrush, affectedArea);
+            // the tracker is inside, so that it tracks the
+            // smoothed positions, which are actually painted
+            lazyMouseBrush = new LazyMouseBrush(new AffectedAreaTracker(smudgeBrush, affectedArea));
+            brush = lazyMouseBrush;
             lazyMouse = true;
         } else {
             brush = new AffectedAreaTracker(smudgeBrush, affectedArea);
@@ -22,17 +22,37 @@ import pixelitor.utils.debug.DebugNode;
 import pixelitor.utils.debug.Debuggable;
 
 import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.Predicate;
 
 /**
  * Represents the area affected by a brush. Used for the undo.
+ *
+ * Apart from the bounding box, it also keeps the path segments of
+ * the brush stroke, so that the undo can save only the parts of the
+ * bounding box that are near the path (see {@link #createTileFilter}).
  */
 public class AffectedArea implements Debuggable {
+    // the granularity of the touched parts of the bounding box
+    private static final int CELL_SIZE = 32;
+    private static final double CELL_HALF_DIAGONAL = CELL_SIZE / Math.sqrt(2);
+
     // affected area coordinates (in image space)
     private double minX = Double.POSITIVE_INFINITY;
     private double minY = Double.POSITIVE_INFINITY;
     private double maxX = Double.NEGATIVE_INFINITY;
     private double maxY = Double.NEGATIVE_INFINITY;
 
+    // the segments of the brush paths as x1, y1, x2, y2 quadruples
+    private double[] segments = new double[256];
+    private int numSegmentCoords = 0;
+
+    // the last x, y position of each path, NaN if the path wasn't started.
+    // There are multiple paths if multiple brushes share the area.
+    private double[] lastPositions = new double[8];
+
     public AffectedArea() {
     }
 
@@ -49,14 +69,51 @@ public class AffectedArea implements Debuggable {
         minY = y;
         maxX = x;
         maxY = y;
+
+        numSegmentCoords = 0;
+        Arrays.fill(lastPositions, Double.NaN);
+        startPathAt(0, p);
     }
 
     /**
      * Update the area with a brush position
      */
     public void updateWith(PPoint p) {
+        updateWith(0, p);
+    }
+
+    /**
+     * Starts a new path (for example for another brush
+     * sharing this area) without connecting it to the previous one.
+     */
+    public void startPathAt(int pathIndex, PPoint p) {
         double x = p.getImX();
         double y = p.getImY();
+        updateBounds(x, y);
+
+        addSegment(x, y, x, y);
+        setLastPosition(pathIndex, x, y);
+    }
+
+    /**
+     * Update the area with a brush position, which is
+     * connected to the previous position of the given path.
+     */
+    public void updateWith(int pathIndex, PPoint p) {
+        double x = p.getImX();
+        double y = p.getImY();
+        updateBounds(x, y);
+
+        int index = 2 * pathIndex;
+        if (index < lastPositions.length && !Double.isNaN(lastPositions[index])) {
+            addSegment(lastPositions[index], lastPositions[index + 1], x, y);
+        } else {
+            addSegment(x, y, x, y);
+        }
+        setLastPosition(pathIndex, x, y);
+    }
+
+    private void updateBounds(double x, double y) {
         if (x > maxX) {
             maxX = x;
         }
@@ -72,6 +129,27 @@ public class AffectedArea implements Debuggable {
         }
     }
 
+    private void addSegment(double x1, double y1, double x2, double y2) {
+        if (numSegmentCoords + 4 > segments.length) {
+            segments = Arrays.copyOf(segments, segments.length * 2);
+        }
+        segments[numSegmentCoords++] = x1;
+        segments[numSegmentCoords++] = y1;
+        segments[numSegmentCoords++] = x2;
+        segments[numSegmentCoords++] = y2;
+    }
+
+    private void setLastPosition(int pathIndex, double x, double y) {
+        int index = 2 * pathIndex;
+        if (index >= lastPositions.length) {
+            int oldLength = lastPositions.length;
+            lastPositions = Arrays.copyOf(lastPositions, index + 2);
+            Arrays.fill(lastPositions, oldLength, lastPositions.length, Double.NaN);
+        }
+        lastPositions[index] = x;
+        lastPositions[index + 1] = y;
+    }
+
     /**
      * Returns the rectangle affected by a brush stroke for the undo
      */
@@ -87,6 +165,65 @@ public class AffectedArea implements Debuggable {
             (int) saveWidth, (int) saveHeight);
     }
 
+    /**
+     * Returns a test for the rectangles (in image space) that might
+     * have been painted by a brush stroke with the given radius.
+     * The test is conservative: it can accept a rectangle that wasn't
+     * painted, but not the other way around.
+     */
+    public Predicate<Rectangle> createTileFilter(double radius) {
+        Rectangle bounds = asRectangle(radius);
+        int numCellsX = (bounds.width + CELL_SIZE - 1) / CELL_SIZE;
+        int numCellsY = (bounds.height + CELL_SIZE - 1) / CELL_SIZE;
+        BitSet touchedCells = new BitSet(numCellsX * numCellsY);
+
+        // a cell is touched if its center is close enough to a segment
+        double reach = radius + CELL_HALF_DIAGONAL;
+        for (int i = 0; i < numSegmentCoords; i += 4) {
+            double x1 = segments[i];
+            double y1 = segments[i + 1];
+            double x2 = segments[i + 2];
+            double y2 = segments[i + 3];
+
+            int minCellX = toCell(Math.min(x1, x2) - reach - bounds.x, numCellsX);
+            int maxCellX = toCell(Math.max(x1, x2) + reach - bounds.x, numCellsX);
+            int minCellY = toCell(Math.min(y1, y2) - reach - bounds.y, numCellsY);
+            int maxCellY = toCell(Math.max(y1, y2) + reach - bounds.y, numCellsY);
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                double centerY = bounds.y + (cy + 0.5) * CELL_SIZE;
+                for (int cx = minCellX; cx <= maxCellX; cx++) {
+                    double centerX = bounds.x + (cx + 0.5) * CELL_SIZE;
+                    if (Line2D.ptSegDist(x1, y1, x2, y2, centerX, centerY) <= reach) {
+                        touchedCells.set(cy * numCellsX + cx);
+                    }
+                }
+            }
+        }
+
+        return rect -> {
+            Rectangle r = rect.intersection(bounds);
+            if (r.isEmpty()) {
+                return false;
+            }
+            int minCellX = toCell(r.x - bounds.x, numCellsX);
+            int maxCellX = toCell(r.x + r.width - 1 - bounds.x, numCellsX);
+            int minCellY = toCell(r.y - bounds.y, numCellsY);
+            int maxCellY = toCell(r.y + r.height - 1 - bounds.y, numCellsY);
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                int rowStart = cy * numCellsX;
+                int next = touchedCells.nextSetBit(rowStart + minCellX);
+                if (next >= 0 && next <= rowStart + maxCellX) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    private static int toCell(double offset, int numCells) {
+        return Math.clamp((int) Math.floor(offset / CELL_SIZE), 0, numCells - 1);
+    }
+
     @Override
     public DebugNode createDebugNode(String key) {
         var node = new DebugNode(key, this);
@@ -95,6 +232,7 @@ public class AffectedArea implements Debuggable {
         node.addDouble("min y", minY);
         node.addDouble("max x", maxX);
         node.addDouble("max y", maxY);
+        node.addInt("segments", numSegmentCoords / 4);
 
         return node;
     }
@@ -168,7 +168,7 @@ public class SymmetryBrush implements Brush {
         if (brushNo == 0) {
             affectedArea.initAt(p);
         } else {
-            affectedArea.updateWith(p);
+            affectedArea.startPathAt(brushNo, p);
         }
 
         // do the actual painting
@@ -176,12 +176,12 @@ public class SymmetryBrush implements Brush {
     }
 
     public void continueTo(int brushNo, PPoint p) {
-        affectedArea.updateWith(p);
+        affectedArea.updateWith(brushNo, p);
         brushes[brushNo].continueTo(p);
     }
 
     public void lineConnectTo(int brushNo, PPoint p) {
-        affectedArea.updateWith(p);
+        affectedArea.updateWith(brushNo, p);
         brushes[brushNo].lineConnectTo(p);
     }
 
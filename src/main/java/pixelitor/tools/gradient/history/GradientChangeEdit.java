@@ -68,6 +68,13 @@ public class GradientChangeEdit extends PixelitorEdit {
         Tools.GRADIENT.setGradient(after, !imageEditNeeded, dr);
     }
 
+    @Override
+    public void addedToHistory() {
+        if (imageEditNeeded) {
+            imageEdit.addedToHistory();
+        }
+    }
+
     @Override
     public void die() {
         super.die();
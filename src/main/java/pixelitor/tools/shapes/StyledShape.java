@@ -296,6 +296,7 @@ public class StyledShape implements Transformable, Serializable, Cloneable {
         shape = origShape;
 
         state = State.SHAPE_SET;
+        notifyChangeListener();
         assert checkInvariants();
     }
 
@@ -618,12 +619,38 @@ public class StyledShape implements Transformable, Serializable, Cloneable {
         return shape.getBounds();
     }
 
+    /**
+     * Returns the bounds of the pixels changed by {@link #paint(Graphics2D)},
+     * including the stroke, the effects and the antialiasing.
+     */
+    public Rectangle getPaintedBounds() {
+        Rectangle bounds;
+        if (strokePaint != NONE) {
+            // the joins and the custom strokes can extend beyond
+            // half of the stroke width, so the outline is measured
+            bounds = stroke.createStrokedShape(shape).getBounds();
+            bounds.add(shape.getBounds());
+        } else {
+            bounds = shape.getBounds();
+        }
+        int margin = 1 + (int) Math.ceil(effects.getMaxEffectThickness());
+        bounds.grow(margin, margin);
+        return bounds;
+    }
+
     public boolean hasBlendingIssue() {
         // for some reason the JDK built-in gradients
         // don't blend with the custom blending modes
         return fillPaint.hasBlendingIssue() || strokePaint.hasBlendingIssue();
     }
 
+    /**
+     * Returns whether the fill or the stroke erases the pixels below.
+     */
+    public boolean isErasing() {
+        return fillPaint == TRANSPARENT || strokePaint == TRANSPARENT;
+    }
+
     public void setChangeListener(Runnable changeListener) {
         this.changeListener = changeListener;
     }
@@ -30,6 +30,7 @@ import pixelitor.gui.utils.Themes;
 import pixelitor.guides.GuideStrokeType;
 import pixelitor.guides.GuideStyle;
 import pixelitor.history.History;
+import pixelitor.history.UndoStore;
 import pixelitor.io.Dirs;
 import pixelitor.io.FileChoosers;
 import pixelitor.io.FileFormat;
@@ -93,6 +94,7 @@ public final class AppPreferences {
     private static final String LAST_SAVE_FORMAT_KEY = "last_save_fmt";
 
     private static final String UNDO_LEVELS_KEY = "undo_levels";
+    private static final String UNDO_MEMORY_KEY = "undo_memory_mb";
     private static final String THUMB_SIZE_KEY = "thumb_size";
     private static final String LAST_TOOL_KEY = "last_tool";
     private static final String THEME_KEY = "theme";
@@ -349,6 +351,14 @@ public final class AppPreferences {
         mainNode.putInt(UNDO_LEVELS_KEY, History.getUndoLevels());
     }
 
+    public static int loadUndoMemoryLimit() {
+        return mainNode.getInt(UNDO_MEMORY_KEY, Utils.getMaxHeapMb() / 4);
+    }
+
+    private static void saveUndoMemoryLimit() {
+        mainNode.putInt(UNDO_MEMORY_KEY, UndoStore.getMemoryLimitMB());
+    }
+
     public static int loadThumbSize() {
         return mainNode.getInt(THUMB_SIZE_KEY, LayerGUILayout.SMALL_THUMB_SIZE);
     }
@@ -403,6 +413,7 @@ public final class AppPreferences {
         saveFgBgColors();
         WorkSpace.saveVisibility();
         saveUndoLevels();
+        saveUndoMemoryLimit();
         saveThumbSize();
         TipsOfTheDay.saveNextTipNr();
         saveNewImageSize();
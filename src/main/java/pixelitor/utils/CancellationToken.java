@@ -0,0 +1,68 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import java.util.concurrent.CancellationException;
+import java.util.function.Supplier;
+
+/**
+ * A flag signaling to a long-running operation that it should stop.
+ * It's checked cooperatively (through {@link ProgressTracker#isCanceled()})
+ * and the operation stops by throwing a {@link CancellationException}.
+ *
+ * A token can be bound to a thread, and then the progress trackers
+ * created in that thread can be canceled through it.
+ */
+public class CancellationToken {
+    private static final ThreadLocal<CancellationToken> boundToken = new ThreadLocal<>();
+
+    private volatile boolean canceled = false;
+
+    /**
+     * Requests the cancellation. Can be called from any thread.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Runs the given task with this token bound to the current thread.
+     */
+    public <T> T callBound(Supplier<T> task) {
+        CancellationToken prevToken = boundToken.get();
+        boundToken.set(this);
+        try {
+            return task.get();
+        } finally {
+            boundToken.set(prevToken);
+        }
+    }
+
+    /**
+     * Returns the token bound to the current thread,
+     * or a new token if there is no bound token.
+     */
+    public static CancellationToken forCurrentThread() {
+        CancellationToken token = boundToken.get();
+        return token != null ? token : new CancellationToken();
+    }
+}
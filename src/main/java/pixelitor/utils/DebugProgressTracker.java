@@ -88,6 +88,18 @@ public class DebugProgressTracker implements ProgressTracker {
         printCallInfoStatistics();
     }
 
+    @Override
+    public boolean isCanceled() {
+        return delegateTracker != null && delegateTracker.isCanceled();
+    }
+
+    @Override
+    public void checkCanceled() {
+        if (delegateTracker != null) {
+            delegateTracker.checkCanceled();
+        }
+    }
+
     private void printCallInfoStatistics() {
         long totalDuration = System.currentTimeMillis() - startTimeMillis;
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.ThreadPool;
+
+import static pixelitor.utils.Metric.EUCLIDEAN_SQUARED;
+
+/**
+ * The signed Euclidean distance of each pixel from the outline
+ * of an antialiased shape, given by its coverage values (0-255).
+ * The distances are positive outside and negative inside the shape.
+ *
+ * The running time depends only on the number of pixels, and
+ * not on the distances, see {@link NearestPointMap}.
+ */
+public class DistanceField {
+    private final int width;
+    private final int height;
+    private final int[] coverage;
+    private final float[] distances;
+
+    public DistanceField(int[] coverage, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.coverage = coverage;
+        distances = new float[width * height];
+
+        // The outline crosses the partially covered pixels. The outside
+        // pixels are measured to the outline near the nearest covered
+        // pixel, and the inside pixels to the outline near the nearest
+        // pixel that isn't fully covered.
+        var nearestCovered = NearestPointMap.ofPixels(width, height,
+            i -> coverage[i] > 0, EUCLIDEAN_SQUARED, ProgressTracker.NULL_TRACKER);
+        var nearestUncovered = NearestPointMap.ofPixels(width, height,
+            i -> coverage[i] < 255, EUCLIDEAN_SQUARED, ProgressTracker.NULL_TRACKER);
+
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = x + y * width;
+                    int c = coverage[i];
+                    float dist;
+                    if (c == 0) {
+                        dist = distanceToOutline(nearestCovered.getIndex(x, y), x, y, true);
+                    } else if (c == 255) {
+                        dist = -distanceToOutline(nearestUncovered.getIndex(x, y), x, y, false);
+                    } else {
+                        // on the outline, estimated from the coverage
+                        dist = 0.5f - c / 255.0f;
+                    }
+                    distances[i] = dist;
+                }
+            }
+        }, ProgressTracker.NULL_TRACKER);
+    }
+
+    /**
+     * Returns the distance of the given pixel from the outline where it
+     * crosses the given nearest pixel or one of its neighbors, which can
+     * be closer to the outline, or infinity if there is no nearest pixel.
+     */
+    private float distanceToOutline(int nearest, int x, int y, boolean outside) {
+        if (nearest == -1) {
+            return Float.POSITIVE_INFINITY;
+        }
+        int nearestX = nearest % width;
+        int nearestY = nearest / width;
+        double minDist = Double.POSITIVE_INFINITY;
+        for (int ny = Math.max(nearestY - 1, 0); ny <= Math.min(nearestY + 1, height - 1); ny++) {
+            for (int nx = Math.max(nearestX - 1, 0); nx <= Math.min(nearestX + 1, width - 1); nx++) {
+                int c = coverage[nx + ny * width];
+                if (c == (outside ? 0 : 255)) {
+                    continue;
+                }
+                int dx = nx - x;
+                int dy = ny - y;
+                double centerDist = Math.sqrt(dx * dx + dy * dy);
+                // the outline is assumed to be perpendicular to the direction of this pixel
+                double edgeDist = edgeDistance(c, dx / centerDist, dy / centerDist);
+                minDist = Math.min(minDist, outside ? centerDist + edgeDist : centerDist - edgeDist);
+            }
+        }
+        return (float) minDist;
+    }
+
+    /**
+     * Returns the signed distance (positive outside) of a straight edge
+     * from the center of a pixel with the given coverage, if the normal
+     * of the edge is the given unit vector. This is the inverse of the
+     * covered area, see Gustavson and Strand: "Anti-aliased Euclidean
+     * distance transform", Pattern Recognition Letters 32 (2011).
+     */
+    private static double edgeDistance(int c, double normalX, double normalY) {
+        double area = c / 255.0;
+        double gx = Math.abs(normalX);
+        double gy = Math.abs(normalY);
+        if (gx < gy) {
+            double tmp = gx;
+            gx = gy;
+            gy = tmp;
+        }
+        if (gy < 1.0e-6) {
+            return 0.5 - area;
+        }
+        double cornerArea = 0.5 * gy / gx;
+        if (area < cornerArea) {
+            return 0.5 * (gx + gy) - Math.sqrt(2 * gx * gy * area);
+        } else if (area < 1 - cornerArea) {
+            return (0.5 - area) * gx;
+        } else {
+            return -0.5 * (gx + gy) + Math.sqrt(2 * gx * gy * (1 - area));
+        }
+    }
+
+    /**
+     * Returns the signed distance of the given pixel from the outline.
+     */
+    public float getDistance(int x, int y) {
+        return distances[x + y * width];
+    }
+}
@@ -32,6 +32,12 @@ public interface MessageHandler {
 
     ProgressHandler startProgress(String msg, int max);
 
+    /**
+     * Starts a progress indicator which also offers to cancel the
+     * operation by running the given action (if it's not null).
+     */
+    ProgressHandler startProgress(String msg, int max, Runnable cancelAction);
+
     // *** dialog messages ***
 
     void showInfo(String title, String msg, Component parent);
@@ -118,6 +118,10 @@ public class Messages {
         return msgHandler.startProgress(msg, max);
     }
 
+    public static ProgressHandler startProgress(String msg, int max, Runnable cancelAction) {
+        return msgHandler.startProgress(msg, max, cancelAction);
+    }
+
     public static void showNotImageLayerError(Layer layer) {
         msgHandler.showNotImageLayerError(layer);
     }
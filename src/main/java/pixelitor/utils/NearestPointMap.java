@@ -0,0 +1,277 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import pixelitor.ThreadPool;
+import pixelitor.utils.Metric.DistanceFunction;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * The index of the nearest point for each pixel of an image,
+ * which is a rasterized Voronoi diagram of the points.
+ *
+ * It's calculated in two separable passes (first the vertical distances
+ * in each column, then the lower envelopes in each row), as described in
+ * "A General Algorithm for Computing Distance Transforms in Linear Time"
+ * by Meijster et al. (2000), so the running time doesn't depend on the
+ * number of points. The points are rounded down to pixel coordinates.
+ */
+public class NearestPointMap {
+    // null for the maps created from pixels
+    private final List<Point2D> points;
+    private final int width;
+    private final int height;
+    private final Metric metric;
+
+    // the index of the nearest point for each pixel, or -1 if there are no points
+    private final int[] indices;
+
+    public NearestPointMap(List<Point2D> points, int width, int height, Metric metric, ProgressTracker pt) {
+        this(points, width, height, metric);
+
+        if (points.isEmpty()) {
+            Arrays.fill(indices, -1);
+            return;
+        }
+        markPoints();
+        calcNearest(pt);
+    }
+
+    private NearestPointMap(List<Point2D> points, int width, int height, Metric metric) {
+        this.points = points;
+        this.width = width;
+        this.height = height;
+        this.metric = metric;
+
+        indices = new int[width * height];
+    }
+
+    /**
+     * Creates a map whose points are the pixels accepted by the given
+     * predicate, which receives the pixel indices (x + y * width).
+     * The indices returned by {@link #getIndex} are also pixel indices,
+     * and {@link #findClosestNear} can't be used.
+     */
+    public static NearestPointMap ofPixels(int width, int height, IntPredicate isPoint,
+                                           Metric metric, ProgressTracker pt) {
+        var map = new NearestPointMap(null, width, height, metric);
+        boolean found = false;
+        for (int i = 0; i < map.indices.length; i++) {
+            if (isPoint.test(i)) {
+                map.indices[i] = i;
+                found = true;
+            } else {
+                map.indices[i] = -1;
+            }
+        }
+        if (found) {
+            map.calcNearest(pt);
+        }
+        return map;
+    }
+
+    private void calcNearest(ProgressTracker pt) {
+        // the vertical distances to the nearest point in the same column
+        int[] colDists = new int[width * height];
+
+        // processed in bands of columns, each with a height of pixels
+        ThreadPool.processBands(height, width, (startX, endX) ->
+            scanColumns(colDists, startX, endX), ProgressTracker.NULL_TRACKER);
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            var rowScanner = new RowScanner();
+            for (int y = startY; y < endY; y++) {
+                rowScanner.scanRow(colDists, y);
+            }
+        }, pt);
+    }
+
+    /**
+     * Stores the index of each point at its pixel, and -1 elsewhere.
+     */
+    private void markPoints() {
+        Arrays.fill(indices, -1);
+        for (int i = 0, numPoints = points.size(); i < numPoints; i++) {
+            Point2D point = points.get(i);
+            int x = Math.clamp((int) point.getX(), 0, width - 1);
+            int y = Math.clamp((int) point.getY(), 0, height - 1);
+            int index = x + y * width;
+            if (indices[index] == -1) {
+                indices[index] = i;
+            }
+        }
+    }
+
+    /**
+     * The first phase: calculates for each pixel the vertical distance to
+     * the nearest point in its column, and temporarily stores that point's
+     * index. The columns are processed together, row by row, for the cache.
+     */
+    private void scanColumns(int[] colDists, int startX, int endX) {
+        int inf = width + height; // larger than any real distance
+        for (int x = startX; x < endX; x++) {
+            colDists[x] = indices[x] == -1 ? inf : 0;
+        }
+        for (int y = 1; y < height; y++) {
+            int rowStart = y * width;
+            for (int x = startX; x < endX; x++) {
+                int i = rowStart + x;
+                if (indices[i] == -1) {
+                    colDists[i] = Math.min(colDists[i - width] + 1, inf);
+                    indices[i] = indices[i - width];
+                } else {
+                    colDists[i] = 0;
+                }
+            }
+        }
+        for (int y = height - 2; y >= 0; y--) {
+            int rowStart = y * width;
+            for (int x = startX; x < endX; x++) {
+                int i = rowStart + x;
+                int below = colDists[i + width] + 1;
+                if (below < colDists[i]) {
+                    colDists[i] = below;
+                    indices[i] = indices[i + width];
+                }
+            }
+        }
+    }
+
+    /**
+     * The second phase: finds the nearest of the column
+     * minimums for each pixel of a row.
+     */
+    private class RowScanner {
+        // the columns whose minimums form the lower envelope...
+        private final int[] s = new int[width];
+        // ...and the start of their regions
+        private final int[] t = new int[width];
+
+        // the row of the column minimums and of their indices
+        private final int[] g = new int[width];
+        private final int[] rowIndices = new int[width];
+
+        private void scanRow(int[] colDists, int y) {
+            int rowStart = y * width;
+            System.arraycopy(colDists, rowStart, g, 0, width);
+            System.arraycopy(indices, rowStart, rowIndices, 0, width);
+
+            int q = 0;
+            s[0] = 0;
+            t[0] = 0;
+            for (int u = 1; u < width; u++) {
+                while (q >= 0 && f(t[q], s[q]) > f(t[q], u)) {
+                    q--;
+                }
+                if (q < 0) {
+                    q = 0;
+                    s[0] = u;
+                } else {
+                    long w = 1 + sep(s[q], u);
+                    if (w < width) {
+                        q++;
+                        s[q] = u;
+                        t[q] = (int) w;
+                    }
+                }
+            }
+            for (int u = width - 1; u >= 0; u--) {
+                indices[rowStart + u] = rowIndices[s[q]];
+                if (u == t[q]) {
+                    q--;
+                }
+            }
+        }
+
+        // the distance of the pixel at x from the minimum of column i
+        private long f(int x, int i) {
+            long dx = Math.abs(x - i);
+            long gi = g[i];
+            return switch (metric) {
+                case EUCLIDEAN_SQUARED -> dx * dx + gi * gi;
+                case TAXICAB -> dx + gi;
+                case MAX -> Math.max(dx, gi);
+            };
+        }
+
+        // the first x (minus one) from which the minimum
+        // of column u is not farther than the minimum of column i < u
+        private long sep(int i, int u) {
+            long gi = g[i];
+            long gu = g[u];
+            return switch (metric) {
+                case EUCLIDEAN_SQUARED -> Math.floorDiv(
+                    (long) u * u - (long) i * i + gu * gu - gi * gi, 2L * (u - i));
+                case TAXICAB -> {
+                    if (gu >= gi + u - i) {
+                        yield Long.MAX_VALUE / 2;
+                    }
+                    if (gi > gu + u - i) {
+                        yield Long.MIN_VALUE / 2;
+                    }
+                    yield Math.floorDiv(gu - gi + u + i, 2L);
+                }
+                case MAX -> gi <= gu
+                    ? Math.max(i + gu, Math.floorDiv(i + u, 2))
+                    : Math.min(u - gi, Math.floorDiv(i + u, 2));
+            };
+        }
+    }
+
+    /**
+     * Returns the index of the nearest point to the given pixel,
+     * or -1 if there are no points.
+     */
+    public int getIndex(int x, int y) {
+        return indices[x + y * width];
+    }
+
+    /**
+     * Returns the index of the nearest point to the given subpixel position,
+     * measured with the given distance. Only the points that are the nearest
+     * to one of the surrounding pixels are considered, so because of the rounded
+     * point coordinates, the result can be off near the cell boundaries,
+     * but only slightly.
+     */
+    public int findClosestNear(double x, double y, DistanceFunction distance) {
+        assert points != null : "pixel map";
+
+        int px = (int) Math.floor(x);
+        int py = (int) Math.floor(y);
+        double minDist = Double.POSITIVE_INFINITY;
+        int closest = -1;
+        for (int ny = Math.max(py - 1, 0), maxY = Math.min(py + 2, height - 1); ny <= maxY; ny++) {
+            for (int nx = Math.max(px - 1, 0), maxX = Math.min(px + 2, width - 1); nx <= maxX; nx++) {
+                int index = indices[nx + ny * width];
+                if (index == -1 || index == closest) {
+                    continue;
+                }
+                Point2D point = points.get(index);
+                double dist = distance.apply(x, y, point.getX(), point.getY());
+                if (dist < minDist) {
+                    minDist = dist;
+                    closest = index;
+                }
+            }
+        }
+        return closest;
+    }
+}
@@ -17,6 +17,8 @@
 
 package pixelitor.utils;
 
+import java.util.concurrent.CancellationException;
+
 /**
  * Tracks the progress of an operation.
  */
@@ -38,6 +40,25 @@ public interface ProgressTracker {
      */
     void finished();
 
+    /**
+     * Returns whether the cancellation of the tracked operation
+     * was requested. Unlike the other methods, this one can
+     * be called from any thread.
+     */
+    default boolean isCanceled() {
+        return false;
+    }
+
+    /**
+     * Throws a {@link CancellationException} if the
+     * cancellation of the tracked operation was requested.
+     */
+    default void checkCanceled() {
+        if (isCanceled()) {
+            throw new CancellationException();
+        }
+    }
+
     /**
      * A "null object" tracker that does nothing and
      * can be shared because it has no state
@@ -31,7 +31,8 @@ public class StatusBarProgressTracker extends ThresholdProgressTracker {
 
     @Override
     void startProgressTracking() {
-        progressHandler = Messages.startProgress(name, 100);
+        Runnable cancelAction = canBeCanceledFromUI() ? this::cancel : null;
+        progressHandler = Messages.startProgress(name, 100, cancelAction);
     }
 
     @Override
@@ -67,6 +67,16 @@ public class SubtaskProgressTracker implements ProgressTracker {
         superTask.unitsDone(doneUnits);
     }
 
+    @Override
+    public boolean isCanceled() {
+        return superTask.isCanceled();
+    }
+
+    @Override
+    public void checkCanceled() {
+        superTask.checkCanceled();
+    }
+
     @Override
     public void finished() {
         // some fractional progress might be lost,
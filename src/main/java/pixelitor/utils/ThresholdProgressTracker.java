@@ -18,10 +18,15 @@
 package pixelitor.utils;
 
 import java.awt.EventQueue;
+import java.util.concurrent.CancellationException;
 
 /**
  * An abstract superclass for progress tracking classes that
  * show progress information after a time threshold has been exceeded.
+ *
+ * The tracked operation is stopped (with a {@link CancellationException}
+ * thrown from the next progress update) if the {@link CancellationToken}
+ * bound to the creating thread or the cancel button of the UI is used.
  */
 public abstract class ThresholdProgressTracker implements ProgressTracker {
     private static final int THRESHOLD_MILLIS = 200;
@@ -34,6 +39,7 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
 
     private boolean showingProgress = false;
     private final boolean runningOnEDT;
+    private final CancellationToken cancellationToken;
 
     // In this class this field is used only for debugging.
     // The status bar progress tracker subclass uses it to label the progress bar.
@@ -44,6 +50,7 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
         this.name = name;
         startTime = System.currentTimeMillis();
         runningOnEDT = Threads.calledOnEDT();
+        cancellationToken = CancellationToken.forCurrentThread();
     }
 
     @Override
@@ -59,6 +66,8 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
     }
 
     private void update() {
+        checkCanceled();
+
         if (!showingProgress) {
             double millis = System.currentTimeMillis() - startTime;
             if (millis > THRESHOLD_MILLIS) {
@@ -97,6 +106,36 @@ public abstract class ThresholdProgressTracker implements ProgressTracker {
         }
     }
 
+    @Override
+    public boolean isCanceled() {
+        return cancellationToken.isCanceled();
+    }
+
+    @Override
+    public void checkCanceled() {
+        if (cancellationToken.isCanceled()) {
+            // remove the progress UI, because the
+            // operation will not call finished()
+            finished();
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Requests the cancellation of the tracked operation.
+     */
+    protected void cancel() {
+        cancellationToken.cancel();
+    }
+
+    /**
+     * Returns whether the UI can offer a cancel button. If the operation
+     * runs on the EDT, then the button couldn't be clicked anyway.
+     */
+    protected boolean canBeCanceledFromUI() {
+        return !runningOnEDT;
+    }
+
     abstract void startProgressTracking();
 
     abstract void updateProgressTracking(int percent);
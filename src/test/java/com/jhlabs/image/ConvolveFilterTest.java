@@ -0,0 +1,111 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.jhlabs.image;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("ConvolveFilter tests")
+class ConvolveFilterTest {
+    private static final int WIDTH = 83;
+    private static final int HEIGHT = 61;
+
+    // the outer product of (1, 2, 1) and (-1, 0, 1)
+    private static final float[] SOBEL = {
+        -1, 0, 1,
+        -2, 0, 2,
+        -1, 0, 1};
+
+    private static final float[] LAPLACIAN = {
+        0, -1, 0,
+        -1, 4, -1,
+        0, -1, 0};
+
+    @Test
+    void separableKernels() {
+        float[][] factors = ConvolveFilter.separate(new Kernel(3, 3, SOBEL));
+        assertThat(factors).isNotNull();
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 3; col++) {
+                assertThat(factors[0][row] * factors[1][col]).isEqualTo(SOBEL[row * 3 + col]);
+            }
+        }
+
+        float[] box = new float[5 * 7];
+        Arrays.fill(box, 1.0f / box.length);
+        assertThat(ConvolveFilter.separate(new Kernel(7, 5, box))).isNotNull();
+    }
+
+    @Test
+    void nonSeparableKernels() {
+        assertThat(ConvolveFilter.separate(new Kernel(3, 3, LAPLACIAN))).isNull();
+        assertThat(ConvolveFilter.separate(new Kernel(3, 3, new float[9]))).isNull();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {ConvolveFilter.ZERO_EDGES, ConvolveFilter.CLAMP_EDGES, ConvolveFilter.WRAP_EDGES})
+    void separableSameAs2D(int edgeAction) {
+        // a 5x5 kernel with negative and non-normalized values
+        float[] vertical = {1, -2, 3, 0.5f, 1};
+        float[] horizontal = {0.25f, 1, -0.5f, 1, 0.25f};
+        float[] matrix = new float[25];
+        for (int row = 0; row < 5; row++) {
+            for (int col = 0; col < 5; col++) {
+                matrix[row * 5 + col] = vertical[row] * horizontal[col];
+            }
+        }
+        Kernel kernel = new Kernel(5, 5, matrix);
+        int[] src = createRandomPixels();
+
+        var filter = new ConvolveFilter(kernel, "test");
+        filter.setProgressTracker(NULL_TRACKER);
+
+        int[] separable = new int[src.length];
+        filter.convolve(kernel, src, separable, WIDTH, HEIGHT, edgeAction);
+        int[] full = new int[src.length];
+        filter.convolveHV(kernel, src, full, WIDTH, HEIGHT, edgeAction);
+
+        // the sums are calculated in a different order
+        for (int i = 0; i < src.length; i++) {
+            assertThat(separable[i] >>> 24).isEqualTo(full[i] >>> 24);
+            for (int shift = 0; shift < 24; shift += 8) {
+                int expected = (full[i] >>> shift) & 0xFF;
+                int actual = (separable[i] >>> shift) & 0xFF;
+                assertThat(actual).as("pixel %d, shift %d", i, shift).isBetween(expected - 1, expected + 1);
+            }
+        }
+    }
+
+    private static int[] createRandomPixels() {
+        var random = new Random(7);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
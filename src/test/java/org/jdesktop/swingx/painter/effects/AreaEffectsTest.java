@@ -0,0 +1,227 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdesktop.swingx.painter.effects;
+
+import org.jdesktop.swingx.painter.effects.NeonBorderEffect.BorderPosition;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import pixelitor.TestHelper;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.geom.Area;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the area effects, which are rendered from a distance field,
+ * with the original rendering, which painted a stroke for each step.
+ */
+@DisplayName("area effect tests")
+class AreaEffectsTest {
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 200;
+
+    // the maximum allowed mean difference of the premultiplied components
+    private static final double MAX_MEAN_DIFF = 2.0;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    static Stream<Arguments> sameAsStrokeStack() {
+        Shape ellipse = new Ellipse2D.Double(60.3, 40.7, 280, 120);
+        Shape text = new Font(Font.SANS_SERIF, Font.BOLD, 100)
+            .createGlyphVector(new FontRenderContext(null, true, true), "Glow")
+            .getOutline(80, 140);
+
+        Map<String, Supplier<AbstractAreaEffect>> effects = new LinkedHashMap<>();
+        effects.put("glow", GlowPathEffect::new);
+        effects.put("wide red glow", () -> {
+            var glow = new GlowPathEffect(0.7f);
+            glow.setBrushColor(Color.RED);
+            glow.setEffectWidth(25);
+            return glow;
+        });
+        effects.put("shadow", ShadowPathEffect::new);
+        effects.put("inner glow", InnerGlowPathEffect::new);
+        effects.put("neon", NeonBorderEffect::new);
+        effects.put("inside neon", () -> {
+            var neon = new NeonBorderEffect(Color.RED, Color.YELLOW, 16, 1.0f);
+            neon.setBorderPosition(BorderPosition.Inside);
+            return neon;
+        });
+        effects.put("centered neon", () -> {
+            var neon = new NeonBorderEffect(Color.BLUE, Color.WHITE, 16, 1.0f);
+            neon.setBorderPosition(BorderPosition.Centered);
+            return neon;
+        });
+
+        List<Arguments> arguments = new ArrayList<>();
+        effects.forEach((name, effect) -> {
+            arguments.add(Arguments.of(name + " on ellipse", effect.get(), ellipse));
+            arguments.add(Arguments.of(name + " on text", effect.get(), text));
+        });
+        return arguments.stream();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    void sameAsStrokeStack(String description, AbstractAreaEffect effect, Shape shape) {
+        BufferedImage actual = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = actual.createGraphics();
+        effect.apply(g, shape, WIDTH, HEIGHT);
+        g.dispose();
+
+        BufferedImage expected = renderStrokeStack(effect, shape);
+
+        assertThat(calcMeanDiff(actual, expected)).isLessThan(MAX_MEAN_DIFF);
+    }
+
+    /**
+     * The mean difference of the premultiplied components
+     * over the pixels that are changed in either image.
+     */
+    private static double calcMeanDiff(BufferedImage a, BufferedImage b) {
+        long sum = 0;
+        int numPixels = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int argbA = a.getRGB(x, y);
+                int argbB = b.getRGB(x, y);
+                int alphaA = argbA >>> 24;
+                int alphaB = argbB >>> 24;
+                if (alphaA == 0 && alphaB == 0) {
+                    continue;
+                }
+                numPixels++;
+                sum += Math.abs(alphaA - alphaB);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int compA = ((argbA >>> shift) & 0xFF) * alphaA / 255;
+                    int compB = ((argbB >>> shift) & 0xFF) * alphaB / 255;
+                    sum += Math.abs(compA - compB);
+                }
+            }
+        }
+        assertThat(numPixels).isPositive();
+        return sum / (4.0 * numPixels);
+    }
+
+    /**
+     * Renders the effect like the original implementation, by stroking
+     * the outline once for each step, and then clipping out the
+     * inside or the outside of the shape.
+     */
+    private static BufferedImage renderStrokeStack(AbstractAreaEffect effect, Shape shape) {
+        BufferedImage effectImage = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g2 = effectImage.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        g2.translate(effect.getOffset().getX(), effect.getOffset().getY());
+        if (effect instanceof NeonBorderEffect neon) {
+            paintNeonStrokes(g2, neon, shape);
+        } else {
+            paintStrokes(g2, effect, shape);
+        }
+        g2.translate(-effect.getOffset().getX(), -effect.getOffset().getY());
+
+        if (effect.isShapeMasked()) {
+            g2.setComposite(AlphaComposite.Clear);
+            if (effect.isRenderInsideShape()) {
+                Area outside = new Area(new Rectangle(0, 0, WIDTH, HEIGHT));
+                outside.subtract(new Area(shape));
+                g2.fill(outside);
+            } else {
+                g2.fill(shape);
+            }
+        }
+        g2.dispose();
+
+        BufferedImage result = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, effect.getOpacity()));
+        g.drawImage(effectImage, 0, 0, null);
+        g.dispose();
+        return result;
+    }
+
+    // the original AbstractAreaEffect.paintBorderGlow
+    private static void paintStrokes(Graphics2D g2, AbstractAreaEffect effect, Shape shape) {
+        g2.setPaint(effect.getBrushColor());
+        if (effect.isShouldFillShape() && !effect.isRenderInsideShape()) {
+            g2.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OVER, 1.0f));
+            g2.fill(shape);
+        }
+
+        int steps = effect.getBrushSteps();
+        g2.setComposite(AlphaComposite.getInstance(AlphaComposite.DST_OVER, 1.0f / steps));
+        for (int i = 0; i < steps; i++) {
+            float brushWidth = (float) (i * effect.getEffectWidth() / steps);
+            g2.setStroke(new BasicStroke(brushWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2.draw(shape);
+        }
+    }
+
+    // the original NeonBorderEffect.paintBorderGlow
+    private static void paintNeonStrokes(Graphics2D g2, NeonBorderEffect effect, Shape shape) {
+        g2.setComposite(AlphaComposite.SrcOver);
+        int steps = effect.getEffectWidthInt();
+        boolean centered = effect.getBorderPosition() == BorderPosition.Centered;
+        if (centered) {
+            steps = steps / 2;
+        }
+        Color edgeColor = effect.getEdgeColor();
+        Color centerColor = effect.getCenterColor();
+        float half = steps / 2.0f;
+        for (int i = 0; i < steps; i++) {
+            float brushWidth = steps + 1 - i;
+            if (centered) {
+                g2.setPaint(interpolateColor((float) (steps - i) / steps, edgeColor, centerColor));
+            } else if (i < half) {
+                g2.setPaint(interpolateColor((half - i) / half, edgeColor, centerColor));
+            } else {
+                g2.setPaint(interpolateColor((i - half) / half, edgeColor, centerColor));
+            }
+            g2.setStroke(new BasicStroke(brushWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2.draw(shape);
+        }
+    }
+
+    private static Color interpolateColor(float t, Color start, Color end) {
+        float[] partsS = start.getRGBComponents(null);
+        float[] partsE = end.getRGBComponents(null);
+        float[] partsR = new float[4];
+        for (int i = 0; i < 4; i++) {
+            partsR[i] = (partsS[i] - partsE[i]) * t + partsE[i];
+        }
+        return new Color(partsR[0], partsR[1], partsR[2], partsR[3]);
+    }
+}
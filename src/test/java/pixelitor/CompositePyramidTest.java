@@ -0,0 +1,94 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.awt.image.BufferedImage.TYPE_INT_RGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("CompositePyramid tests")
+class CompositePyramidTest {
+    @ParameterizedTest
+    @CsvSource({"1.0, 0", "0.6, 0", "0.5, 1", "0.3, 1", "0.25, 2", "0.125, 3", "0.01, 6"})
+    void calcNumHalvings(double scale, int expected) {
+        assertThat(CompositePyramid.calcNumHalvings(1000, 700, scale)).isEqualTo(expected);
+    }
+
+    @Test
+    void average() {
+        assertThat(CompositePyramid.average(
+            0xFF_00_00_00, 0xFF_FF_FF_FF, 0xFF_00_00_00, 0xFF_FF_FF_FF, true))
+            .isEqualTo(0xFF_80_80_80);
+
+        // transparent pixels don't darken the opaque ones
+        assertThat(CompositePyramid.average(
+            0xFF_FF_00_00, 0x00_00_00_00, 0x00_00_00_00, 0x00_00_00_00, false))
+            .isEqualTo(0x40_40_00_00);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"1", "2", "3"})
+    void levelsAreUpdatedIncrementally(int imageTypeIndex) {
+        int type = new int[]{TYPE_INT_ARGB_PRE, TYPE_INT_ARGB, TYPE_INT_RGB}[imageTypeIndex - 1];
+        BufferedImage img = createRandomImage(601, 333, type);
+        var pyramid = new CompositePyramid();
+        BufferedImage level = pyramid.getImage(img, 0.25);
+        assertThat(level.getWidth()).isEqualTo(151);
+        assertThat(level.getHeight()).isEqualTo(84);
+
+        Rectangle changed = new Rectangle(290, 100, 37, 150);
+        for (int y = changed.y; y < changed.y + changed.height; y++) {
+            for (int x = changed.x; x < changed.x + changed.width; x++) {
+                img.setRGB(x, y, 0xFF_12_34_56);
+            }
+        }
+        pyramid.invalidate(changed);
+        BufferedImage updated = pyramid.getImage(img, 0.25);
+        assertThat(updated).isSameAs(level);
+
+        BufferedImage rebuilt = new CompositePyramid().getImage(img, 0.25);
+        assertThat(getPixels(updated)).isEqualTo(getPixels(rebuilt));
+    }
+
+    private static int[] getPixels(BufferedImage img) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        return img.getRaster().getPixels(0, 0, w, h, (int[]) null);
+    }
+
+    private static BufferedImage createRandomImage(int width, int height, int type) {
+        var random = new Random(width + height + type);
+        var img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+}
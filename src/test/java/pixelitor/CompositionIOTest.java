@@ -18,19 +18,26 @@
 package pixelitor;
 
 import org.junit.jupiter.api.*;
-import pixelitor.io.IO;
-import pixelitor.io.OpenRaster;
-import pixelitor.io.PXCFormat;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import pixelitor.io.*;
 import pixelitor.layers.*;
+import pixelitor.utils.ImageUtils;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
+import static pixelitor.assertions.PixelitorAssertions.assertThatThrownBy;
 
 @DisplayName("Composition I/O tests")
 @TestMethodOrder(MethodOrderer.Random.class)
@@ -197,6 +204,99 @@ class CompositionIOTest {
         tmpFile.delete();
     }
 
+    @ParameterizedTest
+    @EnumSource(value = FileFormat.class, names = {"ORA", "PXC"})
+    void hiddenLayerIsLoadedOnFirstUse(FileFormat format) throws IOException {
+        var comp = createCompWithHiddenLayer();
+        BufferedImage hiddenImage = ImageUtils.copyImage(getHiddenLayer(comp).getImage());
+        File file = File.createTempFile("pix_tmp", "." + format);
+        save(comp, format, file);
+
+        var readComp = IO.loadCompAsync(file).join();
+        ImageLayer hiddenLayer = getHiddenLayer(readComp);
+        assertThat(hiddenLayer.isImageLoaded()).isFalse();
+
+        assertSamePixels(hiddenLayer.getImage(), hiddenImage);
+        assertThat(hiddenLayer.isImageLoaded()).isTrue();
+
+        file.delete();
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = FileFormat.class, names = {"ORA", "PXC"})
+    void savingOverSourceKeepsHiddenLayers(FileFormat format) throws IOException {
+        var comp = createCompWithHiddenLayer();
+        BufferedImage hiddenImage = ImageUtils.copyImage(getHiddenLayer(comp).getImage());
+        File file = File.createTempFile("pix_tmp", "." + format);
+        save(comp, format, file);
+
+        var readComp = IO.loadCompAsync(file).join();
+        assertThat(getHiddenLayer(readComp).isImageLoaded()).isFalse();
+        save(readComp, format, file);
+
+        var savedComp = IO.loadCompAsync(file).join();
+        assertSamePixels(getHiddenLayer(savedComp).getImage(), hiddenImage);
+
+        file.delete();
+    }
+
+    @Test
+    void failedLoadingBlocksSaving() throws IOException {
+        File file = File.createTempFile("pix_tmp", ".pxc");
+        save(createCompWithHiddenLayer(), FileFormat.PXC, file);
+        var readComp = IO.loadCompAsync(file).join();
+        ((ImageLayer) readComp.getLayer(0)).getImage();
+
+        // the remaining images can't be found in a modified file
+        Files.write(file.toPath(), new byte[1], StandardOpenOption.APPEND);
+
+        ImageLayer hiddenLayer = getHiddenLayer(readComp);
+        // the test message handler throws when the error is shown
+        assertThatThrownBy(hiddenLayer::getImage).isInstanceOf(AssertionError.class);
+        assertThat(hiddenLayer.imageLoadingFailed()).isTrue();
+        assertThatThrownBy(() -> save(readComp, FileFormat.PXC, file))
+            .isInstanceOf(UncheckedIOException.class);
+
+        file.delete();
+    }
+
+    private static Composition createCompWithHiddenLayer() {
+        var comp = TestHelper.createEmptyComp();
+        var random = new Random(42);
+        for (int i = 0; i < 2; i++) {
+            BufferedImage img = ImageUtils.createSysCompatibleImage(
+                TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT);
+            for (int y = 0; y < img.getHeight(); y++) {
+                for (int x = 0; x < img.getWidth(); x++) {
+                    img.setRGB(x, y, 0xFF_00_00_00 | random.nextInt(0x1_00_00_00));
+                }
+            }
+            comp.addLayerNoUI(TestHelper.createImageLayer(comp, img, "layer " + (i + 1)));
+        }
+        comp.getLayer(1).setVisible(false);
+        return comp;
+    }
+
+    private static ImageLayer getHiddenLayer(Composition comp) {
+        Layer layer = comp.getLayer(1);
+        assertThat(layer.isVisible()).isFalse();
+        return (ImageLayer) layer;
+    }
+
+    // the same task as in Composition.saveAsync, but without the GUI updates
+    private static void save(Composition comp, FileFormat format, File file) {
+        format.createSaveTask(comp, new SaveSettings(format, file)).run();
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(actual.getWidth()).isEqualTo(width);
+        assertThat(actual.getHeight()).isEqualTo(height);
+        assertThat(actual.getRGB(0, 0, width, height, null, 0, width))
+            .isEqualTo(expected.getRGB(0, 0, width, height, null, 0, width));
+    }
+
     private static void checkReadSingleLayerImage(String fileName) {
         File inputFile = new File(TEST_IMAGES_DIR, fileName);
         var future = IO.loadCompAsync(inputFile);
@@ -20,10 +20,14 @@ package pixelitor;
 import org.junit.jupiter.api.*;
 import pixelitor.compactions.Crop;
 import pixelitor.history.History;
+import pixelitor.layers.ImageLayer;
 import pixelitor.layers.Layer;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 
 import static pixelitor.TestHelper.assertHistoryEditsAre;
 import static pixelitor.TestHelper.createEmptyImageLayer;
@@ -857,4 +861,52 @@ class CompositionTest {
         History.redo("Rename Image");
         assertThat(comp).hasName("new name");
     }
-}
\ No newline at end of file
+
+    @Test
+    void regionInvalidationOfCompositeImage() {
+        BufferedImage before = comp.getCompositeImage();
+
+        var layer = (ImageLayer) comp.getLayer(1);
+        Graphics2D g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(2, 2, 4, 4);
+        g.dispose();
+
+        // only the changed area is recomposited, in place
+        comp.invalidateImageCache(new Rectangle(2, 2, 4, 4));
+        BufferedImage regionUpdated = comp.getCompositeImage();
+        assertThat(regionUpdated).isSameAs(before);
+        int[] regionPixels = regionUpdated.getRGB(0, 0,
+            TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT, null, 0, TestHelper.TEST_WIDTH);
+
+        comp.invalidateImageCache();
+        BufferedImage fullyUpdated = comp.getCompositeImage();
+        assertThat(fullyUpdated).isNotSameAs(before);
+        int[] fullPixels = fullyUpdated.getRGB(0, 0,
+            TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT, null, 0, TestHelper.TEST_WIDTH);
+
+        assertThat(regionPixels).isEqualTo(fullPixels);
+    }
+
+    @Test
+    void compositeSnapshotIsNotUpdatedInPlace() {
+        BufferedImage snapshot = comp.getCompositeSnapshot();
+        int[] snapshotPixels = snapshot.getRGB(0, 0,
+            TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT, null, 0, TestHelper.TEST_WIDTH);
+
+        var layer = (ImageLayer) comp.getLayer(1);
+        Graphics2D g = layer.getImage().createGraphics();
+        g.setColor(Color.RED);
+        g.fillRect(2, 2, 4, 4);
+        g.dispose();
+        comp.invalidateImageCache(new Rectangle(2, 2, 4, 4));
+
+        // the region update must not change the snapshot
+        BufferedImage updated = comp.getCompositeImage();
+        assertThat(updated).isNotSameAs(snapshot);
+        assertThat(snapshot.getRGB(0, 0,
+            TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT, null, 0, TestHelper.TEST_WIDTH))
+            .isEqualTo(snapshotPixels);
+        assertThat(updated.getRGB(3, 3)).isNotEqualTo(snapshot.getRGB(3, 3));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("ThreadPool tests")
+class ThreadPoolTest {
+    @ParameterizedTest
+    @CsvSource({"1, 1", "10, 3", "1, 5000", "2000, 1500", "100000, 7"})
+    void processBands(int width, int height) {
+        var rowCounts = new AtomicIntegerArray(height);
+        var pt = new CountingTracker();
+
+        ThreadPool.processBands(width, height, (startY, endY) -> {
+            assertThat(startY).isLessThan(endY);
+            for (int y = startY; y < endY; y++) {
+                rowCounts.incrementAndGet(y);
+            }
+        }, pt);
+
+        for (int y = 0; y < height; y++) {
+            assertThat(rowCounts.get(y)).as("row " + y).isEqualTo(1);
+        }
+        assertThat(pt.units).isEqualTo(height);
+    }
+
+    @Test
+    void exceptionsArePropagated() {
+        var pt = new CountingTracker();
+        assertThatThrownBy(() -> ThreadPool.processBands(1000, 1000, (startY, endY) -> {
+            if (startY == 0) {
+                throw new IllegalArgumentException("test");
+            }
+        }, pt)).isInstanceOf(IllegalArgumentException.class);
+
+        Future<?>[] futures = {ThreadPool.submit(() -> {
+            throw new IllegalArgumentException("test");
+        })};
+        assertThatThrownBy(() -> ThreadPool.waitFor(futures, pt))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void cancellation() {
+        var pt = new CountingTracker();
+        var processedRows = new AtomicInteger();
+        assertThatThrownBy(() -> ThreadPool.processBands(1000, 1000, (startY, endY) -> {
+            pt.canceled = true;
+            processedRows.addAndGet(endY - startY);
+        }, pt)).isInstanceOf(CancellationException.class);
+
+        // the bands that started after the cancellation were skipped
+        assertThat(processedRows.get()).isLessThan(1000);
+    }
+
+    private static class CountingTracker implements ProgressTracker {
+        private int units;
+        private volatile boolean canceled;
+
+        @Override
+        public void unitDone() {
+            units++;
+        }
+
+        @Override
+        public void unitsDone(int units) {
+            this.units += units;
+        }
+
+        @Override
+        public void finished() {
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.automate;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.TestHelper;
+import pixelitor.io.FileFormat;
+import pixelitor.utils.MessageHandler;
+import pixelitor.utils.Messages;
+import pixelitor.utils.TestMessageHandler;
+
+import javax.imageio.ImageIO;
+import javax.swing.ProgressMonitor;
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DisplayName("BatchProcessor tests")
+class BatchProcessorTest {
+    private static final byte[] NOT_AN_IMAGE = {1, 2, 3};
+
+    @TempDir
+    File inputDir;
+
+    @TempDir
+    File saveDir;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @AfterEach
+    void afterEachTest() {
+        Messages.setHandler(new TestMessageHandler());
+    }
+
+    @Test
+    void canProcess() {
+        List<File> singleLayered = List.of(new File("a.png"), new File("b.jpg"));
+
+        assertThat(BatchProcessor.canProcess(singleLayered, FileFormat.PNG)).isTrue();
+        assertThat(BatchProcessor.canProcess(singleLayered, FileFormat.PXC)).isFalse();
+        assertThat(BatchProcessor.canProcess(singleLayered, FileFormat.ORA)).isFalse();
+
+        List<File> withMultiLayered = List.of(new File("a.png"), new File("b.ora"));
+        assertThat(BatchProcessor.canProcess(withMultiLayered, FileFormat.PNG)).isFalse();
+
+        List<File> withUnknown = List.of(new File("a.png"), new File("b.xyz"));
+        assertThat(BatchProcessor.canProcess(withUnknown, FileFormat.PNG)).isFalse();
+    }
+
+    @Test
+    void skipExisting() throws IOException {
+        List<File> inputFiles = List.of(writeImage("a.png", 10, 10), writeImage("b.png", 10, 10));
+        File existing = new File(saveDir, "a.png");
+        Files.write(existing.toPath(), NOT_AN_IMAGE);
+
+        var numProcessed = new AtomicInteger();
+        process(inputFiles, img -> {
+            numProcessed.incrementAndGet();
+            return img;
+        }, true);
+
+        assertThat(numProcessed.get()).isEqualTo(1);
+        assertThat(Files.readAllBytes(existing.toPath())).isEqualTo(NOT_AN_IMAGE);
+        assertThat(ImageIO.read(new File(saveDir, "b.png")).getWidth()).isEqualTo(10);
+    }
+
+    @Test
+    void overwriteExisting() throws IOException {
+        List<File> inputFiles = List.of(writeImage("a.png", 10, 10), writeImage("b.png", 10, 10));
+        File existing = new File(saveDir, "a.png");
+        Files.write(existing.toPath(), NOT_AN_IMAGE);
+
+        var numProcessed = new AtomicInteger();
+        process(inputFiles, img -> {
+            numProcessed.incrementAndGet();
+            return img;
+        }, false);
+
+        assertThat(numProcessed.get()).isEqualTo(2);
+        assertThat(ImageIO.read(existing).getWidth()).isEqualTo(10);
+    }
+
+    @Test
+    void memoryEstimateIsClampedToBudget() throws IOException {
+        File small = writeImage("small.png", 10, 10);
+        // 1000 * 1000 * 4 bytes for 3 images, which is more than 11 MB
+        File big = writeImage("big.png", 1000, 1000);
+        File broken = new File(inputDir, "broken.png");
+        Files.write(broken.toPath(), NOT_AN_IMAGE);
+
+        var processor = createProcessor(List.of(), UnaryOperator.identity(), false, 100);
+        assertThat(processor.estimateMemoryMb(small)).isEqualTo(1);
+        assertThat(processor.estimateMemoryMb(big)).isEqualTo(12);
+        // unreadable files are assumed to use the whole budget
+        assertThat(processor.estimateMemoryMb(broken)).isEqualTo(100);
+
+        var smallBudget = createProcessor(List.of(), UnaryOperator.identity(), false, 5);
+        assertThat(smallBudget.estimateMemoryMb(big)).isEqualTo(5);
+        assertThat(smallBudget.estimateMemoryMb(broken)).isEqualTo(5);
+    }
+
+    @Test
+    void failuresAreReportedOnce() throws Exception {
+        File good = writeImage("good.png", 10, 10);
+        File broken1 = new File(inputDir, "broken1.png");
+        Files.write(broken1.toPath(), NOT_AN_IMAGE);
+        File broken2 = new File(inputDir, "broken2.png");
+        Files.write(broken2.toPath(), NOT_AN_IMAGE);
+
+        MessageHandler handler = mock(MessageHandler.class);
+        Messages.setHandler(handler);
+
+        process(List.of(broken1, good, broken2), UnaryOperator.identity(), false);
+        // the report is shown in an EDT event
+        EventQueue.invokeAndWait(() -> {
+        });
+
+        verify(handler).showError(eq("Batch Processing Errors"),
+            contains("2 of 3 files could not be processed"), any());
+        verify(handler, never()).showExceptionOnEDT(any());
+        assertThat(new File(saveDir, "good.png")).exists();
+    }
+
+    private void process(List<File> inputFiles, UnaryOperator<BufferedImage> imageAction,
+                         boolean skipExisting) {
+        createProcessor(inputFiles, imageAction, skipExisting, 100)
+            .process(mock(ProgressMonitor.class));
+    }
+
+    private BatchProcessor createProcessor(List<File> inputFiles,
+                                           UnaryOperator<BufferedImage> imageAction,
+                                           boolean skipExisting, int budgetMb) {
+        return new BatchProcessor(inputFiles, saveDir, FileFormat.PNG,
+            imageAction, skipExisting, budgetMb);
+    }
+
+    private File writeImage(String name, int width, int height) throws IOException {
+        File file = new File(inputDir, name);
+        ImageIO.write(new BufferedImage(width, height, TYPE_INT_ARGB), "png", file);
+        return file;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.compactions;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.TestHelper;
+
+import java.awt.image.BufferedImage;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("Resize tests")
+class ResizeTest {
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void resizeImage() {
+        var img = new BufferedImage(400, 100, TYPE_INT_ARGB);
+
+        BufferedImage resized = new Resize(200, 300, false).resizeImage(img);
+
+        assertThat(resized.getWidth()).isEqualTo(200);
+        assertThat(resized.getHeight()).isEqualTo(300);
+    }
+
+    @Test
+    void resizeImageInBox() {
+        // the aspect ratio must be kept for both orientations
+        var landscape = new BufferedImage(400, 100, TYPE_INT_ARGB);
+        var portrait = new BufferedImage(100, 400, TYPE_INT_ARGB);
+        var resize = new Resize(200, 300, true);
+
+        BufferedImage resizedLandscape = resize.resizeImage(landscape);
+        assertThat(resizedLandscape.getWidth()).isEqualTo(200);
+        assertThat(resizedLandscape.getHeight()).isEqualTo(50);
+
+        BufferedImage resizedPortrait = resize.resizeImage(portrait);
+        assertThat(resizedPortrait.getWidth()).isEqualTo(75);
+        assertThat(resizedPortrait.getHeight()).isEqualTo(300);
+    }
+
+    @Test
+    void sameSizeIsNotResized() {
+        var img = new BufferedImage(200, 50, TYPE_INT_ARGB);
+
+        assertThat(new Resize(200, 300, true).resizeImage(img)).isSameAs(img);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import pixelitor.utils.ProgressTracker;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("RankFilter tests")
+class RankFilterTest {
+    @ParameterizedTest
+    @CsvSource({
+        "0, 0.5", "1, 0.5", "1, 0.0", "1, 1.0",
+        "3, 0.5", "5, 0.25", "7, 1.0", "12, 0.5"})
+    void matchesSorting(int radius, double rank) {
+        // large enough to be split into multiple bands
+        int width = 160;
+        int height = 130;
+        int[] pixels = new int[width * height];
+        var random = new Random(radius);
+        for (int i = 0; i < pixels.length; i++) {
+            // fewer distinct values, so that there are ties
+            pixels[i] = random.nextInt() & 0xF0_FF_3F_FF;
+        }
+
+        var filter = new RankFilter("test");
+        filter.setProgressTracker(ProgressTracker.NULL_TRACKER);
+        filter.setRadius(radius);
+        filter.setRank(rank);
+        int[] result = filter.filterPixels(width, height, pixels.clone(), null);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int expected = rankBySorting(pixels, width, height, x, y, radius, rank);
+                assertThat(result[y * width + x])
+                    .as("x = %d, y = %d", x, y)
+                    .isEqualTo(expected);
+            }
+        }
+    }
+
+    private static int rankBySorting(int[] pixels, int width, int height,
+                                     int x, int y, int radius, double rank) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int[] values = new int[(2 * radius + 1) * (2 * radius + 1)];
+            int count = 0;
+            for (int wy = Math.max(0, y - radius); wy <= Math.min(height - 1, y + radius); wy++) {
+                for (int wx = Math.max(0, x - radius); wx <= Math.min(width - 1, x + radius); wx++) {
+                    values[count++] = (pixels[wy * width + wx] >>> shift) & 0xFF;
+                }
+            }
+            Arrays.sort(values, 0, count);
+            result |= values[(int) (rank * (count - 1) + 0.5)] << shift;
+        }
+        return result;
+    }
+}
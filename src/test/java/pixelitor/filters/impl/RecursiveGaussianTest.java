@@ -0,0 +1,110 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.impl;
+
+import com.jhlabs.image.ConvolveFilter;
+import com.jhlabs.image.GaussianFilter;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.Kernel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static pixelitor.utils.ProgressTracker.NULL_TRACKER;
+
+@DisplayName("RecursiveGaussian tests")
+class RecursiveGaussianTest {
+    private static final int WIDTH = 301;
+    private static final int HEIGHT = 207;
+
+    @ParameterizedTest
+    @ValueSource(floats = {GaussianFilter.RECURSIVE_MIN_RADIUS, 25, 80})
+    void matchesTheKernel(float radius) {
+        int[] src = createRandomPixels(WIDTH, HEIGHT);
+
+        int[] expected = blurWithKernel(src, radius);
+        int[] actual = blurRecursively(src, radius);
+
+        int maxDiff = 0;
+        long sumDiff = 0;
+        for (int i = 0; i < src.length; i++) {
+            for (int shift = 0; shift < 32; shift += 8) {
+                int diff = Math.abs(((expected[i] >>> shift) & 0xFF) - ((actual[i] >>> shift) & 0xFF));
+                maxDiff = Math.max(maxDiff, diff);
+                sumDiff += diff;
+            }
+        }
+        double meanDiff = sumDiff / (4.0 * src.length);
+
+        // the recursive filter is an approximation, but it's
+        // close to the kernel even next to the sharp edges
+        assertThat(maxDiff).isLessThanOrEqualTo(8);
+        assertThat(meanDiff).isLessThan(1.5);
+    }
+
+    @Test
+    void constantImageIsUnchanged() {
+        int[] src = new int[WIDTH * HEIGHT];
+        Arrays.fill(src, 0xFF_40_80_C0);
+
+        int[] blurred = blurRecursively(src, 50);
+
+        assertThat(blurred).containsOnly(0xFF_40_80_C0);
+    }
+
+    private static int[] blurWithKernel(int[] src, float radius) {
+        Kernel kernel = GaussianFilter.makeKernel(radius);
+        int[] tmp = new int[src.length];
+        int[] dst = new int[src.length];
+        GaussianFilter.convolveAndTranspose(kernel, src, tmp, WIDTH, HEIGHT,
+            true, false, ConvolveFilter.CLAMP_EDGES, NULL_TRACKER);
+        GaussianFilter.convolveAndTranspose(kernel, tmp, dst, HEIGHT, WIDTH,
+            false, true, ConvolveFilter.CLAMP_EDGES, NULL_TRACKER);
+        return dst;
+    }
+
+    private static int[] blurRecursively(int[] src, float radius) {
+        int[] tmp = new int[src.length];
+        int[] dst = new int[src.length];
+        RecursiveGaussian.blurAndTranspose(src, tmp, WIDTH, HEIGHT,
+            radius / 3, true, false, NULL_TRACKER);
+        RecursiveGaussian.blurAndTranspose(tmp, dst, HEIGHT, WIDTH,
+            radius / 3, false, true, NULL_TRACKER);
+        return dst;
+    }
+
+    // random blocks, so that the blurred image has strong edges
+    private static int[] createRandomPixels(int width, int height) {
+        var random = new Random(42);
+        int[] blockColors = new int[64];
+        for (int i = 0; i < blockColors.length; i++) {
+            blockColors[i] = random.nextInt() | 0xFF_00_00_00;
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                pixels[y * width + x] = blockColors[(y / 30 * 8 + x / 40) % 64];
+            }
+        }
+        return pixels;
+    }
+}
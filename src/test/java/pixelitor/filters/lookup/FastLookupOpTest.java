@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.lookup;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.ShortLookupTable;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("FastLookupOp tests")
+class FastLookupOpTest {
+    @ParameterizedTest
+    @ValueSource(ints = {TYPE_INT_ARGB, TYPE_INT_ARGB_PRE})
+    void matchesFloatCalculation(int imageType) {
+        var random = new Random(imageType);
+        short[][] table = new short[3][256];
+        for (short[] channelTable : table) {
+            for (int i = 0; i < 256; i++) {
+                channelTable[i] = (short) random.nextInt(256);
+            }
+        }
+
+        // every alpha and color component value occurs
+        var src = new BufferedImage(256, 300, imageType);
+        int[] srcData = getData(src);
+        for (int i = 0; i < srcData.length; i++) {
+            int a = i % 256;
+            int c = (i / 256 + random.nextInt(256)) % 256;
+            if (imageType == TYPE_INT_ARGB_PRE) {
+                c = c * a / 255;
+            }
+            srcData[i] = a << 24 | c << 16 | random.nextInt(a + 1) << 8 | Math.abs(a - c);
+        }
+
+        BufferedImage dest = new FastLookupOp(new ShortLookupTable(0, table)).filter(src, null);
+
+        int[] destData = getData(dest);
+        boolean premultiplied = imageType == TYPE_INT_ARGB_PRE;
+        for (int i = 0; i < srcData.length; i++) {
+            assertThat(destData[i])
+                .as("pixel %d", i)
+                .isEqualTo(lookupWithFloats(srcData[i], table, premultiplied));
+        }
+    }
+
+    // the straightforward calculation with float divisions
+    private static int lookupWithFloats(int rgb, short[][] table, boolean premultiplied) {
+        int a = (rgb >>> 24) & 0xFF;
+        int r = (rgb >>> 16) & 0xFF;
+        int g = (rgb >>> 8) & 0xFF;
+        int b = rgb & 0xFF;
+        if (a == 255 || !premultiplied) {
+            return a << 24 | table[0][r] << 16 | table[1][g] << 8 | table[2][b];
+        }
+        if (a == 0) {
+            return 0;
+        }
+        float f = 255.0f / a;
+        float f2 = a * (1.0f / 255.0f);
+        r = clamp((int) (table[0][Math.min((int) (r * f), 255)] * f2));
+        g = clamp((int) (table[1][Math.min((int) (g * f), 255)] * f2));
+        b = clamp((int) (table[2][Math.min((int) (b * f), 255)] * f2));
+        return a << 24 | r << 16 | g << 8 | b;
+    }
+
+    private static int clamp(int c) {
+        return Math.max(0, Math.min(c, 255));
+    }
+
+    private static int[] getData(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import pixelitor.Composition;
+import pixelitor.FilterContext;
+import pixelitor.TestHelper;
+import pixelitor.layers.Drawable;
+
+import java.awt.EventQueue;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@DisplayName("PreviewScheduler tests")
+class PreviewSchedulerTest {
+    // big enough for a proxy preview
+    private static final int WIDTH = 2000;
+    private static final int HEIGHT = 1000;
+
+    private Drawable dr;
+    private SlowPreviewFilter filter;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @BeforeEach
+    void beforeEachTest() {
+        SlowPreviewFilter.reset();
+        filter = new SlowPreviewFilter();
+
+        dr = mock(Drawable.class);
+        when(dr.getFilterSourceImage()).thenReturn(new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB));
+        when(dr.getComp()).thenReturn(mock(Composition.class));
+    }
+
+    @AfterEach
+    void afterEachTest() throws Exception {
+        onEDT(PreviewScheduler::cancelAll);
+        // lets the canceled runs finish
+        SlowPreviewFilter.finishPermits.release(10);
+        waitUntilIdle();
+        SlowPreviewFilter.reset();
+    }
+
+    @Test
+    void onlyTheLatestGenerationIsDelivered() throws Exception {
+        scheduleWithValue(1);
+        assertThat(nextStartedRun()).isEqualTo(1);
+
+        // the second request is replaced by the third while the first one runs
+        scheduleWithValue(2);
+        scheduleWithValue(3);
+
+        SlowPreviewFilter.finishPermits.release();
+        assertThat(nextStartedRun()).isEqualTo(3);
+        SlowPreviewFilter.finishPermits.release();
+        waitUntilIdle();
+
+        assertThat(SlowPreviewFilter.startedRuns).isEmpty();
+        assertThat(getDeliveredGray()).isEqualTo(3);
+    }
+
+    @Test
+    void fullRunIsCanceledByProxyRequest() throws Exception {
+        scheduleWithValue(1);
+        assertThat(nextStartedRun()).isEqualTo(1);
+
+        onEDT(() -> {
+            filter.setValue(2);
+            PreviewScheduler.scheduleProxy(dr, filter, null);
+        });
+
+        // the full run stops without a permit, and the proxy run starts
+        assertThat(nextStartedRun()).isEqualTo(2);
+        assertThat(SlowPreviewFilter.numCanceledRuns.get()).isEqualTo(1);
+
+        SlowPreviewFilter.finishPermits.release();
+        waitUntil(() -> !mockingDetails(dr).getInvocations().stream()
+            .filter(i -> i.getMethod().getName().equals("changePreviewImage"))
+            .toList().isEmpty());
+
+        assertThat(getDeliveredGray()).isEqualTo(2);
+        verify(dr, never()).filterCanceled(any());
+        verify(dr, never()).filterFailed(any(), any());
+    }
+
+    private void scheduleWithValue(int value) throws Exception {
+        onEDT(() -> {
+            filter.setValue(value);
+            PreviewScheduler.schedule(dr, filter, null);
+        });
+    }
+
+    // returns the gray level of the only preview image passed to the drawable
+    private int getDeliveredGray() {
+        var captor = ArgumentCaptor.forClass(BufferedImage.class);
+        verify(dr).changePreviewImage(captor.capture(),
+            eq(SlowPreviewFilter.NAME), eq(FilterContext.PREVIEWING));
+        BufferedImage preview = captor.getValue();
+        assertThat(preview.getWidth()).isEqualTo(WIDTH);
+        assertThat(preview.getHeight()).isEqualTo(HEIGHT);
+        return preview.getRGB(WIDTH / 2, HEIGHT / 2) & 0xFF;
+    }
+
+    private static int nextStartedRun() throws InterruptedException {
+        Integer value = SlowPreviewFilter.startedRuns.poll(10, TimeUnit.SECONDS);
+        assertThat(value).isNotNull();
+        return value;
+    }
+
+    private static void waitUntilIdle() throws Exception {
+        waitUntil(() -> {
+            var idle = new AtomicBoolean();
+            onEDT(() -> idle.set(PreviewScheduler.isIdle()));
+            return idle.get();
+        });
+    }
+
+    private static void waitUntil(Condition condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.isTrue()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+        // the results are delivered in EDT events
+        onEDT(() -> {
+        });
+    }
+
+    private static void onEDT(Runnable task) throws Exception {
+        EventQueue.invokeAndWait(task);
+    }
+
+    @FunctionalInterface
+    private interface Condition {
+        boolean isTrue() throws Exception;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.filters.util;
+
+import pixelitor.filters.ParametrizedFilter;
+import pixelitor.filters.gui.RangeParam;
+import pixelitor.utils.CancellationToken;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+
+/**
+ * A test filter whose runs are finished only when the test allows
+ * it, and which returns an image filled with the gray level of its
+ * parameter. The state is static, because the previews run on copies.
+ */
+public class SlowPreviewFilter extends ParametrizedFilter {
+    public static final String NAME = "Slow Preview";
+
+    // the parameter values of the started runs
+    static final BlockingQueue<Integer> startedRuns = new LinkedBlockingQueue<>();
+
+    // each permit allows a run to finish
+    static final Semaphore finishPermits = new Semaphore(0);
+
+    static final AtomicInteger numCanceledRuns = new AtomicInteger();
+
+    private final RangeParam value = new RangeParam("Value", 0, 0, 255);
+
+    public SlowPreviewFilter() {
+        super(false);
+        setName(NAME);
+        setParams(value);
+    }
+
+    static void reset() {
+        startedRuns.clear();
+        finishPermits.drainPermits();
+        numCanceledRuns.set(0);
+    }
+
+    void setValue(int newValue) {
+        value.setValueNoTrigger(newValue);
+    }
+
+    @Override
+    public BufferedImage doTransform(BufferedImage src, BufferedImage dest) {
+        int gray = value.getValue();
+        startedRuns.add(gray);
+
+        CancellationToken token = CancellationToken.forCurrentThread();
+        try {
+            while (!finishPermits.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+                if (token.isCanceled()) {
+                    numCanceledRuns.incrementAndGet();
+                    throw new CancellationException();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+
+        BufferedImage result = new BufferedImage(src.getWidth(), src.getHeight(), TYPE_INT_ARGB);
+        Graphics2D g = result.createGraphics();
+        g.setColor(new Color(gray, gray, gray));
+        g.fillRect(0, 0, src.getWidth(), src.getHeight());
+        g.dispose();
+        return result;
+    }
+
+    @Override
+    public boolean supportsProxyPreview() {
+        return true;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.gui;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.Composition;
+
+import java.awt.EventQueue;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static pixelitor.gui.HistogramsPanel.NUM_BINS;
+
+@DisplayName("HistogramCalculator tests")
+class HistogramCalculatorTest {
+    private final BlockingQueue<int[][]> results = new LinkedBlockingQueue<>();
+    private final HistogramCalculator calculator = new HistogramCalculator(results::add);
+    private final Composition comp = mock(Composition.class);
+
+    @Test
+    void countAll() throws Exception {
+        BufferedImage img = createRandomImage(600, 400, 1);
+        when(comp.getCompositeSnapshot()).thenReturn(img);
+        EventQueue.invokeAndWait(() -> calculator.countAll(comp));
+
+        assertThat(nextResult()).isDeepEqualTo(countDirectly(img));
+    }
+
+    @Test
+    void regionsAreCountedIncrementally() throws Exception {
+        BufferedImage img = createRandomImage(900, 700, 2);
+        when(comp.getCompositeSnapshot()).thenReturn(img);
+        when(comp.getCompositeImage()).thenReturn(img);
+        EventQueue.invokeAndWait(() -> calculator.countAll(comp));
+        nextResult();
+
+        // two changes, the second one also makes some pixels transparent
+        Rectangle first = new Rectangle(50, 40, 100, 80);
+        fill(img, first, 0xFF_10_20_30);
+        Rectangle second = new Rectangle(-20, 600, 200, 200);
+        fill(img, second.intersection(new Rectangle(0, 0, 900, 700)), 0);
+
+        EventQueue.invokeAndWait(() -> {
+            calculator.countRegion(comp, first);
+            calculator.countRegion(comp, second);
+        });
+
+        int[][] expected = countDirectly(img);
+        int[][] result = nextResult();
+        // the second region might be counted in a separate run
+        while (!Arrays.deepEquals(result, expected)) {
+            result = nextResult();
+        }
+        assertThat(result).isDeepEqualTo(expected);
+    }
+
+    @Test
+    void resultsAfterResetAreDropped() throws Exception {
+        BufferedImage img = createRandomImage(300, 200, 3);
+        when(comp.getCompositeSnapshot()).thenReturn(img);
+        EventQueue.invokeAndWait(() -> {
+            calculator.countAll(comp);
+            calculator.reset();
+        });
+        assertThat(results.poll(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    private int[][] nextResult() throws InterruptedException {
+        int[][] result = results.poll(10, TimeUnit.SECONDS);
+        assertThat(result).isNotNull();
+        return result;
+    }
+
+    private static int[][] countDirectly(BufferedImage img) {
+        int[][] bins = new int[3][NUM_BINS];
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                int rgb = img.getRGB(x, y);
+                if ((rgb >>> 24) != 0) {
+                    bins[0][(rgb >>> 16) & 0xFF]++;
+                    bins[1][(rgb >>> 8) & 0xFF]++;
+                    bins[2][rgb & 0xFF]++;
+                }
+            }
+        }
+        return bins;
+    }
+
+    private static void fill(BufferedImage img, Rectangle area, int rgb) {
+        for (int y = area.y; y < area.y + area.height; y++) {
+            for (int x = area.x; x < area.x + area.width; x++) {
+                img.setRGB(x, y, rgb);
+            }
+        }
+    }
+
+    private static BufferedImage createRandomImage(int width, int height, long seed) {
+        var random = new Random(seed);
+        var img = new BufferedImage(width, height, TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.history;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("StoredImage tests")
+class StoredImageTest {
+    private static final int WIDTH = 700;
+    private static final int HEIGHT = 500;
+
+    @Test
+    void compressedWithoutReference() throws InterruptedException {
+        BufferedImage img = createRandomImage(1);
+        var stored = new StoredImage(copyOf(img));
+        stored.compress(null);
+        waitForStore();
+
+        assertThat(stored.isCompressed()).isTrue();
+        assertSamePixels(stored.restore(null), img);
+        stored.dispose();
+    }
+
+    @Test
+    void onlyChangedTilesAreStored() throws Exception {
+        BufferedImage before = createRandomImage(2);
+        BufferedImage after = copyOf(before);
+        // change a region spanning several tiles
+        for (int y = 200; y < 300; y++) {
+            for (int x = 250; x < 600; x++) {
+                after.setRGB(x, y, 0xFF_00_FF_00);
+            }
+        }
+
+        var stored = new StoredImage(copyOf(before));
+        stored.compress(after);
+        waitForStore();
+        assertThat(stored.isCompressed()).isTrue();
+        assertSamePixels(stored.restore(after), before);
+
+        stored.moveToFile();
+        assertThat(UndoStore.getFileBytesUsed()).isPositive();
+        assertSamePixels(stored.restore(after), before);
+
+        stored.dispose();
+    }
+
+    @Test
+    void sparseRegionIsRestoredInPlace() throws InterruptedException {
+        BufferedImage before = createRandomImage(3);
+        BufferedImage image = copyOf(before);
+        Rectangle region = new Rectangle(100, 50, 500, 400);
+        // only the tiles intersecting the diagonal band are stored
+        Predicate<Rectangle> tileFilter = tile -> Math.abs(tile.x - tile.y) < 150;
+
+        var stored = StoredImage.copyRegion(image, region, tileFilter);
+        assertThat(stored.getNumStoredTiles()).isPositive();
+
+        // paint only inside the stored tiles, and also change a pixel outside of them
+        for (int i = 0; i < 400; i++) {
+            image.setRGB(100 + i, 50 + i, 0xFF_FF_00_00);
+        }
+        image.setRGB(650, 10, 0xFF_00_00_FF);
+
+        var redo = stored.copySameRegion(image);
+        waitForStore();
+        assertThat(stored.isCompressed()).isTrue();
+
+        assertThat(stored.restoreInto(image)).isTrue();
+        BufferedImage expected = copyOf(before);
+        expected.setRGB(650, 10, 0xFF_00_00_FF);
+        assertSamePixels(image, expected);
+
+        assertThat(redo.restoreInto(image)).isTrue();
+        assertThat(image.getRGB(300, 250)).isEqualTo(0xFF_FF_00_00);
+
+        stored.dispose();
+        redo.dispose();
+    }
+
+    @Test
+    void freedFileBlocksAreReused() throws Exception {
+        BufferedImage img1 = createRandomImage(4);
+        BufferedImage img2 = createRandomImage(5);
+
+        var first = new StoredImage(copyOf(img1));
+        var second = new StoredImage(copyOf(img2));
+        first.compress(null);
+        second.compress(null);
+        waitForStore();
+        first.moveToFile();
+        second.moveToFile();
+        long fileSize = UndoStore.getFileSize();
+
+        // the same data fits exactly into the blocks of the disposed backup
+        first.dispose();
+        var third = new StoredImage(copyOf(img1));
+        third.compress(null);
+        waitForStore();
+        third.moveToFile();
+
+        assertThat(UndoStore.getFileSize()).isEqualTo(fileSize);
+        assertSamePixels(second.restore(null), img2);
+        assertSamePixels(third.restore(null), img1);
+
+        second.dispose();
+        third.dispose();
+    }
+
+    private static void waitForStore() throws InterruptedException {
+        var latch = new CountDownLatch(1);
+        UndoStore.execute(latch::countDown);
+        assertThat(latch.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static BufferedImage createRandomImage(long seed) {
+        var random = new Random(seed);
+        var img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // partly random, so that it's compressible, but not trivially
+                img.setRGB(x, y, 0xFF_00_00_00 | (x << 8) | random.nextInt(16));
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage copyOf(BufferedImage src) {
+        var copy = new BufferedImage(src.getWidth(), src.getHeight(), src.getType());
+        copy.setData(src.getRaster());
+        return copy;
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        assertThat(actual).isNotNull();
+        assertThat(actual.getWidth()).isEqualTo(expected.getWidth());
+        assertThat(actual.getHeight()).isEqualTo(expected.getHeight());
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertThat(actual.getRGB(0, 0, w, h, null, 0, w))
+            .isEqualTo(expected.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import pixelitor.Composition;
+import pixelitor.TestHelper;
+import pixelitor.layers.ImageLayer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static pixelitor.layers.LayerMaskAddType.REVEAL_ALL;
+
+@DisplayName("PXCFormat tests")
+class PXCFormatTest {
+    // big enough for more than one compressed tile
+    private static final int WIDTH = 1100;
+    private static final int HEIGHT = 1000;
+
+    @TempDir
+    File tempDir;
+
+    @BeforeAll
+    static void beforeAllTests() {
+        TestHelper.setUnitTestingMode();
+    }
+
+    @Test
+    void roundTripCurrentVersion() throws IOException, BadPxcFormatException {
+        Composition comp = createComp(1);
+        File file = new File(tempDir, "v4.pxc");
+
+        PXCFormat.write(comp, file);
+
+        assertThat(Files.readAllBytes(file.toPath())[2]).isEqualTo((byte) 4);
+        assertSameLayers(PXCFormat.read(file), comp);
+    }
+
+    @Test
+    void readVersion3() throws IOException, BadPxcFormatException {
+        Composition comp = createComp(3);
+
+        // version 3 had the pixels inline, in the object stream
+        File file = new File(tempDir, "v3.pxc");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{(byte) 0xAB, (byte) 0xC4, 0x03});
+            try (var oos = new ObjectOutputStream(new GZIPOutputStream(out))) {
+                oos.writeObject(comp);
+            }
+        }
+
+        assertSameLayers(PXCFormat.read(file), comp);
+    }
+
+    @Test
+    void concurrentWritesDontMixImages() throws IOException, BadPxcFormatException {
+        Composition comp1 = createComp(4);
+        Composition comp2 = createComp(5);
+        File file1 = new File(tempDir, "1.pxc");
+        File file2 = new File(tempDir, "2.pxc");
+
+        CompletableFuture.allOf(
+            CompletableFuture.runAsync(() -> PXCFormat.write(comp1, file1)),
+            CompletableFuture.runAsync(() -> PXCFormat.write(comp2, file2))
+        ).join();
+
+        assertSameLayers(PXCFormat.read(file1), comp1);
+        assertSameLayers(PXCFormat.read(file2), comp2);
+    }
+
+    @Test
+    void unsupportedImageTypeIsRejected() throws IOException {
+        // TYPE_3BYTE_BGR is a valid type, but it's never written
+        for (int type : new int[]{0, 5, 99}) {
+            File file = writeCorruptedFile(6, 8, type);
+            assertReadingFails(file, "Unsupported image type: " + type);
+        }
+    }
+
+    @Test
+    void invalidTileLengthIsRejected() throws IOException {
+        // the first tile length follows the 16-byte image header
+        File file = writeCorruptedFile(7, 16, Integer.MAX_VALUE - 8);
+        assertReadingFails(file, "Invalid tile length");
+    }
+
+    /**
+     * Writes a pxc file, and overwrites an int at the given
+     * position relative to the start of the first image block.
+     */
+    private File writeCorruptedFile(long seed, int relativePos, int value) throws IOException {
+        File file = new File(tempDir, "corrupt.pxc");
+        PXCFormat.write(createComp(seed), file);
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // the offset in the first image index entry, after the width and height
+        long blockOffset = ByteBuffer.wrap(bytes, 7 + 8, 8).getLong();
+        ByteBuffer.wrap(bytes).putInt((int) blockOffset + relativePos, value);
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static void assertReadingFails(File file, String message) {
+        assertThatThrownBy(() -> {
+            Composition comp = PXCFormat.read(file);
+            for (int i = 0; i < comp.getNumLayers(); i++) {
+                ImageLayer layer = (ImageLayer) comp.getLayer(i);
+                layer.getImage();
+                if (layer.hasMask()) {
+                    layer.getMask().getImage();
+                }
+            }
+        }).isInstanceOf(AssertionError.class)
+            .hasMessageContaining(message);
+    }
+
+    private static Composition createComp(long seed) {
+        var random = new Random(seed);
+        Composition comp = TestHelper.createEmptyComp(WIDTH, HEIGHT, true);
+        for (int i = 0; i < 2; i++) {
+            BufferedImage img = new BufferedImage(WIDTH, HEIGHT, TYPE_INT_ARGB);
+            int[] pixels = new int[WIDTH * HEIGHT];
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = random.nextInt();
+            }
+            img.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+            comp.addLayerNoUI(TestHelper.createImageLayer(comp, img, "layer " + (i + 1)));
+        }
+
+        ImageLayer masked = (ImageLayer) comp.getLayer(1);
+        masked.addMask(REVEAL_ALL);
+        random.nextBytes(getGrayBytes(masked.getMask().getImage()));
+        return comp;
+    }
+
+    private static void assertSameLayers(Composition actual, Composition expected) {
+        assertThat(actual).isNotNull();
+        assertThat(actual.getNumLayers()).isEqualTo(expected.getNumLayers());
+        for (int i = 0; i < expected.getNumLayers(); i++) {
+            ImageLayer actualLayer = (ImageLayer) actual.getLayer(i);
+            ImageLayer expectedLayer = (ImageLayer) expected.getLayer(i);
+            assertSamePixels(actualLayer.getImage(), expectedLayer.getImage());
+        }
+
+        ImageLayer masked = (ImageLayer) actual.getLayer(1);
+        assertThat(masked.hasMask()).isTrue();
+        assertThat(getGrayBytes(masked.getMask().getImage()))
+            .isEqualTo(getGrayBytes(((ImageLayer) expected.getLayer(1)).getMask().getImage()));
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(actual.getWidth()).isEqualTo(width);
+        assertThat(actual.getHeight()).isEqualTo(height);
+        assertThat(actual.getRGB(0, 0, width, height, null, 0, width))
+            .isEqualTo(expected.getRGB(0, 0, width, height, null, 0, width));
+    }
+
+    private static byte[] getGrayBytes(BufferedImage img) {
+        return ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+    }
+}
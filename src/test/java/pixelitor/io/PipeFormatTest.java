@@ -0,0 +1,152 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.io;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB_PRE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("PipeFormat tests")
+class PipeFormatTest {
+    @ParameterizedTest
+    @EnumSource(PipeFormat.class)
+    void roundTrip(PipeFormat format) throws IOException {
+        // bigger than the buffers, with a width that doesn't divide them
+        BufferedImage img = createRandomImage(331, 257, TYPE_INT_ARGB);
+
+        BufferedImage read = roundTrip(format, img);
+
+        assertSamePixels(read, img);
+    }
+
+    @Test
+    void premultipliedSource() throws IOException {
+        BufferedImage img = createRandomImage(40, 30, TYPE_INT_ARGB_PRE);
+
+        BufferedImage read = roundTrip(PipeFormat.PAM, img);
+
+        assertSamePixels(read, img);
+    }
+
+    @Test
+    void emptyStream() throws IOException {
+        for (PipeFormat format : PipeFormat.values()) {
+            assertThat(format.read(new ByteArrayInputStream(new byte[0]))).isNull();
+        }
+    }
+
+    @Test
+    void readPPMWithComment() throws IOException {
+        byte[] header = "P6\n# a comment\n2 1\n255\n".getBytes(US_ASCII);
+        byte[] data = {(byte) 255, 0, 0, 10, 20, 30};
+        var bytes = new ByteArrayOutputStream();
+        bytes.write(header);
+        bytes.write(data);
+
+        BufferedImage img = PipeFormat.PAM.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThat(img.getRGB(0, 0)).isEqualTo(0xFF_FF_00_00);
+        assertThat(img.getRGB(1, 0)).isEqualTo(0xFF_0A_14_1E);
+    }
+
+    @Test
+    void readGrayscaleAlphaPAM() throws IOException {
+        byte[] header = "P7\nWIDTH 1\nHEIGHT 1\nDEPTH 2\nMAXVAL 255\nTUPLTYPE GRAYSCALE_ALPHA\nENDHDR\n"
+            .getBytes(US_ASCII);
+        byte[] bytes = Arrays.copyOf(header, header.length + 2);
+        bytes[header.length] = 100;
+        bytes[header.length + 1] = (byte) 200;
+
+        BufferedImage img = PipeFormat.PAM.read(new ByteArrayInputStream(bytes));
+
+        assertThat(img.getRGB(0, 0)).isEqualTo(0xC8_64_64_64);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"TUPLTYPE CMYK\nDEPTH 4", "TUPLTYPE CMYK_ALPHA\nDEPTH 5", "TUPLTYPE RGB\nDEPTH 4"})
+    void unsupportedPAMTupleTypesAreRejected(String fields) {
+        byte[] bytes = ("P7\nWIDTH 1\nHEIGHT 1\nMAXVAL 255\n" + fields + "\nENDHDR\n0000")
+            .getBytes(US_ASCII);
+
+        assertThatThrownBy(() -> PipeFormat.PAM.read(new ByteArrayInputStream(bytes)))
+            .isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void readFloatCImg() throws IOException {
+        // a 2x1 RGB image, as G'MIC sends it by default
+        byte[] header = "1 float little_endian\n2 1 1 3\n".getBytes(US_ASCII);
+        var data = ByteBuffer.allocate(6 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        data.putFloat(254.6f).putFloat(-3.0f); // red, clamped
+        data.putFloat(10.2f).putFloat(300.0f); // green
+        data.putFloat(0.0f).putFloat(128.0f); // blue
+        var bytes = new ByteArrayOutputStream();
+        bytes.write(header);
+        bytes.write(data.array());
+
+        BufferedImage img = PipeFormat.CIMG.read(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertThat(img.getRGB(0, 0)).isEqualTo(0xFF_FF_0A_00);
+        assertThat(img.getRGB(1, 0)).isEqualTo(0xFF_00_FF_80);
+    }
+
+    private static BufferedImage roundTrip(PipeFormat format, BufferedImage img) throws IOException {
+        var out = new ByteArrayOutputStream();
+        format.write(img, out);
+        return format.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static BufferedImage createRandomImage(int width, int height, int type) {
+        var random = new Random(width);
+        var img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                // fully opaque or transparent pixels survive the premultiplication
+                int alpha = random.nextBoolean() ? 0xFF_00_00_00 : 0;
+                img.setRGB(x, y, alpha | random.nextInt(0x1_00_00_00));
+            }
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage actual, BufferedImage expected) {
+        int width = expected.getWidth();
+        int height = expected.getHeight();
+        assertThat(actual.getWidth()).isEqualTo(width);
+        assertThat(actual.getHeight()).isEqualTo(height);
+        assertThat(actual.getRGB(0, 0, width, height, null, 0, width))
+            .isEqualTo(expected.getRGB(0, 0, width, height, null, 0, width));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.layers;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.CompositeContext;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static java.awt.image.BufferedImage.TYPE_4BYTE_ABGR;
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.EnumSource.Mode.EXCLUDE;
+
+@DisplayName("Blending mode composite tests")
+class BlendingModeCompositeTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 250;
+
+    // the packed int fast path must give the same results as the generic
+    // path, which is used here for the interleaved byte images
+    @ParameterizedTest
+    @EnumSource(value = BlendingMode.class, names = {"PASS_THROUGH", "NORMAL"}, mode = EXCLUDE)
+    void packedPathMatchesGenericPath(BlendingMode mode) {
+        BufferedImage src = createRandomImage(TYPE_INT_ARGB, 1);
+        BufferedImage dst = createRandomImage(TYPE_INT_ARGB, 2);
+        BufferedImage byteSrc = copy(src, TYPE_4BYTE_ABGR);
+        BufferedImage byteDst = copy(dst, TYPE_4BYTE_ABGR);
+
+        var composite = mode.getComposite(0.7f);
+        CompositeContext packedContext = composite.createContext(
+            src.getColorModel(), dst.getColorModel(), null);
+        packedContext.compose(src.getRaster(), dst.getRaster(), dst.getRaster());
+
+        CompositeContext genericContext = composite.createContext(
+            byteSrc.getColorModel(), byteDst.getColorModel(), null);
+        genericContext.compose(byteSrc.getRaster(), byteDst.getRaster(), byteDst.getRaster());
+
+        assertThat(dst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH))
+            .isEqualTo(byteDst.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH));
+    }
+
+    private static BufferedImage createRandomImage(int type, long seed) {
+        var random = new Random(seed);
+        var img = new BufferedImage(WIDTH, HEIGHT, type);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                img.setRGB(x, y, random.nextInt());
+            }
+        }
+        return img;
+    }
+
+    private static BufferedImage copy(BufferedImage src, int type) {
+        var copy = new BufferedImage(src.getWidth(), src.getHeight(), type);
+        int[] pixels = src.getRGB(0, 0, WIDTH, HEIGHT, null, 0, WIDTH);
+        copy.setRGB(0, 0, WIDTH, HEIGHT, pixels, 0, WIDTH);
+        return copy;
+    }
+}
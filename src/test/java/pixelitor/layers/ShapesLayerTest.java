@@ -22,6 +22,7 @@ import pixelitor.Composition;
 import pixelitor.CopyType;
 import pixelitor.TestHelper;
 import pixelitor.gui.View;
+import pixelitor.io.TranslatedImage;
 import pixelitor.tools.Tools;
 import pixelitor.tools.gui.ToolButton;
 import pixelitor.tools.shapes.ShapeType;
@@ -29,6 +30,12 @@ import pixelitor.tools.shapes.StyledShape;
 import pixelitor.tools.transform.TransformBox;
 import pixelitor.tools.util.Drag;
 
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.within;
 import static org.mockito.Mockito.mock;
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
 
@@ -90,6 +97,40 @@ class ShapesLayerTest {
 //        checkOrigBoxPosition(bigLayer2.getTransformBox());
     }
 
+    @Test
+    void translatedImageMatchesThePaintedShape() {
+        checkTranslatedImage();
+
+        // the cached image must follow the changes of the shape
+        layer.getStyledShape().imTransform(AffineTransform.getTranslateInstance(5, 2));
+        checkTranslatedImage();
+    }
+
+    private void checkTranslatedImage() {
+        BufferedImage expected = TestHelper.createImage();
+        Graphics2D g = expected.createGraphics();
+        layer.getStyledShape().paint(g);
+        g.dispose();
+
+        TranslatedImage translated = layer.getTranslatedImage();
+        BufferedImage img = translated.img();
+        var imgBounds = new Rectangle(translated.tx(), translated.ty(), img.getWidth(), img.getHeight());
+        assertThat(new Rectangle(0, 0, TestHelper.TEST_WIDTH, TestHelper.TEST_HEIGHT).contains(imgBounds)).isTrue();
+
+        for (int y = 0; y < TestHelper.TEST_HEIGHT; y++) {
+            for (int x = 0; x < TestHelper.TEST_WIDTH; x++) {
+                int actual = imgBounds.contains(x, y)
+                    ? img.getRGB(x - translated.tx(), y - translated.ty())
+                    : 0;
+                // compare only the alpha, because the cached image
+                // might have a different (premultiplied) type
+                assertThat(actual >>> 24)
+                    .as("x = %d, y = %d", x, y)
+                    .isCloseTo(expected.getRGB(x, y) >>> 24, within(1));
+            }
+        }
+    }
+
     private static void checkOrigBoxPosition(TransformBox box) {
         assertThat(box).handleImPosIs(TransformBox::getNW, 0, 0);
         assertThat(box).handleImPosIs(TransformBox::getNE, 10, 0);
@@ -26,14 +26,19 @@ import org.junit.runners.Parameterized.Parameter;
 import org.junit.runners.Parameterized.Parameters;
 import pixelitor.Composition;
 import pixelitor.TestHelper;
+import pixelitor.filters.gui.UserPreset;
 import pixelitor.filters.painters.TextSettings;
 import pixelitor.history.ContentLayerMoveEdit;
 import pixelitor.history.History;
+import pixelitor.io.TranslatedImage;
 import pixelitor.testutils.WithMask;
 
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.Collection;
 
+import static java.awt.image.BufferedImage.TYPE_INT_ARGB;
 import static pixelitor.assertions.PixelitorAssertions.assertThat;
 
 @RunWith(Parameterized.class)
@@ -177,4 +182,83 @@ public class TextLayerTest {
 
         iconUpdates.check(0, 0);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void cachedImageIsReused() {
+        TranslatedImage cached = paintLayer();
+        assertThat(cached).isNotNull();
+        assertThat(cached.img()).isNotNull();
+
+        assertThat(paintLayer()).isSameAs(cached);
+    }
+
+    @Test
+    public void cachedImageIsRebuiltAfterApplySettings() {
+        TranslatedImage cached = paintLayer();
+
+        TextSettings newSettings = layer.getSettings().copy();
+        newSettings.setText("New Text");
+        layer.applySettings(newSettings);
+
+        assertThat(layer.getCachedImage()).isNull();
+        assertThat(paintLayer()).isNotSameAs(cached);
+    }
+
+    @Test
+    public void cachedImageIsRebuiltAfterSetTranslation() {
+        TranslatedImage cached = paintLayer();
+
+        layer.setTranslation(5, 3);
+
+        assertThat(layer.getCachedImage()).isNull();
+        assertThat(paintLayer()).isNotSameAs(cached);
+    }
+
+    @Test
+    public void cachedImageIsRebuiltWhileDragging() {
+        TranslatedImage cached = paintLayer();
+
+        layer.startMovement();
+        layer.moveWhileDragging(-5, -5);
+        assertThat(layer.getCachedImage()).isNull();
+        TranslatedImage dragged = paintLayer();
+        assertThat(dragged).isNotSameAs(cached);
+
+        layer.moveWhileDragging(-8, -8);
+        assertThat(paintLayer()).isNotSameAs(dragged);
+    }
+
+    @Test
+    public void cachedImageIsRebuiltAfterLoadingPreset() {
+        TranslatedImage cached = paintLayer();
+
+        TextSettings presetSettings = layer.getSettings().copy();
+        presetSettings.setText("Preset Text");
+        var preset = new UserPreset("test", TextLayer.TEXT_PRESETS_DIR_NAME);
+        presetSettings.saveStateTo(preset);
+        layer.loadUserPreset(preset);
+
+        assertThat(layer.getCachedImage()).isNull();
+        assertThat(paintLayer()).isNotSameAs(cached);
+    }
+
+    @Test
+    public void cachedImageIsRebuiltAfterCanvasResize() {
+        TranslatedImage cached = paintLayer();
+
+        comp.getCanvas().resize(comp.getCanvasWidth() / 2,
+            comp.getCanvasHeight() / 2, comp.getView(), false);
+
+        assertThat(paintLayer()).isNotSameAs(cached);
+    }
+
+    // paints the layer the same way as the composite image
+    // is calculated, and returns the resulting cached image
+    private TranslatedImage paintLayer() {
+        var img = new BufferedImage(comp.getCanvasWidth(), comp.getCanvasHeight(), TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        layer.paintLayerOnGraphics(g, true);
+        g.dispose();
+        return layer.getCachedImage();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.tools.brushes;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import pixelitor.tools.util.PPoint;
+
+import java.awt.Rectangle;
+import java.awt.geom.Line2D;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("AffectedArea tests")
+class AffectedAreaTest {
+    @Test
+    void diagonalStroke() {
+        var area = new AffectedArea();
+        area.initAt(at(0, 0));
+        area.updateWith(at(500, 500));
+
+        double radius = 10;
+        Predicate<Rectangle> filter = area.createTileFilter(radius);
+        assertThat(filter.test(new Rectangle(240, 240, 16, 16))).isTrue();
+        // inside the bounding box, but far from the stroke
+        assertThat(filter.test(new Rectangle(400, 50, 32, 32))).isFalse();
+        assertThat(filter.test(new Rectangle(50, 400, 32, 32))).isFalse();
+
+        assertAcceptsPaintedTiles(filter, radius, 16, 0, 0, 500, 500);
+    }
+
+    @Test
+    void separatePathsAreNotConnected() {
+        var area = new AffectedArea();
+        area.initAt(at(0, 0));
+        area.updateWith(0, at(300, 0));
+        area.startPathAt(1, at(0, 400));
+        area.updateWith(1, at(300, 400));
+
+        double radius = 5;
+        Predicate<Rectangle> filter = area.createTileFilter(radius);
+        assertThat(filter.test(new Rectangle(150, 0, 16, 16))).isTrue();
+        assertThat(filter.test(new Rectangle(150, 390, 16, 16))).isTrue();
+        // between the two paths
+        assertThat(filter.test(new Rectangle(150, 200, 16, 16))).isFalse();
+
+        assertAcceptsPaintedTiles(filter, radius, 16, 0, 0, 300, 0);
+        assertAcceptsPaintedTiles(filter, radius, 16, 0, 400, 300, 400);
+    }
+
+    @Test
+    void radiusMargins() {
+        var area = new AffectedArea();
+        area.initAt(at(200, 200));
+
+        Predicate<Rectangle> small = area.createTileFilter(20);
+        Predicate<Rectangle> large = area.createTileFilter(100);
+        Rectangle nearTile = new Rectangle(215, 195, 10, 10);
+        Rectangle farTile = new Rectangle(280, 195, 10, 10);
+
+        assertThat(small.test(nearTile)).isTrue();
+        // outside the bounding box of the small radius
+        assertThat(small.test(farTile)).isFalse();
+        assertThat(large.test(nearTile)).isTrue();
+        assertThat(large.test(farTile)).isTrue();
+
+        assertAcceptsPaintedTiles(small, 20, 8, 200, 200, 200, 200);
+        assertAcceptsPaintedTiles(large, 100, 8, 200, 200, 200, 200);
+    }
+
+    @Test
+    void tilesAtImageEdge() {
+        // a 100x100 image, painted at the top left and bottom right corners
+        var area = new AffectedArea();
+        area.initAt(at(2, 2));
+        area.startPathAt(1, at(97, 97));
+
+        double radius = 15;
+        Predicate<Rectangle> filter = area.createTileFilter(radius);
+
+        // the bounding box of the stroke extends beyond the image
+        assertThat(filter.test(new Rectangle(0, 0, 64, 64))).isTrue();
+        // the truncated tiles at the right and bottom edges
+        assertThat(filter.test(new Rectangle(64, 64, 36, 36))).isTrue();
+        assertThat(filter.test(new Rectangle(0, 64, 36, 36))).isFalse();
+        assertThat(filter.test(new Rectangle(64, 0, 36, 36))).isFalse();
+        // completely outside the image and the bounding box
+        assertThat(filter.test(new Rectangle(200, 200, 64, 64))).isFalse();
+
+        assertAcceptsPaintedTiles(filter, radius, 10, 2, 2, 2, 2);
+        assertAcceptsPaintedTiles(filter, radius, 10, 97, 97, 97, 97);
+    }
+
+    /**
+     * Checks that the filter accepts all the tiles containing
+     * a pixel within the radius of the given segment.
+     */
+    private static void assertAcceptsPaintedTiles(Predicate<Rectangle> filter, double radius,
+                                                  int tileSize,
+                                                  double x1, double y1, double x2, double y2) {
+        int margin = (int) Math.ceil(radius) + tileSize;
+        int minX = (int) Math.min(x1, x2) - margin;
+        int minY = (int) Math.min(y1, y2) - margin;
+        int maxX = (int) Math.max(x1, x2) + margin;
+        int maxY = (int) Math.max(y1, y2) + margin;
+        for (int ty = minY; ty < maxY; ty += tileSize) {
+            for (int tx = minX; tx < maxX; tx += tileSize) {
+                Rectangle tile = new Rectangle(tx, ty, tileSize, tileSize);
+                if (isPainted(tile, radius, x1, y1, x2, y2)) {
+                    assertThat(filter.test(tile)).as("tile " + tile).isTrue();
+                }
+            }
+        }
+    }
+
+    private static boolean isPainted(Rectangle tile, double radius,
+                                     double x1, double y1, double x2, double y2) {
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                if (Line2D.ptSegDist(x1, y1, x2, y2, x, y) <= radius) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static PPoint at(double x, double y) {
+        return new PPoint(x, y, x, y, null);
+    }
+}
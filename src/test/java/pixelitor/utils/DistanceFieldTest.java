@@ -0,0 +1,67 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@DisplayName("DistanceField tests")
+class DistanceFieldTest {
+    private static final int SIZE = 120;
+    private static final double CENTER = 50.3;
+    private static final double RADIUS = 20.6;
+
+    @Test
+    void diskDistances() {
+        int[] coverage = new int[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                // approximately antialiased disk
+                double c = RADIUS - distFromCenter(x, y) + 0.5;
+                coverage[x + y * SIZE] = (int) (255 * Math.clamp(c, 0.0, 1.0));
+            }
+        }
+
+        var field = new DistanceField(coverage, SIZE, SIZE);
+
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double expected = distFromCenter(x, y) - RADIUS;
+                assertThat((double) field.getDistance(x, y))
+                    .as("x = %d, y = %d", x, y)
+                    .isCloseTo(expected, within(0.25));
+            }
+        }
+    }
+
+    @Test
+    void emptyShape() {
+        var field = new DistanceField(new int[SIZE * SIZE], SIZE, SIZE);
+
+        assertThat(field.getDistance(10, 20)).isEqualTo(Float.POSITIVE_INFINITY);
+    }
+
+    private static double distFromCenter(int x, int y) {
+        double dx = x - CENTER;
+        double dy = y - CENTER;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Laszlo Balazs-Csiki and Contributors
+ *
+ * This file is part of Pixelitor. Pixelitor is free software: you
+ * can redistribute it and/or modify it under the terms of the GNU
+ * General Public License, version 3 as published by the Free
+ * Software Foundation.
+ *
+ * Pixelitor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Pixelitor. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package pixelitor.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+@DisplayName("NearestPointMap tests")
+class NearestPointMapTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 170;
+
+    @ParameterizedTest
+    @EnumSource(Metric.class)
+    void sameDistancesAsBruteForce(Metric metric) {
+        List<Point2D> points = createRandomPoints(60);
+        var map = new NearestPointMap(points, WIDTH, HEIGHT, metric, ProgressTracker.NULL_TRACKER);
+
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double minDist = Double.POSITIVE_INFINITY;
+                for (Point2D point : points) {
+                    minDist = Math.min(minDist, distance(metric, x, y, point));
+                }
+                // the index can differ if there are several nearest points
+                Point2D found = points.get(map.getIndex(x, y));
+                assertThat(distance(metric, x, y, found))
+                    .as("x = %d, y = %d", x, y)
+                    .isEqualTo(minDist);
+            }
+        }
+    }
+
+    @Test
+    void subpixelLookup() {
+        List<Point2D> points = createRandomPoints(40);
+        var map = new NearestPointMap(points, WIDTH, HEIGHT,
+            Metric.EUCLIDEAN_SQUARED, ProgressTracker.NULL_TRACKER);
+        var distance = Metric.EUCLIDEAN_SQUARED.asDoublePrecisionDistance();
+
+        var random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextDouble() * (WIDTH - 1);
+            double y = random.nextDouble() * (HEIGHT - 1);
+            double minDist = Double.POSITIVE_INFINITY;
+            for (Point2D point : points) {
+                minDist = Math.min(minDist, distance.apply(x, y, point.getX(), point.getY()));
+            }
+            // the map was calculated with rounded coordinates,
+            // therefore the lookup is approximate near the cell boundaries
+            Point2D found = points.get(map.findClosestNear(x, y, distance));
+            double foundDist = distance.apply(x, y, found.getX(), found.getY());
+            assertThat(Math.sqrt(foundDist)).isCloseTo(Math.sqrt(minDist), within(1.0));
+        }
+    }
+
+    @Test
+    void noPoints() {
+        var map = new NearestPointMap(List.of(), 10, 10,
+            Metric.TAXICAB, ProgressTracker.NULL_TRACKER);
+        assertThat(map.getIndex(5, 5)).isEqualTo(-1);
+    }
+
+    private static double distance(Metric metric, int x, int y, Point2D point) {
+        return metric.distanceInt(x, y, (int) point.getX(), (int) point.getY());
+    }
+
+    private static List<Point2D> createRandomPoints(int numPoints) {
+        var random = new Random(numPoints);
+        List<Point2D> points = new ArrayList<>();
+        for (int i = 0; i < numPoints; i++) {
+            points.add(new Point2D.Double(
+                random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT));
+        }
+        return points;
+    }
+}
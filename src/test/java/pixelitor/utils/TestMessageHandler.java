@@ -34,6 +34,11 @@ public class TestMessageHandler implements MessageHandler {
         return ProgressHandler.EMPTY;
     }
 
+    @Override
+    public ProgressHandler startProgress(String msg, int max, Runnable cancelAction) {
+        return ProgressHandler.EMPTY;
+    }
+
     @Override
     public void showInfo(String title, String msg, Component parent) {
         // info messages would pollute the regular test output